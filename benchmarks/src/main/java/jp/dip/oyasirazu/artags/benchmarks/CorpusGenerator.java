@@ -0,0 +1,338 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * ベンチマーク用の arxml コーパスを生成する。
+ *
+ * 同じパラメータとシードからは、常にバイト単位で同じコーパスが生成される。
+ *
+ * 生成されるファイルの構成は以下の通り。
+ *
+ * - FILES_PER_DIRECTORY ファイルごとにディレクトリを分ける(dir0000/file000000.arxml, ...)
+ * - 各ファイルは depth 段にネストした AR-PACKAGE を持ち、最も深い AR-PACKAGE に
+ *   elements 個の IMPLEMENTATION-DATA-TYPE を定義する
+ * - 各 IMPLEMENTATION-DATA-TYPE は平均 referenceDensity 個のサブエレメントを持ち、
+ *   サブエレメントはランダムに選んだ他の IMPLEMENTATION-DATA-TYPE を参照する
+ *   (参照先は必ずコーパス内に存在する)
+ *
+ * ファイルは 1 つずつストリームで書き出すので、数 GB のコーパスでもメモリは消費しない。
+ */
+public class CorpusGenerator {
+
+    /**
+     * 1 ディレクトリあたりのファイル数。
+     */
+    public static final int FILES_PER_DIRECTORY = 100;
+
+    /**
+     * 生成が完了したコーパスに置くマーカーファイルの名前。
+     * (中身は生成パラメータ)
+     */
+    public static final String MARKER_FILE_NAME = "corpus.properties";
+
+    private final int files;
+
+    private final int depth;
+
+    private final int elements;
+
+    private final double referenceDensity;
+
+    private final long seed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param files 生成するファイル数
+     * @param depth AR-PACKAGE のネストの深さ
+     * @param elements 1 ファイルあたりの IMPLEMENTATION-DATA-TYPE の数
+     * @param referenceDensity IMPLEMENTATION-DATA-TYPE 1 つあたりの参照数の平均
+     * @param seed 乱数のシード
+     */
+    public CorpusGenerator(int files, int depth, int elements, double referenceDensity, long seed) {
+        if (files < 1 || depth < 1 || elements < 1 || referenceDensity < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "invalid corpus parameter : files=%d, depth=%d, elements=%d, referenceDensity=%f",
+                    files, depth, elements, referenceDensity));
+        }
+
+        this.files = files;
+        this.depth = depth;
+        this.elements = elements;
+        this.referenceDensity = referenceDensity;
+        this.seed = seed;
+    }
+
+    /**
+     * プリセットのコーパス構成からインスタンスを生成する。
+     *
+     * @param preset プリセット名(Preset の名前の小文字)
+     * @param seed 乱数のシード
+     *
+     * @return 生成したインスタンス
+     */
+    public static CorpusGenerator of(String preset, long seed) {
+        Preset p = Preset.valueOf(preset.toUpperCase());
+        return new CorpusGenerator(p.files, p.depth, p.elements, p.referenceDensity, seed);
+    }
+
+    /**
+     * 生成パラメータを表す文字列を取得する。
+     * (同じ文字列のコーパスは同じ内容になる)
+     *
+     * @return 生成パラメータを表す文字列
+     */
+    public String describe() {
+        return String.format("files=%d%ndepth=%d%nelements=%d%nreferenceDensity=%s%nseed=%d%n",
+                files, depth, elements, Double.toString(referenceDensity), seed);
+    }
+
+    /**
+     * 指定したディレクトリにコーパスを生成する。
+     *
+     * 同じパラメータで生成済みのコーパスが既にある場合は何もしない。
+     *
+     * @param outputDir 出力先ディレクトリ
+     *
+     * @return 生成したコーパスのサイズ(バイト数、生成しなかった場合は 0)
+     */
+    public long generateIfAbsent(Path outputDir) throws IOException {
+        Path marker = outputDir.resolve(MARKER_FILE_NAME);
+        if (Files.exists(marker)
+                && new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).equals(describe())) {
+            return 0;
+        }
+        return generate(outputDir);
+    }
+
+    /**
+     * 指定したディレクトリにコーパスを生成する。
+     *
+     * @param outputDir 出力先ディレクトリ
+     *
+     * @return 生成したコーパスのサイズ(バイト数)
+     */
+    public long generate(Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        Files.deleteIfExists(outputDir.resolve(MARKER_FILE_NAME));
+
+        long totalBytes = 0;
+        for (int file = 0; file < files; file++) {
+            Path filePath = outputDir.resolve(getRelativePath(file));
+            Files.createDirectories(filePath.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8)) {
+                writeFile(writer, file);
+            }
+            totalBytes += Files.size(filePath);
+        }
+
+        // マーカーは最後に書くので、途中で中断したコーパスは再利用されない
+        Files.write(outputDir.resolve(MARKER_FILE_NAME), describe().getBytes(StandardCharsets.UTF_8));
+        return totalBytes;
+    }
+
+    /**
+     * 指定した番号のファイルの、コーパスのルートからの相対パスを取得する。
+     *
+     * @param file ファイル番号
+     *
+     * @return 相対パス
+     */
+    public static Path getRelativePath(int file) {
+        return Paths.get(
+                String.format("dir%04d", file / FILES_PER_DIRECTORY),
+                String.format("file%06d.arxml", file));
+    }
+
+    /**
+     * 指定したファイルの、最も深い AR-PACKAGE の AR 階層パスを取得する。
+     *
+     * @param file ファイル番号
+     *
+     * @return AR 階層パス
+     */
+    String getPackagePath(int file) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/Pkg").append(file);
+        for (int level = 1; level < depth; level++) {
+            sb.append("/Sub").append(level);
+        }
+        return sb.toString();
+    }
+
+    private void writeFile(Writer writer, int file) throws IOException {
+        // ファイルごとに独立した乱数列を使い、ファイル単位でも再現できるようにする
+        SplittableRandom random = new SplittableRandom(seed * 31 + file);
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<AUTOSAR xmlns=\"http://autosar.org/schema/r4.0\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                + " xsi:schemaLocation=\"http://autosar.org/schema/r4.0 AUTOSAR_4-0-3_STRICT.xsd\">\n");
+        writer.write("  <AR-PACKAGES>\n");
+
+        String indent = "    ";
+        for (int level = 0; level < depth; level++) {
+            writer.write(indent + "<AR-PACKAGE>\n");
+            writer.write(indent + "  <SHORT-NAME>" + (level == 0 ? "Pkg" + file : "Sub" + level) + "</SHORT-NAME>\n");
+            if (level < depth - 1) {
+                writer.write(indent + "  <AR-PACKAGES>\n");
+            }
+            indent += "    ";
+        }
+
+        String elementIndent = indent.substring(2);
+        writer.write(elementIndent + "<ELEMENTS>\n");
+        for (int element = 0; element < elements; element++) {
+            writeElement(writer, elementIndent + "  ", file, element, random);
+        }
+        writer.write(elementIndent + "</ELEMENTS>\n");
+
+        for (int level = depth - 1; level >= 0; level--) {
+            indent = indent.substring(4);
+            if (level < depth - 1) {
+                writer.write(indent + "  </AR-PACKAGES>\n");
+            }
+            writer.write(indent + "</AR-PACKAGE>\n");
+        }
+
+        writer.write("  </AR-PACKAGES>\n");
+        writer.write("</AUTOSAR>\n");
+    }
+
+    private void writeElement(Writer writer, String indent, int file, int element, SplittableRandom random)
+            throws IOException {
+        int references = (int)referenceDensity;
+        if (random.nextDouble() < referenceDensity - references) {
+            references++;
+        }
+
+        writer.write(indent + "<IMPLEMENTATION-DATA-TYPE>\n");
+        writer.write(indent + "  <SHORT-NAME>Type" + element + "</SHORT-NAME>\n");
+        writer.write(indent + "  <CATEGORY>" + (references == 0 ? "VALUE" : "STRUCTURE") + "</CATEGORY>\n");
+        if (references > 0) {
+            writer.write(indent + "  <SUB-ELEMENTS>\n");
+            for (int i = 0; i < references; i++) {
+                int targetFile = random.nextInt(files);
+                int targetElement = random.nextInt(elements);
+                writer.write(indent + "    <IMPLEMENTATION-DATA-TYPE-ELEMENT>\n");
+                writer.write(indent + "      <SHORT-NAME>member" + i + "</SHORT-NAME>\n");
+                writer.write(indent + "      <CATEGORY>TYPE_REFERENCE</CATEGORY>\n");
+                writer.write(indent + "      <SW-DATA-DEF-PROPS>\n");
+                writer.write(indent + "        <SW-DATA-DEF-PROPS-VARIANTS>\n");
+                writer.write(indent + "          <SW-DATA-DEF-PROPS-CONDITIONAL>\n");
+                writer.write(indent + "            <IMPLEMENTATION-DATA-TYPE-REF DEST=\"IMPLEMENTATION-DATA-TYPE\">"
+                        + getPackagePath(targetFile) + "/Type" + targetElement
+                        + "</IMPLEMENTATION-DATA-TYPE-REF>\n");
+                writer.write(indent + "          </SW-DATA-DEF-PROPS-CONDITIONAL>\n");
+                writer.write(indent + "        </SW-DATA-DEF-PROPS-VARIANTS>\n");
+                writer.write(indent + "      </SW-DATA-DEF-PROPS>\n");
+                writer.write(indent + "    </IMPLEMENTATION-DATA-TYPE-ELEMENT>\n");
+            }
+            writer.write(indent + "  </SUB-ELEMENTS>\n");
+        }
+        writer.write(indent + "</IMPLEMENTATION-DATA-TYPE>\n");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            optionParser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (options.isHelp || options.outputDir == null) {
+            System.out.println("Usage: java -cp benchmarks.jar "
+                    + CorpusGenerator.class.getName() + " [options] OUTPUT_DIR");
+            optionParser.printUsage(System.out);
+            System.exit(options.isHelp ? 0 : 1);
+        }
+
+        CorpusGenerator generator;
+        if (options.preset != null) {
+            generator = CorpusGenerator.of(options.preset, options.seed);
+        } else {
+            generator = new CorpusGenerator(
+                    options.files, options.depth, options.elements, options.referenceDensity, options.seed);
+        }
+
+        long start = System.nanoTime();
+        long totalBytes = generator.generate(Paths.get(options.outputDir));
+        System.out.printf("generated %d bytes in %d ms.%n%s",
+                totalBytes, (System.nanoTime() - start) / 1_000_000, generator.describe());
+    }
+
+    /**
+     * コーパス構成のプリセット。
+     *
+     * サイズはおおよその目安。
+     */
+    public enum Preset {
+        /** 約 100 KB */
+        TINY(10, 2, 20, 0.5),
+        /** 約 10 MB */
+        SMALL(100, 3, 200, 0.5),
+        /** 約 150 MB */
+        MEDIUM(500, 4, 400, 1.0),
+        /** 約 1.5 GB */
+        LARGE(2000, 4, 1000, 1.0),
+        /** 約 6 GB */
+        HUGE(4000, 5, 2000, 1.0);
+
+        private final int files;
+        private final int depth;
+        private final int elements;
+        private final double referenceDensity;
+
+        Preset(int files, int depth, int elements, double referenceDensity) {
+            this.files = files;
+            this.depth = depth;
+            this.elements = elements;
+            this.referenceDensity = referenceDensity;
+        }
+    }
+
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-p", aliases = "--preset", usage = "corpus preset. tiny, small, medium, large or huge. overrides other size options.", metaVar = "PRESET")
+        private String preset;
+
+        @Option(name = "-f", aliases = "--files", usage = "number of arxml files.", metaVar = "FILES")
+        private int files = 100;
+
+        @Option(name = "-d", aliases = "--depth", usage = "AR-PACKAGE nesting depth.", metaVar = "DEPTH")
+        private int depth = 3;
+
+        @Option(name = "-n", aliases = "--elements", usage = "number of elements per file.", metaVar = "ELEMENTS")
+        private int elements = 200;
+
+        @Option(name = "-r", aliases = "--reference-density", usage = "average number of references per element.", metaVar = "DENSITY")
+        private double referenceDensity = 0.5;
+
+        @Option(name = "-s", aliases = "--seed", usage = "random seed.", metaVar = "SEED")
+        private long seed;
+
+        @Argument(metaVar = "OUTPUT_DIR")
+        private String outputDir;
+    }
+}
@@ -0,0 +1,64 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import jp.dip.oyasirazu.artags.ArxmlFinder;
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ベンチマーク対象のコーパス。
+ *
+ * コーパスは システムプロパティ artags.benchmark.corpus で指定したディレクトリ
+ * (デフォルトは target/corpus)の下に、プリセットとシードごとに生成され、
+ * 次回以降の実行では再利用される。
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    /**
+     * コーパスを生成するディレクトリを指定するシステムプロパティ名。
+     */
+    public static final String CORPUS_DIRECTORY_PROPERTY = "artags.benchmark.corpus";
+
+    @Param({"tiny", "small"})
+    public String corpus;
+
+    @Param({"0"})
+    public long seed;
+
+    public Path corpusDir;
+
+    public List<Arxml> arxmls;
+
+    @Setup(Level.Trial)
+    public void setupCorpus() throws IOException {
+        corpusDir = Paths.get(System.getProperty(CORPUS_DIRECTORY_PROPERTY, "target/corpus"), corpus + "-" + seed)
+                .toAbsolutePath();
+        CorpusGenerator.of(corpus, seed).generateIfAbsent(corpusDir);
+
+        arxmls = newFinder().find(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * コーパス全体を探索対象にした ArxmlFinder を生成する。
+     *
+     * @return 生成した ArxmlFinder
+     */
+    public ArxmlFinder newFinder() {
+        return new ArxmlFinder(
+                Collections.singletonList(corpusDir.toString()),
+                null,
+                Collections.emptyList(),
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,137 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags;
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+import jp.dip.oyasirazu.artags.ArxmlIndex;
+import jp.dip.oyasirazu.artags.ExternalSorter;
+import jp.dip.oyasirazu.artags.IndexingPipeline;
+import jp.dip.oyasirazu.artags.TagsFileWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.xml.sax.SAXException;
+
+/**
+ * タグファイルのレコード出力のベンチマーク。
+ *
+ * write は解決済みのレコードの出力(ソート・エンコード)だけを、
+ * endToEnd はパースから出力までのパイプライン全体を計測する。
+ * 出力先はディスクの速度に左右されないよう、書き込んだバイトを捨てるチャネルにする。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+
+    @Param({"true", "false"})
+    public boolean sorted;
+
+    @Param({"UTF-8"})
+    public String charset;
+
+    private List<Record> records;
+
+    @Setup(Level.Trial)
+    public void setup(CorpusState corpus)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Artags.setDocumentCacheCapacity(0);
+        ArxmlIndex index = new IndexingPipeline(Runtime.getRuntime().availableProcessors())
+                .buildIndex(corpus.arxmls);
+
+        records = new ArrayList<>();
+        for (Arxml arxml : corpus.arxmls) {
+            records.addAll(Artags.createTagsString(arxml, index));
+        }
+    }
+
+    @Benchmark
+    public long write(CorpusState corpus) throws IOException {
+        NullChannel channel = new NullChannel();
+        try (TagsFileWriter writer = newWriter(corpus, channel)) {
+            for (Record record : records) {
+                writer.write(record);
+            }
+            writer.finish();
+        }
+        return channel.written;
+    }
+
+    @Benchmark
+    public long endToEnd(CorpusState corpus)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        NullChannel channel = new NullChannel();
+        try (TagsFileWriter writer = newWriter(corpus, channel)) {
+            new IndexingPipeline(Runtime.getRuntime().availableProcessors())
+                    .run(corpus.arxmls, writer::write);
+            writer.finish();
+        }
+        return channel.written;
+    }
+
+    private TagsFileWriter newWriter(CorpusState corpus, WritableByteChannel channel) throws IOException {
+        return new TagsFileWriter(
+                channel,
+                Charset.forName(charset),
+                corpus.corpusDir,
+                sorted,
+                ExternalSorter.MAX_LINES_IN_MEMORY_DEFAULT,
+                true);
+    }
+
+    /**
+     * 書き込まれたバイト数だけを数えて、内容は捨てるチャネル。
+     */
+    private static class NullChannel implements WritableByteChannel {
+
+        private long written;
+
+        private boolean isOpen = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            written += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override
+        public void close() {
+            isOpen = false;
+        }
+    }
+}
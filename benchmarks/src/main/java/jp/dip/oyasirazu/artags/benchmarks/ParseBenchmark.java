@@ -0,0 +1,96 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags;
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.DocumentCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.xml.sax.SAXException;
+
+/**
+ * arxml のパースと、定義・参照の抽出のベンチマーク。
+ *
+ * parse はパース込みの Artags#extractEntries を、
+ * extract はパース済みの Document からの抽出(行番号の取得を含む)だけを計測する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Benchmark
+    public void parse(CorpusState corpus, NoDocumentCache cache, Blackhole blackhole)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        for (Arxml arxml : corpus.arxmls) {
+            blackhole.consume(Artags.extractEntries(arxml));
+        }
+    }
+
+    @Benchmark
+    public void extract(CorpusState corpus, FullDocumentCache cache, Blackhole blackhole)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        for (Arxml arxml : corpus.arxmls) {
+            blackhole.consume(Artags.extractEntries(arxml));
+        }
+    }
+
+    /**
+     * Document キャッシュを無効にして、毎回パースさせる。
+     */
+    @State(Scope.Benchmark)
+    public static class NoDocumentCache {
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Artags.setDocumentCacheCapacity(0);
+        }
+    }
+
+    /**
+     * 全ファイルの Document をキャッシュしておき、抽出だけを計測させる。
+     * (コーパス全体の DOM がヒープに載るので、大きなコーパスでは -Xmx を増やすこと)
+     */
+    @State(Scope.Benchmark)
+    public static class FullDocumentCache {
+
+        @Setup(Level.Trial)
+        public void setup(CorpusState corpus)
+                throws SAXException,
+                        ParserConfigurationException,
+                        IOException {
+            Artags.setDocumentCacheCapacity(corpus.arxmls.size());
+            for (Arxml arxml : corpus.arxmls) {
+                Artags.extractEntries(arxml);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Artags.setDocumentCacheCapacity(DocumentCache.CAPACITY_DEFAULT);
+        }
+    }
+}
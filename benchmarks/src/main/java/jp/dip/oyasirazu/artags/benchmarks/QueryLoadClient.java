@@ -0,0 +1,290 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * serve サブコマンドで起動したサーバーに問い合わせを送り続け、
+ * 秒間問い合わせ数とレイテンシのパーセンタイルを表示する負荷試験クライアント。
+ *
+ * 問い合わせる AR 階層パスはファイルから読み込むか、
+ * 指定しない場合はサーバーに前方一致検索をしてサンプリングする。
+ * 各クライアントスレッドは 1 接続を使い回し、応答を受け取ったらすぐ次の問い合わせを送る。
+ * (問い合わせの種類は definitions, references, search を順番に使う)
+ */
+public class QueryLoadClient {
+
+    private static final String[] QUERY_TYPES = {"definitions", "references", "search"};
+
+    private static final Pattern PATH_PATTERN = Pattern.compile("\"path\": \"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+
+    private final String baseUrl;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param baseUrl サーバーの URL("http://127.0.0.1:PORT/" の形式)
+     */
+    public QueryLoadClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    /**
+     * サーバーに前方一致検索をして、問い合わせに使う AR 階層パスを集める。
+     *
+     * @param limit 集める最大件数
+     *
+     * @return AR 階層パスのリスト
+     */
+    public List<String> sampleQueries(int limit) throws IOException, InterruptedException {
+        String body = send("search?prefix=" + encode("/") + "&limit=" + limit).body();
+        List<String> queries = new ArrayList<>();
+        Matcher matcher = PATH_PATTERN.matcher(body);
+        while (matcher.find()) {
+            queries.add(matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\"));
+        }
+        return queries;
+    }
+
+    /**
+     * 負荷をかけて計測する。
+     *
+     * @param queries 問い合わせる AR 階層パスのリスト
+     * @param clients 並列に問い合わせるクライアントスレッド数
+     * @param warmupMillis 計測前に問い合わせを送り続ける時間(ミリ秒)
+     * @param durationMillis 計測する時間(ミリ秒)
+     *
+     * @return 計測結果
+     */
+    public Result run(List<String> queries, int clients, long warmupMillis, long durationMillis) throws Exception {
+        long start = System.nanoTime();
+        long measureStart = start + warmupMillis * 1_000_000;
+        long measureEnd = measureStart + durationMillis * 1_000_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Worker>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Worker worker = new Worker(queries, i, measureStart, measureEnd);
+                futures.add(executor.submit(() -> {
+                    worker.run();
+                    return worker;
+                }));
+            }
+
+            Result result = new Result(durationMillis);
+            for (Future<Worker> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private HttpResponse<String> send(String pathAndQuery) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + pathAndQuery)).GET().build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(String str) {
+        return URLEncoder.encode(str, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 1 クライアントスレッド分の問い合わせと計測。
+     */
+    private class Worker {
+        private final List<String> queries;
+        private final SplittableRandom random;
+        private final long measureStart;
+        private final long measureEnd;
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+
+        Worker(List<String> queries, long seed, long measureStart, long measureEnd) {
+            this.queries = queries;
+            this.random = new SplittableRandom(seed);
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+        }
+
+        void run() throws InterruptedException {
+            for (int i = 0; ; i++) {
+                String query = queries.get(random.nextInt(queries.size()));
+                String type = QUERY_TYPES[i % QUERY_TYPES.length];
+                String pathAndQuery = type.equals("search")
+                        ? type + "?limit=100&prefix=" + encode(query)
+                        : type + "?path=" + encode(query);
+
+                long before = System.nanoTime();
+                if (before >= measureEnd) {
+                    return;
+                }
+                boolean isSucceeded;
+                try {
+                    isSucceeded = send(pathAndQuery).statusCode() == 200;
+                } catch (IOException e) {
+                    isSucceeded = false;
+                }
+                long after = System.nanoTime();
+
+                if (before < measureStart || after > measureEnd) {
+                    continue;
+                }
+                if (!isSucceeded) {
+                    errors++;
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = after - before;
+            }
+        }
+    }
+
+    /**
+     * 計測結果。
+     */
+    public static class Result {
+        private final long durationMillis;
+        private long[] latencies = new long[0];
+        private int errors;
+
+        Result(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+
+        void add(Worker worker) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            errors += worker.errors;
+        }
+
+        /**
+         * 計測結果を人が読むための文字列にする。
+         *
+         * @return 計測結果の文字列
+         */
+        public String describe() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "requests : %d (errors %d)%n", sorted.length, errors));
+            sb.append(String.format(Locale.ROOT, "qps      : %.1f%n", sorted.length * 1000.0 / durationMillis));
+            for (double percentile : PERCENTILES) {
+                String label = percentile == Math.rint(percentile)
+                        ? String.valueOf((long) percentile)
+                        : String.valueOf(percentile);
+                sb.append(String.format(Locale.ROOT, "p%-7s : %.3f ms%n",
+                        label, toMillis(percentile(sorted, percentile))));
+            }
+            sb.append(String.format(Locale.ROOT, "max      : %.3f ms%n",
+                    toMillis(sorted.length == 0 ? 0 : sorted[sorted.length - 1])));
+            return sb.toString();
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            optionParser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (options.isHelp) {
+            System.out.println("Usage: java -cp benchmarks.jar "
+                    + QueryLoadClient.class.getName() + " [options]");
+            optionParser.printUsage(System.out);
+            System.exit(0);
+        }
+
+        QueryLoadClient loadClient = new QueryLoadClient(options.url);
+        List<String> queries = options.queriesFile == null
+                ? loadClient.sampleQueries(options.samples)
+                : Files.readAllLines(Paths.get(options.queriesFile), StandardCharsets.UTF_8);
+        queries.removeIf(String::isEmpty);
+        if (queries.isEmpty()) {
+            System.err.println("no AR path to query.");
+            System.exit(1);
+        }
+
+        System.out.printf("%d clients, %d AR paths, %d s warmup, %d s measurement.%n",
+                options.clients, queries.size(), options.warmupSeconds, options.durationSeconds);
+        Result result = loadClient.run(queries, options.clients,
+                options.warmupSeconds * 1000L, options.durationSeconds * 1000L);
+        System.out.print(result.describe());
+    }
+
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-u", aliases = "--url", usage = "server url.", metaVar = "URL")
+        private String url = "http://127.0.0.1:7373/";
+
+        @Option(name = "-c", aliases = "--clients", usage = "number of concurrent clients.", metaVar = "CLIENTS")
+        private int clients = 8;
+
+        @Option(name = "-w", aliases = "--warmup", usage = "warmup seconds.", metaVar = "SECONDS")
+        private int warmupSeconds = 3;
+
+        @Option(name = "-d", aliases = "--duration", usage = "measurement seconds.", metaVar = "SECONDS")
+        private int durationSeconds = 10;
+
+        @Option(name = "-q", aliases = "--queries", usage = "file of AR paths to query, one per line.(default: sampled from the server)", metaVar = "FILE")
+        private String queriesFile;
+
+        @Option(name = "-n", aliases = "--samples", usage = "number of AR paths sampled from the server.", metaVar = "SAMPLES")
+        private int samples = 10000;
+    }
+}
@@ -0,0 +1,176 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import jp.dip.oyasirazu.artags.Artags;
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlFinder;
+import jp.dip.oyasirazu.artags.IndexingPipeline;
+import jp.dip.oyasirazu.artags.ReadAhead;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * ファイルを開くたびに待ち時間がかかるファイルシステム上で、
+ * 先読みするファイル数ごとにパース・抽出・参照解決にかかる時間を計測する。
+ *
+ * ネットワークファイルシステムの代わりに SlowFileSystemProvider でローカルのコーパスを読む。
+ * (コーパスのディレクトリを指定しない場合は、 CorpusGenerator で合成したコーパスを使う)
+ * 各設定を 1 回実行してから RUNS 回実行し、最小・中央値・最大の経過時間をミリ秒で表示する。
+ * (Document キャッシュは無効にするので、毎回すべてのファイルを読み込んでパースする)
+ */
+public class ReadAheadBenchmark {
+
+    private final List<Arxml> arxmls;
+
+    private final SlowFileSystemProvider fileSystem;
+
+    private final int jobs;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param arxmls デフォルトのファイルシステム上の arxml ファイルのリスト
+     * @param latencyMicros ファイルを開く・属性を取得するたびに入れる待ち時間(マイクロ秒)
+     * @param jobs パース・解決に使用するスレッド数
+     */
+    public ReadAheadBenchmark(List<Arxml> arxmls, long latencyMicros, int jobs) {
+        this.fileSystem = new SlowFileSystemProvider(FileSystems.getDefault(), latencyMicros);
+        this.arxmls = new ArrayList<>(arxmls.size());
+        for (Arxml arxml : arxmls) {
+            this.arxmls.add(new Arxml(fileSystem.wrap(arxml.getFilePath())));
+        }
+        this.jobs = jobs;
+    }
+
+    /**
+     * 1 回分のインデックス構築と参照解決を実行する。
+     *
+     * @param readAhead 先読みするファイル数(0 の場合は先読みしない)
+     *
+     * @return 経過時間(ナノ秒)
+     */
+    public long run(int readAhead) throws Exception {
+        for (Arxml arxml : arxmls) {
+            Artags.invalidateCaches(arxml.getFilePath());
+        }
+
+        LongAdder records = new LongAdder();
+        long start = System.nanoTime();
+        new IndexingPipeline(jobs, null, null, null, readAhead).run(arxmls, record -> records.increment());
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 先読みするファイル数ごとに計測し、結果を表示する。
+     *
+     * @param readAheads 計測する先読みファイル数のリスト
+     * @param runs 計測する回数
+     */
+    public void measure(List<Integer> readAheads, int runs) throws Exception {
+        for (int readAhead : readAheads) {
+            run(readAhead);
+
+            long operations = fileSystem.getOperationCount();
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = run(readAhead);
+            }
+            operations = (fileSystem.getOperationCount() - operations) / runs;
+
+            Arrays.sort(times);
+            System.out.printf("read-ahead %4d  min %8d ms  median %8d ms  max %8d ms  (%d file system operations/run)%n",
+                    readAhead,
+                    times[0] / 1_000_000,
+                    times[(runs - 1) / 2] / 1_000_000,
+                    times[runs - 1] / 1_000_000,
+                    operations);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            optionParser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (options.isHelp) {
+            System.out.println("Usage: java -cp benchmarks.jar "
+                    + ReadAheadBenchmark.class.getName() + " [options] [CORPUS_DIR]");
+            optionParser.printUsage(System.out);
+            System.exit(0);
+        }
+
+        // コーパスのディレクトリを指定しない場合は、 JMH のベンチマークと同じ場所に合成したコーパスを使う
+        Path corpusDir;
+        if (options.corpusDir == null) {
+            corpusDir = Paths.get(System.getProperty(CorpusState.CORPUS_DIRECTORY_PROPERTY, "target/corpus"),
+                    options.preset + "-" + options.seed).toAbsolutePath();
+            CorpusGenerator.of(options.preset, options.seed).generateIfAbsent(corpusDir);
+        } else {
+            corpusDir = Paths.get(options.corpusDir).toAbsolutePath();
+        }
+
+        // ファイルの探索は計測しないので、デフォルトのファイルシステムで行う
+        int jobs = options.jobs == null ? Runtime.getRuntime().availableProcessors() : options.jobs;
+        List<Arxml> arxmls = new ArxmlFinder(
+                Collections.singletonList(corpusDir.toString()),
+                null,
+                Collections.emptyList(),
+                Collections.emptyList()).find(jobs);
+
+        List<Integer> readAheads = new ArrayList<>();
+        for (String readAhead : options.readAheads.split(",")) {
+            readAheads.add(Integer.parseInt(readAhead.trim()));
+        }
+
+        Artags.setDocumentCacheCapacity(0);
+        System.out.printf("%d files in %s, %d us latency, %d jobs, %s I/O threads.%n",
+                arxmls.size(), corpusDir, options.latencyMicros, jobs,
+                ReadAhead.isVirtualThreadSupported() ? "virtual" : "platform");
+        new ReadAheadBenchmark(arxmls, options.latencyMicros, jobs).measure(readAheads, options.runs);
+    }
+
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-l", aliases = "--latency", usage = "latency per file open and attribute read in microseconds.", metaVar = "MICROS")
+        private long latencyMicros = 2000;
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "-r", aliases = "--read-ahead", usage = "comma separated read-ahead file counts to compare.", metaVar = "FILES,...")
+        private String readAheads = "0,16,64";
+
+        @Option(name = "-n", aliases = "--runs", usage = "number of measured runs per read-ahead.", metaVar = "RUNS")
+        private int runs = 5;
+
+        @Option(name = "-p", aliases = "--preset", usage = "corpus preset to generate when CORPUS_DIR is not given.", metaVar = "PRESET")
+        private String preset = "small";
+
+        @Option(name = "-s", aliases = "--seed", usage = "random seed.", metaVar = "SEED")
+        private long seed;
+
+        @Argument(metaVar = "CORPUS_DIR")
+        private String corpusDir;
+    }
+}
@@ -0,0 +1,74 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags;
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex;
+import jp.dip.oyasirazu.artags.IndexingPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.xml.sax.SAXException;
+
+/**
+ * インデックスの構築と参照解決のベンチマーク。
+ *
+ * buildIndex は全ファイルのパースを含むインデックス構築を、
+ * resolve は構築済みのインデックスを使った全ファイルの参照解決だけを計測する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+
+    @Param({"1", "4"})
+    public int jobs;
+
+    private ArxmlIndex index;
+
+    @Setup(Level.Trial)
+    public void setup(CorpusState corpus)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Artags.setDocumentCacheCapacity(0);
+        index = new IndexingPipeline(jobs).buildIndex(corpus.arxmls);
+    }
+
+    @Benchmark
+    public ArxmlIndex buildIndex(CorpusState corpus)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        return new IndexingPipeline(jobs).buildIndex(corpus.arxmls);
+    }
+
+    @Benchmark
+    public void resolve(CorpusState corpus, Blackhole blackhole)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        for (Arxml arxml : corpus.arxmls) {
+            blackhole.consume(Artags.createTagsString(arxml, index));
+        }
+    }
+}
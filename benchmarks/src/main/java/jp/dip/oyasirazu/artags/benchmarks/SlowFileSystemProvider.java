@@ -0,0 +1,450 @@
+package jp.dip.oyasirazu.artags.benchmarks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ネットワークファイルシステムの代わりに、ローカルのファイルを読むたびに待ち時間を入れるファイルシステム。
+ *
+ * ファイルを開く・属性を取得する・ディレクトリを列挙する操作ごとに、
+ * 指定した時間だけ呼び出し元のスレッドを止めてから、デフォルトのファイルシステムに委譲する。
+ * (NFS や SMB で、 1 回の問い合わせに往復の待ち時間がかかるのを模したもの)
+ * 読み込み専用で、書き込みやファイルの監視はできない。
+ *
+ * wrap(Path) でデフォルトのファイルシステムのパスを、このファイルシステムのパスに変換して使う。
+ */
+public class SlowFileSystemProvider extends FileSystemProvider {
+
+    /**
+     * URI のスキーム。
+     */
+    public static final String SCHEME = "slowfs";
+
+    private final FileSystemProvider delegate;
+
+    private final long latencyNanos;
+
+    private final SlowFileSystem fileSystem;
+
+    private final LongAdder operationCount = new LongAdder();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param delegate 委譲先のファイルシステム(デフォルトのファイルシステム)
+     * @param latencyMicros 1 回の操作ごとに入れる待ち時間(マイクロ秒)
+     */
+    public SlowFileSystemProvider(FileSystem delegate, long latencyMicros) {
+        if (latencyMicros < 0) {
+            throw new IllegalArgumentException("latency must not be negative : " + latencyMicros);
+        }
+        this.delegate = delegate.provider();
+        this.latencyNanos = latencyMicros * 1000;
+        this.fileSystem = new SlowFileSystem(delegate);
+    }
+
+    /**
+     * 委譲先のファイルシステムのパスを、このファイルシステムのパスに変換する。
+     *
+     * @param path 委譲先のファイルシステムのパス
+     *
+     * @return このファイルシステムのパス
+     */
+    public Path wrap(Path path) {
+        return new SlowPath(fileSystem, path);
+    }
+
+    /**
+     * 待ち時間を入れた操作の回数を取得する。
+     *
+     * @return 待ち時間を入れた操作の回数
+     */
+    public long getOperationCount() {
+        return operationCount.sum();
+    }
+
+    /**
+     * 1 回の操作分の待ち時間を入れる。
+     */
+    private void await() throws IOException {
+        operationCount.increment();
+        if (latencyNanos == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyNanos / 1_000_000, (int)(latencyNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted.");
+        }
+    }
+
+    private static Path unwrap(Path path) {
+        if (!(path instanceof SlowPath)) {
+            throw new IllegalArgumentException("not a " + SCHEME + " path : " + path);
+        }
+        return ((SlowPath)path).delegate;
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        checkReadOnly(options);
+        await();
+        return delegate.newByteChannel(unwrap(path), options, attrs);
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        checkReadOnly(options);
+        await();
+        return delegate.newFileChannel(unwrap(path), options, attrs);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        await();
+        DirectoryStream<Path> stream = delegate.newDirectoryStream(unwrap(dir), p -> filter.accept(wrap(p)));
+        return new DirectoryStream<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                Iterator<Path> iterator = stream.iterator();
+                return new Iterator<Path>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Path next() {
+                        return wrap(iterator.next());
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new UnsupportedOperationException("read only.");
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new UnsupportedOperationException("read only.");
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new UnsupportedOperationException("read only.");
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new UnsupportedOperationException("read only.");
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        return delegate.isSameFile(unwrap(path), unwrap(path2));
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return delegate.isHidden(unwrap(path));
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        return delegate.getFileStore(unwrap(path));
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        await();
+        delegate.checkAccess(unwrap(path), modes);
+    }
+
+    @Override
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        return delegate.getFileAttributeView(unwrap(path), type, options);
+    }
+
+    @Override
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        await();
+        return delegate.readAttributes(unwrap(path), type, options);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        await();
+        return delegate.readAttributes(unwrap(path), attributes, options);
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new UnsupportedOperationException("read only.");
+    }
+
+    private static void checkReadOnly(Set<? extends OpenOption> options) {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ) {
+                throw new UnsupportedOperationException("read only : " + option);
+            }
+        }
+    }
+
+    /**
+     * 待ち時間を入れるファイルシステム。
+     */
+    private class SlowFileSystem extends FileSystem {
+
+        private final FileSystem delegate;
+
+        SlowFileSystem(FileSystem delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public FileSystemProvider provider() {
+            return SlowFileSystemProvider.this;
+        }
+
+        @Override
+        public void close() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public String getSeparator() {
+            return delegate.getSeparator();
+        }
+
+        @Override
+        public Iterable<Path> getRootDirectories() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterable<FileStore> getFileStores() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Set<String> supportedFileAttributeViews() {
+            return delegate.supportedFileAttributeViews();
+        }
+
+        @Override
+        public Path getPath(String first, String... more) {
+            return wrap(delegate.getPath(first, more));
+        }
+
+        @Override
+        public PathMatcher getPathMatcher(String syntaxAndPattern) {
+            PathMatcher matcher = delegate.getPathMatcher(syntaxAndPattern);
+            return path -> matcher.matches(unwrap(path));
+        }
+
+        @Override
+        public UserPrincipalLookupService getUserPrincipalLookupService() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WatchService newWatchService() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 委譲先のファイルシステムのパスを包んだパス。
+     */
+    private static final class SlowPath implements Path {
+
+        private final SlowFileSystem fileSystem;
+
+        private final Path delegate;
+
+        SlowPath(SlowFileSystem fileSystem, Path delegate) {
+            this.fileSystem = fileSystem;
+            this.delegate = delegate;
+        }
+
+        private Path wrapOrNull(Path path) {
+            return path == null ? null : new SlowPath(fileSystem, path);
+        }
+
+        @Override
+        public FileSystem getFileSystem() {
+            return fileSystem;
+        }
+
+        @Override
+        public boolean isAbsolute() {
+            return delegate.isAbsolute();
+        }
+
+        @Override
+        public Path getRoot() {
+            return wrapOrNull(delegate.getRoot());
+        }
+
+        @Override
+        public Path getFileName() {
+            return wrapOrNull(delegate.getFileName());
+        }
+
+        @Override
+        public Path getParent() {
+            return wrapOrNull(delegate.getParent());
+        }
+
+        @Override
+        public int getNameCount() {
+            return delegate.getNameCount();
+        }
+
+        @Override
+        public Path getName(int index) {
+            return wrapOrNull(delegate.getName(index));
+        }
+
+        @Override
+        public Path subpath(int beginIndex, int endIndex) {
+            return wrapOrNull(delegate.subpath(beginIndex, endIndex));
+        }
+
+        @Override
+        public boolean startsWith(Path other) {
+            return other instanceof SlowPath && delegate.startsWith(unwrap(other));
+        }
+
+        @Override
+        public boolean endsWith(Path other) {
+            return other instanceof SlowPath && delegate.endsWith(unwrap(other));
+        }
+
+        @Override
+        public Path normalize() {
+            return wrapOrNull(delegate.normalize());
+        }
+
+        @Override
+        public Path resolve(Path other) {
+            return wrapOrNull(delegate.resolve(unwrap(other)));
+        }
+
+        @Override
+        public Path relativize(Path other) {
+            return wrapOrNull(delegate.relativize(unwrap(other)));
+        }
+
+        @Override
+        public URI toUri() {
+            // XML パーサーのシステム ID に使われるので、委譲先のファイルの URI を返す
+            return delegate.toUri();
+        }
+
+        @Override
+        public Path toAbsolutePath() {
+            return wrapOrNull(delegate.toAbsolutePath());
+        }
+
+        @Override
+        public Path toRealPath(LinkOption... options) throws IOException {
+            return wrapOrNull(delegate.toRealPath(options));
+        }
+
+        @Override
+        public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int compareTo(Path other) {
+            return delegate.compareTo(unwrap(other));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SlowPath && delegate.equals(((SlowPath)other).delegate);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
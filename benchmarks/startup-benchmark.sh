@@ -0,0 +1,117 @@
+#!/bin/sh
+#
+# 起動方法ごとに、小さな入力でタグファイルを生成するまでの時間(コールドスタート)を計測する。
+#
+# 計測する起動方法:
+#
+# - jar         : java -jar
+# - jar-c1      : jar に加えて -XX:TieredStopAtLevel=1 (C2 でのコンパイルをしない)
+# - appcds      : java -XX:SharedArchiveFile=JSA -jar (JSA_FILE がある場合)
+# - appcds-c1   : appcds に加えて -XX:TieredStopAtLevel=1
+# - native      : native-image でビルドした実行ファイル(NATIVE_FILE がある場合)
+#
+# 使い方:
+#
+#   ./mvnw package -Pappcds            # target/artags-x.x.x.jar と .jsa を作る
+#   ./mvnw package -Pnative            # target/artags を作る(GraalVM の JDK で)
+#   benchmarks/startup-benchmark.sh [-n RUNS] [-j JAR_FILE] [-a JSA_FILE] [-b NATIVE_FILE] [SEARCH_DIRECTORIIES...]
+#
+# 各起動方法を 1 回実行してから(ファイルキャッシュを温めるため) RUNS 回実行し、
+# 最小・中央値・最大の経過時間をミリ秒で表示する。
+
+set -eu
+
+cd "$(dirname "$0")/.."
+
+RUNS=10
+JAR_FILE=$(ls target/artags-*.jar 2>/dev/null | head -n 1 || true)
+JSA_FILE=
+NATIVE_FILE=target/artags
+
+while getopts "n:j:a:b:" OPT; do
+    case "$OPT" in
+        n) RUNS=$OPTARG ;;
+        j) JAR_FILE=$OPTARG ;;
+        a) JSA_FILE=$OPTARG ;;
+        b) NATIVE_FILE=$OPTARG ;;
+        *) sed -n '2,/^$/s/^# \{0,1\}//p' "$0" >&2; exit 2 ;;
+    esac
+done
+shift $((OPTIND - 1))
+
+if [ $# -eq 0 ]; then
+    set -- src/test/resources/one_file
+fi
+
+if [ -z "$JAR_FILE" ] || [ ! -f "$JAR_FILE" ]; then
+    echo "jar file is not found. run ./mvnw package first." >&2
+    exit 1
+fi
+if [ -z "$JSA_FILE" ]; then
+    JSA_FILE=${JAR_FILE%.jar}.jsa
+fi
+
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+OUTPUT_FILE=$(mktemp)
+trap 'rm -f "$OUTPUT_FILE"' EXIT
+
+run_jar() {
+    "$JAVA" -jar "$JAR_FILE" "$@"
+}
+
+run_jar_c1() {
+    "$JAVA" -XX:TieredStopAtLevel=1 -jar "$JAR_FILE" "$@"
+}
+
+run_appcds() {
+    "$JAVA" -XX:SharedArchiveFile="$JSA_FILE" -jar "$JAR_FILE" "$@"
+}
+
+run_appcds_c1() {
+    "$JAVA" -XX:SharedArchiveFile="$JSA_FILE" -XX:TieredStopAtLevel=1 -jar "$JAR_FILE" "$@"
+}
+
+run_native() {
+    "$NATIVE_FILE" "$@"
+}
+
+# 経過時間をミリ秒で表示する
+elapsed() {
+    START=$(date +%s%N)
+    "$@" > /dev/null
+    END=$(date +%s%N)
+    echo $(((END - START) / 1000000))
+}
+
+# 起動方法の名前と実行する関数を受け取り、計測結果を 1 行表示する
+measure() {
+    NAME=$1
+    RUN=$2
+    shift 2
+    "$RUN" -o "$OUTPUT_FILE" "$@" > /dev/null
+
+    TIMES=
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        TIMES="$TIMES $(elapsed "$RUN" -o "$OUTPUT_FILE" "$@")"
+        i=$((i + 1))
+    done
+
+    echo "$TIMES" | tr ' ' '\n' | sed '/^$/d' | sort -n | awk -v name="$NAME" '
+        { times[NR] = $1 }
+        END { printf "%-12s min %6d ms  median %6d ms  max %6d ms\n", name, times[1], times[int((NR + 1) / 2)], times[NR] }'
+}
+
+measure jar run_jar "$@"
+measure jar-c1 run_jar_c1 "$@"
+if [ -f "$JSA_FILE" ]; then
+    measure appcds run_appcds "$@"
+    measure appcds-c1 run_appcds_c1 "$@"
+else
+    echo "appcds       skipped ($JSA_FILE is not found. run ./mvnw package -Pappcds)"
+fi
+if [ -x "$NATIVE_FILE" ]; then
+    measure native run_native "$@"
+else
+    echo "native       skipped ($NATIVE_FILE is not found. run ./mvnw package -Pnative)"
+fi
@@ -0,0 +1,557 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.xml.sax.SAXException;
+
+/**
+ * AUTOSAR のパッケージ階層(SHORT-NAME を持つエレメントの木)を保持するクラス。
+ *
+ * パース済みの Document を保持せずに階層を問い合わせられるよう、
+ * SHORT-NAME を持つエレメントだけを、以下の情報と共に int の配列で保持する。
+ *
+ * - 親エレメント(トップレベルのエレメントの親は ROOT)
+ * - エレメント名
+ * - 記述されているファイル
+ * - 行番号
+ * - AR 階層パス(ArPathTrie のノード)
+ *
+ * エレメントは int のエレメント ID で表す。
+ * AR 階層パスの組み立ては階層の深さに比例する時間で行う。
+ * 別ファイルに同じ AR 階層パスのエレメントが存在する場合があるので、
+ * AR 階層パスで引くとエレメントのリストが返る。
+ *
+ * AR 階層パス、ファイルパス、エレメント名は参照カウント付きで共有し、
+ * 参照するエレメントが全て削除されたら解放する。
+ *
+ * スレッドセーフではない。
+ */
+public class ArPackageTree {
+
+    /**
+     * 全てのトップレベルのエレメントの親となる、仮想的なルートエレメントの ID。
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * エレメントが存在しないことを表すエレメント ID。
+     */
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ArPathTrie arHierarchyPaths = new ArPathTrie();
+
+    /**
+     * ファイル ID ごとのファイルパス。
+     */
+    private final InternTable<Path> filePaths = new InternTable<>();
+
+    /**
+     * 名前コードごとのエレメント名。
+     */
+    private final InternTable<String> names = new InternTable<>();
+
+    /**
+     * パスのノード ID ごとの、そのパスを持つ最初のエレメントの ID。
+     */
+    private int[] firstElements = newIntArray(INITIAL_CAPACITY, NONE);
+
+    /**
+     * エレメント ID ごとの、同じパスを持つ次のエレメントの ID。
+     */
+    private int[] nextSamePaths = new int[INITIAL_CAPACITY];
+
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+
+    private int[] lastChildren = new int[INITIAL_CAPACITY];
+
+    /**
+     * エレメント ID ごとの次の兄弟エレメントの ID。
+     * (未使用のエレメント ID の場合は、次の未使用のエレメント ID)
+     */
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+
+    private int[] previousSiblings = new int[INITIAL_CAPACITY];
+
+    private int[] pathNodes = new int[INITIAL_CAPACITY];
+
+    private int[] files = new int[INITIAL_CAPACITY];
+
+    private int[] lines = new int[INITIAL_CAPACITY];
+
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    private int elementCount = 1;
+
+    private int freeElement = NONE;
+
+    private int size;
+
+    /**
+     * コンストラクタ。
+     */
+    public ArPackageTree() {
+        parents[ROOT] = NONE;
+        firstChildren[ROOT] = NONE;
+        lastChildren[ROOT] = NONE;
+        nextSiblings[ROOT] = NONE;
+        previousSiblings[ROOT] = NONE;
+        pathNodes[ROOT] = ArPathTrie.ROOT;
+        files[ROOT] = NONE;
+        types[ROOT] = NONE;
+    }
+
+    /**
+     * 指定された arxml ファイルをすべてパースし、パッケージ階層を構築する。
+     *
+     * @param arxmls 登録する arxml インスタンスのリスト
+     *
+     * @return 構築したパッケージ階層
+     */
+    public static ArPackageTree build(List<Arxml> arxmls)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ArPackageTree tree = new ArPackageTree();
+        for (Arxml arxml : arxmls) {
+            tree.addEntries(Artags.extractEntries(arxml));
+        }
+        return tree;
+    }
+
+    /**
+     * 1 ファイル分の抽出結果に含まれる定義を、エレメントとして登録する。
+     *
+     * 定義は文書順(親が子より先)に並んでいる前提で、
+     * AR 階層パスが親のパスと一致する直近の定義を親エレメントにする。
+     *
+     * @param entries 登録する抽出結果
+     *
+     * @return 登録したエレメントの ID (entries の定義と同じ順番)
+     */
+    public int[] addEntries(Entries entries) {
+        List<Definition> definitions = entries.getDefinitions();
+        int[] elements = new int[definitions.size()];
+
+        // 祖先エレメントのスタック
+        int[] ancestors = new int[definitions.size()];
+        int depth = 0;
+
+        for (int i = 0; i < elements.length; i++) {
+            Definition definition = definitions.get(i);
+            int pathNode = internPath(definition.getArHierarchyPath());
+            int parentPathNode = arHierarchyPaths.getParent(pathNode);
+
+            while (depth > 0 && pathNodes[ancestors[depth - 1]] != parentPathNode) {
+                depth--;
+            }
+            int parent = depth > 0 ? ancestors[depth - 1] : ROOT;
+
+            elements[i] = addElement(
+                    parent,
+                    pathNode,
+                    internFilePath(definition.getFilePath()),
+                    Math.toIntExact(definition.getLineNumber()),
+                    internName(definition.getType()));
+            ancestors[depth++] = elements[i];
+        }
+        return elements;
+    }
+
+    /**
+     * エレメントをまとめて削除する。
+     *
+     * addEntries の戻り値のように、親が子より先に並んでいる前提で、後ろから削除する。
+     *
+     * @param elements 削除するエレメントの ID
+     */
+    public void removeElements(int[] elements) {
+        for (int i = elements.length - 1; i >= 0; i--) {
+            removeElement(elements[i]);
+        }
+    }
+
+    /**
+     * エレメントを削除する。
+     *
+     * @param element 削除するエレメントの ID (子エレメントを持たないこと)
+     */
+    public void removeElement(int element) {
+        if (element == ROOT || firstChildren[element] != NONE) {
+            throw new IllegalStateException("element has children : " + element);
+        }
+
+        // 親の子リストから外す
+        int parent = parents[element];
+        int previous = previousSiblings[element];
+        int next = nextSiblings[element];
+        if (previous == NONE) {
+            firstChildren[parent] = next;
+        } else {
+            nextSiblings[previous] = next;
+        }
+        if (next == NONE) {
+            lastChildren[parent] = previous;
+        } else {
+            previousSiblings[next] = previous;
+        }
+
+        // 同じパスのエレメントリストから外す
+        int pathNode = pathNodes[element];
+        if (firstElements[pathNode] == element) {
+            firstElements[pathNode] = nextSamePaths[element];
+        } else {
+            int e = firstElements[pathNode];
+            while (nextSamePaths[e] != element) {
+                e = nextSamePaths[e];
+            }
+            nextSamePaths[e] = nextSamePaths[element];
+        }
+
+        arHierarchyPaths.release(pathNode);
+        filePaths.release(files[element]);
+        names.release(types[element]);
+
+        // 未使用のエレメント ID として再利用できるようにする
+        parents[element] = NONE;
+        nextSiblings[element] = freeElement;
+        freeElement = element;
+        size--;
+    }
+
+    /**
+     * 指定した AR 階層パスを持つ最初のエレメントを取得する。
+     * (同じパスを持つ残りのエレメントは getNextSamePath でたどる)
+     *
+     * @param arHierarchyPath AR 階層パス
+     *
+     * @return エレメント ID (見つからなかった場合は NONE)
+     */
+    public int findFirst(String arHierarchyPath) {
+        int pathNode = arHierarchyPaths.find(arHierarchyPath);
+        return pathNode == ArPathTrie.NOT_FOUND ? NONE : firstElements[pathNode];
+    }
+
+    /**
+     * 指定した AR 階層パスを持つエレメントをすべて取得する。
+     *
+     * @param arHierarchyPath AR 階層パス
+     *
+     * @return エレメント ID の配列(見つからなかった場合は空配列)
+     */
+    public int[] find(String arHierarchyPath) {
+        int count = 0;
+        for (int e = findFirst(arHierarchyPath); e != NONE; e = nextSamePaths[e]) {
+            count++;
+        }
+
+        int[] elements = new int[count];
+        int i = 0;
+        for (int e = findFirst(arHierarchyPath); e != NONE; e = nextSamePaths[e]) {
+            elements[i++] = e;
+        }
+        return elements;
+    }
+
+    /**
+     * 同じ AR 階層パスを持つ次のエレメントを取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return 次のエレメント ID (無い場合は NONE)
+     */
+    public int getNextSamePath(int element) {
+        return nextSamePaths[element];
+    }
+
+    /**
+     * エレメントの AR 階層パスを組み立てる。
+     *
+     * @param element エレメント ID
+     *
+     * @return AR 階層パス
+     */
+    public String getPath(int element) {
+        return arHierarchyPaths.getPath(pathNodes[element]);
+    }
+
+    /**
+     * エレメントの SHORT-NAME を取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return SHORT-NAME
+     */
+    public String getShortName(int element) {
+        return arHierarchyPaths.getSegment(pathNodes[element]);
+    }
+
+    /**
+     * エレメント名(AUTOSAR の型名)を取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return エレメント名
+     */
+    public String getElementName(int element) {
+        return names.get(types[element]);
+    }
+
+    /**
+     * エレメントが記述されているファイルのパスを取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return ファイルパス
+     */
+    public Path getFilePath(int element) {
+        return filePaths.get(files[element]);
+    }
+
+    /**
+     * エレメントが記述されている行番号を取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return 行番号
+     */
+    public int getLineNumber(int element) {
+        return lines[element];
+    }
+
+    /**
+     * 親エレメントを取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return 親エレメントの ID (トップレベルのエレメントの場合は ROOT)
+     */
+    public int getParent(int element) {
+        return parents[element];
+    }
+
+    /**
+     * 最初の子エレメントを取得する。
+     * (残りの子エレメントは getNextSibling でたどる)
+     *
+     * @param element エレメント ID
+     *
+     * @return 最初の子エレメントの ID (無い場合は NONE)
+     */
+    public int getFirstChild(int element) {
+        return firstChildren[element];
+    }
+
+    /**
+     * 次の兄弟エレメントを取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return 次の兄弟エレメントの ID (無い場合は NONE)
+     */
+    public int getNextSibling(int element) {
+        return nextSiblings[element];
+    }
+
+    /**
+     * 子エレメントをすべて取得する。
+     *
+     * @param element エレメント ID
+     *
+     * @return 子エレメントの ID の配列(文書順)
+     */
+    public int[] getChildren(int element) {
+        int count = 0;
+        for (int c = firstChildren[element]; c != NONE; c = nextSiblings[c]) {
+            count++;
+        }
+
+        int[] children = new int[count];
+        int i = 0;
+        for (int c = firstChildren[element]; c != NONE; c = nextSiblings[c]) {
+            children[i++] = c;
+        }
+        return children;
+    }
+
+    /**
+     * 登録されているエレメント数(ROOT を除く)を取得する。
+     *
+     * @return エレメント数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * AR 階層パスを登録し、そのパスのノード ID を取得する。
+     * (不要になったら releasePath すること)
+     */
+    int internPath(String arHierarchyPath) {
+        int pathNode = arHierarchyPaths.intern(arHierarchyPath);
+        if (pathNode >= firstElements.length) {
+            int oldCapacity = firstElements.length;
+            firstElements = Arrays.copyOf(firstElements, Math.max(oldCapacity * 2, pathNode + 1));
+            Arrays.fill(firstElements, oldCapacity, firstElements.length, NONE);
+        }
+        return pathNode;
+    }
+
+    /**
+     * internPath で取得したパスのノード ID を解放する。
+     */
+    void releasePath(int pathNode) {
+        arHierarchyPaths.release(pathNode);
+    }
+
+    /**
+     * パスのノード数を取得する。
+     */
+    int getPathCount() {
+        return arHierarchyPaths.size();
+    }
+
+    /**
+     * 登録済みの AR 階層パスのノード ID を取得する。
+     */
+    int findPath(String arHierarchyPath) {
+        return arHierarchyPaths.find(arHierarchyPath);
+    }
+
+    /**
+     * パスのノード ID に対応する AR 階層パスを組み立てる。
+     */
+    String getPathOfNode(int pathNode) {
+        return arHierarchyPaths.getPath(pathNode);
+    }
+
+    /**
+     * パスのノード ID に対応する AR 階層パスの最後のセグメントを取得する。
+     */
+    String getSegmentOfNode(int pathNode) {
+        return arHierarchyPaths.getSegment(pathNode);
+    }
+
+    /**
+     * 指定したパスのノード ID を持つ最初のエレメントを取得する。
+     */
+    int getFirstElementOfPath(int pathNode) {
+        return firstElements[pathNode];
+    }
+
+    /**
+     * エレメント名を登録し、その名前コードを取得する。
+     * (不要になったら releaseName すること)
+     */
+    int internName(String name) {
+        return names.intern(name);
+    }
+
+    /**
+     * internName で取得した名前コードを解放する。
+     */
+    void releaseName(int code) {
+        names.release(code);
+    }
+
+    String getName(int code) {
+        return names.get(code);
+    }
+
+    /**
+     * 登録されているエレメント名の数を取得する。
+     */
+    int getNameCount() {
+        return names.size();
+    }
+
+    /**
+     * 登録されているファイル数を取得する。
+     */
+    int getFileCount() {
+        return filePaths.size();
+    }
+
+    private int internFilePath(Path filePath) {
+        return filePaths.intern(filePath);
+    }
+
+    /**
+     * エレメントを登録し、エレメント ID を返す。
+     * (親の子リストと、同じパスのエレメントリストの末尾につなぐ)
+     */
+    private int addElement(int parent, int pathNode, int file, int line, int type) {
+        int element;
+        if (freeElement != NONE) {
+            element = freeElement;
+            freeElement = nextSiblings[element];
+        } else {
+            if (elementCount == parents.length) {
+                grow(elementCount * 2);
+            }
+            element = elementCount++;
+        }
+        size++;
+
+        parents[element] = parent;
+        firstChildren[element] = NONE;
+        lastChildren[element] = NONE;
+        nextSiblings[element] = NONE;
+        nextSamePaths[element] = NONE;
+        pathNodes[element] = pathNode;
+        files[element] = file;
+        lines[element] = line;
+        types[element] = type;
+
+        int lastSibling = lastChildren[parent];
+        previousSiblings[element] = lastSibling;
+        if (lastSibling == NONE) {
+            firstChildren[parent] = element;
+        } else {
+            nextSiblings[lastSibling] = element;
+        }
+        lastChildren[parent] = element;
+
+        if (firstElements[pathNode] == NONE) {
+            firstElements[pathNode] = element;
+        } else {
+            int e = firstElements[pathNode];
+            while (nextSamePaths[e] != NONE) {
+                e = nextSamePaths[e];
+            }
+            nextSamePaths[e] = element;
+        }
+        return element;
+    }
+
+    private void grow(int capacity) {
+        nextSamePaths = Arrays.copyOf(nextSamePaths, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+        pathNodes = Arrays.copyOf(pathNodes, capacity);
+        files = Arrays.copyOf(files, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        types = Arrays.copyOf(types, capacity);
+    }
+
+    private static int[] newIntArray(int capacity, int value) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, value);
+        return array;
+    }
+}
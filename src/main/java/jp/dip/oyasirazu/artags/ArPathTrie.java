@@ -0,0 +1,333 @@
+package jp.dip.oyasirazu.artags;
+
+import java.util.Arrays;
+
+/**
+ * AR 階層パスを '/' 区切りのセグメント単位で共有して保持するトライ木。
+ *
+ * 各 AR 階層パスは int のノード ID で表す。
+ * 同じ親パスを持つ AR 階層パスは親ノードを共有するので、
+ * 長い共通プレフィックスを持つ大量のパスを少ないメモリで保持できる。
+ *
+ * 任意の文字列を登録でき、 getPath(intern(path)) は元の文字列と一致する。
+ * (空のセグメントも 1 つのセグメントとして扱う)
+ *
+ * ノードは参照カウントを持ち、 intern した回数だけ release されて子ノードも無くなると削除される。
+ * 削除したノードの ID は、次に登録するノードに再利用される。
+ *
+ * スレッドセーフではない。
+ */
+public class ArPathTrie {
+
+    /**
+     * ルートノード(どのパスにも対応しない)の ID。
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * 見つからなかった場合のノード ID。
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long EMPTY_KEY = -1L;
+
+    /**
+     * ノード ID ごとの親ノード ID。
+     */
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    /**
+     * ノード ID ごとのセグメント ID。
+     */
+    private int[] segmentIds = new int[INITIAL_CAPACITY];
+
+    /**
+     * ノード ID ごとの参照カウント(intern された回数と、子ノードの数の合計)。
+     */
+    private int[] refCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * 使用したことのあるノード ID の数。
+     */
+    private int nodeCount = 1;
+
+    /**
+     * 未使用のノード ID のリストの先頭。
+     * (未使用のノードの parents には、次の未使用のノード ID を入れる)
+     */
+    private int freeNode = NOT_FOUND;
+
+    private int size = 1;
+
+    private final InternTable<String> segments = new InternTable<>();
+
+    /**
+     * (親ノード ID, セグメント ID) から子ノード ID を引くためのオープンアドレス法のハッシュテーブル。
+     */
+    private long[] childKeys = newChildKeys(INITIAL_CAPACITY * 2);
+
+    private int[] childValues = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * コンストラクタ。
+     */
+    public ArPathTrie() {
+        parents[ROOT] = NOT_FOUND;
+        segmentIds[ROOT] = NOT_FOUND;
+    }
+
+    /**
+     * AR 階層パスを登録し、そのノード ID を取得する。
+     *
+     * 登録済みの場合は、登録済みのノード ID を返す。
+     * どちらの場合もノードの参照カウントを 1 増やすので、不要になったら release すること。
+     *
+     * @param arHierarchyPath 登録する AR 階層パス
+     *
+     * @return AR 階層パスのノード ID
+     */
+    public int intern(String arHierarchyPath) {
+        int node = ROOT;
+        int start = 0;
+        while (true) {
+            int end = arHierarchyPath.indexOf('/', start);
+            String segment = end < 0
+                    ? arHierarchyPath.substring(start)
+                    : arHierarchyPath.substring(start, end);
+
+            int segmentId = segments.find(segment);
+            int child = segmentId < 0 ? NOT_FOUND : findChild(node, segmentId);
+            node = child == NOT_FOUND ? addChild(node, segments.intern(segment)) : child;
+
+            if (end < 0) {
+                refCounts[node]++;
+                return node;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * 登録済みの AR 階層パスのノード ID を取得する。
+     *
+     * @param arHierarchyPath ノード ID を取得したい AR 階層パス
+     *
+     * @return AR 階層パスのノード ID(登録されていない場合は NOT_FOUND)
+     */
+    public int find(String arHierarchyPath) {
+        int node = ROOT;
+        int start = 0;
+        while (true) {
+            int end = arHierarchyPath.indexOf('/', start);
+            String segment = end < 0
+                    ? arHierarchyPath.substring(start)
+                    : arHierarchyPath.substring(start, end);
+
+            int segmentId = segments.find(segment);
+            if (segmentId < 0) {
+                return NOT_FOUND;
+            }
+
+            node = findChild(node, segmentId);
+            if (node == NOT_FOUND || end < 0) {
+                return node;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * intern で取得したノードの参照カウントを 1 減らす。
+     *
+     * 参照カウントが 0 になったノードは削除し、その親ノードの参照カウントも 1 減らす。
+     *
+     * @param node ノード ID
+     */
+    public void release(int node) {
+        while (node != ROOT && --refCounts[node] == 0) {
+            int parent = parents[node];
+            int segmentId = segmentIds[node];
+            removeChild(childKey(parent, segmentId));
+            segments.release(segmentId);
+
+            parents[node] = freeNode;
+            segmentIds[node] = NOT_FOUND;
+            freeNode = node;
+            size--;
+
+            node = parent;
+        }
+    }
+
+    /**
+     * ノード ID に対応する AR 階層パスを組み立てる。
+     *
+     * @param node ノード ID
+     *
+     * @return AR 階層パス
+     */
+    public String getPath(int node) {
+        int depth = 0;
+        for (int n = node; n != ROOT; n = parents[n]) {
+            depth++;
+        }
+
+        String[] pathSegments = new String[depth];
+        for (int n = node; n != ROOT; n = parents[n]) {
+            pathSegments[--depth] = segments.get(segmentIds[n]);
+        }
+        return String.join("/", pathSegments);
+    }
+
+    /**
+     * ノードの最後のセグメントを取得する。
+     *
+     * @param node ノード ID
+     *
+     * @return セグメント文字列
+     */
+    public String getSegment(int node) {
+        return segments.get(segmentIds[node]);
+    }
+
+    /**
+     * 親ノードの ID を取得する。
+     *
+     * @param node ノード ID
+     *
+     * @return 親ノードの ID(ルートノードの場合は NOT_FOUND)
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * ルートノードを含む、削除されていないノード数を取得する。
+     *
+     * @return ノード数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * ノード ID の上限を取得する。
+     * (ノード ID は 0 から capacity() - 1 までの範囲になる)
+     *
+     * @return ノード ID の上限
+     */
+    public int capacity() {
+        return nodeCount;
+    }
+
+    private int findChild(int parent, int segmentId) {
+        long key = childKey(parent, segmentId);
+        int mask = childKeys.length - 1;
+        for (int i = childIndex(key, mask); childKeys[i] != EMPTY_KEY; i = (i + 1) & mask) {
+            if (childKeys[i] == key) {
+                return childValues[i];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int addChild(int parent, int segmentId) {
+        int node;
+        if (freeNode != NOT_FOUND) {
+            node = freeNode;
+            freeNode = parents[node];
+        } else {
+            if (nodeCount == parents.length) {
+                parents = Arrays.copyOf(parents, nodeCount * 2);
+                segmentIds = Arrays.copyOf(segmentIds, nodeCount * 2);
+                refCounts = Arrays.copyOf(refCounts, nodeCount * 2);
+            }
+            node = nodeCount++;
+        }
+        size++;
+        parents[node] = parent;
+        segmentIds[node] = segmentId;
+        refCounts[node] = 0;
+
+        // 子ノードは親ノードの参照カウントに含める
+        if (parent != ROOT) {
+            refCounts[parent]++;
+        }
+
+        // 使用率が 1/2 を超えたら拡張する
+        if (size * 2 > childKeys.length) {
+            rehashChildren(childKeys.length * 2);
+        }
+        putChild(childKeys, childValues, childKey(parent, segmentId), node);
+        return node;
+    }
+
+    /**
+     * 子ノードのエントリーを削除する。
+     * (線形探査が途切れないよう、後続のエントリーを前に詰める)
+     */
+    private void removeChild(long key) {
+        int mask = childKeys.length - 1;
+        int i = childIndex(key, mask);
+        while (childKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (childKeys[j] == EMPTY_KEY) {
+                childKeys[i] = EMPTY_KEY;
+                return;
+            }
+
+            // 本来の位置が (i, j] の範囲にあるエントリーは動かせない
+            int k = childIndex(childKeys[j], mask);
+            boolean staysInPlace = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!staysInPlace) {
+                childKeys[i] = childKeys[j];
+                childValues[i] = childValues[j];
+                i = j;
+            }
+        }
+    }
+
+    private void rehashChildren(int capacity) {
+        long[] newKeys = newChildKeys(capacity);
+        int[] newValues = new int[capacity];
+        for (int i = 0; i < childKeys.length; i++) {
+            if (childKeys[i] != EMPTY_KEY) {
+                putChild(newKeys, newValues, childKeys[i], childValues[i]);
+            }
+        }
+        childKeys = newKeys;
+        childValues = newValues;
+    }
+
+    private static void putChild(long[] keys, int[] values, long key, int value) {
+        int mask = keys.length - 1;
+        int i = childIndex(key, mask);
+        while (keys[i] != EMPTY_KEY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static long[] newChildKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        return keys;
+    }
+
+    private static long childKey(int parent, int segmentId) {
+        return ((long)parent << 32) | (segmentId & 0xffffffffL);
+    }
+
+    private static int childIndex(long key, int mask) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
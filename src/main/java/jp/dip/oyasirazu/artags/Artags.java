@@ -1,38 +1,38 @@
 package jp.dip.oyasirazu.artags;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.FileVisitResult;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -40,11 +40,148 @@ import org.xml.sax.SAXException;
  */
 public class Artags {
 
+    /**
+     * パース済み Document のキャッシュ。
+     */
+    private static volatile DocumentCache documentCache = new DocumentCache(DocumentCache.CAPACITY_DEFAULT);
+
+    /**
+     * arxml ファイルごとのヘッダ情報のキャッシュ。
+     */
+    private static final Map<Path, ArxmlHeader> ARXML_HEADERS = new ConcurrentHashMap<>();
+
+    /**
+     * 処理フェーズごとの計測結果。
+     */
+    private static final Metrics METRICS = new Metrics();
+
+    /**
+     * DOM を組み立てずに ArxmlScanner で抽出する場合は true。
+     */
+    private static volatile boolean isFastScanEnabled;
+
+    /**
+     * ArxmlStreamScanner で抽出するファイルサイズのデフォルト(バイト数)。
+     */
+    public static final long STREAM_THRESHOLD_DEFAULT = 64L * 1024 * 1024;
+
+    /**
+     * このサイズ以上のファイルは、 DOM を組み立てずに ArxmlStreamScanner で抽出する。
+     */
+    private static volatile long streamThreshold = STREAM_THRESHOLD_DEFAULT;
+
     /**
      * プライベートコンストラクタ。
      */
     private Artags() { }
 
+    /**
+     * パース済み Document のキャッシュを取得する。
+     *
+     * @return パース済み Document のキャッシュ
+     */
+    public static DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * 処理フェーズごとの計測結果を取得する。
+     *
+     * @return 処理フェーズごとの計測結果
+     */
+    public static Metrics getMetrics() {
+        return METRICS;
+    }
+
+    /**
+     * 定義と参照の抽出に ArxmlScanner(高速走査)を使うかを設定する。
+     *
+     * 高速走査で抽出できないファイルは、従来通り DOM で抽出する。
+     *
+     * @param isEnabled 高速走査を使う場合は true
+     */
+    public static void setFastScanEnabled(boolean isEnabled) {
+        isFastScanEnabled = isEnabled;
+    }
+
+    /**
+     * 定義と参照の抽出に ArxmlStreamScanner(StAX による逐次読み込み)を使うファイルサイズを設定する。
+     *
+     * DOM はファイルサイズの数倍のヒープを使うので、大きなファイルは逐次読み込みで抽出する。
+     * (圧縮されたファイルの場合は圧縮後のサイズ、アーカイブ内のエントリの場合は展開後のサイズで判定する)
+     *
+     * @param threshold このサイズ(バイト数)以上のファイルを逐次読み込みで抽出する(0 の場合は全ファイル)
+     */
+    public static void setStreamThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("stream threshold must not be negative : " + threshold);
+        }
+        streamThreshold = threshold;
+    }
+
+    /**
+     * 定義と参照の抽出に ArxmlStreamScanner を使うファイルサイズを取得する。
+     *
+     * @return このサイズ(バイト数)以上のファイルを逐次読み込みで抽出する
+     */
+    public static long getStreamThreshold() {
+        return streamThreshold;
+    }
+
+    /**
+     * パース済み Document のキャッシュ容量を設定する。
+     *
+     * 設定前にキャッシュしていた Document は破棄される。
+     *
+     * @param capacity 保持する Document の最大数(0 の場合はキャッシュしない)
+     */
+    public static void setDocumentCacheCapacity(int capacity) {
+        documentCache = new DocumentCache(capacity);
+    }
+
+    /**
+     * 指定したファイルについてキャッシュしている情報(Document とヘッダ情報)を破棄する。
+     *
+     * ファイルが変更・削除された場合に呼び出す。
+     *
+     * @param filePath キャッシュを破棄するファイルのパス
+     */
+    public static void invalidateCaches(Path filePath) {
+        documentCache.invalidate(filePath);
+        ARXML_HEADERS.remove(filePath);
+    }
+
+    /**
+     * arxml ファイルのヘッダ情報(エンコーディングとプロローグの行数)を取得する。
+     *
+     * ヘッダ情報はファイル先頭の数 KB だけを読んで判定し、ファイルごとにキャッシュする。
+     *
+     * @param arxml ヘッダ情報を取得したい arxml ファイルインスタンス
+     *
+     * @return ヘッダ情報
+     */
+    public static ArxmlHeader getArxmlHeader(Arxml arxml) throws IOException {
+        return getArxmlHeader(arxml, null);
+    }
+
+    /**
+     * arxml ファイルのヘッダ情報を、読み込み済みの内容があればそこから取得する。
+     *
+     * @param arxml ヘッダ情報を取得したい arxml ファイルインスタンス
+     * @param content ファイルの内容(null の場合はファイルから読む)
+     *
+     * @return ヘッダ情報
+     */
+    private static ArxmlHeader getArxmlHeader(Arxml arxml, byte[] content) throws IOException {
+        Path filePath = arxml.getFilePath();
+        ArxmlHeader header = ARXML_HEADERS.get(filePath);
+        if (header == null) {
+            header = content == null ? ArxmlHeader.sniff(filePath) : ArxmlHeader.sniff(filePath, content);
+            ARXML_HEADERS.put(filePath, header);
+        }
+        return header;
+    }
+
     /**
      * 指定したディレクトリ以下の arxml ファイルを検索します。
      *
@@ -55,148 +192,275 @@ public class Artags {
      */
     public static List<Arxml> findArxmls(List<String> baseDirectories, String excludePattern)
             throws IOException {
+        ArxmlFinder finder = new ArxmlFinder(
+                baseDirectories, excludePattern, Collections.emptyList(), Collections.emptyList());
+        return finder.find(Runtime.getRuntime().availableProcessors());
+    }
 
-        // TODO: もっといい感じにできない？？？
-        List<Arxml> arxmls = new ArrayList<>();
-        if (excludePattern == null) {
-            for (String baseDirectory : baseDirectories) {
-                arxmls.addAll(findArxmls(baseDirectory));
-            }
-        } else {
-            for (String baseDirectory : baseDirectories) {
-                arxmls.addAll(findArxmlsWithExclude(baseDirectory, excludePattern));
-            }
-        }
+    /**
+     * 指定された arxml ファイルをパースし、定義と参照を抽出する。
+     *
+     * ファイルのパースは 1 度だけ行い、
+     * ドキュメントを 1 回走査する間に定義と参照の両方を集める。
+     *
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     *
+     * @return 抽出結果
+     */
+    public static Entries extractEntries(Arxml arxml)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        return extract(arxml, null);
+    }
 
-        return arxmls;
+    /**
+     * 読み込み済みの arxml ファイルの内容から、定義と参照を抽出する。
+     *
+     * ReadAhead でファイルを先読みした場合に使う。
+     * ファイルは読まないが、 Document とヘッダ情報のキャッシュは extractEntries(Arxml) と同じく使う。
+     *
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param content ファイルの内容(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return 抽出結果
+     */
+    public static Entries extractEntries(Arxml arxml, byte[] content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        return extract(arxml, content);
     }
 
     /**
-     * 指定したディレクトリ以下の arxml ファイルを検索します。
+     * 読み込み中の arxml ファイルの内容を ArxmlStreamScanner で読み、定義と参照を抽出する。
      *
-     * @param baseDirectory arxml ファイルを探すディレクトリのリスト
+     * メモリに載せないサイズのファイルを、呼び出し側で CheckedInputStream 等をかぶせて読みながら抽出するためのもの。
+     * is はファイルの終わりまで読んでから閉じる。
      *
-     * @return 指定したディレクトリ以下の arxml インスタンスのリスト
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param is ファイルの内容を読むストリーム(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return 抽出結果
      */
-    private static List<Arxml> findArxmls(String baseDirectory)
-            throws IOException {
+    public static Entries extractEntries(Arxml arxml, InputStream is) throws SAXException, IOException {
+        Path filePath = arxml.getFilePath();
+        // XML パーサーは読み終わるとストリームを閉じるので、残りを読めるよう閉じないストリームを渡す
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.PARSE, filePath);
+                is;
+                InputStream content = ArxmlArchives.newInputStream(filePath, new UnclosableInputStream(is))) {
+            Entries entries = ArxmlStreamScanner.scan(filePath, content);
+            // ルートエレメントの後ろの空白等も読む
+            is.transferTo(OutputStream.nullOutputStream());
+
+            METRICS.add(Metrics.Counter.FILES_STREAMED, 1);
+            scope.setBytes(Files.size(filePath));
+            scope.setEntries(entries.getDefinitions().size(), entries.getReferences().size());
+            return entries;
+        }
+    }
 
-        // 指定されたディレクトリ以下の arxml ファイルを抽出し、 arxmls に格納
-        List<Arxml> arxmls = new ArrayList<>();
+    /**
+     * 指定された arxml ファイルの定義と参照を抽出する。
+     *
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param content ファイルの内容(null の場合はファイルから読む)
+     *
+     * @return 抽出結果
+     */
+    private static Entries extract(Arxml arxml, byte[] content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
 
-        // 指定されたディレクトリ以下の arxml ファイルを抽出
-        Files.walkFileTree(Paths.get(baseDirectory),
-            new SimpleFileVisitor<Path>() {
+        Path filePath = arxml.getFilePath();
+        if (isFastScanEnabled) {
+            Entries entries = scanEntries(arxml, content);
+            if (entries != null) {
+                return entries;
+            }
+            METRICS.add(Metrics.Counter.FAST_SCAN_FALLBACKS, 1);
+        }
 
-                @Override
-                public FileVisitResult visitFile(
-                        Path filePath,
-                        BasicFileAttributes attr) throws IOException {
+        if (size(filePath, content) >= streamThreshold) {
+            return streamEntries(arxml, content);
+        }
 
-                    // arxml ファイルであれば、リストに追加する
-                    if (filePath.toString().endsWith("arxml")) {
-                        arxmls.add(new Arxml(filePath));
-                    }
+        Document document = createDocument(filePath, content);
 
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+        List<Definition> definitions = new ArrayList<>();
+        List<Reference> references = new ArrayList<>();
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.EXTRACT, filePath)) {
+            collectEntries(document.getDocumentElement(), "", filePath, definitions, references);
+            scope.setEntries(definitions.size(), references.size());
+        }
 
-        return arxmls;
+        return new Entries(filePath, definitions, references);
     }
 
     /**
-     * 指定したディレクトリ以下の arxml ファイルを検索します。
+     * 指定された arxml ファイルの内容として content をパースし、定義と参照を抽出する。
      *
-     * @param baseDirectory arxml ファイルを探すディレクトリ
-     * @param excludePattern 除外するパスの正規表現パターン文字列
+     * エディタで編集中の保存されていない内容を抽出するためのもの。
+     * ファイルは読まず、 Document のキャッシュも使わない。
      *
-     * @return 指定したディレクトリ以下の arxml インスタンスのリスト
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param content arxml ファイルの内容
+     *
+     * @return 抽出結果
      */
-    private static List<Arxml> findArxmlsWithExclude(String baseDirectory, String excludePattern)
-            throws IOException {
-
-        // 除外ディレクトリ用のパターンをコンパイルする
-        Pattern pattern = Pattern.compile(excludePattern);
-
-        // 指定されたディレクトリ以下の arxml ファイルを抽出し、 arxmls に格納
-        List<Arxml> arxmls = new ArrayList<>();
-
-        // 指定されたディレクトリ以下の arxml ファイルを抽出
-        Files.walkFileTree(Paths.get(baseDirectory),
-            new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(
-                        Path dir,
-                        BasicFileAttributes attrs) throws IOException {
-
-                    // excludePattern にマッチしたら、サブツリーをスキップ
-                    Matcher m = pattern.matcher(dir.toString());
-                    boolean isMatch = m.matches();
-                    if (isMatch) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    } else {
-                        return FileVisitResult.CONTINUE;
-                    }
+    public static Entries extractEntries(Arxml arxml, String content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
 
-                }
+        Path filePath = arxml.getFilePath();
+        List<Definition> definitions = new ArrayList<>();
+        List<Reference> references = new ArrayList<>();
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.PARSE, filePath)) {
+            // 文字列から読み込むので、 XML 宣言のエンコーディングは使わない
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            InputSource source = new InputSource(new StringReader(content));
+            source.setSystemId(filePath.toUri().toString());
+            SAXParserFactory.newInstance().newSAXParser().parse(source, new LineNumberDocumentHandler(document));
+
+            collectEntries(document.getDocumentElement(), "", filePath, definitions, references);
+            scope.setEntries(definitions.size(), references.size());
+        }
 
-                @Override
-                public FileVisitResult visitFile(
-                        Path filePath,
-                        BasicFileAttributes attr) throws IOException {
+        return new Entries(filePath, definitions, references);
+    }
 
-                    // excludePattern にマッチしたら、このファイルはスキップ
-                    Matcher m = pattern.matcher(filePath.toString());
-                    boolean isMatch = m.matches();
-                    if (isMatch) {
-                        return FileVisitResult.CONTINUE;
-                    }
+    /**
+     * 指定された arxml ファイルを ArxmlScanner で走査し、定義と参照を抽出する。
+     *
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param content ファイルの内容(null の場合はファイルから読む)
+     *
+     * @return 抽出結果(ArxmlScanner で抽出できないファイルの場合は null)
+     */
+    private static Entries scanEntries(Arxml arxml, byte[] content) throws IOException {
+        Path filePath = arxml.getFilePath();
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.PARSE, filePath)) {
+            ArxmlHeader header = getArxmlHeader(arxml, content);
+            Entries entries = content == null
+                    ? ArxmlScanner.scan(filePath, header)
+                    : ArxmlScanner.scan(filePath, content, header);
+            if (entries == null) {
+                scope.cancel();
+                return null;
+            }
 
-                    // arxml ファイルであれば、リストに追加する
-                    if (filePath.toString().endsWith("arxml")) {
-                        arxmls.add(new Arxml(filePath));
-                    }
+            scope.setBytes(size(filePath, content));
+            scope.setEntries(entries.getDefinitions().size(), entries.getReferences().size());
+            return entries;
+        }
+    }
 
-                    return FileVisitResult.CONTINUE;
+    /**
+     * 指定された arxml ファイルを ArxmlStreamScanner で読み、定義と参照を抽出する。
+     *
+     * @param arxml 定義と参照を抽出したい arxml ファイルインスタンス
+     * @param content ファイルの内容(null の場合はファイルから読む)
+     *
+     * @return 抽出結果
+     */
+    private static Entries streamEntries(Arxml arxml, byte[] content) throws SAXException, IOException {
+        Path filePath = arxml.getFilePath();
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.PARSE, filePath)) {
+            Entries entries;
+            if (content == null) {
+                entries = ArxmlStreamScanner.scan(filePath);
+            } else {
+                try (InputStream is = ArxmlArchives.newInputStream(filePath, content)) {
+                    entries = ArxmlStreamScanner.scan(filePath, is);
                 }
-            });
-
-        return arxmls;
+            }
+            METRICS.add(Metrics.Counter.FILES_STREAMED, 1);
+            scope.setBytes(size(filePath, content));
+            scope.setEntries(entries.getDefinitions().size(), entries.getReferences().size());
+            return entries;
+        }
     }
 
-
     /**
-     * 指定された arxml ファイルから、参照先を設定しているノードを探す。
+     * arxml ファイルのサイズを取得する。
      *
-     * @param arxml 参照先を設定しているノードを探したい arxml ファイルインスタンス
+     * @param filePath arxml ファイルのパス
+     * @param content ファイルの内容(null の場合はファイルのサイズを取得する)
      *
-     * @return 参照先を設定しているノードインスタンスのリスト
+     * @return ファイルのサイズ(バイト数)
      */
-    private static List<Node> searchRefNodes(Arxml arxml) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException {
+    private static long size(Path filePath, byte[] content) throws IOException {
+        return content == null ? Files.size(filePath) : content.length;
+    }
 
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xpath = xPathFactory.newXPath();
+    /**
+     * 指定されたエレメント以下を走査し、定義と参照を集める。
+     *
+     * @param element 走査対象のエレメント
+     * @param parentArHierarchyPath 親エレメントの AR 階層パス
+     * @param filePath 走査対象のエレメントが記述されているファイルのパス
+     * @param definitions 見つけた定義の格納先
+     * @param references 見つけた参照の格納先
+     */
+    private static void collectEntries(
+            Element element,
+            String parentArHierarchyPath,
+            Path filePath,
+            List<Definition> definitions,
+            List<Reference> references) {
+
+        // DEST 属性を持っていれば参照元エレメント
+        if (element.hasAttribute("DEST")) {
+            references.add(new Reference(
+                    element.getTextContent(), element.getAttribute("DEST"), getLineNumber(element)));
+        }
 
-        // get reference node list
-        NodeList refNodeList = (NodeList)xpath.evaluate(
-                "//*[@DEST]",
-                createDocument(arxml.getFilePath()),
-                XPathConstants.NODESET);
+        // SHORT-NAME を持っていれば参照先になり得るエレメント
+        String arHierarchyPath = parentArHierarchyPath;
+        String shortName = getShortName(element);
+        if (shortName != null) {
+            arHierarchyPath = parentArHierarchyPath + "/" + shortName;
+            definitions.add(new Definition(
+                    arHierarchyPath,
+                    filePath,
+                    getLineNumber(element),
+                    element.getNodeName()));
+        }
 
-        // move NodeList to ArrayList<Node>.
-        int refNodeListSize = refNodeList.getLength();
-        ArrayList<Node> refNodes = new ArrayList<>(refNodeListSize);
-        for (int i = 0; i < refNodeListSize; i++) {
-            refNodes.add(refNodeList.item(i));
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                collectEntries((Element)child, arHierarchyPath, filePath, definitions, references);
+            }
         }
+    }
 
-        return refNodes;
+    /**
+     * 指定されたエレメントの SHORT-NAME を取得する。
+     *
+     * @param element SHORT-NAME を取得したいエレメント
+     *
+     * @return SHORT-NAME の文字列(SHORT-NAME を持たない場合は null)
+     */
+    private static String getShortName(Element element) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                    && child.getNodeName().equals("SHORT-NAME")) {
+                String shortName = child.getTextContent();
+                return shortName.isEmpty() ? null : shortName;
+            }
+        }
+        return null;
     }
 
     /**
      * タグファイルのレコードを生成する。
      *
+     * avarableArxmls からインデックスを構築して参照を解決する。
+     * 複数ファイルを処理する場合は、
+     * 一度だけ構築したインデックスを使う Artags#createTagsString(Arxml, ArxmlIndex) を使うこと。
+     *
      * @param referredArxml 解析対象の arxml インスタンス。(参照の定義をしているほう)
      * @param avarableArxmls 実体を探す対象の arxml インスタンスのリスト
      *
@@ -211,101 +475,117 @@ public class Artags {
                     ParserConfigurationException,
                     IOException {
 
-        // 参照しているノードのリストを取得する
-        List<Node> refNodes = searchRefNodes(referredArxml);
-
-        // avarableArxmls から、 refNode の実体を探す
-        Set<Record> tags = refNodes.parallelStream()
-            .map((n) -> searchNodeElementFromAvarableArxmls(n, avarableArxmls))
-            .flatMap(v -> v.stream()).collect(Collectors.toSet());
-
-        return tags;
+        return createTagsString(referredArxml, ArxmlIndex.build(avarableArxmls));
     }
 
-
     /**
-     * arHierarchyPath から実体のエレメントを探すための XPath 式を組み立てる。
+     * タグファイルのレコードを生成する。
      *
-     * @param arHierarchyPath 参照文字列
+     * @param referredArxml 解析対象の arxml インスタンス。(参照の定義をしているほう)
+     * @param index 実体を探す対象のインデックス
      *
-     * @return XPath 式文字列
+     * @return 解析結果のタグファイルレコードのセット
      */
-    private static String buildEntitySearchXPath(String arHierarchyPath) {
-        List<String> splitedArHierarchyPath = Arrays.asList(arHierarchyPath.split("/"));
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("//SHORT-NAME[text()=\"");
+    public static Set<Record> createTagsString(
+            Arxml referredArxml,
+            ArxmlIndex index)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
 
-        int depth = splitedArHierarchyPath.size();
-        for (int i = 1; i < depth - 1; i++) {
-            sb.append(splitedArHierarchyPath.get(i));
-            sb.append("\"]/..//SHORT-NAME[text()=\"");
+        // インデックス構築時に抽出済みであればそれを使う
+        if (index.contains(referredArxml.getFilePath())) {
+            return index.resolve(referredArxml.getFilePath());
         }
-        sb.append(splitedArHierarchyPath.get(depth - 1));
-        sb.append("\"]/..");
 
-        return sb.toString();
+        return index.resolve(extractEntries(referredArxml));
     }
 
     /**
      * 対象ノードの行番号を取得する。
      *
-     * この行番号は、ルートノードのある行を 1 行目とした場合の行数である。
-     * Artags#getPrologLineNumber の結果と足し合わせてファイルの行番号を取得する。
+     * 行番号はパース時に記録したもので、ファイル先頭の行を 1 行目とした場合の行数である。
+     * 行番号を記録していないノード(テキストノード等)の場合は、
+     * 行番号を記録している最も近い祖先エレメントの行番号を返却する。
+     *
+     * @param node 行番号を取得したいノード
      *
-     * @see Artags#getPrologLineNumber
+     * @return 対象ノードの行番号
      */
     private static long getLineNumber(Node node) {
-        String beforeLineTextContents = buildBeforeLineTextContents(node);
-
-        // 組み立てたテキスト内の改行コードを数える
-        // 行番号は 1 オリジンなので +1.
-        long count = 1;
-        for (int i = 0; i < beforeLineTextContents.length(); i++) {
-            if (beforeLineTextContents.charAt(i) == '\n') {
-                count++;
+        for (Node target = node; target != null; target = target.getParentNode()) {
+            Object lineNumber = target.getUserData(LineNumberDocumentHandler.LINE_NUMBER_KEY);
+            if (lineNumber != null) {
+                return (Long)lineNumber;
             }
         }
 
-        return count;
+        throw new IllegalArgumentException("line number is not recorded : " + node.getNodeName());
     }
 
     /**
-     * 行番号を取得するため、自分より上(前)の行のテキストをすべて取得する。
+     * 指定された arxml ファイルパスをパースし、 Document にして返却する。
+     *
+     * Document キャッシュの容量を指定した場合、パース結果はキャッシュされ、
+     * 同じファイルを再度指定した場合はキャッシュから返却する。
+     * (キャッシュのヒット・ミスの回数は計測結果に加算する)
+     *
+     * @param arxmlFilePath arxml ファイルパス
+     * @param content ファイルの内容(null の場合はファイルから読む)
+     *
+     * @return 引数で指定された arxml ファイルのパース結果である Document インスタンス
      */
-    private static String buildBeforeLineTextContents(Node node) {
-        StringBuilder sb = new StringBuilder();
-
-        Node parent = node.getParentNode();
-        if (parent.getNodeType() == Node.DOCUMENT_NODE) {
-            return sb.toString();
-        }
-
-        sb.append(buildBeforeLineTextContents(parent));
-
-        Node loopTarget = node.getPreviousSibling();
-        while (loopTarget != null) {
-            sb.append(loopTarget.getTextContent());
-            loopTarget = loopTarget.getPreviousSibling();
+    private static Document createDocument(Path arxmlFilePath, byte[] content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        DocumentCache cache = documentCache;
+        if (cache.getCapacity() == 0) {
+            return parseDocument(arxmlFilePath, content);
         }
 
-        return sb.toString();
+        boolean[] isLoaded = new boolean[1];
+        Document document = cache.get(arxmlFilePath, p -> {
+            isLoaded[0] = true;
+            return parseDocument(p, content);
+        });
+        METRICS.add(isLoaded[0] ? Metrics.Counter.DOCUMENT_CACHE_MISSES : Metrics.Counter.DOCUMENT_CACHE_HITS, 1);
+        return document;
     }
 
     /**
-     * 指定された arxml ファイルパスをパースし、 Document にして返却する。
+     * 指定された arxml ファイルパスをキャッシュを使わずにパースし、 Document にして返却する。
+     *
+     * Document の各エレメントには、パース時に取得した行番号と列番号をユーザーデータとして格納する。
      *
      * @param arxmlFilePath arxml ファイルパス
+     * @param content ファイルの内容(null の場合はファイルから読む)
      *
      * @return 引数で指定された arxml ファイルのパース結果である Document インスタンス
      */
-    private static Document createDocument(Path arxmlFilePath)
+    private static Document parseDocument(Path arxmlFilePath, byte[] content)
             throws SAXException,
                     ParserConfigurationException,
                     IOException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        return builder.parse(arxmlFilePath.toFile());
+        // 行番号を記録するため、 SAX でパースしながら Document を組み立てる
+        try (Metrics.FileScope scope = METRICS.startFile(Metrics.Phase.PARSE, arxmlFilePath)) {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            if (content != null) {
+                try (InputStream is = ArxmlArchives.newInputStream(arxmlFilePath, content)) {
+                    parser.parse(is, new LineNumberDocumentHandler(document), arxmlFilePath.toUri().toString());
+                }
+            } else if (ArxmlArchives.isPlainFile(arxmlFilePath)) {
+                parser.parse(arxmlFilePath.toFile(), new LineNumberDocumentHandler(document));
+            } else {
+                // 圧縮されたファイルやアーカイブ内のエントリは、展開しながら読み込む
+                try (InputStream is = ArxmlArchives.newInputStream(arxmlFilePath)) {
+                    parser.parse(is, new LineNumberDocumentHandler(document), arxmlFilePath.toUri().toString());
+                }
+            }
+            scope.setBytes(size(arxmlFilePath, content));
+            return document;
+        }
     }
 
     /**
@@ -316,121 +596,38 @@ public class Artags {
      * @param avarableArxmls 参照先を探す対象の ARXML ファイルリスト
      *
      * @return ctags のレコードを表すオブジェクトのセット
+     *
+     * @deprecated 参照ごとに全ファイルを検索するため遅い。 ArxmlIndex を使用すること。
      */
+    @Deprecated
     public static Set<Record> searchNodeElementFromAvarableArxmls(Node n,
             List<Arxml> avarableArxmls) {
         String arHierarchyPath = n.getTextContent();
         String[] arHierarchyArray = arHierarchyPath.split("/");
         String symbol = arHierarchyArray[arHierarchyArray.length - 1];
 
-        // 実体を探すための XPath 式を組み立てる
-        String entitySearchXPath = buildEntitySearchXPath(arHierarchyPath);
-
-        // 全 arxml に対して直前で組み立てた XPath 式を使って実体を取得
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xpath = xPathFactory.newXPath();
-
-        Set<Record> t = new HashSet<>();
+        // 全 arxml のパッケージ階層を組み立て、 arHierarchyPath が一致するエレメントを探す
+        ArPackageTree packageTree = new ArPackageTree();
         for (Arxml arxml : avarableArxmls) {
             try {
-
-                // prolog のテキストが無視されてしまい行数が特定できないので、
-                // prolog だけテキストとして読み込んで改行文字を数える。
-                long prologLines = getPrologLineNumber(arxml);
-
-                NodeList targetNodeList = (NodeList)xpath.evaluate(
-                            entitySearchXPath,
-                            createDocument(arxml.getFilePath()),
-                            XPathConstants.NODESET);
-
-                // 実体が見つかったら返却用 Set に詰め込む
-                int targetNodeSize = targetNodeList.getLength();
-                for (int i = 0; i < targetNodeSize; i++) {
-                    Node targetNode = targetNodeList.item(i);
-
-                    // targetNode の arHierarchyPath が
-                    // 指定された arHierarchyPath と異なる場合はスキップ
-                    // (別階層に同じ SHORT-NAME が存在する場合、両方とも引っかかってしまうため)
-                    if (!getArHierarcyPath(targetNode).equals(arHierarchyPath)) {
-                        continue;
-                    }
-
-                    String lineNumber = String.valueOf(
-                            prologLines + getLineNumber(targetNode));
-                    t.add(new Record(
-                            symbol,
-                            arxml.getFilePath(),
-                            lineNumber,
-                            targetNode.getNodeName(),
-                            arHierarchyPath));
-                }
+                packageTree.addEntries(extractEntries(arxml));
             } catch (ParserConfigurationException
                     |SAXException
-                    |XPathExpressionException
                     |IOException e) {
                 throw new RuntimeException("filePath : " + arxml.getFilePath() + ".", e);
             }
         }
-        return t;
-    }
-
-    /**
-     * ARXML ファイルのプロローグの行数を取得する。
-     *
-     * @param 対象の ARXML ファイル
-     *
-     * @return ARXML ファイルのプロローグの行数
-     */
-    private static long getPrologLineNumber(Arxml arxml)
-            throws SAXException, ParserConfigurationException, IOException {
-
-        Path arxmlFilePath = arxml.getFilePath();
-        Document document = createDocument(arxmlFilePath);
-
-        String docEncoding = document.getXmlEncoding();
-        Charset charset;
-        if (docEncoding != null) {
-            charset = Charset.forName(docEncoding);
-        } else {
-            charset = Charset.forName("UTF-8");
-        }
-
-        // ファイルの先頭から "<AUTOSAR " が出現する行までの行数を数える
-        Iterator<String> lines = Files.lines(arxmlFilePath, charset).iterator();
-        long prologLines = 0;
-        while (lines.hasNext()) {
-            String line = lines.next();
-            if (line.contains("<AUTOSAR ")) {
-                break;
-            }
-            prologLines++;
-        }
-
-        return prologLines;
-    }
 
-    private static String getArHierarcyPath(Node node) throws XPathExpressionException {
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xpath = xPathFactory.newXPath();
-
-        String shortName = xpath.evaluate(
-                    "./SHORT-NAME/text()",
-                    node);
-
-        Node parentNode = node.getParentNode();
-        if (parentNode != null) {
-            if (shortName == "") {
-                return getArHierarcyPath(parentNode);
-            } else {
-                return getArHierarcyPath(parentNode) + "/" + shortName;
-            }
-        } else {
-            if (shortName == "") {
-                return "";
-            } else {
-                return "/" + shortName;
-            }
+        Set<Record> t = new HashSet<>();
+        for (int element : packageTree.find(arHierarchyPath)) {
+            t.add(new Record(
+                    symbol,
+                    packageTree.getFilePath(element),
+                    String.valueOf(packageTree.getLineNumber(element)),
+                    packageTree.getElementName(element),
+                    arHierarchyPath));
         }
+        return t;
     }
 
     /**
@@ -452,7 +649,7 @@ public class Artags {
          * @return タグファイルの 1 レコードとして出力する文字列
          */
         public String buildRecordString() {
-            return symbol + "\t" + filePath.toString() + "\t" + searchStr + ";\"\t\t" + arHierarchyPath + " (" + type + ")\tfile:";
+            return buildRecordString(ArxmlArchives.toPathString(filePath));
         }
 
         /**
@@ -464,8 +661,20 @@ public class Artags {
          * @return タグファイルの 1 レコードとして出力する文字列
          */
         public String buildRecordString(Path baseDirPath) {
-            Path relativePath = baseDirPath.toAbsolutePath().relativize(filePath.toAbsolutePath());
-            return symbol + "\t" + relativePath.toString() + "\t" + searchStr + ";\"\t\t" + arHierarchyPath + " (" + type + ")\tfile:";
+            return buildRecordString(ArxmlArchives.toPathString(filePath, baseDirPath.toAbsolutePath()));
+        }
+
+        /**
+         * タグファイルの 1 レコードとして出力する文字列を組み立てる。
+         *
+         * タグファイルに出力するパスには、 filePathStr をそのまま使う。
+         * (同じファイルのレコードを大量に出力する場合に、パスの計算をファイルごとに 1 回で済ませるため)
+         *
+         * @param filePathStr タグレコードとして出力するパス文字列
+         * @return タグファイルの 1 レコードとして出力する文字列
+         */
+        public String buildRecordString(String filePathStr) {
+            return symbol + "\t" + filePathStr + "\t" + searchStr + ";\"\t\t" + arHierarchyPath + " (" + type + ")\tfile:";
         }
     }
 
@@ -477,5 +686,19 @@ public class Artags {
     public static class Arxml {
         private Path filePath;
     }
-}
 
+    /**
+     * close しても元のストリームを閉じないストリーム。
+     */
+    private static class UnclosableInputStream extends FilterInputStream {
+
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // 元のストリームは呼び出し側で閉じる
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * アーカイブに入った arxml ファイルを扱うクラス。
+ *
+ * 以下のファイルを、展開せずにそのまま読み込めるようにする。
+ *
+ * - gzip で圧縮された arxml ファイル(拡張子 .arxml.gz)
+ * - zip, jar アーカイブ内の arxml ファイル(zip ファイルシステムのパスとして扱う)
+ *
+ * zip, jar アーカイブのエントリは、タグファイルには Vim の zip プラグインで開ける
+ * "zipfile:アーカイブのパス::エントリのパス" の形式で出力する。
+ * gzip で圧縮されたファイルは、ファイルのパスをそのまま出力する。
+ */
+public class ArxmlArchives {
+
+    private static final String GZIP_ARXML_EXTENSION = ".arxml.gz";
+
+    private static final String[] ARCHIVE_EXTENSIONS = {".zip", ".jar"};
+
+    private static final String ZIPFILE_SCHEME = "zipfile:";
+
+    private static final String ENTRY_SEPARATOR = "::";
+
+    /**
+     * gzip の展開に使う入力バッファのサイズ。
+     */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 開いているアーカイブのファイルシステム。
+     * (キーはアーカイブの絶対パス)
+     */
+    private static final Map<Path, FileSystem> FILE_SYSTEMS = new ConcurrentHashMap<>();
+
+    /**
+     * 開いているファイルシステムごとの、アーカイブの絶対パス。
+     */
+    private static final Map<FileSystem, Path> ARCHIVE_PATHS = new ConcurrentHashMap<>();
+
+    /**
+     * 開いているファイルシステムごとの、アーカイブを最初に開いたときに指定されたパス。
+     * (相対パスで探索した場合は相対パスのまま)
+     */
+    private static final Map<FileSystem, Path> DISCOVERED_ARCHIVE_PATHS = new ConcurrentHashMap<>();
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private ArxmlArchives() { }
+
+    /**
+     * gzip で圧縮された arxml ファイルの拡張子を持つかを判定する。(大文字小文字を区別しない)
+     *
+     * @param path 判定するパス
+     *
+     * @return gzip で圧縮された arxml ファイルの拡張子を持つ場合は true
+     */
+    public static boolean isGzipArxml(Path path) {
+        return endsWithIgnoreCase(path, GZIP_ARXML_EXTENSION);
+    }
+
+    /**
+     * zip, jar アーカイブの拡張子を持つかを判定する。(大文字小文字を区別しない)
+     *
+     * @param path 判定するパス
+     *
+     * @return zip, jar アーカイブの拡張子を持つ場合は true
+     */
+    public static boolean isArchive(Path path) {
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (endsWithIgnoreCase(path, extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 指定したパスがアーカイブ内のエントリであれば、アーカイブのパスを取得する。
+     *
+     * @param filePath 判定するパス
+     *
+     * @return アーカイブの絶対パス(アーカイブ内のエントリでない場合は null)
+     */
+    public static Path getArchivePath(Path filePath) {
+        return ARCHIVE_PATHS.get(filePath.getFileSystem());
+    }
+
+    /**
+     * 指定したパスがアーカイブ内のエントリであれば、アーカイブを開いたときに指定されたパスを取得する。
+     *
+     * 通常のファイルのパスと同じく探索したときのパスそのものなので、
+     * 相対パスで探索した場合は、作業ディレクトリに依らない相対パスになる。
+     *
+     * @param filePath 判定するパス
+     *
+     * @return アーカイブを開いたときのパス(アーカイブ内のエントリでない場合は null)
+     */
+    public static Path getDiscoveredArchivePath(Path filePath) {
+        return DISCOVERED_ARCHIVE_PATHS.get(filePath.getFileSystem());
+    }
+
+    /**
+     * 展開せずにそのままメモリマップできるファイルかを判定する。
+     *
+     * @param filePath 判定するパス
+     *
+     * @return 圧縮されていない通常のファイルの場合は true
+     */
+    public static boolean isPlainFile(Path filePath) {
+        return filePath.getFileSystem() == FileSystems.getDefault() && !isGzipArxml(filePath);
+    }
+
+    /**
+     * 指定したアーカイブ内の arxml ファイルを探す。
+     *
+     * アーカイブはファイルシステムとして開き、 close(Path) を呼ぶまで開いたままにする。
+     * 同じアーカイブを再度指定した場合は、開いているファイルシステムを使う。
+     *
+     * @param archivePath zip, jar アーカイブのパス
+     *
+     * @return アーカイブ内の arxml ファイルのパスのリスト(エントリのパスの辞書順)
+     */
+    public static List<Path> findEntries(Path archivePath) throws IOException {
+        FileSystem fileSystem = open(archivePath);
+
+        List<Path> entries = new ArrayList<>();
+        for (Path root : fileSystem.getRootDirectories()) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                entries.addAll(paths
+                        .filter(path -> ArxmlFinder.isArxml(path) && Files.isRegularFile(path))
+                        .collect(Collectors.toList()));
+            }
+        }
+        entries.sort((a, b) -> a.toString().compareTo(b.toString()));
+        return entries;
+    }
+
+    /**
+     * 指定したアーカイブのファイルシステムを閉じる。
+     *
+     * アーカイブが変更・削除された場合に呼び出す。
+     * 開いていない場合は何もしない。
+     *
+     * @param archivePath zip, jar アーカイブのパス
+     */
+    public static void close(Path archivePath) throws IOException {
+        FileSystem fileSystem = FILE_SYSTEMS.remove(toArchiveKey(archivePath));
+        if (fileSystem != null) {
+            ARCHIVE_PATHS.remove(fileSystem);
+            DISCOVERED_ARCHIVE_PATHS.remove(fileSystem);
+            fileSystem.close();
+        }
+    }
+
+    /**
+     * 指定した arxml ファイルを読み込むストリームを開く。
+     *
+     * gzip で圧縮されたファイルは、展開しながら読み込む。
+     * (バッファリングはしないので、必要に応じて呼び出し側で行うこと)
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     *
+     * @return arxml ファイルの内容を読み込むストリーム
+     */
+    public static InputStream newInputStream(Path filePath) throws IOException {
+        InputStream is = Files.newInputStream(filePath);
+        try {
+            return newInputStream(filePath, is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 読み込み済みの arxml ファイルの内容を読むストリームを作る。
+     *
+     * newInputStream(Path) と同じく、 gzip で圧縮されたファイルは展開しながら読み込む。
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     * @param content ファイルの内容(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return arxml ファイルの内容を読み込むストリーム
+     */
+    public static InputStream newInputStream(Path filePath, byte[] content) throws IOException {
+        return newInputStream(filePath, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * arxml ファイルの内容を読んでいるストリームから、 newInputStream(Path) と同じく読むストリームを作る。
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     * @param is ファイルの内容を読むストリーム(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return arxml ファイルの内容を読み込むストリーム(閉じると is も閉じる)
+     */
+    public static InputStream newInputStream(Path filePath, InputStream is) throws IOException {
+        if (isGzipArxml(filePath)) {
+            return new GZIPInputStream(is, GZIP_BUFFER_SIZE);
+        }
+        return is;
+    }
+
+    /**
+     * 指定した arxml ファイルを表示・識別するための文字列を取得する。
+     *
+     * アーカイブ内のエントリは "zipfile:アーカイブの絶対パス::エントリのパス" の形式、
+     * それ以外はパスの文字列そのものを返す。
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     *
+     * @return 表示・識別用の文字列
+     */
+    public static String toPathString(Path filePath) {
+        Path archivePath = getArchivePath(filePath);
+        if (archivePath == null) {
+            return filePath.toString();
+        }
+        return toEntryString(archivePath.toString(), filePath);
+    }
+
+    /**
+     * 指定した arxml ファイルを、タグファイルに出力する形式の文字列にする。
+     *
+     * パスは baseDirPath からの相対パスにする。
+     * (アーカイブ内のエントリの場合は、アーカイブのパスを相対パスにする)
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     * @param baseDirPath 相対パスの基準にする絶対パス
+     *
+     * @return タグファイルに出力するパス文字列
+     */
+    public static String toPathString(Path filePath, Path baseDirPath) {
+        Path archivePath = getArchivePath(filePath);
+        if (archivePath == null) {
+            return baseDirPath.relativize(filePath.toAbsolutePath()).toString();
+        }
+        return toEntryString(baseDirPath.relativize(archivePath).toString(), filePath);
+    }
+
+    private static String toEntryString(String archivePathStr, Path entryPath) {
+        String entryPathStr = entryPath.toAbsolutePath().toString();
+        if (entryPathStr.startsWith("/")) {
+            entryPathStr = entryPathStr.substring(1);
+        }
+        return ZIPFILE_SCHEME + archivePathStr + ENTRY_SEPARATOR + entryPathStr;
+    }
+
+    /**
+     * 指定したアーカイブ内のエントリのパスを取得する。
+     *
+     * アーカイブはファイルシステムとして開き、 close(Path) を呼ぶまで開いたままにする。
+     *
+     * @param archivePath zip, jar アーカイブのパス
+     * @param entryPathStr アーカイブ内のエントリのパス文字列
+     *
+     * @return エントリのパス
+     */
+    public static Path getEntry(Path archivePath, String entryPathStr) throws IOException {
+        return open(archivePath).getPath(entryPathStr);
+    }
+
+    /**
+     * 指定したアーカイブをファイルシステムとして開く。
+     * (既に開いている場合は、開いているファイルシステムを返す)
+     */
+    private static FileSystem open(Path archivePath) throws IOException {
+        Path archiveKey = toArchiveKey(archivePath);
+        FileSystem fileSystem = FILE_SYSTEMS.get(archiveKey);
+        if (fileSystem != null) {
+            return fileSystem;
+        }
+
+        synchronized (FILE_SYSTEMS) {
+            fileSystem = FILE_SYSTEMS.get(archiveKey);
+            if (fileSystem == null) {
+                fileSystem = FileSystems.newFileSystem(archiveKey, (ClassLoader)null);
+                ARCHIVE_PATHS.put(fileSystem, archiveKey);
+                DISCOVERED_ARCHIVE_PATHS.put(fileSystem, archivePath);
+                FILE_SYSTEMS.put(archiveKey, fileSystem);
+            }
+            return fileSystem;
+        }
+    }
+
+    private static Path toArchiveKey(Path archivePath) {
+        return archivePath.toAbsolutePath().normalize();
+    }
+
+    private static boolean endsWithIgnoreCase(Path path, String extension) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString();
+        return name.regionMatches(true, name.length() - extension.length(),
+                extension, 0, extension.length());
+    }
+}
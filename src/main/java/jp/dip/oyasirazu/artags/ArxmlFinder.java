@@ -0,0 +1,625 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+/**
+ * 指定したディレクトリ以下の arxml ファイルを探すクラス。
+ *
+ * ディレクトリごとに fork-join のタスクを分け、サブツリーを並列に探す。
+ * 見つけたファイルは、ベースディレクトリの指定順、ベースディレクトリ内ではパスの辞書順に並べる。
+ *
+ * 拡張子が .arxml (大文字小文字を区別しない)のファイルを対象とし、以下の条件で絞り込む。
+ * gzip で圧縮された .arxml.gz のファイルと、 zip, jar アーカイブ内の .arxml のエントリも対象にする。
+ * (アーカイブ自体を除外ルールで判定し、アーカイブ内のエントリは対象 glob と除外パターンで判定する)
+ *
+ * - 除外パターン(正規表現): パス文字列全体にマッチしたディレクトリ・ファイルを除外する
+ * - 除外 glob: ベースディレクトリに置いた .artagsignore と同じ扱いで除外する
+ * - .artagsignore: 置かれたディレクトリ以下で、 1 行 1 つの glob にマッチしたディレクトリ・ファイルを除外する
+ * - 対象 glob: 指定された場合は、いずれかにマッチしたファイルだけを対象にする
+ *
+ * glob の書き方は .gitignore に似せている。
+ *
+ * - '/' を含まない glob はファイル名(ディレクトリ名)にマッチさせる(どの階層でもマッチする)
+ * - '/' を含む glob は、基準ディレクトリからの相対パスにマッチさせる(先頭の '/' は無視する)
+ * - 末尾が '/' の glob はディレクトリにだけマッチさせる
+ * - 空行と '#' で始まる行は無視する('!' による否定には対応していない)
+ *
+ * ワイルドカードを含まない名前だけの glob は、 PathMatcher を使わずにディレクトリ名・ファイル名の
+ * ハッシュ引きで判定する。
+ */
+public class ArxmlFinder {
+
+    /**
+     * 除外ルールを書くファイルの名前。
+     */
+    public static final String IGNORE_FILE_NAME = ".artagsignore";
+
+    private static final String ARXML_EXTENSION = ".arxml";
+
+    private static final IgnoreRules NO_RULES = new IgnoreRules(null, Collections.emptyList());
+
+    private final List<Path> baseDirectories = new ArrayList<>();
+
+    private final Pattern excludePattern;
+
+    private final List<PathMatcher> includeNameMatchers = new ArrayList<>();
+
+    private final List<PathMatcher> includePathMatchers = new ArrayList<>();
+
+    private final List<String> excludeGlobs;
+
+    /**
+     * ディレクトリごとの .artagsignore の内容。
+     * (.artagsignore が無いディレクトリは NO_RULES)
+     */
+    private final Map<Path, IgnoreRules> ignoreRules = new ConcurrentHashMap<>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param baseDirectories arxml ファイルを探すディレクトリのリスト
+     * @param excludePattern 除外するパスの正規表現パターン文字列(null の場合は除外を行わない)
+     * @param includeGlobs 対象にするファイルの glob のリスト(空の場合はすべてのファイルを対象にする)
+     * @param excludeGlobs 除外するディレクトリ・ファイルの glob のリスト
+     */
+    public ArxmlFinder(
+            List<String> baseDirectories,
+            String excludePattern,
+            List<String> includeGlobs,
+            List<String> excludeGlobs) {
+        for (String baseDirectory : baseDirectories) {
+            this.baseDirectories.add(Paths.get(baseDirectory));
+        }
+        this.excludePattern = excludePattern == null ? null : Pattern.compile(excludePattern);
+
+        for (String includeGlob : includeGlobs) {
+            String glob = includeGlob.startsWith("/") ? includeGlob.substring(1) : includeGlob;
+            if (glob.contains("/")) {
+                includePathMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            } else {
+                includeNameMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            }
+        }
+        this.excludeGlobs = new ArrayList<>(excludeGlobs);
+    }
+
+    /**
+     * arxml ファイルを探す。
+     *
+     * @param parallelism ディレクトリを並列に探すスレッド数
+     *
+     * @return 見つけた arxml インスタンスのリスト
+     */
+    public List<Arxml> find(int parallelism) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<List<Path>>> tasks = new ArrayList<>(baseDirectories.size());
+            for (Path baseDirectory : baseDirectories) {
+                tasks.add(pool.submit(new BaseDirectoryTask(baseDirectory)));
+            }
+
+            List<Arxml> arxmls = new ArrayList<>();
+            for (ForkJoinTask<List<Path>> task : tasks) {
+                for (Path filePath : task.join()) {
+                    arxmls.add(new Arxml(filePath));
+                }
+            }
+            return arxmls;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 指定したファイルが探索対象の arxml ファイルかを判定する。
+     * (ファイルの変更を監視している場合に、変更されたファイルの判定に使う)
+     *
+     * ファイルが存在するかどうかは確認しない。
+     *
+     * @param filePath 判定するファイルのパス
+     *
+     * @return 探索対象の場合は true
+     */
+    public boolean isTarget(Path filePath) throws IOException {
+        Path baseDirectory = findBaseDirectory(filePath);
+        if (baseDirectory == null) {
+            return false;
+        }
+        return isTargetFile(filePath, baseDirectory, collectRules(baseDirectory, filePath.getParent()));
+    }
+
+    /**
+     * 指定したファイルが探索対象の zip, jar アーカイブかを判定する。
+     * (ファイルの変更を監視している場合に、変更されたファイルの判定に使う)
+     *
+     * ファイルが存在するかどうかは確認しない。
+     *
+     * @param filePath 判定するファイルのパス
+     *
+     * @return 探索対象のアーカイブの場合は true
+     */
+    public boolean isTargetArchive(Path filePath) throws IOException {
+        Path baseDirectory = findBaseDirectory(filePath);
+        if (baseDirectory == null) {
+            return false;
+        }
+        return isTargetArchive(filePath, collectRules(baseDirectory, filePath.getParent()));
+    }
+
+    /**
+     * 指定した zip, jar アーカイブ内の、探索対象の arxml ファイルを探す。
+     *
+     * @param archivePath アーカイブのパス
+     *
+     * @return アーカイブ内の arxml ファイルのパスのリスト
+     */
+    public List<Path> findArchiveEntries(Path archivePath) throws IOException {
+        Path baseDirectory = findBaseDirectory(archivePath);
+        return findArchiveEntries(baseDirectory == null ? archivePath : baseDirectory, archivePath);
+    }
+
+    /**
+     * 指定したディレクトリが探索対象外かを判定する。
+     *
+     * @param directory 判定するディレクトリのパス
+     *
+     * @return 探索対象外の場合は true
+     */
+    public boolean isExcludedDirectory(Path directory) throws IOException {
+        Path baseDirectory = findBaseDirectory(directory);
+        if (baseDirectory == null) {
+            return true;
+        }
+        if (directory.equals(baseDirectory)) {
+            return isExcludedByPattern(directory);
+        }
+        return isExcludedDirectory(directory, collectRules(baseDirectory, directory.getParent()));
+    }
+
+    /**
+     * arxml ファイルの拡張子を持つかを判定する。(大文字小文字を区別しない)
+     *
+     * @param path 判定するパス
+     *
+     * @return arxml ファイルの拡張子を持つ場合は true
+     */
+    public static boolean isArxml(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString();
+        return name.regionMatches(true, name.length() - ARXML_EXTENSION.length(),
+                ARXML_EXTENSION, 0, ARXML_EXTENSION.length());
+    }
+
+    private boolean isTargetFile(Path filePath, Path baseDirectory, List<IgnoreRules> rules) {
+        if (!isArxmlFile(filePath) || isExcludedByPattern(filePath)) {
+            return false;
+        }
+        for (IgnoreRules rule : rules) {
+            if (rule.isExcluded(filePath, false)) {
+                return false;
+            }
+        }
+        return isIncluded(filePath, baseDirectory);
+    }
+
+    private boolean isTargetArchive(Path filePath, List<IgnoreRules> rules) {
+        if (!ArxmlArchives.isArchive(filePath) || isExcludedByPattern(filePath)) {
+            return false;
+        }
+        for (IgnoreRules rule : rules) {
+            if (rule.isExcluded(filePath, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * アーカイブ内の arxml ファイルのうち、対象 glob と除外パターンに合うものを探す。
+     * (対象 glob の相対パスは、アーカイブ内のパスをアーカイブの位置に置いたものとして判定する)
+     */
+    private List<Path> findArchiveEntries(Path baseDirectory, Path archivePath) throws IOException {
+        Path archiveRelativePath = archivePath.equals(baseDirectory)
+                ? archivePath.getFileName()
+                : baseDirectory.relativize(archivePath);
+
+        List<Path> entries = new ArrayList<>();
+        for (Path entry : ArxmlArchives.findEntries(archivePath)) {
+            if (excludePattern != null && excludePattern.matcher(ArxmlArchives.toPathString(entry)).matches()) {
+                continue;
+            }
+            if (isIncluded(entry.getFileName(), () -> archiveRelativePath.resolve(
+                    entry.toAbsolutePath().toString().substring(1)))) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private boolean isExcludedDirectory(Path directory, List<IgnoreRules> rules) {
+        if (isExcludedByPattern(directory)) {
+            return true;
+        }
+        for (IgnoreRules rule : rules) {
+            if (rule.isExcluded(directory, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcludedByPattern(Path path) {
+        return excludePattern != null && excludePattern.matcher(path.toString()).matches();
+    }
+
+    private boolean isIncluded(Path filePath, Path baseDirectory) {
+        return isIncluded(filePath.getFileName(), () -> baseDirectory.relativize(filePath));
+    }
+
+    private boolean isIncluded(Path fileName, Supplier<Path> relativePathSupplier) {
+        if (includeNameMatchers.isEmpty() && includePathMatchers.isEmpty()) {
+            return true;
+        }
+
+        for (PathMatcher matcher : includeNameMatchers) {
+            if (matcher.matches(fileName)) {
+                return true;
+            }
+        }
+
+        Path relativePath = relativePathSupplier.get();
+        for (PathMatcher matcher : includePathMatchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * arxml ファイル(gzip で圧縮されたものを含む)の拡張子を持つかを判定する。
+     */
+    private static boolean isArxmlFile(Path path) {
+        return isArxml(path) || ArxmlArchives.isGzipArxml(path);
+    }
+
+    /**
+     * 指定したパスを含むベースディレクトリを探す。
+     */
+    private Path findBaseDirectory(Path path) {
+        for (Path baseDirectory : baseDirectories) {
+            if (path.startsWith(baseDirectory)) {
+                return baseDirectory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ベースディレクトリから指定したディレクトリまでの間で有効な除外ルールを集める。
+     */
+    private List<IgnoreRules> collectRules(Path baseDirectory, Path directory) throws IOException {
+        List<IgnoreRules> rules = new ArrayList<>();
+        IgnoreRules baseRules = createBaseRules(baseDirectory);
+        if (baseRules != NO_RULES) {
+            rules.add(baseRules);
+        }
+        for (Path dir = directory; dir != null && dir.startsWith(baseDirectory); dir = dir.getParent()) {
+            IgnoreRules rule = ignoreRules.get(dir);
+            if (rule == null) {
+                rule = loadIgnoreRules(dir, Files.exists(dir.resolve(IGNORE_FILE_NAME)));
+            }
+            if (rule != NO_RULES) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private IgnoreRules createBaseRules(Path baseDirectory) {
+        return excludeGlobs.isEmpty() ? NO_RULES : new IgnoreRules(baseDirectory, excludeGlobs);
+    }
+
+    /**
+     * 指定したディレクトリの .artagsignore を読み込み、キャッシュする。
+     */
+    private IgnoreRules loadIgnoreRules(Path directory, boolean hasIgnoreFile) throws IOException {
+        IgnoreRules rules = NO_RULES;
+        if (hasIgnoreFile) {
+            List<String> lines = Files.readAllLines(directory.resolve(IGNORE_FILE_NAME), StandardCharsets.UTF_8);
+            rules = new IgnoreRules(directory, lines);
+        }
+        ignoreRules.put(directory, rules);
+        return rules;
+    }
+
+    /**
+     * ベースディレクトリを探すタスク。
+     */
+    private class BaseDirectoryTask extends RecursiveTask<List<Path>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path baseDirectory;
+
+        BaseDirectoryTask(Path baseDirectory) {
+            this.baseDirectory = baseDirectory;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(baseDirectory, BasicFileAttributes.class);
+
+                // ファイルが直接指定された場合は、そのファイルだけを判定する
+                if (!attrs.isDirectory()) {
+                    if (isArxmlFile(baseDirectory) && !isExcludedByPattern(baseDirectory)) {
+                        return Collections.singletonList(baseDirectory);
+                    }
+                    if (isTargetArchive(baseDirectory, Collections.emptyList())) {
+                        return findArchiveEntries(baseDirectory, baseDirectory);
+                    }
+                    return Collections.emptyList();
+                }
+
+                if (isExcludedByPattern(baseDirectory)) {
+                    return Collections.emptyList();
+                }
+
+                List<IgnoreRules> rules = new ArrayList<>();
+                IgnoreRules baseRules = createBaseRules(baseDirectory);
+                if (baseRules != NO_RULES) {
+                    rules.add(baseRules);
+                }
+                return new DirectoryTask(baseDirectory, baseDirectory, rules).compute();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 1 ディレクトリ分を探すタスク。
+     * (サブディレクトリは別タスクとして fork する)
+     */
+    private class DirectoryTask extends RecursiveTask<List<Path>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path baseDirectory;
+        private final Path directory;
+        private final List<IgnoreRules> parentRules;
+
+        DirectoryTask(Path baseDirectory, Path directory, List<IgnoreRules> parentRules) {
+            this.baseDirectory = baseDirectory;
+            this.directory = directory;
+            this.parentRules = parentRules;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            try {
+                List<Path> children = new ArrayList<>();
+                boolean hasIgnoreFile = false;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path child : stream) {
+                        children.add(child);
+                        hasIgnoreFile |= child.getFileName().toString().equals(IGNORE_FILE_NAME);
+                    }
+                }
+                children.sort(null);
+
+                List<IgnoreRules> rules = parentRules;
+                IgnoreRules ownRules = loadIgnoreRules(directory, hasIgnoreFile);
+                if (ownRules != NO_RULES) {
+                    rules = new ArrayList<>(parentRules);
+                    rules.add(ownRules);
+                }
+
+                // サブディレクトリのタスクとファイルを、名前順に並べておく
+                List<Object> results = new ArrayList<>(children.size());
+                for (Path child : children) {
+                    if (isExcludedByName(child, rules)) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attrs = Files.readAttributes(
+                            child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!isExcludedDirectory(child, rules)) {
+                            DirectoryTask task = new DirectoryTask(baseDirectory, child, rules);
+                            task.fork();
+                            results.add(task);
+                        }
+                    } else if (isTargetFile(child, baseDirectory, rules)) {
+                        results.add(child);
+                    } else if (isTargetArchive(child, rules)) {
+                        // アーカイブ内のエントリは、アーカイブごとのタスクで探す
+                        ArchiveTask task = new ArchiveTask(baseDirectory, child);
+                        task.fork();
+                        results.add(task);
+                    }
+                }
+
+                List<Path> arxmls = new ArrayList<>();
+                for (Object result : results) {
+                    if (result instanceof DirectoryTask) {
+                        arxmls.addAll(((DirectoryTask)result).join());
+                    } else if (result instanceof ArchiveTask) {
+                        arxmls.addAll(((ArchiveTask)result).join());
+                    } else {
+                        arxmls.add((Path)result);
+                    }
+                }
+                return arxmls;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * ディレクトリかファイルかに関わらず除外される名前かを、属性を読む前に判定する。
+         */
+        private boolean isExcludedByName(Path child, List<IgnoreRules> rules) {
+            String name = child.getFileName().toString();
+            for (IgnoreRules rule : rules) {
+                if (rule.names.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 1 つのアーカイブ内を探すタスク。
+     */
+    private class ArchiveTask extends RecursiveTask<List<Path>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path baseDirectory;
+        private final Path archivePath;
+
+        ArchiveTask(Path baseDirectory, Path archivePath) {
+            this.baseDirectory = baseDirectory;
+            this.archivePath = archivePath;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            try {
+                return findArchiveEntries(baseDirectory, archivePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 1 つの基準ディレクトリに対する除外ルール。
+     */
+    private static class IgnoreRules {
+
+        private final Path baseDirectory;
+
+        /**
+         * ワイルドカードを含まない、ファイル名・ディレクトリ名にマッチさせる名前。
+         */
+        private final Set<String> names = new HashSet<>();
+
+        /**
+         * ワイルドカードを含まない、ディレクトリ名にだけマッチさせる名前。
+         */
+        private final Set<String> directoryNames = new HashSet<>();
+
+        private final List<PathMatcher> nameMatchers = new ArrayList<>();
+
+        private final List<PathMatcher> directoryNameMatchers = new ArrayList<>();
+
+        private final List<PathMatcher> pathMatchers = new ArrayList<>();
+
+        private final List<PathMatcher> directoryPathMatchers = new ArrayList<>();
+
+        IgnoreRules(Path baseDirectory, List<String> globs) {
+            this.baseDirectory = baseDirectory;
+
+            for (String line : globs) {
+                String glob = line.trim();
+                if (glob.isEmpty() || glob.startsWith("#")) {
+                    continue;
+                }
+
+                boolean isDirectoryOnly = glob.endsWith("/");
+                if (isDirectoryOnly) {
+                    glob = glob.substring(0, glob.length() - 1);
+                }
+
+                if (glob.startsWith("/") || glob.contains("/")) {
+                    glob = glob.startsWith("/") ? glob.substring(1) : glob;
+                    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+                    (isDirectoryOnly ? directoryPathMatchers : pathMatchers).add(matcher);
+                } else if (isLiteral(glob)) {
+                    (isDirectoryOnly ? directoryNames : names).add(glob);
+                } else {
+                    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+                    (isDirectoryOnly ? directoryNameMatchers : nameMatchers).add(matcher);
+                }
+            }
+        }
+
+        boolean isExcluded(Path path, boolean isDirectory) {
+            Path fileName = path.getFileName();
+            String name = fileName.toString();
+            if (names.contains(name) || (isDirectory && directoryNames.contains(name))) {
+                return true;
+            }
+
+            if (matchesAny(nameMatchers, fileName)
+                    || (isDirectory && matchesAny(directoryNameMatchers, fileName))) {
+                return true;
+            }
+
+            if (pathMatchers.isEmpty() && (!isDirectory || directoryPathMatchers.isEmpty())) {
+                return false;
+            }
+            Path relativePath = baseDirectory.relativize(path);
+            return matchesAny(pathMatchers, relativePath)
+                    || (isDirectory && matchesAny(directoryPathMatchers, relativePath));
+        }
+
+        private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isLiteral(String glob) {
+            for (int i = 0; i < glob.length(); i++) {
+                switch (glob.charAt(i)) {
+                    case '*':
+                    case '?':
+                    case '[':
+                    case '{':
+                    case '\\':
+                        return false;
+                    default:
+                        break;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * arxml ファイルのヘッダ情報(エンコーディングとプロローグの行数)を表すクラス。
+ *
+ * XML としてパースせず、ファイル先頭のバイト列だけを読んで判定する。
+ */
+@AllArgsConstructor
+@Data
+public class ArxmlHeader {
+
+    /**
+     * ヘッダ判定のために一度に読み込むバイト数。
+     */
+    public static final int SNIFF_SIZE = 4096;
+
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    /**
+     * ファイルのエンコーディング。
+     */
+    private Charset charset;
+
+    /**
+     * BOM のバイト数(BOM が無い場合は 0)。
+     */
+    private int bomLength;
+
+    /**
+     * ルートエレメントより前にある行の数。
+     */
+    private long prologLineNumber;
+
+    /**
+     * 指定された arxml ファイルのヘッダ情報を判定する。
+     *
+     * @param arxmlFilePath arxml ファイルパス
+     *
+     * @return ヘッダ情報
+     */
+    public static ArxmlHeader sniff(Path arxmlFilePath) throws IOException {
+        try (InputStream is = new BufferedInputStream(ArxmlArchives.newInputStream(arxmlFilePath), SNIFF_SIZE)) {
+            return sniff(is);
+        }
+    }
+
+    /**
+     * 読み込み済みの arxml ファイルの内容からヘッダ情報を判定する。
+     *
+     * @param arxmlFilePath arxml ファイルパス
+     * @param content ファイルの内容(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return ヘッダ情報
+     */
+    public static ArxmlHeader sniff(Path arxmlFilePath, byte[] content) throws IOException {
+        try (InputStream is = new BufferedInputStream(ArxmlArchives.newInputStream(arxmlFilePath, content), SNIFF_SIZE)) {
+            return sniff(is);
+        }
+    }
+
+    /**
+     * 指定されたストリームから arxml のヘッダ情報を判定する。
+     *
+     * ルートエレメントの開始タグが見つかった時点で読み込みを終了する。
+     *
+     * @param is arxml の先頭を指しているストリーム(mark をサポートしていること)
+     *
+     * @return ヘッダ情報
+     */
+    static ArxmlHeader sniff(InputStream is) throws IOException {
+
+        // BOM と先頭 4 バイトのパターンからマークアップを読むための文字コードを決める
+        is.mark(4);
+        byte[] head = new byte[4];
+        int headLength = is.readNBytes(head, 0, head.length);
+        is.reset();
+
+        Charset baseCharset = StandardCharsets.ISO_8859_1;
+        boolean isAsciiCompatible = true;
+        int bomLength = 0;
+        if (startsWith(head, headLength, 0xEF, 0xBB, 0xBF)) {
+            bomLength = 3;
+        } else if (startsWith(head, headLength, 0xFE, 0xFF)) {
+            bomLength = 2;
+            baseCharset = StandardCharsets.UTF_16BE;
+            isAsciiCompatible = false;
+        } else if (startsWith(head, headLength, 0xFF, 0xFE)) {
+            bomLength = 2;
+            baseCharset = StandardCharsets.UTF_16LE;
+            isAsciiCompatible = false;
+        } else if (startsWith(head, headLength, 0x00, 0x3C, 0x00, 0x3F)) {
+            baseCharset = StandardCharsets.UTF_16BE;
+            isAsciiCompatible = false;
+        } else if (startsWith(head, headLength, 0x3C, 0x00, 0x3F, 0x00)) {
+            baseCharset = StandardCharsets.UTF_16LE;
+            isAsciiCompatible = false;
+        }
+        is.skipNBytes(bomLength);
+
+        // ASCII 互換の文字コードであれば、マークアップと改行は
+        // ISO-8859-1 として 1 バイトずつ読んでも正しく判定できる
+        Reader reader = new InputStreamReader(is, baseCharset);
+        StringBuilder xmlDeclaration = null;
+        long prologLineNumber = 0;
+        int c = reader.read();
+        while (c != -1) {
+            if (c == '\n') {
+                prologLineNumber++;
+            } else if (c == '<') {
+                int next = reader.read();
+                if (next == '?') {
+                    // XML 宣言もしくは処理命令
+                    StringBuilder sb = new StringBuilder();
+                    prologLineNumber += skipUntil(reader, "?>", sb);
+                    if (xmlDeclaration == null && sb.toString().startsWith("xml")) {
+                        xmlDeclaration = sb;
+                    }
+                } else if (next == '!') {
+                    // コメントもしくは DOCTYPE 宣言
+                    int first = reader.read();
+                    if (first == '-') {
+                        reader.read();
+                        prologLineNumber += skipUntil(reader, "-->", null);
+                    } else {
+                        if (first == '\n') {
+                            prologLineNumber++;
+                        }
+                        prologLineNumber += skipDoctype(reader);
+                    }
+                } else {
+                    // ルートエレメントの開始タグに到達
+                    break;
+                }
+            }
+            c = reader.read();
+        }
+
+        Charset charset = isAsciiCompatible ? StandardCharsets.UTF_8 : baseCharset;
+        if (isAsciiCompatible && xmlDeclaration != null) {
+            Matcher m = ENCODING_PATTERN.matcher(xmlDeclaration);
+            if (m.find()) {
+                charset = toCharset(m.group(1), charset);
+            }
+        }
+
+        return new ArxmlHeader(charset, bomLength, prologLineNumber);
+    }
+
+    /**
+     * 終端文字列が現れるまで読み飛ばす。
+     *
+     * @param reader 読み込み元
+     * @param terminator 終端文字列
+     * @param skipped 読み飛ばした文字列(終端文字列は含まない)の格納先(null の場合は格納しない)
+     *
+     * @return 読み飛ばした改行の数
+     */
+    private static long skipUntil(Reader reader, String terminator, StringBuilder skipped) throws IOException {
+        long lines = 0;
+        StringBuilder window = new StringBuilder(terminator.length() + 1);
+        int c = reader.read();
+        while (c != -1) {
+            if (c == '\n') {
+                lines++;
+            }
+            if (skipped != null) {
+                skipped.append((char)c);
+            }
+
+            // 直近の文字列が終端文字列と一致したら終了
+            window.append((char)c);
+            if (window.length() > terminator.length()) {
+                window.deleteCharAt(0);
+            }
+            if (terminator.contentEquals(window)) {
+                if (skipped != null) {
+                    skipped.setLength(skipped.length() - terminator.length());
+                }
+                break;
+            }
+            c = reader.read();
+        }
+        return lines;
+    }
+
+    /**
+     * DOCTYPE 宣言の終わりまで読み飛ばす。
+     *
+     * @param reader 読み込み元
+     *
+     * @return 読み飛ばした改行の数
+     */
+    private static long skipDoctype(Reader reader) throws IOException {
+        long lines = 0;
+        int depth = 0;
+        int c = reader.read();
+        while (c != -1) {
+            if (c == '\n') {
+                lines++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == '>' && depth <= 0) {
+                break;
+            }
+            c = reader.read();
+        }
+        return lines;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset toCharset(String charsetName, Charset defaultCharset) {
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return defaultCharset;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import org.xml.sax.SAXException;
+
+/**
+ * AR 階層パスから定義位置を引くためのインデックス。
+ *
+ * 各 arxml ファイルは一度だけパースし、
+ * そこで見つかった定義と参照をこのインデックスに登録する。
+ * 参照の解決は AR 階層パスのノード ID をキーにした配列引きで行う。
+ *
+ * 大量の定義を少ないメモリで保持するため、定義は ArPackageTree のエレメントとして、
+ * 参照は AR 階層パスのノード ID と DEST の名前コードの int 配列として保持し、
+ * Definition や Record 等のオブジェクトは取得時に組み立てる。
+ *
+ * 参照の AR 階層パスと DEST の名前も ArPackageTree に参照カウント付きで登録し、
+ * ファイルを削除したときに解放する。
+ * (watch 等で追加と削除を繰り返しても、パスや名前が溜まり続けないようにするため)
+ */
+public class ArxmlIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ArPackageTree packageTree = new ArPackageTree();
+
+    /**
+     * ファイルパスごとの抽出結果。
+     */
+    private final Map<Path, FileEntries> entriesByFile = new HashMap<>();
+
+    /**
+     * 指定された arxml ファイルをすべてパースし、インデックスを構築する。
+     *
+     * @param arxmls インデックスに登録する arxml インスタンスのリスト
+     *
+     * @return 構築したインデックス
+     */
+    public static ArxmlIndex build(List<Arxml> arxmls)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ArxmlIndex index = new ArxmlIndex();
+        for (Arxml arxml : arxmls) {
+            index.add(Artags.extractEntries(arxml));
+        }
+        return index;
+    }
+
+    /**
+     * 1 ファイル分の抽出結果をインデックスに登録する。
+     *
+     * 同じファイルの抽出結果が登録済みの場合は置き換える。
+     *
+     * @param entries 登録する抽出結果
+     */
+    public void add(Entries entries) {
+        lock.writeLock().lock();
+        try {
+            removeEntries(entries.getFilePath());
+
+            int[] elements = packageTree.addEntries(entries);
+
+            List<Reference> references = entries.getReferences();
+            int[] referenceNodes = new int[references.size()];
+            int[] referenceDests = new int[references.size()];
+            int[] referenceLines = new int[references.size()];
+            for (int i = 0; i < referenceNodes.length; i++) {
+                Reference reference = references.get(i);
+                referenceNodes[i] = packageTree.internPath(reference.getArHierarchyPath());
+                referenceDests[i] = packageTree.internName(reference.getDest());
+                referenceLines[i] = Math.toIntExact(reference.getLineNumber());
+            }
+
+            entriesByFile.put(entries.getFilePath(),
+                    new FileEntries(elements, referenceNodes, referenceDests, referenceLines));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルの抽出結果をインデックスから削除する。
+     *
+     * @param filePath 削除するファイルのパス
+     */
+    public void remove(Path filePath) {
+        lock.writeLock().lock();
+        try {
+            removeEntries(filePath);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルの抽出結果が登録されているかを判定する。
+     *
+     * @param filePath 判定するファイルのパス
+     *
+     * @return 登録されている場合は true
+     */
+    public boolean contains(Path filePath) {
+        lock.readLock().lock();
+        try {
+            return entriesByFile.containsKey(filePath);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 抽出結果が登録されているファイルのパスを取得する。
+     *
+     * @return ファイルパスのリスト(順不同)
+     */
+    public List<Path> getFilePaths() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(entriesByFile.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルの抽出結果を取得する。
+     *
+     * @param filePath 抽出結果を取得したいファイルのパス
+     *
+     * @return 抽出結果(インデックスに登録されていない場合は null)
+     */
+    public Entries getEntries(Path filePath) {
+        lock.readLock().lock();
+        try {
+            FileEntries fileEntries = entriesByFile.get(filePath);
+            if (fileEntries == null) {
+                return null;
+            }
+
+            List<Definition> definitions = new ArrayList<>(fileEntries.elements.length);
+            for (int element : fileEntries.elements) {
+                definitions.add(toDefinition(element));
+            }
+
+            List<Reference> references = new ArrayList<>(fileEntries.referenceNodes.length);
+            for (int i = 0; i < fileEntries.referenceNodes.length; i++) {
+                references.add(toReference(fileEntries, i));
+            }
+
+            return new Entries(filePath, definitions, references);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定した AR 階層パスの定義位置を取得する。
+     *
+     * @param arHierarchyPath 定義位置を探したい AR 階層パス
+     *
+     * @return 定義位置のリスト(見つからなかった場合は空リスト)
+     */
+    public List<Definition> findDefinitions(String arHierarchyPath) {
+        lock.readLock().lock();
+        try {
+            int first = packageTree.findFirst(arHierarchyPath);
+            if (first == ArPackageTree.NONE) {
+                return Collections.emptyList();
+            }
+
+            List<Definition> definitions = new ArrayList<>();
+            for (int e = first; e != ArPackageTree.NONE; e = packageTree.getNextSamePath(e)) {
+                definitions.add(toDefinition(e));
+            }
+            return definitions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * パッケージ階層を読み取る。
+     *
+     * 読み取り中はインデックスの更新を待たせるので、 reader の中で重い処理をしないこと。
+     * (reader の外に ArPackageTree を持ち出してはいけない)
+     *
+     * @param reader パッケージ階層を読み取る処理
+     *
+     * @return reader の戻り値
+     */
+    public <T> T readPackageTree(Function<ArPackageTree, T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.apply(packageTree);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定された抽出結果に含まれる参照を解決し、タグファイルのレコードを生成する。
+     *
+     * @param referredEntries 参照の定義をしている側の抽出結果
+     *
+     * @return 解析結果のタグファイルレコードのセット
+     */
+    public Set<Record> resolve(Entries referredEntries) {
+        lock.readLock().lock();
+        try {
+            Set<Record> records = new HashSet<>();
+            for (Reference reference : referredEntries.getReferences()) {
+                int pathNode = packageTree.findPath(reference.getArHierarchyPath());
+                if (pathNode != ArPathTrie.NOT_FOUND) {
+                    resolve(pathNode, records);
+                }
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルに含まれる参照を解決し、タグファイルのレコードを生成する。
+     *
+     * 登録済みの抽出結果をそのまま使うので、 resolve(getEntries(filePath)) より速い。
+     *
+     * @param filePath 参照の定義をしている側のファイルのパス
+     *
+     * @return 解析結果のタグファイルレコードのセット(インデックスに登録されていない場合は空セット)
+     */
+    public Set<Record> resolve(Path filePath) {
+        return resolve(filePath, null);
+    }
+
+    /**
+     * 指定したファイルに含まれる参照を解決し、タグファイルのレコードを生成する。
+     *
+     * 定義が見つからなかった参照は unresolvedReferences に追加する。
+     *
+     * @param filePath 参照の定義をしている側のファイルのパス
+     * @param unresolvedReferences 定義が見つからなかった参照の格納先(null の場合は格納しない)
+     *
+     * @return 解析結果のタグファイルレコードのセット(インデックスに登録されていない場合は空セット)
+     */
+    public Set<Record> resolve(Path filePath, List<Reference> unresolvedReferences) {
+        lock.readLock().lock();
+        try {
+            FileEntries fileEntries = entriesByFile.get(filePath);
+            if (fileEntries == null) {
+                return Collections.emptySet();
+            }
+
+            Set<Record> records = new HashSet<>();
+            for (int i = 0; i < fileEntries.referenceNodes.length; i++) {
+                if (!resolve(fileEntries.referenceNodes[i], records) && unresolvedReferences != null) {
+                    unresolvedReferences.add(toReference(fileEntries, i));
+                }
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルに含まれる参照を、参照先から参照元を引くためのタグファイルのレコードにする。
+     *
+     * レコードのシンボルは参照先の SHORT-NAME 、位置は参照元エレメントの行、種類は DEST 属性の値。
+     * 登録済みの抽出結果から作るので、ファイルをパースし直すことはない。
+     * (定義が見つからない参照もレコードにする)
+     *
+     * @param filePath 参照の定義をしている側のファイルのパス
+     *
+     * @return 参照元のレコードのリスト(インデックスに登録されていない場合は空リスト)
+     */
+    public List<Record> createReferrerRecords(Path filePath) {
+        lock.readLock().lock();
+        try {
+            FileEntries fileEntries = entriesByFile.get(filePath);
+            if (fileEntries == null) {
+                return Collections.emptyList();
+            }
+
+            List<Record> records = new ArrayList<>(fileEntries.referenceNodes.length);
+            for (int i = 0; i < fileEntries.referenceNodes.length; i++) {
+                int pathNode = fileEntries.referenceNodes[i];
+                records.add(new Record(
+                        packageTree.getSegmentOfNode(pathNode),
+                        filePath,
+                        String.valueOf(fileEntries.referenceLines[i]),
+                        packageTree.getName(fileEntries.referenceDests[i]),
+                        packageTree.getPathOfNode(pathNode)));
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したファイルに含まれる参照の数を取得する。
+     *
+     * @param filePath 参照の定義をしている側のファイルのパス
+     *
+     * @return 参照の数(インデックスに登録されていない場合は 0)
+     */
+    public int getReferenceCount(Path filePath) {
+        lock.readLock().lock();
+        try {
+            FileEntries fileEntries = entriesByFile.get(filePath);
+            return fileEntries == null ? 0 : fileEntries.referenceNodes.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定したパスのエレメントをレコードとして records に追加する。
+     *
+     * @return 定義が見つかった場合は true
+     */
+    private boolean resolve(int pathNode, Set<Record> records) {
+        int first = packageTree.getFirstElementOfPath(pathNode);
+        if (first == ArPackageTree.NONE) {
+            return false;
+        }
+
+        String arHierarchyPath = packageTree.getPathOfNode(pathNode);
+        String[] arHierarchyArray = arHierarchyPath.split("/");
+        String symbol = arHierarchyArray[arHierarchyArray.length - 1];
+
+        for (int e = first; e != ArPackageTree.NONE; e = packageTree.getNextSamePath(e)) {
+            records.add(new Record(
+                    symbol,
+                    packageTree.getFilePath(e),
+                    String.valueOf(packageTree.getLineNumber(e)),
+                    packageTree.getElementName(e),
+                    arHierarchyPath));
+        }
+        return true;
+    }
+
+    private Definition toDefinition(int element) {
+        return new Definition(
+                packageTree.getPath(element),
+                packageTree.getFilePath(element),
+                packageTree.getLineNumber(element),
+                packageTree.getElementName(element));
+    }
+
+    private Reference toReference(FileEntries fileEntries, int index) {
+        return new Reference(
+                packageTree.getPathOfNode(fileEntries.referenceNodes[index]),
+                packageTree.getName(fileEntries.referenceDests[index]),
+                fileEntries.referenceLines[index]);
+    }
+
+    private void removeEntries(Path filePath) {
+        FileEntries removed = entriesByFile.remove(filePath);
+        if (removed != null) {
+            packageTree.removeElements(removed.elements);
+            for (int i = 0; i < removed.referenceNodes.length; i++) {
+                packageTree.releasePath(removed.referenceNodes[i]);
+                packageTree.releaseName(removed.referenceDests[i]);
+            }
+        }
+    }
+
+    /**
+     * 1 ファイル分の抽出結果のコンパクトな表現。
+     */
+    private static class FileEntries {
+        private final int[] elements;
+        private final int[] referenceNodes;
+        private final int[] referenceDests;
+        private final int[] referenceLines;
+
+        FileEntries(int[] elements, int[] referenceNodes, int[] referenceDests, int[] referenceLines) {
+            this.elements = elements;
+            this.referenceNodes = referenceNodes;
+            this.referenceDests = referenceDests;
+            this.referenceLines = referenceLines;
+        }
+    }
+
+    /**
+     * SHORT-NAME を持つエレメント(参照先になり得るエレメント)の定義位置を表すクラス。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Definition {
+        private String arHierarchyPath;
+        private Path filePath;
+        private long lineNumber;
+        private String type;
+    }
+
+    /**
+     * DEST 属性を持つエレメント(参照元エレメント)を表すクラス。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Reference {
+        private String arHierarchyPath;
+        private String dest;
+        private long lineNumber;
+    }
+
+    /**
+     * 1 ファイル分の定義と参照の抽出結果を表すクラス。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Entries {
+        private Path filePath;
+        private List<Definition> definitions;
+        private List<Reference> references;
+    }
+}
@@ -0,0 +1,517 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+/**
+ * arxml ファイルを XML パーサーを使わずに走査し、定義と参照を抽出する。
+ *
+ * ファイルをメモリマップし、バイト単位のトークナイザで 1 回だけ走査して、
+ * 開始タグ・テキスト・終了タグを EntryCollector に渡す。
+ * DOM を組み立てないので、大きなファイルでもヒープをほとんど使わない。
+ * (文字列を生成するのは、エレメント名・SHORT-NAME・DEST とその参照先パスだけ)
+ *
+ * 抽出結果は Artags#extractEntries(DOM で抽出する場合)と同じになる。
+ * ただし、以下の場合は正しく抽出できないので、 scan は null を返す。
+ * (呼び出し元で DOM による抽出にフォールバックすること)
+ *
+ * - ASCII 互換でない文字コード(UTF-16 等)のファイル
+ * - DOCTYPE 宣言を持つファイル(独自の実体参照を定義できるため)
+ * - 定義済みの実体参照・文字参照以外の実体参照を使っているファイル
+ * - XML として不正なファイル(開始タグと終了タグの対応が取れない等)
+ *
+ * また、 SHORT-NAME より前に子エレメントの定義が現れることは想定していない。
+ * (AUTOSAR のスキーマでは SHORT-NAME は常に最初の子エレメントである)
+ */
+public class ArxmlScanner {
+
+    private static final String DEST = "DEST";
+
+    private final ByteBuffer buffer;
+
+    private final int limit;
+
+    private final Charset charset;
+
+    private int pos;
+
+    /**
+     * 行番号を数え終わった位置と、その位置の行番号。
+     */
+    private int lineCountedPos;
+
+    private long line = 1;
+
+    /**
+     * エレメント名のキャッシュ。
+     * (同じ名前のエレメントが大量に現れるので、名前ごとに 1 つの String を使い回す)
+     */
+    private final NameCache names = new NameCache();
+
+    private final EntryCollector collector;
+
+    /**
+     * デコードしたテキストの作業領域。
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    private ArxmlScanner(Path filePath, ByteBuffer buffer, int start, Charset charset) {
+        this.collector = new EntryCollector(filePath);
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.charset = charset;
+        this.pos = start;
+        this.lineCountedPos = start;
+    }
+
+    /**
+     * 指定された arxml ファイルを走査し、定義と参照を抽出する。
+     *
+     * @param filePath arxml ファイルのパス
+     * @param header arxml ファイルのヘッダ情報
+     *
+     * @return 抽出結果(このクラスで抽出できないファイルの場合は null)
+     */
+    public static Entries scan(Path filePath, ArxmlHeader header) throws IOException {
+        if (!isAsciiCompatible(header.getCharset())) {
+            return null;
+        }
+
+        // 圧縮されたファイルやアーカイブ内のエントリはメモリマップできないので、展開して読み込む
+        if (!ArxmlArchives.isPlainFile(filePath)) {
+            try (InputStream is = ArxmlArchives.newInputStream(filePath)) {
+                return scan(filePath, ByteBuffer.wrap(is.readAllBytes()), header);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return scan(filePath, buffer, header);
+        }
+    }
+
+    /**
+     * 読み込み済みの arxml ファイルの内容を走査し、定義と参照を抽出する。
+     *
+     * @param filePath arxml ファイルのパス
+     * @param content ファイルの内容(gzip で圧縮されたファイルの場合は圧縮されたまま)
+     * @param header arxml ファイルのヘッダ情報
+     *
+     * @return 抽出結果(このクラスで抽出できないファイルの場合は null)
+     */
+    public static Entries scan(Path filePath, byte[] content, ArxmlHeader header) throws IOException {
+        if (ArxmlArchives.isGzipArxml(filePath)) {
+            try (InputStream is = ArxmlArchives.newInputStream(filePath, content)) {
+                return scan(filePath, ByteBuffer.wrap(is.readAllBytes()), header);
+            }
+        }
+        return scan(filePath, ByteBuffer.wrap(content), header);
+    }
+
+    /**
+     * 指定されたバッファの arxml を走査し、定義と参照を抽出する。
+     *
+     * @param filePath 抽出結果に記録するファイルのパス
+     * @param buffer arxml ファイルの内容(position から limit までを走査する)
+     * @param header arxml ファイルのヘッダ情報
+     *
+     * @return 抽出結果(このクラスで抽出できない内容の場合は null)
+     */
+    static Entries scan(Path filePath, ByteBuffer buffer, ArxmlHeader header) {
+        if (!isAsciiCompatible(header.getCharset())) {
+            return null;
+        }
+
+        ArxmlScanner scanner = new ArxmlScanner(
+                filePath, buffer, buffer.position() + header.getBomLength(), header.getCharset());
+        try {
+            scanner.scanDocument();
+        } catch (UnsupportedContentException e) {
+            return null;
+        }
+        return scanner.collector.toEntries();
+    }
+
+    /**
+     * マークアップを 1 バイトずつ判定できる文字コードかを判定する。
+     *
+     * マルチバイト文字の 2 バイト目以降に '&lt;' 等の ASCII 記号が現れない文字コードであれば良い。
+     * (Shift_JIS 等は 2 バイト目が 0x40 以上なので、マークアップの記号とは重ならない)
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name().toUpperCase(Locale.ROOT);
+        if (name.contains("UTF-16") || name.contains("UTF-32") || name.contains("ISO-2022")
+                || name.startsWith("X-UTF") || name.contains("UTF-7")) {
+            return false;
+        }
+        String markup = "<>&\"'=/!?-[]\n\r";
+        return Arrays.equals(markup.getBytes(charset), markup.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void scanDocument() throws UnsupportedContentException {
+        while (pos < limit) {
+            int textStart = pos;
+            int lt = indexOf('<', pos);
+            if (lt < 0) {
+                // ルートエレメントの後ろの空白等
+                if (collector.getDepth() != 0) {
+                    throw new UnsupportedContentException("unexpected end of file.");
+                }
+                return;
+            }
+
+            if (lt > textStart && collector.isCapturing()) {
+                text.setLength(0);
+                appendText(textStart, lt);
+                collector.text(text);
+            }
+
+            pos = lt + 1;
+            byte next = byteAt(pos);
+            if (next == '/') {
+                scanEndTag();
+            } else if (next == '?') {
+                pos = skipPast("?>", pos + 1);
+            } else if (next == '!') {
+                if (startsWith("!--", pos)) {
+                    pos = skipPast("-->", pos + 3);
+                } else if (startsWith("![CDATA[", pos)) {
+                    int start = pos + 8;
+                    pos = skipPast("]]>", start);
+                    if (collector.isCapturing()) {
+                        text.setLength(0);
+                        appendRawText(start, pos - 3);
+                        collector.text(text);
+                    }
+                } else {
+                    // DOCTYPE 宣言は独自の実体参照を定義できるので扱わない
+                    throw new UnsupportedContentException("DOCTYPE is not supported.");
+                }
+            } else {
+                scanStartTag();
+            }
+        }
+
+        if (collector.getDepth() != 0) {
+            throw new UnsupportedContentException("unexpected end of file.");
+        }
+    }
+
+    private void scanStartTag() throws UnsupportedContentException {
+        int nameStart = pos;
+        int nameEnd = skipName(pos);
+        if (nameEnd == nameStart) {
+            throw new UnsupportedContentException("element name is empty.");
+        }
+        String name = names.get(buffer, nameStart, nameEnd, charset);
+        pos = nameEnd;
+
+        // 属性を読み、 DEST 属性の値だけを取っておく
+        String dest = null;
+        boolean isEmptyElement = false;
+        while (true) {
+            pos = skipWhitespace(pos);
+            byte b = byteAt(pos);
+            if (b == '>') {
+                break;
+            } else if (b == '/') {
+                if (byteAt(pos + 1) != '>') {
+                    throw new UnsupportedContentException("'>' is expected.");
+                }
+                isEmptyElement = true;
+                pos++;
+                break;
+            }
+
+            int attributeNameStart = pos;
+            int attributeNameEnd = skipName(pos);
+            if (attributeNameEnd == attributeNameStart) {
+                throw new UnsupportedContentException("attribute name is empty.");
+            }
+            pos = skipWhitespace(attributeNameEnd);
+            if (byteAt(pos) != '=') {
+                throw new UnsupportedContentException("'=' is expected.");
+            }
+            pos = skipWhitespace(pos + 1);
+            byte quote = byteAt(pos);
+            if (quote != '"' && quote != '\'') {
+                throw new UnsupportedContentException("quote is expected.");
+            }
+            int valueStart = pos + 1;
+            int valueEnd = indexOf(quote, valueStart);
+            if (valueEnd < 0) {
+                throw new UnsupportedContentException("unterminated attribute value.");
+            }
+            if (equalsAscii(DEST, attributeNameStart, attributeNameEnd)) {
+                dest = decodeAttributeValue(valueStart, valueEnd);
+            }
+            pos = valueEnd + 1;
+        }
+
+        // SAX の Locator と同じく、開始タグの終わり('>')の行を開始タグの行とする
+        long elementLine = lineAt(pos);
+        pos++;
+
+        collector.startElement(name, dest, elementLine);
+        if (isEmptyElement) {
+            collector.endElement();
+        }
+    }
+
+    private void scanEndTag() throws UnsupportedContentException {
+        int nameStart = pos + 1;
+        int nameEnd = skipName(nameStart);
+        pos = skipWhitespace(nameEnd);
+        if (byteAt(pos) != '>') {
+            throw new UnsupportedContentException("'>' is expected.");
+        }
+        pos++;
+
+        String elementName = collector.getCurrentElementName();
+        if (elementName == null || !equalsAscii(elementName, nameStart, nameEnd)) {
+            throw new UnsupportedContentException("end tag does not match.");
+        }
+        collector.endElement();
+    }
+
+    /**
+     * テキストを実体参照を展開して、作業領域に取り込む。
+     */
+    private void appendText(int start, int end) throws UnsupportedContentException {
+        int segmentStart = start;
+        int amp = indexOf('&', start, end);
+        while (amp >= 0) {
+            appendRawText(segmentStart, amp);
+            int semicolon = indexOf(';', amp + 1, end);
+            if (semicolon < 0) {
+                throw new UnsupportedContentException("unterminated entity reference.");
+            }
+            appendEntity(amp + 1, semicolon);
+            segmentStart = semicolon + 1;
+            amp = indexOf('&', segmentStart, end);
+        }
+        appendRawText(segmentStart, end);
+    }
+
+    /**
+     * テキストをそのまま作業領域に取り込む。
+     * (XML の仕様に合わせて、改行コードは LF に正規化する)
+     */
+    private void appendRawText(int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        String decoded = decode(start, end);
+        if (decoded.indexOf('\r') >= 0) {
+            decoded = decoded.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        text.append(decoded);
+    }
+
+    private void appendEntity(int start, int end) throws UnsupportedContentException {
+        if (byteAt(start) == '#') {
+            int codePoint;
+            try {
+                codePoint = byteAt(start + 1) == 'x'
+                        ? Integer.parseInt(decode(start + 2, end), 16)
+                        : Integer.parseInt(decode(start + 1, end), 10);
+            } catch (NumberFormatException e) {
+                throw new UnsupportedContentException("invalid character reference.");
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                throw new UnsupportedContentException("invalid character reference.");
+            }
+            text.appendCodePoint(codePoint);
+        } else if (equalsAscii("lt", start, end)) {
+            text.append('<');
+        } else if (equalsAscii("gt", start, end)) {
+            text.append('>');
+        } else if (equalsAscii("amp", start, end)) {
+            text.append('&');
+        } else if (equalsAscii("quot", start, end)) {
+            text.append('"');
+        } else if (equalsAscii("apos", start, end)) {
+            text.append('\'');
+        } else {
+            throw new UnsupportedContentException("unknown entity reference.");
+        }
+    }
+
+    /**
+     * 属性値を実体参照を展開し、空白を正規化して取得する。
+     */
+    private String decodeAttributeValue(int start, int end) throws UnsupportedContentException {
+        text.setLength(0);
+        appendText(start, end);
+        String value = text.toString();
+        // XML の属性値の正規化(改行とタブは空白になる)
+        return value.replace('\n', ' ').replace('\t', ' ');
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * 指定位置の行番号を取得する。
+     * (前回数えた位置からの差分だけ数えるので、ファイル全体で 1 回しか走査しない)
+     */
+    private long lineAt(int position) {
+        for (int i = lineCountedPos; i < position; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                line++;
+            } else if (b == '\r' && (i + 1 >= limit || buffer.get(i + 1) != '\n')) {
+                line++;
+            }
+        }
+        lineCountedPos = Math.max(lineCountedPos, position);
+        return line;
+    }
+
+    private byte byteAt(int position) throws UnsupportedContentException {
+        if (position >= limit) {
+            throw new UnsupportedContentException("unexpected end of file.");
+        }
+        return buffer.get(position);
+    }
+
+    private int indexOf(int b, int from) {
+        return indexOf(b, from, limit);
+    }
+
+    private int indexOf(int b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(String ascii, int from) {
+        if (from + ascii.length() > limit) {
+            return false;
+        }
+        return equalsAscii(ascii, from, from + ascii.length());
+    }
+
+    private boolean equalsAscii(String ascii, int start, int end) {
+        if (end - start != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer.get(start + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 終端文字列の直後の位置を取得する。
+     */
+    private int skipPast(String terminator, int from) throws UnsupportedContentException {
+        byte first = (byte)terminator.charAt(0);
+        for (int i = from; i + terminator.length() <= limit; i++) {
+            if (buffer.get(i) == first && equalsAscii(terminator, i, i + terminator.length())) {
+                return i + terminator.length();
+            }
+        }
+        throw new UnsupportedContentException("'" + terminator + "' is expected.");
+    }
+
+    private int skipName(int from) {
+        int i = from;
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (isWhitespace(b) || b == '>' || b == '/' || b == '=') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private int skipWhitespace(int from) {
+        int i = from;
+        while (i < limit && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * エレメント名のバイト列から String を引くキャッシュ。
+     */
+    private static class NameCache {
+
+        private static final int CAPACITY = 256;
+
+        private final byte[][] keys = new byte[CAPACITY][];
+
+        private final String[] values = new String[CAPACITY];
+
+        String get(ByteBuffer buffer, int start, int end, Charset charset) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+
+            byte[] key = keys[slot];
+            if (key != null && key.length == end - start) {
+                boolean isSame = true;
+                for (int i = 0; i < key.length; i++) {
+                    if (key[i] != buffer.get(start + i)) {
+                        isSame = false;
+                        break;
+                    }
+                }
+                if (isSame) {
+                    return values[slot];
+                }
+            }
+
+            // 衝突した場合は上書きする(キャッシュなので取りこぼしても良い)
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            keys[slot] = bytes;
+            values[slot] = new String(bytes, charset);
+            return values[slot];
+        }
+    }
+
+    /**
+     * このクラスでは抽出できない内容だった場合の例外。
+     */
+    private static class UnsupportedContentException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedContentException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
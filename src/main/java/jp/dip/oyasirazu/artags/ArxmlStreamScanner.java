@@ -0,0 +1,125 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.xml.sax.SAXException;
+
+/**
+ * arxml ファイルを StAX(XMLStreamReader)で先頭から順に読み、定義と参照を抽出する。
+ *
+ * 読んだ開始タグ・テキスト・終了タグは ArxmlScanner と同じく EntryCollector に渡す。
+ * DOM を組み立てず、開いているエレメントのスタックだけを保持するので、
+ * 抽出結果以外に使うメモリはファイルサイズではなくエレメントの深さに比例する。
+ * DOM では数 GB のヒープが必要になる大きなファイル向け。
+ *
+ * ArxmlScanner と違い XML パーサーで読むので、 DOCTYPE 宣言・実体参照・
+ * ASCII 互換でない文字コード・圧縮されたファイルやアーカイブ内のエントリもそのまま扱える。
+ * 抽出結果は Artags#extractEntries(DOM で抽出する場合)と同じになる。
+ * ただし ArxmlScanner と同じく、 SHORT-NAME より前に子エレメントの定義が現れることは想定していない。
+ */
+public class ArxmlStreamScanner {
+
+    private static final String DEST = "DEST";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final XMLStreamReader reader;
+
+    private final EntryCollector collector;
+
+    private ArxmlStreamScanner(Path filePath, XMLStreamReader reader) {
+        this.reader = reader;
+        this.collector = new EntryCollector(filePath);
+    }
+
+    /**
+     * 指定された arxml ファイルを読み、定義と参照を抽出する。
+     *
+     * @param filePath arxml ファイル(アーカイブ内のエントリを含む)のパス
+     *
+     * @return 抽出結果
+     *
+     * @throws SAXException XML として不正なファイルの場合
+     */
+    public static Entries scan(Path filePath) throws SAXException, IOException {
+        // 圧縮されたファイルやアーカイブ内のエントリは、展開しながら読み込む
+        try (InputStream is = new BufferedInputStream(ArxmlArchives.newInputStream(filePath), READ_BUFFER_SIZE)) {
+            return scan(filePath, is);
+        }
+    }
+
+    /**
+     * 指定されたストリームの arxml を読み、定義と参照を抽出する。
+     *
+     * @param filePath 抽出結果に記録するファイルのパス
+     * @param is arxml ファイルの内容(閉じるのは呼び出し側で行うこと)
+     *
+     * @return 抽出結果
+     *
+     * @throws SAXException XML として不正な内容の場合
+     */
+    static Entries scan(Path filePath, InputStream is) throws SAXException {
+        // DOM で抽出する場合(SAXParser のデフォルト)と同じく、名前空間は解釈せずに接頭辞付きの名前で扱う
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(filePath.toUri().toString(), is);
+            try {
+                ArxmlStreamScanner scanner = new ArxmlStreamScanner(filePath, reader);
+                scanner.scanDocument();
+                return scanner.collector.toEntries();
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new SAXException("filePath : " + filePath + ". " + e.getMessage(), e);
+        }
+    }
+
+    private void scanDocument() throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    // SAX の Locator と同じく、開始タグの終わり('>')の行を開始タグの行とする
+                    collector.startElement(reader.getLocalName(), getDest(), reader.getLocation().getLineNumber());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    collector.endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    collector.text(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 現在の開始タグの DEST 属性の値を取得する。
+     *
+     * @return DEST 属性の値(DEST 属性を持たない場合は null)
+     */
+    private String getDest() {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            if ((prefix == null || prefix.isEmpty()) && DEST.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,395 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.xml.sax.SAXException;
+
+/**
+ * arxml ファイルの作成・変更・削除を監視し、インデックスを更新するクラス。
+ *
+ * 変更を検知したら、一定時間(デバウンス時間)新たな変更が無くなるのを待ってから、
+ * 変更のあったファイルだけを再パースしてインデックスを更新し、リスナーに通知する。
+ * zip, jar アーカイブが変更された場合は、アーカイブ内のエントリをすべて入れ替える。
+ */
+public class ArxmlWatcher implements Closeable {
+
+    /**
+     * デフォルトのデバウンス時間(ミリ秒)。
+     */
+    public static final long DEBOUNCE_MILLIS_DEFAULT = 300;
+
+    private final List<String> baseDirectories;
+
+    private final ArxmlFinder finder;
+
+    private final ArxmlIndex index;
+
+    private final long debounceMillis;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    /**
+     * 監視対象の arxml ファイル(検出順を保つ)。
+     */
+    private final Map<Path, Arxml> arxmls = new LinkedHashMap<>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param baseDirectories 監視するディレクトリのリスト
+     * @param finder 監視対象の arxml ファイルを判定・探索するインスタンス(baseDirectories を探索対象にしたもの)
+     * @param arxmls index に登録済みの arxml インスタンスのリスト
+     * @param index 更新対象のインデックス
+     * @param debounceMillis デバウンス時間(ミリ秒)
+     */
+    public ArxmlWatcher(
+            List<String> baseDirectories,
+            ArxmlFinder finder,
+            List<Arxml> arxmls,
+            ArxmlIndex index,
+            long debounceMillis) throws IOException {
+        this.baseDirectories = baseDirectories;
+        this.finder = finder;
+        this.index = index;
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        for (Arxml arxml : arxmls) {
+            this.arxmls.put(arxml.getFilePath(), arxml);
+        }
+
+        for (String baseDirectory : baseDirectories) {
+            registerTree(Paths.get(baseDirectory), null);
+        }
+    }
+
+    /**
+     * 監視を開始する。
+     *
+     * 監視はスレッドが割り込まれるか、 close されるまで続く。
+     *
+     * @param listener インデックスを更新した後に呼び出されるリスナー
+     */
+    public void watch(Listener listener)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+
+                // 変更が落ち着くまで、デバウンス時間ごとにイベントを集める
+                Set<Path> changedPaths = new LinkedHashSet<>();
+                boolean isOverflowed = false;
+                while (key != null) {
+                    isOverflowed |= collectChangedPaths(key, changedPaths);
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+
+                boolean isUpdated;
+                if (isOverflowed) {
+                    isUpdated = reindexAll();
+                } else {
+                    isUpdated = reindex(changedPaths);
+                }
+
+                if (isUpdated) {
+                    listener.onUpdate(new ArrayList<>(arxmls.values()), index);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // close された
+            return;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * WatchKey に溜まったイベントから、変更のあったパスを集める。
+     *
+     * @return イベントを取りこぼしていた場合は true
+     */
+    private boolean collectChangedPaths(WatchKey key, Set<Path> changedPaths) {
+        boolean isOverflowed = false;
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                isOverflowed = true;
+            } else if (directory != null) {
+                changedPaths.add(directory.resolve((Path)event.context()));
+            }
+        }
+
+        // 監視対象のディレクトリが削除された場合は登録を解除
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return isOverflowed;
+    }
+
+    /**
+     * 変更のあったファイルを再パースし、インデックスを更新する。
+     *
+     * @return インデックスを更新した場合は true
+     */
+    private boolean reindex(Set<Path> changedPaths)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        boolean isUpdated = false;
+        for (Path changedPath : changedPaths) {
+            if (Files.isDirectory(changedPath)) {
+                if (finder.isExcludedDirectory(changedPath)) {
+                    continue;
+                }
+
+                // 新しく作られたディレクトリは監視対象に追加し、中の arxml を登録する
+                List<Path> foundArxmls = new ArrayList<>();
+                registerTree(changedPath, foundArxmls);
+                for (Path foundArxml : foundArxmls) {
+                    isUpdated |= reindexFile(foundArxml);
+                }
+            } else if (!Files.exists(changedPath)) {
+                // 削除・移動されたパスは、ディレクトリであればその下のファイルと監視をすべて外す
+                // (削除された後は Files.isDirectory で判定できないので、パスの前方一致で判定する)
+                isUpdated |= removeTree(changedPath);
+            } else if (finder.isTarget(changedPath)) {
+                isUpdated |= reindexFile(changedPath);
+            } else if (finder.isTargetArchive(changedPath)) {
+                isUpdated |= reindexArchive(changedPath);
+            }
+        }
+        return isUpdated;
+    }
+
+    /**
+     * 削除・移動されたパス以下の arxml ファイル(アーカイブ内のエントリを含む)をインデックスから削除し、
+     * パス以下のディレクトリの監視を解除する。
+     *
+     * @return インデックスを更新した場合は true
+     */
+    private boolean removeTree(Path path) throws IOException {
+        Path prefix = path.toAbsolutePath().normalize();
+
+        // 移動されたディレクトリの監視は有効なまま残るので、明示的に解除する
+        for (Iterator<Map.Entry<WatchKey, Path>> i = watchedDirectories.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<WatchKey, Path> entry = i.next();
+            if (entry.getValue().toAbsolutePath().normalize().startsWith(prefix)) {
+                entry.getKey().cancel();
+                i.remove();
+            }
+        }
+
+        boolean isUpdated = false;
+        for (Path filePath : new ArrayList<>(arxmls.keySet())) {
+            // アーカイブ内のエントリは、アーカイブのパスで判定する
+            Path archivePath = ArxmlArchives.getArchivePath(filePath);
+            Path hostPath = archivePath == null ? filePath.toAbsolutePath().normalize() : archivePath;
+            if (!hostPath.startsWith(prefix)) {
+                continue;
+            }
+
+            Artags.invalidateCaches(filePath);
+            index.remove(filePath);
+            arxmls.remove(filePath);
+            if (archivePath != null) {
+                ArxmlArchives.close(archivePath);
+            }
+            isUpdated = true;
+        }
+        return isUpdated;
+    }
+
+    /**
+     * 指定されたファイルを再パースし、インデックスを更新する。
+     * (ファイルが削除されていた場合は、インデックスから削除する)
+     *
+     * @return インデックスを更新した場合は true
+     */
+    private boolean reindexFile(Path filePath)
+            throws ParserConfigurationException,
+                    IOException {
+        Artags.invalidateCaches(filePath);
+        index.remove(filePath);
+
+        if (!Files.exists(filePath)) {
+            return arxmls.remove(filePath) != null;
+        }
+
+        Arxml arxml = arxmls.computeIfAbsent(filePath, Arxml::new);
+        try {
+            index.add(Artags.extractEntries(arxml));
+        } catch (SAXException | IOException e) {
+            // 保存途中のファイル等、パースできないファイルは次の変更まで
+            // インデックスから外しておく
+            System.err.println("skip unparsable file : " + filePath + " (" + e.getMessage() + ")");
+        }
+        return true;
+    }
+
+    /**
+     * 指定されたアーカイブ内のエントリをインデックスから削除し、アーカイブを開き直して登録し直す。
+     *
+     * @return インデックスを更新した場合は true
+     */
+    private boolean reindexArchive(Path archivePath)
+            throws ParserConfigurationException,
+                    IOException {
+        boolean isUpdated = false;
+        Path absoluteArchivePath = archivePath.toAbsolutePath().normalize();
+        for (Path filePath : new ArrayList<>(arxmls.keySet())) {
+            if (absoluteArchivePath.equals(ArxmlArchives.getArchivePath(filePath))) {
+                Artags.invalidateCaches(filePath);
+                index.remove(filePath);
+                arxmls.remove(filePath);
+                isUpdated = true;
+            }
+        }
+        ArxmlArchives.close(archivePath);
+
+        if (!Files.exists(archivePath)) {
+            return isUpdated;
+        }
+
+        List<Path> entries;
+        try {
+            entries = finder.findArchiveEntries(archivePath);
+        } catch (IOException e) {
+            // 書き込み途中のアーカイブ等、開けないアーカイブは次の変更まで
+            // インデックスから外しておく
+            ArxmlArchives.close(archivePath);
+            System.err.println("skip unreadable archive : " + archivePath + " (" + e.getMessage() + ")");
+            return isUpdated;
+        }
+        for (Path entry : entries) {
+            isUpdated |= reindexFile(entry);
+        }
+        return isUpdated;
+    }
+
+    /**
+     * イベントを取りこぼした場合に、全ファイルを探し直してインデックスを作り直す。
+     *
+     * @return インデックスを更新した場合は true
+     */
+    private boolean reindexAll()
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        for (Path filePath : new ArrayList<>(arxmls.keySet())) {
+            Artags.invalidateCaches(filePath);
+            index.remove(filePath);
+
+            Path archivePath = ArxmlArchives.getArchivePath(filePath);
+            if (archivePath != null) {
+                ArxmlArchives.close(archivePath);
+            }
+        }
+        arxmls.clear();
+
+        for (String baseDirectory : baseDirectories) {
+            registerTree(Paths.get(baseDirectory), null);
+        }
+        for (Arxml arxml : finder.find(Runtime.getRuntime().availableProcessors())) {
+            reindexFile(arxml.getFilePath());
+        }
+        return true;
+    }
+
+    /**
+     * 指定されたディレクトリ以下の(除外対象ではない)ディレクトリをすべて監視対象に登録する。
+     *
+     * @param directory 監視対象に登録するディレクトリ
+     * @param foundArxmls 見つけた arxml ファイルの格納先(null の場合は格納しない)
+     */
+    private void registerTree(Path directory, List<Path> foundArxmls) throws IOException {
+        Files.walkFileTree(directory,
+            new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir,
+                        BasicFileAttributes attrs) throws IOException {
+
+                    if (finder.isExcludedDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    if (!watchedDirectories.containsValue(dir)) {
+                        WatchKey key = dir.register(watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE);
+                        watchedDirectories.put(key, dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        Path filePath,
+                        BasicFileAttributes attr) throws IOException {
+
+                    if (foundArxmls != null) {
+                        if (finder.isTarget(filePath)) {
+                            foundArxmls.add(filePath);
+                        } else if (finder.isTargetArchive(filePath)) {
+                            foundArxmls.addAll(finder.findArchiveEntries(filePath));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    /**
+     * インデックスを更新した後に呼び出されるリスナー。
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * インデックスを更新した後に呼び出される。
+         *
+         * @param arxmls 現在の監視対象の arxml インスタンスのリスト
+         * @param index 更新後のインデックス
+         */
+        void onUpdate(List<Arxml> arxmls, ArxmlIndex index)
+                throws SAXException,
+                        ParserConfigurationException,
+                        IOException;
+    }
+}
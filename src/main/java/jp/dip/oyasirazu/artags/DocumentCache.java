@@ -0,0 +1,171 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * パース済み Document のキャッシュ。
+ *
+ * arxml ファイルのパスをキーに、最近使われた順で capacity 個まで Document を保持する。
+ * capacity を超えた場合は、最も長い間使われていない Document から破棄する。
+ * 複数スレッドから同時に使用できる。
+ *
+ * タグファイルの生成では 1 ファイルを 1 度しかパースしないので、キャッシュしても再利用されず、
+ * 保持した Document がヒープを圧迫するだけになる。
+ * そのためデフォルトではキャッシュせず、同じファイルを繰り返しパースする用途でのみ容量を指定する。
+ */
+public class DocumentCache {
+
+    /**
+     * デフォルトのキャッシュ容量(キャッシュしない)。
+     */
+    public static final int CAPACITY_DEFAULT = 0;
+
+    private final int capacity;
+
+    private final Map<Path, Document> documents;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param capacity 保持する Document の最大数(0 の場合はキャッシュしない)
+     */
+    public DocumentCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity is negative : " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.documents = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Document> eldest) {
+                return size() > DocumentCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 指定したパスの Document を取得する。
+     *
+     * キャッシュに存在しない場合は loader でパースし、キャッシュに格納する。
+     *
+     * @param arxmlFilePath arxml ファイルパス
+     * @param loader キャッシュに存在しなかった場合に Document を生成するローダー
+     *
+     * @return 引数で指定された arxml ファイルのパース結果である Document インスタンス
+     */
+    public Document get(Path arxmlFilePath, Loader loader)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+
+        synchronized (documents) {
+            Document document = documents.get(arxmlFilePath);
+            if (document != null) {
+                hitCount.incrementAndGet();
+                return document;
+            }
+        }
+
+        // パースは時間がかかるので、ロックの外で行う
+        missCount.incrementAndGet();
+        Document document = loader.load(arxmlFilePath);
+
+        if (capacity > 0) {
+            synchronized (documents) {
+                documents.put(arxmlFilePath, document);
+            }
+        }
+
+        return document;
+    }
+
+    /**
+     * 指定したパスの Document をキャッシュから破棄する。
+     *
+     * @param arxmlFilePath 破棄する arxml ファイルパス
+     */
+    public void invalidate(Path arxmlFilePath) {
+        synchronized (documents) {
+            documents.remove(arxmlFilePath);
+        }
+    }
+
+    /**
+     * キャッシュしている Document をすべて破棄する。
+     */
+    public void clear() {
+        synchronized (documents) {
+            documents.clear();
+        }
+    }
+
+    /**
+     * キャッシュ容量を取得する。
+     *
+     * @return 保持する Document の最大数
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 現在キャッシュしている Document の数を取得する。
+     *
+     * @return 現在キャッシュしている Document の数
+     */
+    public int size() {
+        synchronized (documents) {
+            return documents.size();
+        }
+    }
+
+    /**
+     * キャッシュヒット回数を取得する。
+     *
+     * @return キャッシュヒット回数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * キャッシュミス回数を取得する。
+     *
+     * @return キャッシュミス回数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * キャッシュに存在しなかった Document を生成するローダー。
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * 指定された arxml ファイルパスをパースし、 Document にして返却する。
+         *
+         * @param arxmlFilePath arxml ファイルパス
+         *
+         * @return 引数で指定された arxml ファイルのパース結果である Document インスタンス
+         */
+        Document load(Path arxmlFilePath)
+                throws SAXException,
+                        ParserConfigurationException,
+                        IOException;
+    }
+}
@@ -0,0 +1,219 @@
+package jp.dip.oyasirazu.artags;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+/**
+ * 開始タグ・テキスト・終了タグを文書順に受け取り、定義と参照を組み立てる。
+ *
+ * DOM を組み立てない走査(ArxmlScanner と ArxmlStreamScanner)で共通に使う。
+ * 抽出結果は Artags#extractEntries(DOM で抽出する場合)と同じになる。
+ * ただし、 SHORT-NAME より前に子エレメントの定義が現れることは想定していない。
+ * (AUTOSAR のスキーマでは SHORT-NAME は常に最初の子エレメントである)
+ */
+class EntryCollector {
+
+    private static final String SHORT_NAME = "SHORT-NAME";
+
+    private static final int INITIAL_DEPTH = 64;
+
+    private final Path filePath;
+
+    /**
+     * 開いているエレメントのスタック。
+     * (オブジェクトを作らないよう、深さごとの配列で保持する)
+     */
+    private int depth;
+    private String[] elementNames = new String[INITIAL_DEPTH];
+    private String[] childPaths = new String[INITIAL_DEPTH];
+    private long[] elementLines = new long[INITIAL_DEPTH];
+    private boolean[] shortNameSeen = new boolean[INITIAL_DEPTH];
+    private boolean[] isShortNames = new boolean[INITIAL_DEPTH];
+    private int[] referenceSlots = new int[INITIAL_DEPTH];
+    private int[] captureStarts = new int[INITIAL_DEPTH];
+    private String[] destValues = new String[INITIAL_DEPTH];
+
+    /**
+     * テキストを取り込んでいるエレメントの数。
+     * (DEST 属性を持つエレメントと、最初の SHORT-NAME の中にいる間だけテキストを取り込む)
+     */
+    private int captureDepth;
+
+    private final StringBuilder capturedText = new StringBuilder();
+
+    private final List<Definition> definitions = new ArrayList<>();
+
+    private final List<Reference> references = new ArrayList<>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param filePath 抽出結果に記録するファイルのパス
+     */
+    EntryCollector(Path filePath) {
+        this.filePath = filePath;
+    }
+
+    /**
+     * 開始タグを受け取る。
+     *
+     * @param name エレメント名
+     * @param dest DEST 属性の値(DEST 属性を持たない場合は null)
+     * @param elementLine 開始タグの行番号
+     */
+    void startElement(String name, String dest, long elementLine) {
+        if (depth == elementNames.length) {
+            growStack();
+        }
+
+        int d = depth++;
+        elementNames[d] = name;
+        childPaths[d] = d == 0 ? "" : childPaths[d - 1];
+        elementLines[d] = elementLine;
+        shortNameSeen[d] = false;
+        isShortNames[d] = false;
+        destValues[d] = dest;
+        referenceSlots[d] = -1;
+        captureStarts[d] = -1;
+
+        // 参照はパス(テキスト)が終了タグまで確定しないので、
+        // 開始タグの順番で並ぶよう、先に場所だけ確保しておく
+        if (dest != null) {
+            referenceSlots[d] = references.size();
+            references.add(null);
+            startCapture(d);
+        }
+
+        // 親の最初の SHORT-NAME であれば、テキストを取り込んで親の SHORT-NAME にする
+        if (d > 0 && !shortNameSeen[d - 1] && name.equals(SHORT_NAME)) {
+            shortNameSeen[d - 1] = true;
+            isShortNames[d] = true;
+            if (captureStarts[d] < 0) {
+                startCapture(d);
+            }
+        }
+    }
+
+    /**
+     * テキストを取り込む必要があるかを判定する。
+     * (false の間はテキストのデコードを省略して良い)
+     *
+     * @return 取り込む必要がある場合は true
+     */
+    boolean isCapturing() {
+        return captureDepth > 0;
+    }
+
+    /**
+     * テキスト(実体参照は展開済みのもの)を受け取る。
+     *
+     * @param text テキスト
+     */
+    void text(CharSequence text) {
+        if (captureDepth > 0) {
+            capturedText.append(text);
+        }
+    }
+
+    /**
+     * テキスト(実体参照は展開済みのもの)を受け取る。
+     *
+     * @param chars テキストを含む配列
+     * @param start テキストの開始位置
+     * @param length テキストの長さ
+     */
+    void text(char[] chars, int start, int length) {
+        if (captureDepth > 0) {
+            capturedText.append(chars, start, length);
+        }
+    }
+
+    /**
+     * 終了タグを受け取る。
+     */
+    void endElement() {
+        int d = --depth;
+        String text = captureStarts[d] < 0 ? null : capturedText.substring(captureStarts[d]);
+
+        if (referenceSlots[d] >= 0) {
+            references.set(referenceSlots[d], new Reference(text, destValues[d], elementLines[d]));
+        }
+
+        // 親の SHORT-NAME であれば、親を定義として登録する
+        // (Artags#extractEntries と同じく、空の SHORT-NAME は無視する)
+        if (isShortNames[d] && !text.isEmpty()) {
+            int parent = d - 1;
+            String arHierarchyPath = childPaths[parent] + "/" + text;
+            childPaths[parent] = arHierarchyPath;
+            definitions.add(new Definition(
+                    arHierarchyPath,
+                    filePath,
+                    elementLines[parent],
+                    elementNames[parent]));
+        }
+
+        if (captureStarts[d] >= 0) {
+            endCapture();
+        }
+        elementNames[d] = null;
+        childPaths[d] = null;
+        destValues[d] = null;
+    }
+
+    /**
+     * 開いているエレメントの数を取得する。
+     *
+     * @return 開いているエレメントの数
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 最も内側の開いているエレメントの名前を取得する。
+     *
+     * @return エレメント名(開いているエレメントが無い場合は null)
+     */
+    String getCurrentElementName() {
+        return depth == 0 ? null : elementNames[depth - 1];
+    }
+
+    /**
+     * 受け取った内容から組み立てた抽出結果を取得する。
+     *
+     * @return 抽出結果
+     */
+    Entries toEntries() {
+        return new Entries(filePath, definitions, references);
+    }
+
+    private void startCapture(int d) {
+        captureStarts[d] = capturedText.length();
+        captureDepth++;
+    }
+
+    private void endCapture() {
+        captureDepth--;
+        if (captureDepth == 0) {
+            capturedText.setLength(0);
+        }
+    }
+
+    private void growStack() {
+        int capacity = elementNames.length * 2;
+        elementNames = Arrays.copyOf(elementNames, capacity);
+        childPaths = Arrays.copyOf(childPaths, capacity);
+        elementLines = Arrays.copyOf(elementLines, capacity);
+        shortNameSeen = Arrays.copyOf(shortNameSeen, capacity);
+        isShortNames = Arrays.copyOf(isShortNames, capacity);
+        referenceSlots = Arrays.copyOf(referenceSlots, capacity);
+        captureStarts = Arrays.copyOf(captureStarts, capacity);
+        destValues = Arrays.copyOf(destValues, capacity);
+    }
+}
@@ -0,0 +1,243 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 大量の行をソートするための外部マージソート。
+ *
+ * メモリ上に保持する行数が上限を超えたら、ソート済みの行を一時ファイル(ラン)に書き出す。
+ * 最後に、全てのランとメモリ上に残った行をマージしながら出力する。
+ *
+ * 行は UTF-8 のバイト順(コードポイント順)でソートする。
+ * (tags ファイルを二分探索するエディタは strcmp で比較するため)
+ */
+public class ExternalSorter implements Closeable {
+
+    /**
+     * メモリ上に保持する行数のデフォルトの上限。
+     */
+    public static final int MAX_LINES_IN_MEMORY_DEFAULT = 1_000_000;
+
+    /**
+     * コードポイント順で比較するコンパレータ。
+     */
+    public static final Comparator<String> CODE_POINT_ORDER = ExternalSorter::compareCodePoints;
+
+    private final int maxLinesInMemory;
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final List<Path> runFilePaths = new ArrayList<>();
+
+    private Path tmpDirectory;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param maxLinesInMemory メモリ上に保持する行数の上限
+     */
+    public ExternalSorter(int maxLinesInMemory) {
+        if (maxLinesInMemory < 1) {
+            throw new IllegalArgumentException("maxLinesInMemory must be positive : " + maxLinesInMemory);
+        }
+        this.maxLinesInMemory = maxLinesInMemory;
+    }
+
+    /**
+     * ソート対象の行を追加する。
+     *
+     * @param line 追加する行
+     */
+    public void add(String line) throws IOException {
+        lines.add(line);
+        if (lines.size() >= maxLinesInMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * 追加された全ての行をソート順に出力する。
+     *
+     * @param writer 出力先
+     */
+    public void writeSorted(LineWriter writer) throws IOException {
+        lines.sort(CODE_POINT_ORDER);
+
+        // ランが無ければ、メモリ上の行をそのまま出力すれば良い
+        if (runFilePaths.isEmpty()) {
+            for (String line : lines) {
+                writer.write(line);
+            }
+            return;
+        }
+
+        List<RunReader> readers = new ArrayList<>(runFilePaths.size() + 1);
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                    runFilePaths.size() + 1,
+                    (a, b) -> compareCodePoints(a.current, b.current));
+
+            for (Path runFilePath : runFilePaths) {
+                RunReader reader = new RunReader(runFilePath);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            RunReader memoryReader = new RunReader(lines);
+            if (memoryReader.next()) {
+                queue.add(memoryReader);
+            }
+
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writer.write(reader.current);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 書き出したランのファイル数を取得する。
+     *
+     * @return ランのファイル数
+     */
+    public int getRunCount() {
+        return runFilePaths.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Path runFilePath : runFilePaths) {
+            Files.deleteIfExists(runFilePath);
+        }
+        runFilePaths.clear();
+        if (tmpDirectory != null) {
+            Files.deleteIfExists(tmpDirectory);
+            tmpDirectory = null;
+        }
+        lines.clear();
+    }
+
+    /**
+     * メモリ上の行をソートしてランとして書き出す。
+     */
+    private void spill() throws IOException {
+        if (tmpDirectory == null) {
+            tmpDirectory = Files.createTempDirectory("artags-sort");
+        }
+
+        lines.sort(CODE_POINT_ORDER);
+        Path runFilePath = tmpDirectory.resolve("run-" + runFilePaths.size());
+        runFilePaths.add(runFilePath);
+        try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(runFilePath), 64 * 1024))) {
+            for (String line : lines) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        lines.clear();
+    }
+
+    /**
+     * 2 つの文字列をコードポイント順で比較する。
+     * (String#compareTo は UTF-16 のコードユニット順なので、サロゲートペアの扱いが UTF-8 のバイト順と異なる)
+     */
+    static int compareCodePoints(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (Character.isSurrogate(ca) || Character.isSurrogate(cb)) {
+                    return Integer.compare(a.codePointAt(i), b.codePointAt(i));
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * ランを先頭から 1 行ずつ読み込むクラス。
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private final List<String> lines;
+        private int position;
+        private String current;
+
+        RunReader(Path runFilePath) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFilePath), 64 * 1024));
+            this.lines = null;
+        }
+
+        RunReader(List<String> lines) {
+            this.in = null;
+            this.lines = lines;
+        }
+
+        boolean next() throws IOException {
+            if (lines != null) {
+                if (position >= lines.size()) {
+                    return false;
+                }
+                current = lines.get(position++);
+                return true;
+            }
+
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            current = new String(bytes, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * ソート済みの行の出力先。
+     */
+    @FunctionalInterface
+    public interface LineWriter {
+
+        /**
+         * 1 行出力する。
+         *
+         * @param line 出力する行(改行文字を含まない)
+         */
+        void write(String line) throws IOException;
+    }
+}
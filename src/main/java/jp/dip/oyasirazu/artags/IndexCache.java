@@ -0,0 +1,380 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * arxml ファイルごとの抽出結果をディスクに保存し、次回以降の実行で再利用するためのキャッシュ。
+ *
+ * キャッシュはファイルパス、ファイルサイズ、最終更新日時(と、オプションで内容のハッシュ値)で管理し、
+ * これらが変わっていないファイルはパースせずにキャッシュの抽出結果を使う。
+ *
+ * ファイルサイズと最終更新日時はパースする前に stamp で取得し、 get と put の両方に渡す。
+ * (パースした後に取得すると、パース中に更新されたファイルの古い抽出結果を、新しい日時で登録してしまう)
+ *
+ * 内容のハッシュ値は、パースのために読んだ内容から呼び出し側で計算して put に渡す。
+ * (ハッシュ値のためだけにファイルをもう一度読まないようにするため)
+ */
+public class IndexCache {
+
+    /**
+     * キャッシュディレクトリのデフォルト名。
+     */
+    public static final String CACHE_DIRECTORY_NAME = ".artags-cache";
+
+    private static final String CACHE_FILE_NAME = "index.bin";
+
+    private static final long MAGIC = 0x41525441_47534331L; // "ARTAGSC1"
+
+    private static final int VERSION = 2;
+
+    /**
+     * 内容のハッシュ値が無いことを表す値。
+     */
+    public static final long NO_HASH = -1;
+
+    private final Path cacheFilePath;
+
+    private final boolean useContentHash;
+
+    /**
+     * 前回の実行で保存されたエントリ。
+     */
+    private final Map<String, CacheEntry> loadedEntries = new ConcurrentHashMap<>();
+
+    /**
+     * 今回の実行で使用したエントリ(保存対象)。
+     */
+    private final Map<String, CacheEntry> usedEntries = new ConcurrentHashMap<>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param cacheDirectory キャッシュを保存するディレクトリ
+     * @param useContentHash ファイル内容のハッシュ値でも変更を判定する場合は true
+     */
+    public IndexCache(Path cacheDirectory, boolean useContentHash) {
+        this.cacheFilePath = cacheDirectory.resolve(CACHE_FILE_NAME);
+        this.useContentHash = useContentHash;
+    }
+
+    /**
+     * 保存されているキャッシュを読み込む。
+     *
+     * キャッシュが存在しない、もしくは形式が異なる場合は空のキャッシュとして扱う。
+     */
+    public void load() {
+        loadedEntries.clear();
+        try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(cacheFilePath)))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                CacheEntry entry = readEntry(in);
+                loadedEntries.put(entry.getKey(), entry);
+            }
+        } catch (NoSuchFileException e) {
+            // 初回実行
+            return;
+        } catch (IOException | RuntimeException e) {
+            // 壊れたキャッシュは捨てて作り直す
+            loadedEntries.clear();
+        }
+    }
+
+    /**
+     * 今回の実行で使用したエントリをキャッシュファイルに保存する。
+     *
+     * 今回の実行で使用しなかった(削除された等の)ファイルのエントリは保存しない。
+     */
+    public void save() throws IOException {
+        Files.createDirectories(cacheFilePath.getParent());
+
+        // 書き込み途中のファイルを読まないよう、一時ファイルに書いてから置き換える
+        Path tmpFilePath = Files.createTempFile(cacheFilePath.getParent(), CACHE_FILE_NAME, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tmpFilePath)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(usedEntries.size());
+                for (CacheEntry entry : usedEntries.values()) {
+                    writeEntry(out, entry);
+                }
+            }
+            Files.move(tmpFilePath, cacheFilePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFilePath);
+        }
+    }
+
+    /**
+     * ファイル内容のハッシュ値でも変更を判定するかを取得する。
+     *
+     * @return ファイル内容のハッシュ値でも変更を判定する場合は true
+     */
+    public boolean isUsingContentHash() {
+        return useContentHash;
+    }
+
+    /**
+     * 指定した arxml ファイルの、変更を判定するためのファイルサイズと最終更新日時を取得する。
+     *
+     * @param arxml 対象の arxml ファイルインスタンス
+     *
+     * @return ファイルサイズと最終更新日時
+     */
+    public FileStamp stamp(Arxml arxml) throws IOException {
+        return stamp(arxml.getFilePath());
+    }
+
+    /**
+     * 指定した arxml ファイルの抽出結果をキャッシュから取得する。
+     *
+     * @param arxml 抽出結果を取得したい arxml ファイルインスタンス
+     * @param stamp stamp で取得したファイルサイズと最終更新日時
+     *
+     * @return 抽出結果(キャッシュに存在しないか、ファイルが変更されていた場合は null)
+     */
+    public Entries get(Arxml arxml, FileStamp stamp) throws IOException {
+        Path filePath = arxml.getFilePath();
+        String key = toKey(filePath);
+        CacheEntry entry = loadedEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        long size = stamp.getSize();
+        long lastModified = stamp.getLastModified();
+        if (entry.getSize() != size) {
+            return null;
+        }
+
+        if (entry.getLastModified() != lastModified) {
+            // 更新日時だけが変わった場合、内容のハッシュ値が同じなら変更なしとみなす
+            if (!useContentHash || entry.getContentHash() == NO_HASH
+                    || entry.getContentHash() != hash(filePath)) {
+                return null;
+            }
+            entry = new CacheEntry(key, size, lastModified, entry.getContentHash(),
+                    entry.getDefinitions(), entry.getReferences());
+        }
+
+        usedEntries.put(key, entry);
+        return toEntries(filePath, entry);
+    }
+
+    /**
+     * 指定した arxml ファイルの抽出結果をキャッシュに登録する。
+     *
+     * @param arxml 抽出元の arxml ファイルインスタンス
+     * @param stamp パースする前に stamp で取得したファイルサイズと最終更新日時
+     * @param entries 抽出結果
+     * @param contentHash パースした内容(圧縮されたファイルの場合は圧縮されたまま)のハッシュ値
+     *                    (hash もしくは newChecksum で計算したもの。ハッシュ値を使わない場合は NO_HASH)
+     */
+    public void put(Arxml arxml, FileStamp stamp, Entries entries, long contentHash) throws IOException {
+        Path filePath = arxml.getFilePath();
+
+        // パース中に更新されたファイルは、読んだ内容が更新前後で混ざっている場合があるので、ハッシュ値を登録しない
+        if (!useContentHash || (contentHash != NO_HASH && !stamp.equals(stamp(filePath)))) {
+            contentHash = NO_HASH;
+        }
+
+        List<CachedDefinition> definitions = new ArrayList<>(entries.getDefinitions().size());
+        for (Definition definition : entries.getDefinitions()) {
+            definitions.add(new CachedDefinition(
+                    definition.getArHierarchyPath(),
+                    definition.getLineNumber(),
+                    definition.getType()));
+        }
+
+        String key = toKey(filePath);
+        usedEntries.put(key, new CacheEntry(
+                key,
+                stamp.getSize(),
+                stamp.getLastModified(),
+                contentHash,
+                definitions,
+                new ArrayList<>(entries.getReferences())));
+    }
+
+    private static FileStamp stamp(Path filePath) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        return new FileStamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private static String toKey(Path filePath) {
+        return ArxmlArchives.toPathString(filePath.toAbsolutePath().normalize());
+    }
+
+    private static Entries toEntries(Path filePath, CacheEntry entry) {
+        List<Definition> definitions = new ArrayList<>(entry.getDefinitions().size());
+        for (CachedDefinition definition : entry.getDefinitions()) {
+            definitions.add(new Definition(
+                    definition.getArHierarchyPath(),
+                    filePath,
+                    definition.getLineNumber(),
+                    definition.getType()));
+        }
+        return new Entries(filePath, definitions, new ArrayList<>(entry.getReferences()));
+    }
+
+    /**
+     * 読み込み済みのファイルの内容のハッシュ値を計算する。
+     *
+     * @param content ファイルの内容(圧縮されたファイルの場合は圧縮されたまま)
+     *
+     * @return ハッシュ値
+     */
+    public static long hash(byte[] content) {
+        Checksum checksum = newChecksum();
+        checksum.update(content, 0, content.length);
+        return checksum.getValue();
+    }
+
+    /**
+     * ファイルの内容を読みながらハッシュ値を計算するための Checksum を作る。
+     * (CheckedInputStream と組み合わせて使う)
+     *
+     * @return hash(byte[]) と同じハッシュ値を計算する Checksum
+     */
+    public static Checksum newChecksum() {
+        return new CRC32C();
+    }
+
+    private static long hash(Path filePath) throws IOException {
+        Checksum checksum = newChecksum();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = Files.newInputStream(filePath)) {
+            int length = is.read(buffer);
+            while (length != -1) {
+                checksum.update(buffer, 0, length);
+                length = is.read(buffer);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static CacheEntry readEntry(DataInputStream in) throws IOException {
+        String key = readString(in);
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        long contentHash = in.readLong();
+
+        int definitionCount = in.readInt();
+        List<CachedDefinition> definitions = new ArrayList<>(definitionCount);
+        for (int i = 0; i < definitionCount; i++) {
+            definitions.add(new CachedDefinition(readString(in), in.readLong(), readString(in)));
+        }
+
+        int referenceCount = in.readInt();
+        List<Reference> references = new ArrayList<>(referenceCount);
+        for (int i = 0; i < referenceCount; i++) {
+            references.add(new Reference(readString(in), readString(in), in.readLong()));
+        }
+
+        return new CacheEntry(key, size, lastModified, contentHash, definitions, references);
+    }
+
+    private static void writeEntry(DataOutputStream out, CacheEntry entry) throws IOException {
+        writeString(out, entry.getKey());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getLastModified());
+        out.writeLong(entry.getContentHash());
+
+        out.writeInt(entry.getDefinitions().size());
+        for (CachedDefinition definition : entry.getDefinitions()) {
+            writeString(out, definition.getArHierarchyPath());
+            out.writeLong(definition.getLineNumber());
+            writeString(out, definition.getType());
+        }
+
+        out.writeInt(entry.getReferences().size());
+        for (Reference reference : entry.getReferences()) {
+            writeString(out, reference.getArHierarchyPath());
+            writeString(out, reference.getDest());
+            out.writeLong(reference.getLineNumber());
+        }
+    }
+
+    /**
+     * 文字列を書き込む。
+     * (DataOutputStream#writeUTF は 64KB までしか書けないので、長さを int で書く)
+     */
+    static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 変更を判定するためのファイルサイズと最終更新日時。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class FileStamp {
+        private long size;
+        private long lastModified;
+    }
+
+    /**
+     * 1 ファイル分のキャッシュエントリ。
+     */
+    @AllArgsConstructor
+    @Data
+    private static class CacheEntry {
+        private String key;
+        private long size;
+        private long lastModified;
+        private long contentHash;
+        private List<CachedDefinition> definitions;
+        private List<Reference> references;
+    }
+
+    /**
+     * ファイルパスを持たない定義位置。
+     * (ファイルパスはエントリごとに 1 つだけ持つ)
+     */
+    @AllArgsConstructor
+    @Data
+    private static class CachedDefinition {
+        private String arHierarchyPath;
+        private long lineNumber;
+        private String type;
+    }
+}
@@ -0,0 +1,205 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import lombok.Data;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.xml.sax.SAXException;
+
+/**
+ * 探索した arxml ファイルをシャードに分割し、そのうち 1 つのシャードの部分インデックスを出力する index サブコマンド。
+ *
+ * 全シャードを別々のプロセス(別々のマシン)で実行し、
+ * 出力された部分インデックスを merge サブコマンドでまとめてタグファイルを出力する。
+ * 全シャードで探索対象と探索オプションを揃え、同じディレクトリ構成で実行すること。
+ * (分割方法は ShardIndex を参照)
+ */
+public class IndexCommand {
+
+    /**
+     * サブコマンド名。
+     */
+    public static final String NAME = "index";
+
+    /**
+     * 引数が不正な場合の終了コード。
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private IndexCommand() { }
+
+    /**
+     * index サブコマンドを実行する。
+     *
+     * @param args サブコマンド名より後ろのコマンドライン引数
+     *
+     * @return 終了コード
+     */
+    public static int run(String[] args)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+        int[] shard;
+        try {
+            optionParser.parseArgument(args);
+            shard = options.isHelp() ? null : parseShard(options.getShard());
+        } catch (CmdLineException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        if (options.isHelp()) {
+            printUsage(optionParser);
+            return 0;
+        }
+
+        // 探索対象が指定されていない場合は、カレントディレクトリ以下を対象にする
+        List<String> targetDirectories = options.getTargetDirectories();
+        if (targetDirectories.isEmpty()) {
+            targetDirectories.add(".");
+        }
+
+        ArxmlFinder finder = new ArxmlFinder(
+                targetDirectories,
+                options.getExcludePattern(),
+                options.getIncludeGlobs(),
+                options.getExcludeGlobs());
+        Artags.setFastScanEnabled(options.isFastScan());
+        Long streamThreshold = options.getStreamThreshold();
+        if (streamThreshold != null) {
+            Artags.setStreamThreshold(streamThreshold);
+        }
+
+        Integer jobs = options.getJobs();
+        if (jobs == null) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        Integer readAhead = options.getReadAhead();
+        if (readAhead == null) {
+            readAhead = 0;
+        }
+
+        String outputFilePathStr = options.getOutputFilePathStr();
+        if (outputFilePathStr == null) {
+            outputFilePathStr = "./artags.shard-" + shard[0] + "-of-" + shard[1];
+        }
+        Path outputFilePath = Paths.get(outputFilePathStr);
+
+        // 全シャードで同じ探索結果を同じように分割し、自分の担当分だけをパースする
+        List<Arxml> arxmls = finder.find(jobs);
+        int[] shards = ShardIndex.partition(arxmls, shard[1]);
+        ArxmlIndex index = new IndexingPipeline(jobs, null, null, null, readAhead).buildIndex(ShardIndex.select(arxmls, shards, shard[0]));
+        ShardIndex.write(outputFilePath, arxmls, shards, shard[0], shard[1], index);
+
+        if (options.isStats()) {
+            System.err.print(Artags.getMetrics().toSummary());
+            System.err.flush();
+        }
+        return 0;
+    }
+
+    /**
+     * シャードの指定("I/N")をパースする。
+     *
+     * @param shard シャードの指定
+     *
+     * @return { シャード番号, シャード数 }
+     *
+     * @throws IllegalArgumentException "I/N"(1 &lt;= I &lt;= N)の形式でない場合
+     */
+    static int[] parseShard(String shard) {
+        int separatorIndex = shard == null ? -1 : shard.indexOf('/');
+        if (separatorIndex < 0) {
+            throw new IllegalArgumentException("--shard I/N is required : " + shard);
+        }
+
+        int number;
+        int count;
+        try {
+            number = Integer.parseInt(shard.substring(0, separatorIndex));
+            count = Integer.parseInt(shard.substring(separatorIndex + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--shard must be I/N : " + shard, e);
+        }
+        if (count < 1 || number < 1 || number > count) {
+            throw new IllegalArgumentException("--shard must be I/N with 1 <= I <= N : " + shard);
+        }
+        return new int[]{number, count};
+    }
+
+    private static void printUsage(CmdLineParser optionParser) {
+        System.err.println("Useage:\n"
+                + "  Main " + NAME + " --shard I/N [options] [SEARCH_DIRECTORIIES...]\n"
+                + "\n"
+                + "Options:");
+        optionParser.printUsage(System.err);
+    }
+
+    /**
+     * index サブコマンドのコマンドラインオプション。
+     */
+    @Data
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "--shard", usage = "index the I-th of N shards.(1 <= I <= N)", metaVar = "I/N")
+        private String shard;
+
+        @Option(name = "-o", aliases = "--output", usage = "partial index file path.(default: ./artags.shard-I-of-N)", metaVar = "PARTIAL_INDEX_FILE")
+        private String outputFilePathStr;
+
+        @Option(name = "-e", aliases = "--exclude", usage = "exclude path pattern.", metaVar = "ExCLUDE_PATH_PATTERN")
+        private String excludePattern;
+
+        @Option(name = "-i", aliases = "--include", usage = "include file glob. can be specified multiple times.", metaVar = "INCLUDE_GLOB")
+        private List<String> includeGlobs = new ArrayList<>();
+
+        @Option(name = "-x", aliases = "--exclude-glob",
+                usage = "exclude path glob, same as a line of " + ArxmlFinder.IGNORE_FILE_NAME + ". can be specified multiple times.",
+                metaVar = "EXCLUDE_GLOB")
+        private List<String> excludeGlobs = new ArrayList<>();
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "--fast-scan", usage = "extract definitions and references with a memory-mapped byte scanner instead of building DOM.")
+        private boolean isFastScan;
+
+        @Option(name = "--stream-threshold",
+                usage = "extract files of this size or larger by streaming with StAX instead of building DOM. 0 means all files.(default: " + Artags.STREAM_THRESHOLD_DEFAULT + ")",
+                metaVar = "BYTES")
+        private Long streamThreshold;
+
+        @Option(name = "--read-ahead",
+                usage = "read up to this many files ahead of the parser on I/O threads (virtual threads if available). for network file systems.(default: off)",
+                metaVar = "FILES")
+        private Integer readAhead;
+
+        @Option(name = "--stats", usage = "print run statistics to stderr when finished.")
+        private boolean isStats;
+
+        @Argument
+        private List<String> targetDirectories = new ArrayList<>();
+    }
+}
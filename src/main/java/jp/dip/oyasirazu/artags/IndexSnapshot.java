@@ -0,0 +1,464 @@
+package jp.dip.oyasirazu.artags;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * ある時点のインデックスの内容を、問い合わせ用に固めた読み取り専用のスナップショット。
+ *
+ * 定義と参照を AR 階層パスの辞書順に、定義を SHORT-NAME(小文字にしたもの)の辞書順にも並べた配列で持ち、
+ * 二分探索で引く。
+ * 構築後は変更しないので、複数スレッドからロックなしで読み取れる。
+ * インデックスが更新された場合は、スナップショットを作り直して差し替える。
+ * (1 ファイル分の更新であれば、 update(Path, Entries) で全体を並べ直さずに新しいスナップショットを作れる)
+ */
+public class IndexSnapshot {
+
+    /**
+     * 定義(AR 階層パス・ファイルパス・行番号順)と、その AR 階層パス。
+     */
+    private final Sorted<Definition> definitions;
+
+    /**
+     * 定義(小文字にした SHORT-NAME ・ AR 階層パス・ファイルパス・行番号順)と、その小文字にした SHORT-NAME 。
+     */
+    private final Sorted<Definition> definitionsByName;
+
+    /**
+     * 参照(参照先の AR 階層パス・ファイルパス・行番号順)と、その参照先の AR 階層パス。
+     */
+    private final Sorted<ReferenceLocation> references;
+
+    /**
+     * ファイルごとの定義(ファイル内の出現順)。
+     */
+    private final Map<Path, List<Definition>> definitionsByFile;
+
+    /**
+     * 表示・識別用の文字列(絶対パス)から、インデックスに登録されているファイルパスを引くマップ。
+     */
+    private final Map<String, Path> filePaths;
+
+    /**
+     * インデックスに登録されているファイルパスから、表示・識別用の文字列を引くマップ。
+     */
+    private final Map<Path, String> filePathStrings;
+
+    private IndexSnapshot(
+            Sorted<Definition> definitions,
+            Sorted<Definition> definitionsByName,
+            Sorted<ReferenceLocation> references,
+            Map<Path, List<Definition>> definitionsByFile,
+            Map<String, Path> filePaths,
+            Map<Path, String> filePathStrings) {
+        this.definitions = definitions;
+        this.definitionsByName = definitionsByName;
+        this.references = references;
+        this.definitionsByFile = definitionsByFile;
+        this.filePaths = filePaths;
+        this.filePathStrings = filePathStrings;
+    }
+
+    /**
+     * インデックスの現在の内容からスナップショットを構築する。
+     *
+     * インデックスを更新するスレッドと同じスレッドで呼び出すこと。
+     * (構築中に更新されると、更新前後の内容が混ざる)
+     *
+     * @param index スナップショットを作るインデックス
+     *
+     * @return 構築したスナップショット
+     */
+    public static IndexSnapshot build(ArxmlIndex index) {
+        List<Definition> definitions = new ArrayList<>();
+        List<ReferenceLocation> references = new ArrayList<>();
+        Map<Path, List<Definition>> definitionsByFile = new HashMap<>();
+        Map<String, Path> filePaths = new HashMap<>();
+        Map<Path, String> filePathStrings = new HashMap<>();
+
+        for (Path filePath : index.getFilePaths()) {
+            Entries entries = index.getEntries(filePath);
+            if (entries == null) {
+                continue;
+            }
+
+            String filePathString = toKey(filePath);
+            filePaths.put(filePathString, filePath);
+            filePathStrings.put(filePath, filePathString);
+            definitionsByFile.put(filePath, Collections.unmodifiableList(entries.getDefinitions()));
+
+            definitions.addAll(entries.getDefinitions());
+            references.addAll(toReferenceLocations(entries));
+        }
+
+        return new IndexSnapshot(
+                Sorted.of(definitions, definitionOrder(filePathStrings), Definition::getArHierarchyPath, Definition[]::new),
+                Sorted.of(definitions, nameOrder(filePathStrings), IndexSnapshot::toNameKey, Definition[]::new),
+                Sorted.of(references, referenceOrder(filePathStrings), ReferenceLocation::getArHierarchyPath,
+                        ReferenceLocation[]::new),
+                definitionsByFile, filePaths, filePathStrings);
+    }
+
+    /**
+     * 1 ファイル分の抽出結果を差し替えたスナップショットを作る。
+     *
+     * このスナップショットは変更せず、そのファイルの定義と参照を取り除いて
+     * 新しい抽出結果をマージした配列を持つ新しいスナップショットを返す。
+     * 並べ直すのはそのファイルの定義と参照だけなので build よりは速いが、
+     * 配列とマップは全体をコピーするので、定義・参照・ファイルの総数に比例する時間がかかる。
+     *
+     * @param filePath 差し替えるファイルのパス(インデックスに登録されているパス)
+     * @param entries 新しい抽出結果(null の場合はファイルを取り除く)
+     *
+     * @return 差し替えたスナップショット
+     */
+    public IndexSnapshot update(Path filePath, Entries entries) {
+        Map<Path, List<Definition>> newDefinitionsByFile = new HashMap<>(definitionsByFile);
+        Map<String, Path> newFilePaths = new HashMap<>(filePaths);
+        Map<Path, String> newFilePathStrings = new HashMap<>(filePathStrings);
+
+        List<Definition> addedDefinitions = new ArrayList<>();
+        List<ReferenceLocation> addedReferences = new ArrayList<>();
+        String filePathString = toFilePathString(filePath);
+        if (entries == null) {
+            newDefinitionsByFile.remove(filePath);
+            newFilePaths.remove(filePathString);
+            newFilePathStrings.remove(filePath);
+        } else {
+            newDefinitionsByFile.put(filePath, Collections.unmodifiableList(entries.getDefinitions()));
+            newFilePaths.put(filePathString, filePath);
+            newFilePathStrings.put(filePath, filePathString);
+            addedDefinitions.addAll(entries.getDefinitions());
+            addedReferences.addAll(toReferenceLocations(entries));
+        }
+
+        return new IndexSnapshot(
+                definitions.merge(Definition::getFilePath, filePath, addedDefinitions,
+                        definitionOrder(newFilePathStrings), Definition::getArHierarchyPath),
+                definitionsByName.merge(Definition::getFilePath, filePath, addedDefinitions,
+                        nameOrder(newFilePathStrings), IndexSnapshot::toNameKey),
+                references.merge(ReferenceLocation::getFilePath, filePath, addedReferences,
+                        referenceOrder(newFilePathStrings), ReferenceLocation::getArHierarchyPath),
+                newDefinitionsByFile,
+                newFilePaths,
+                newFilePathStrings);
+    }
+
+    /**
+     * 指定した AR 階層パスの定義位置を取得する。
+     *
+     * @param arHierarchyPath 定義位置を探したい AR 階層パス
+     *
+     * @return 定義位置のリスト(見つからなかった場合は空リスト)
+     */
+    public List<Definition> findDefinitions(String arHierarchyPath) {
+        return definitions.find(arHierarchyPath);
+    }
+
+    /**
+     * 指定した文字列で始まる AR 階層パスの定義位置を取得する。
+     *
+     * @param prefix AR 階層パスの前方一致文字列
+     * @param limit 取得する最大件数
+     *
+     * @return 定義位置のリスト(AR 階層パスの辞書順)
+     */
+    public List<Definition> findDefinitionsByPrefix(String prefix, int limit) {
+        return definitions.findByPrefix(prefix, limit);
+    }
+
+    /**
+     * 指定した文字列で始まる SHORT-NAME の定義位置を取得する。(大文字小文字を区別しない)
+     *
+     * @param prefix SHORT-NAME の前方一致文字列
+     * @param limit 取得する最大件数
+     *
+     * @return 定義位置のリスト(SHORT-NAME の辞書順)
+     */
+    public List<Definition> findDefinitionsByName(String prefix, int limit) {
+        return definitionsByName.findByPrefix(prefix.toLowerCase(Locale.ROOT), limit);
+    }
+
+    /**
+     * 指定した AR 階層パスを参照している位置を取得する。
+     *
+     * @param arHierarchyPath 参照先の AR 階層パス
+     *
+     * @return 参照位置のリスト(見つからなかった場合は空リスト)
+     */
+    public List<ReferenceLocation> findReferences(String arHierarchyPath) {
+        return references.find(arHierarchyPath);
+    }
+
+    /**
+     * 指定したファイルの定義を取得する。
+     *
+     * @param filePath インデックスに登録されているファイルパス
+     *
+     * @return ファイル内の出現順の定義のリスト(登録されていない場合は空リスト)
+     */
+    public List<Definition> getDefinitions(Path filePath) {
+        return definitionsByFile.getOrDefault(filePath, Collections.emptyList());
+    }
+
+    /**
+     * 表示・識別用の文字列から、インデックスに登録されているファイルパスを引く。
+     *
+     * @param filePath 探したいファイルのパス(相対パスでもよい)
+     *
+     * @return インデックスに登録されているファイルパス(登録されていない場合は null)
+     */
+    public Path findFilePath(Path filePath) {
+        return filePaths.get(toKey(filePath));
+    }
+
+    /**
+     * 表示・識別用の文字列から、インデックスに登録されているファイルパスを引く。
+     *
+     * @param filePathString ArxmlArchives.toPathString(Path) の形式の絶対パス文字列
+     *
+     * @return インデックスに登録されているファイルパス(登録されていない場合は null)
+     */
+    public Path findFilePath(String filePathString) {
+        return filePaths.get(filePathString);
+    }
+
+    /**
+     * ファイルパスを、表示・識別用の絶対パス文字列にする。
+     *
+     * インデックスに登録されているファイルパスは、構築時に作った文字列を返す。
+     *
+     * @param filePath ファイルのパス
+     *
+     * @return 表示・識別用の絶対パス文字列
+     */
+    public String toFilePathString(Path filePath) {
+        String filePathString = filePathStrings.get(filePath);
+        return filePathString != null ? filePathString : toKey(filePath);
+    }
+
+    /**
+     * 定義の数を取得する。
+     *
+     * @return 定義の数
+     */
+    public int getDefinitionCount() {
+        return definitions.size();
+    }
+
+    /**
+     * 参照の数を取得する。
+     *
+     * @return 参照の数
+     */
+    public int getReferenceCount() {
+        return references.size();
+    }
+
+    /**
+     * ファイルの数を取得する。
+     *
+     * @return ファイルの数
+     */
+    public int getFileCount() {
+        return filePaths.size();
+    }
+
+    /**
+     * ファイルパスを、表示・識別用の絶対パス文字列にする。
+     *
+     * @param filePath ファイルのパス
+     *
+     * @return 表示・識別用の絶対パス文字列
+     */
+    static String toKey(Path filePath) {
+        return ArxmlArchives.toPathString(filePath.toAbsolutePath().normalize());
+    }
+
+    /**
+     * 定義の SHORT-NAME(AR 階層パスの最後の要素)を取得する。
+     *
+     * @param definition 定義
+     *
+     * @return SHORT-NAME
+     */
+    static String getShortName(Definition definition) {
+        String arHierarchyPath = definition.getArHierarchyPath();
+        return arHierarchyPath.substring(arHierarchyPath.lastIndexOf('/') + 1);
+    }
+
+    private static String toNameKey(Definition definition) {
+        return getShortName(definition).toLowerCase(Locale.ROOT);
+    }
+
+    private static List<ReferenceLocation> toReferenceLocations(Entries entries) {
+        List<ReferenceLocation> referenceLocations = new ArrayList<>(entries.getReferences().size());
+        for (Reference reference : entries.getReferences()) {
+            referenceLocations.add(new ReferenceLocation(
+                    reference.getArHierarchyPath(),
+                    entries.getFilePath(),
+                    reference.getLineNumber(),
+                    reference.getDest()));
+        }
+        return referenceLocations;
+    }
+
+    /**
+     * 同じ AR 階層パスの中では、ファイルパス・行番号の順に並べる。
+     */
+    private static Comparator<Definition> definitionOrder(Map<Path, String> filePathStrings) {
+        return Comparator.comparing(Definition::getArHierarchyPath)
+                .thenComparing(d -> filePathStrings.get(d.getFilePath()))
+                .thenComparingLong(Definition::getLineNumber);
+    }
+
+    private static Comparator<Definition> nameOrder(Map<Path, String> filePathStrings) {
+        return Comparator.comparing(IndexSnapshot::toNameKey)
+                .thenComparing(definitionOrder(filePathStrings));
+    }
+
+    private static Comparator<ReferenceLocation> referenceOrder(Map<Path, String> filePathStrings) {
+        return Comparator.comparing(ReferenceLocation::getArHierarchyPath)
+                .thenComparing(r -> filePathStrings.get(r.getFilePath()))
+                .thenComparingLong(ReferenceLocation::getLineNumber);
+    }
+
+    /**
+     * キーの辞書順に並んだ配列と、その各要素のキー。
+     */
+    private static class Sorted<T> {
+        private final T[] values;
+        private final String[] keys;
+        private final IntFunction<T[]> newArray;
+
+        Sorted(T[] values, String[] keys, IntFunction<T[]> newArray) {
+            this.values = values;
+            this.keys = keys;
+            this.newArray = newArray;
+        }
+
+        /**
+         * values を order で並べる。
+         * (order はキーの辞書順と矛盾しないこと)
+         */
+        static <T> Sorted<T> of(List<T> values, Comparator<T> order, Function<T, String> keyOf, IntFunction<T[]> newArray) {
+            T[] sorted = values.toArray(newArray.apply(values.size()));
+            Arrays.sort(sorted, order);
+            String[] keys = new String[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                keys[i] = keyOf.apply(sorted[i]);
+            }
+            return new Sorted<>(sorted, keys, newArray);
+        }
+
+        int size() {
+            return values.length;
+        }
+
+        List<T> find(String key) {
+            int from = lowerBound(key);
+            int to = from;
+            while (to < keys.length && keys[to].equals(key)) {
+                to++;
+            }
+            return Collections.unmodifiableList(Arrays.asList(values).subList(from, to));
+        }
+
+        List<T> findByPrefix(String prefix, int limit) {
+            int from = lowerBound(prefix);
+            int to = from;
+            while (to < keys.length && to - from < limit && keys[to].startsWith(prefix)) {
+                to++;
+            }
+            return Collections.unmodifiableList(Arrays.asList(values).subList(from, to));
+        }
+
+        /**
+         * filePath の要素を取り除き、 added を並びを保ったまま差し込んだものを作る。
+         * (残す要素のキーは計算し直さない)
+         */
+        Sorted<T> merge(
+                Function<T, Path> filePathOf,
+                Path filePath,
+                List<T> added,
+                Comparator<T> order,
+                Function<T, String> keyOf) {
+            List<T> sortedAdded = new ArrayList<>(added);
+            sortedAdded.sort(order);
+
+            T[] mergedValues = newArray.apply(values.length + sortedAdded.size());
+            String[] mergedKeys = new String[mergedValues.length];
+            int size = 0;
+            int a = 0;
+            for (int i = 0; i < values.length; i++) {
+                T value = values[i];
+                if (filePathOf.apply(value).equals(filePath)) {
+                    continue;
+                }
+                while (a < sortedAdded.size() && order.compare(sortedAdded.get(a), value) < 0) {
+                    T addedValue = sortedAdded.get(a++);
+                    mergedKeys[size] = keyOf.apply(addedValue);
+                    mergedValues[size++] = addedValue;
+                }
+                mergedKeys[size] = keys[i];
+                mergedValues[size++] = value;
+            }
+            while (a < sortedAdded.size()) {
+                T addedValue = sortedAdded.get(a++);
+                mergedKeys[size] = keyOf.apply(addedValue);
+                mergedValues[size++] = addedValue;
+            }
+
+            if (size < mergedValues.length) {
+                mergedValues = Arrays.copyOf(mergedValues, size);
+                mergedKeys = Arrays.copyOf(mergedKeys, size);
+            }
+            return new Sorted<>(mergedValues, mergedKeys, newArray);
+        }
+
+        /**
+         * key 以上の最初の要素の位置を二分探索で探す。
+         */
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * 参照先の AR 階層パスと、参照している位置を表すクラス。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class ReferenceLocation {
+        private String arHierarchyPath;
+        private Path filePath;
+        private long lineNumber;
+        private String dest;
+    }
+}
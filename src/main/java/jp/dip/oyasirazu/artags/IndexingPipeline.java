@@ -0,0 +1,632 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CheckedInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+import org.xml.sax.SAXException;
+
+/**
+ * arxml ファイルのリストからタグファイルのレコードを出力するまでのパイプライン。
+ *
+ * 以下のステージを順に実行する。
+ *
+ * 1. パース・抽出: 各 arxml ファイルを専用のスレッドプールでパースし、インデックスに登録する
+ *    (抽出結果のキャッシュが指定されていれば、変更の無いファイルはパースせずにキャッシュを使う)
+ *    (先読みするファイル数が指定されていれば、 I/O 用のスレッドでファイルの内容を先に読み込み、
+ *    読み終わったものからパースのスレッドプールに渡す。 ReadAhead を参照)
+ * 2. 解決: 各 arxml ファイルの参照をインデックスから解決する
+ * 3. 出力: 解決したレコードを呼び出し元のスレッドで重複を除いて出力する
+ *    (重複判定はレコードそのものではなく、 64 bit のフィンガープリントだけを覚えておいて行う)
+ *
+ * 参照元のレコードの出力先が指定されている場合は、解決ステージで各ファイルの参照から
+ * 参照先 → 参照元のレコードも作り、出力ステージで同様に出力する。
+ * (インデックスに登録済みの参照から作るので、追加のパースは無い)
+ *
+ * 各ステージ間で同時に処理中にできるファイル数は、スレッド数に比例した上限を設けている。
+ */
+public class IndexingPipeline {
+
+    /**
+     * 1 スレッドあたりに、同時に処理中にできるファイル数。
+     */
+    public static final int QUEUE_CAPACITY_PER_JOB = 4;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final int jobs;
+
+    private final int queueCapacity;
+
+    private final IndexCache indexCache;
+
+    private final UnresolvedReferenceWriter unresolvedReferenceWriter;
+
+    private final RecordWriter referrerRecordWriter;
+
+    private final int readAhead;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param jobs パース・解決に使用するスレッド数
+     */
+    public IndexingPipeline(int jobs) {
+        this(jobs, null);
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param jobs パース・解決に使用するスレッド数
+     * @param indexCache 抽出結果のキャッシュ(null の場合はキャッシュを使わない)
+     */
+    public IndexingPipeline(int jobs, IndexCache indexCache) {
+        this(jobs, indexCache, null);
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param jobs パース・解決に使用するスレッド数
+     * @param indexCache 抽出結果のキャッシュ(null の場合はキャッシュを使わない)
+     * @param unresolvedReferenceWriter 定義が見つからなかった参照の出力先(null の場合は出力しない)
+     */
+    public IndexingPipeline(int jobs, IndexCache indexCache, UnresolvedReferenceWriter unresolvedReferenceWriter) {
+        this(jobs, indexCache, unresolvedReferenceWriter, null);
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param jobs パース・解決に使用するスレッド数
+     * @param indexCache 抽出結果のキャッシュ(null の場合はキャッシュを使わない)
+     * @param unresolvedReferenceWriter 定義が見つからなかった参照の出力先(null の場合は出力しない)
+     * @param referrerRecordWriter 参照先から参照元を引くためのレコードの出力先(null の場合は出力しない)
+     */
+    public IndexingPipeline(
+            int jobs,
+            IndexCache indexCache,
+            UnresolvedReferenceWriter unresolvedReferenceWriter,
+            RecordWriter referrerRecordWriter) {
+        this(jobs, indexCache, unresolvedReferenceWriter, referrerRecordWriter, 0);
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param jobs パース・解決に使用するスレッド数
+     * @param indexCache 抽出結果のキャッシュ(null の場合はキャッシュを使わない)
+     * @param unresolvedReferenceWriter 定義が見つからなかった参照の出力先(null の場合は出力しない)
+     * @param referrerRecordWriter 参照先から参照元を引くためのレコードの出力先(null の場合は出力しない)
+     * @param readAhead パースより先に I/O 用のスレッドで読み込むファイル数(0 の場合は先読みしない)
+     */
+    public IndexingPipeline(
+            int jobs,
+            IndexCache indexCache,
+            UnresolvedReferenceWriter unresolvedReferenceWriter,
+            RecordWriter referrerRecordWriter,
+            int readAhead) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("jobs must be positive : " + jobs);
+        }
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("read-ahead must not be negative : " + readAhead);
+        }
+
+        this.jobs = jobs;
+        this.queueCapacity = jobs * QUEUE_CAPACITY_PER_JOB;
+        this.indexCache = indexCache;
+        this.unresolvedReferenceWriter = unresolvedReferenceWriter;
+        this.referrerRecordWriter = referrerRecordWriter;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * 指定された arxml ファイルをすべてパースし、インデックスを構築する。
+     *
+     * @param arxmls インデックスに登録する arxml インスタンスのリスト
+     *
+     * @return 構築したインデックス
+     */
+    public ArxmlIndex buildIndex(List<Arxml> arxmls)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        try {
+            return buildIndex(arxmls, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 指定された arxml ファイルからタグファイルのレコードを生成し、出力する。
+     *
+     * @param arxmls 解析対象の arxml インスタンスのリスト
+     * @param writer レコードの出力先
+     */
+    public void run(List<Arxml> arxmls, RecordWriter writer)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        try {
+            ArxmlIndex index = buildIndex(arxmls, executor);
+            resolveAndWrite(arxmls, index, executor, writer);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 構築済みのインデックスを使って参照を解決し、タグファイルのレコードを出力する。
+     *
+     * @param arxmls 解析対象の arxml インスタンスのリスト
+     * @param index arxmls を登録済みのインデックス
+     * @param writer レコードの出力先
+     */
+    public void writeRecords(List<Arxml> arxmls, ArxmlIndex index, RecordWriter writer)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        try {
+            resolveAndWrite(arxmls, index, executor, writer);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * パース・抽出ステージ。
+     */
+    @SuppressWarnings("try")
+    private ArxmlIndex buildIndex(List<Arxml> arxmls, ExecutorService executor)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+
+        if (readAhead > 0) {
+            return buildIndexWithReadAhead(arxmls, executor);
+        }
+
+        ArxmlIndex index = new ArxmlIndex();
+
+        try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.INDEX)) {
+            // 処理中のファイル数が上限に達したら、空きができるまで投入を待つ
+            Semaphore permits = new Semaphore(queueCapacity);
+            List<Future<?>> futures = new ArrayList<>(arxmls.size());
+            for (Arxml arxml : arxmls) {
+                acquire(permits);
+                futures.add(executor.submit(() -> {
+                    try {
+                        index.add(extractEntries(arxml));
+                        Artags.getMetrics().add(Metrics.Counter.FILES_INDEXED, 1);
+                        return null;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * 先読みをするパース・抽出ステージ。
+     *
+     * 読み込みは I/O 用のスレッドで行い、読み終わったファイルからパースのスレッドプールに投入する。
+     * 読み込み中・読み込み済みでパース待ち・パース中のファイル数の合計が、
+     * パースの上限に先読みするファイル数を加えた数に達したら、空きができるまで読み込みを待つ。
+     * (読み込み済みの内容はパースが終わるまでメモリに載るので、この数がメモリ使用量の上限になる)
+     */
+    @SuppressWarnings("try")
+    private ArxmlIndex buildIndexWithReadAhead(List<Arxml> arxmls, ExecutorService executor)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+
+        ArxmlIndex index = new ArxmlIndex();
+
+        ExecutorService ioExecutor = ReadAhead.newExecutor(readAhead);
+        try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.INDEX)) {
+            Semaphore permits = new Semaphore(queueCapacity + readAhead);
+            List<Future<Future<?>>> futures = new ArrayList<>(arxmls.size());
+            for (Arxml arxml : arxmls) {
+                acquire(permits);
+                futures.add(ioExecutor.submit(() -> {
+                    Fetched fetched;
+                    try {
+                        fetched = fetch(arxml);
+                    } catch (IOException | RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+
+                    return executor.submit(() -> {
+                        try {
+                            index.add(extractEntries(fetched));
+                            Artags.getMetrics().add(Metrics.Counter.FILES_INDEXED, 1);
+                            return null;
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }));
+            }
+
+            for (Future<Future<?>> future : futures) {
+                await(await(future));
+            }
+        } finally {
+            ioExecutor.shutdownNow();
+        }
+
+        return index;
+    }
+
+    /**
+     * I/O 用のスレッドで、指定された arxml ファイルの内容を読み込む。
+     *
+     * キャッシュに変更の無い抽出結果があれば、ファイルは読まずにそれを使う。
+     * ArxmlStreamScanner で逐次読み込みするサイズのファイルは、メモリに載せないよう読み込まない。
+     */
+    private Fetched fetch(Arxml arxml) throws IOException {
+        Path filePath = arxml.getFilePath();
+        try (Metrics.FileScope scope = Artags.getMetrics().startFile(Metrics.Phase.READ, filePath)) {
+            IndexCache.FileStamp stamp = null;
+            if (indexCache != null) {
+                stamp = indexCache.stamp(arxml);
+                Entries entries = indexCache.get(arxml, stamp);
+                if (entries != null) {
+                    scope.cancel();
+                    Artags.getMetrics().add(Metrics.Counter.INDEX_CACHE_HITS, 1);
+                    return new Fetched(arxml, entries, null, null);
+                }
+            }
+
+            byte[] content = ReadAhead.read(filePath, Artags.getStreamThreshold());
+            if (content == null) {
+                scope.cancel();
+            } else {
+                scope.setBytes(content.length);
+            }
+            return new Fetched(arxml, null, content, stamp);
+        }
+    }
+
+    /**
+     * 先読みした arxml ファイルの抽出結果を取得する。
+     *
+     * 内容を読み込んでいないファイルは、ファイルから読んでパースする。
+     */
+    private Entries extractEntries(Fetched fetched)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        if (fetched.entries != null) {
+            return fetched.entries;
+        }
+
+        if (indexCache != null) {
+            return extractAndCache(fetched.arxml, fetched.stamp, fetched.content);
+        }
+        return fetched.content == null
+                ? Artags.extractEntries(fetched.arxml)
+                : Artags.extractEntries(fetched.arxml, fetched.content);
+    }
+
+    /**
+     * 指定された arxml ファイルの抽出結果を取得する。
+     *
+     * キャッシュに変更の無い抽出結果があればそれを使い、無ければパースしてキャッシュに登録する。
+     */
+    private Entries extractEntries(Arxml arxml)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        if (indexCache == null) {
+            return Artags.extractEntries(arxml);
+        }
+
+        IndexCache.FileStamp stamp = indexCache.stamp(arxml);
+        Entries entries = indexCache.get(arxml, stamp);
+        if (entries != null) {
+            Artags.getMetrics().add(Metrics.Counter.INDEX_CACHE_HITS, 1);
+        } else {
+            entries = extractAndCache(arxml, stamp, null);
+        }
+        return entries;
+    }
+
+    /**
+     * 指定された arxml ファイルをパースし、抽出結果をキャッシュに登録する。
+     *
+     * 内容のハッシュ値もキャッシュする場合は、ハッシュ値のためだけにファイルをもう一度読まないよう、
+     * パースする内容からハッシュ値を計算する。
+     * (先読みしていないファイルは、 ArxmlStreamScanner で逐次読み込みするサイズでなければここで読み込み、
+     * 逐次読み込みするファイルは、読みながらハッシュ値を計算する)
+     *
+     * @param content 先読みしたファイルの内容(先読みしていない場合は null)
+     */
+    private Entries extractAndCache(Arxml arxml, IndexCache.FileStamp stamp, byte[] content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        if (!indexCache.isUsingContentHash()) {
+            Entries entries = content == null
+                    ? Artags.extractEntries(arxml)
+                    : Artags.extractEntries(arxml, content);
+            indexCache.put(arxml, stamp, entries, IndexCache.NO_HASH);
+            return entries;
+        }
+
+        Path filePath = arxml.getFilePath();
+        byte[] readContent = content != null ? content : ReadAhead.read(filePath, Artags.getStreamThreshold());
+        Entries entries;
+        long contentHash;
+        if (readContent != null) {
+            entries = Artags.extractEntries(arxml, readContent);
+            contentHash = IndexCache.hash(readContent);
+        } else {
+            try (CheckedInputStream is = new CheckedInputStream(
+                        new BufferedInputStream(Files.newInputStream(filePath), STREAM_BUFFER_SIZE),
+                        IndexCache.newChecksum())) {
+                entries = Artags.extractEntries(arxml, is);
+                contentHash = is.getChecksum().getValue();
+            }
+        }
+        indexCache.put(arxml, stamp, entries, contentHash);
+        return entries;
+    }
+
+    /**
+     * 解決ステージと出力ステージ。
+     *
+     * 解決は投入順に出力するので、出力順は arxmls の順番になる。
+     */
+    @SuppressWarnings("try")
+    private void resolveAndWrite(
+            List<Arxml> arxmls,
+            ArxmlIndex index,
+            ExecutorService executor,
+            RecordWriter writer)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+
+        Metrics metrics = Artags.getMetrics();
+        try (Metrics.PhaseScope scope = metrics.startPhase(Metrics.Phase.OUTPUT)) {
+            LongHashSet writtenRecords = new LongHashSet();
+            LongHashSet writtenReferrerRecords = new LongHashSet();
+            Deque<Future<ResolvedFile>> inFlight = new ArrayDeque<>(queueCapacity);
+            for (Arxml arxml : arxmls) {
+                // パースに失敗したファイル等、インデックスに登録されていないファイルはスキップ
+                Path filePath = arxml.getFilePath();
+                if (!index.contains(filePath)) {
+                    continue;
+                }
+
+                inFlight.add(executor.submit(() -> resolve(index, filePath, metrics, referrerRecordWriter != null)));
+
+                // 解決済みレコードが溜まりすぎないよう、上限に達したら先頭から出力する
+                if (inFlight.size() >= queueCapacity) {
+                    write(await(inFlight.poll()), writtenRecords, writtenReferrerRecords, writer);
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                write(await(inFlight.poll()), writtenRecords, writtenReferrerRecords, writer);
+            }
+
+            metrics.add(Metrics.Counter.RECORDS_WRITTEN, writtenRecords.size());
+        }
+    }
+
+    private static ResolvedFile resolve(ArxmlIndex index, Path filePath, Metrics metrics, boolean isReferrerEnabled) {
+        try (Metrics.FileScope scope = metrics.startFile(Metrics.Phase.RESOLVE, filePath)) {
+            List<Reference> unresolvedReferences = new ArrayList<>();
+            Set<Record> records = index.resolve(filePath, unresolvedReferences);
+            List<Record> referrerRecords = isReferrerEnabled
+                    ? index.createReferrerRecords(filePath)
+                    : Collections.emptyList();
+            scope.setResolved(index.getReferenceCount(filePath), unresolvedReferences.size(), records.size());
+            return new ResolvedFile(filePath, records, unresolvedReferences, referrerRecords);
+        }
+    }
+
+    private void write(
+            ResolvedFile resolvedFile,
+            LongHashSet writtenRecords,
+            LongHashSet writtenReferrerRecords,
+            RecordWriter writer) throws IOException {
+        for (Record record : resolvedFile.records) {
+            if (writtenRecords.add(fingerprint(record))) {
+                writer.write(record);
+            }
+        }
+
+        for (Record record : resolvedFile.referrerRecords) {
+            if (writtenReferrerRecords.add(fingerprint(record))) {
+                referrerRecordWriter.write(record);
+            }
+        }
+
+        if (unresolvedReferenceWriter != null) {
+            for (Reference reference : resolvedFile.unresolvedReferences) {
+                unresolvedReferenceWriter.write(resolvedFile.filePath, reference);
+            }
+        }
+    }
+
+    /**
+     * レコードの 64 bit のフィンガープリントを計算する。
+     *
+     * 各フィールドを区切り文字付きで FNV-1a に通し、最後にビットを攪拌する。
+     * 異なるレコードが衝突する確率は、1 千万件のレコードでも 10^-5 程度。
+     */
+    static long fingerprint(Record record) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = fingerprint(hash, record.getSymbol());
+        hash = fingerprint(hash, ArxmlArchives.toPathString(record.getFilePath()));
+        hash = fingerprint(hash, record.getSearchStr());
+        hash = fingerprint(hash, record.getType());
+        hash = fingerprint(hash, record.getArHierarchyPath());
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // フィールドの区切り("ab" + "c" と "a" + "bc" を区別するため)
+        hash ^= 0xffff;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    private static void acquire(Semaphore permits) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted.", e);
+        }
+    }
+
+    /**
+     * Future の完了を待ち、ワーカーで発生した例外はそのままの型で投げ直す。
+     */
+    private static <T> T await(Future<T> future)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException)cause;
+            } else if (cause instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException)cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * 1 ファイル分の先読みの結果。
+     * (キャッシュの抽出結果か、ファイルの内容のどちらか。どちらも null の場合はパース時にファイルから読む)
+     * (キャッシュを使う場合は、読み込む前に取得したファイルサイズと最終更新日時も持つ)
+     */
+    private static class Fetched {
+        private final Arxml arxml;
+        private final Entries entries;
+        private final byte[] content;
+        private final IndexCache.FileStamp stamp;
+
+        Fetched(Arxml arxml, Entries entries, byte[] content, IndexCache.FileStamp stamp) {
+            this.arxml = arxml;
+            this.entries = entries;
+            this.content = content;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * 1 ファイル分の参照解決の結果。
+     */
+    private static class ResolvedFile {
+        private final Path filePath;
+        private final Set<Record> records;
+        private final List<Reference> unresolvedReferences;
+        private final List<Record> referrerRecords;
+
+        ResolvedFile(
+                Path filePath,
+                Set<Record> records,
+                List<Reference> unresolvedReferences,
+                List<Record> referrerRecords) {
+            this.filePath = filePath;
+            this.records = records;
+            this.unresolvedReferences = unresolvedReferences;
+            this.referrerRecords = referrerRecords;
+        }
+    }
+
+    /**
+     * 定義が見つからなかった参照の出力先。
+     */
+    @FunctionalInterface
+    public interface UnresolvedReferenceWriter {
+
+        /**
+         * 定義が見つからなかった参照を 1 件出力する。
+         *
+         * @param filePath 参照が記述されているファイルのパス
+         * @param reference 定義が見つからなかった参照
+         */
+        void write(Path filePath, Reference reference) throws IOException;
+    }
+
+    /**
+     * タグファイルのレコードの出力先。
+     */
+    @FunctionalInterface
+    public interface RecordWriter {
+
+        /**
+         * レコードを 1 件出力する。
+         *
+         * @param record 出力するレコード
+         */
+        void write(Record record) throws IOException;
+    }
+}
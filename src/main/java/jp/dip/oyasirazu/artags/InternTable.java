@@ -0,0 +1,122 @@
+package jp.dip.oyasirazu.artags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 値に int の ID を振って保持する、参照カウント付きのテーブル。
+ *
+ * intern で値を登録して ID を取得し、使わなくなったら release で返す。
+ * intern した回数だけ release された値はテーブルから消え、その ID は次に登録する値に再利用される。
+ * (ファイルの追加と削除を繰り返しても、使われなくなった値が溜まり続けないようにするため)
+ *
+ * スレッドセーフではない。
+ */
+class InternTable<T> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * ID ごとの値(未使用の ID の場合は null)。
+     */
+    private final List<T> values = new ArrayList<>();
+
+    private final Map<T, Integer> ids = new HashMap<>();
+
+    /**
+     * ID ごとの参照カウント。
+     * (未使用の ID の場合は、次の未使用の ID)
+     */
+    private int[] refCounts = new int[INITIAL_CAPACITY];
+
+    private int freeId = -1;
+
+    /**
+     * 値を登録し、その ID を取得する。
+     *
+     * 登録済みの場合は、登録済みの ID を返す。
+     * どちらの場合も参照カウントを 1 増やす。
+     *
+     * @param value 登録する値
+     *
+     * @return 値の ID
+     */
+    int intern(T value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            refCounts[id]++;
+            return id;
+        }
+
+        int newId;
+        if (freeId >= 0) {
+            newId = freeId;
+            freeId = refCounts[newId];
+            values.set(newId, value);
+        } else {
+            newId = values.size();
+            values.add(value);
+            if (newId == refCounts.length) {
+                refCounts = Arrays.copyOf(refCounts, newId * 2);
+            }
+        }
+        refCounts[newId] = 1;
+        ids.put(value, newId);
+        return newId;
+    }
+
+    /**
+     * 登録済みの値の ID を取得する。
+     * (参照カウントは変えない)
+     *
+     * @param value ID を取得したい値
+     *
+     * @return 値の ID (登録されていない場合は -1)
+     */
+    int find(T value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 値の参照カウントを 1 減らし、 0 になったらテーブルから消す。
+     *
+     * @param id 値の ID
+     *
+     * @return テーブルから消えた場合は true
+     */
+    boolean release(int id) {
+        if (--refCounts[id] > 0) {
+            return false;
+        }
+
+        ids.remove(values.get(id));
+        values.set(id, null);
+        refCounts[id] = freeId;
+        freeId = id;
+        return true;
+    }
+
+    /**
+     * ID に対応する値を取得する。
+     *
+     * @param id 値の ID
+     *
+     * @return 値
+     */
+    T get(int id) {
+        return values.get(id);
+    }
+
+    /**
+     * 登録されている値の数を取得する。
+     *
+     * @return 値の数
+     */
+    int size() {
+        return ids.size();
+    }
+}
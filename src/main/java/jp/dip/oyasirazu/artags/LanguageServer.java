@@ -0,0 +1,703 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.IndexSnapshot.ReferenceLocation;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import org.xml.sax.SAXException;
+
+/**
+ * 標準入出力で Language Server Protocol を話すサーバー。
+ *
+ * 以下のリクエストと通知に対応する。
+ *
+ * - initialize : ワークスペースのフォルダ以下の arxml でインデックスを構築する
+ * - textDocument/definition : カーソル位置の参照元エレメント(DEST 属性を持つエレメント)の参照先
+ * - textDocument/references : カーソル位置の参照元エレメントの参照先、
+ *   またはカーソル位置で定義しているエレメントを参照している位置
+ * - workspace/symbol : SHORT-NAME の前方一致(クエリが "/" で始まる場合は AR 階層パスの前方一致)
+ * - textDocument/didOpen, didChange : 編集中の内容で再抽出する
+ * - textDocument/didSave, didClose : ファイルの内容で再抽出する
+ *
+ * 問い合わせには LiveIndex のスナップショットで応答し、リクエストのたびにパースし直すことはしない。
+ * 再抽出は専用のスレッドで行い、同じファイルの再抽出が溜まった場合は最新の内容だけを抽出する。
+ * (編集途中で arxml としてパースできない内容は、インデックスに反映しない)
+ */
+public class LanguageServer {
+
+    /**
+     * JSON としてパースできないメッセージを受け取った場合のエラーコード。
+     */
+    public static final int PARSE_ERROR = -32700;
+
+    /**
+     * 対応していないメソッドのリクエストを受け取った場合のエラーコード。
+     */
+    public static final int METHOD_NOT_FOUND = -32601;
+
+    /**
+     * パラメータが不正な場合のエラーコード。
+     */
+    public static final int INVALID_PARAMS = -32602;
+
+    /**
+     * リクエストの処理中に例外が発生した場合のエラーコード。
+     */
+    public static final int INTERNAL_ERROR = -32603;
+
+    /**
+     * initialize より前にリクエストを受け取った場合のエラーコード。
+     */
+    public static final int SERVER_NOT_INITIALIZED = -32002;
+
+    /**
+     * workspace/symbol で返す最大件数。
+     */
+    public static final int SYMBOL_LIMIT = 1000;
+
+    /**
+     * TextDocumentSyncKind.Full (変更のたびに内容全体を受け取る)
+     */
+    private static final int TEXT_DOCUMENT_SYNC_FULL = 1;
+
+    private static final int SYMBOL_KIND_PACKAGE = 4;
+
+    private static final int SYMBOL_KIND_CLASS = 5;
+
+    private static final int SYMBOL_KIND_INTERFACE = 11;
+
+    private static final String CONTENT_LENGTH_HEADER = "content-length:";
+
+    /**
+     * DEST 属性を持つエレメント(参照元エレメント)の開始タグから、値の終わりまで。
+     */
+    private static final Pattern REFERENCE_PATTERN =
+            Pattern.compile("<[\\w.:-]+\\s[^>]*\\bDEST\\s*=\\s*[\"'][^\"']*[\"'][^>]*>([^<]*)");
+
+    private static final String SHORT_NAME_TAG = "<SHORT-NAME>";
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final PrintStream log;
+
+    private final Options options;
+
+    /**
+     * エディタで開いているファイルの内容。(キーは絶対パス)
+     */
+    private final Map<Path, String> openDocuments = new ConcurrentHashMap<>();
+
+    /**
+     * 再抽出待ちのファイルと、再抽出する内容。(内容が空の場合はファイルから読み込む)
+     */
+    private final Map<Path, Optional<String>> pendingUpdates = new ConcurrentHashMap<>();
+
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "artags-lsp-updater");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Path, String> uris = new ConcurrentHashMap<>();
+
+    private volatile LiveIndex liveIndex;
+
+    private boolean isShutdown;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param in クライアントからのメッセージを読み込む入力
+     * @param out クライアントへのメッセージの出力先
+     * @param log ログの出力先(標準エラー出力等、 out 以外にすること)
+     * @param options インデックスの構築方法
+     */
+    public LanguageServer(InputStream in, OutputStream out, PrintStream log, Options options) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+        this.log = log;
+        this.options = options;
+    }
+
+    /**
+     * exit 通知を受け取るか入力が終わるまで、メッセージを処理する。
+     *
+     * @return 終了コード(shutdown の後に exit を受け取った場合は 0 、それ以外は 1)
+     */
+    public int run() throws IOException {
+        try {
+            String body = readMessage();
+            while (body != null) {
+                Object message;
+                try {
+                    message = Json.parse(body);
+                } catch (IllegalArgumentException e) {
+                    sendError(null, PARSE_ERROR, e.getMessage());
+                    body = readMessage();
+                    continue;
+                }
+
+                String method = Json.getString(message, "method");
+                if ("exit".equals(method)) {
+                    return isShutdown ? 0 : 1;
+                }
+                if (method != null) {
+                    if (message instanceof Map && ((Map<?, ?>) message).containsKey("id")) {
+                        handleRequest(Json.get(message, "id"), method, Json.get(message, "params"));
+                    } else {
+                        handleNotification(method, Json.get(message, "params"));
+                    }
+                }
+                body = readMessage();
+            }
+            return 1;
+        } finally {
+            updater.shutdownNow();
+        }
+    }
+
+    /**
+     * それまでに受け取った再抽出がすべて終わるまで待つ。
+     */
+    void awaitUpdates() throws InterruptedException {
+        try {
+            updater.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handleRequest(Object id, String method, Object params) throws IOException {
+        try {
+            sendResult(id, request(method, params));
+        } catch (RequestException e) {
+            sendError(id, e.code, e.getMessage());
+        } catch (Exception e) {
+            log.println("artags: " + method + " failed : " + e);
+            sendError(id, INTERNAL_ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Object request(String method, Object params) throws Exception {
+        if ("initialize".equals(method)) {
+            return initialize(params);
+        }
+        if (liveIndex == null) {
+            throw new RequestException(SERVER_NOT_INITIALIZED, "server is not initialized.");
+        }
+
+        switch (method) {
+            case "shutdown":
+                isShutdown = true;
+                return null;
+            case "textDocument/definition":
+                return definition(params);
+            case "textDocument/references":
+                return references(params);
+            case "workspace/symbol":
+                return workspaceSymbol(params);
+            default:
+                throw new RequestException(METHOD_NOT_FOUND, "method not found : " + method);
+        }
+    }
+
+    private void handleNotification(String method, Object params) {
+        if (liveIndex == null) {
+            return;
+        }
+
+        Path filePath = toFilePath(Json.getString(params, "textDocument", "uri"));
+        if (filePath == null || !ArxmlFinder.isArxml(filePath)) {
+            return;
+        }
+
+        switch (method) {
+            case "textDocument/didOpen": {
+                String text = Json.getString(params, "textDocument", "text");
+                if (text != null) {
+                    openDocuments.put(filePath, text);
+                    scheduleReindex(filePath, text);
+                }
+                break;
+            }
+            case "textDocument/didChange": {
+                String text = applyChanges(openDocuments.get(filePath), Json.get(params, "contentChanges"));
+                if (text != null) {
+                    openDocuments.put(filePath, text);
+                    scheduleReindex(filePath, text);
+                }
+                break;
+            }
+            case "textDocument/didSave":
+                scheduleReindex(filePath, null);
+                break;
+            case "textDocument/didClose":
+                // 保存されずに閉じられた変更は捨てる
+                openDocuments.remove(filePath);
+                scheduleReindex(filePath, null);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Object initialize(Object params)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        long start = System.nanoTime();
+
+        List<String> directories = new ArrayList<>();
+        Object workspaceFolders = Json.get(params, "workspaceFolders");
+        if (workspaceFolders instanceof List) {
+            for (Object workspaceFolder : (List<?>) workspaceFolders) {
+                Path directory = toFilePath(Json.getString(workspaceFolder, "uri"));
+                if (directory != null) {
+                    directories.add(directory.toString());
+                }
+            }
+        }
+        if (directories.isEmpty()) {
+            Path rootPath = toFilePath(Json.getString(params, "rootUri"));
+            String rootPathStr = Json.getString(params, "rootPath");
+            directories.add(rootPath != null ? rootPath.toString() : rootPathStr != null ? rootPathStr : ".");
+        }
+
+        ArxmlFinder finder = new ArxmlFinder(directories,
+                options.getExcludePattern(), options.getIncludeGlobs(), options.getExcludeGlobs());
+        List<Arxml> arxmls = finder.find(options.getJobs());
+        liveIndex = new LiveIndex(new IndexingPipeline(options.getJobs()).buildIndex(arxmls));
+        log.printf("artags: indexed %d files in %d ms.%n", arxmls.size(), (System.nanoTime() - start) / 1_000_000);
+
+        Map<String, Object> textDocumentSync = new LinkedHashMap<>();
+        textDocumentSync.put("openClose", true);
+        textDocumentSync.put("change", TEXT_DOCUMENT_SYNC_FULL);
+        textDocumentSync.put("save", Map.of("includeText", false));
+
+        Map<String, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("textDocumentSync", textDocumentSync);
+        capabilities.put("definitionProvider", true);
+        capabilities.put("referencesProvider", true);
+        capabilities.put("workspaceSymbolProvider", true);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capabilities", capabilities);
+        result.put("serverInfo", Map.of("name", "artags"));
+        return result;
+    }
+
+    private Object definition(Object params) throws IOException, RequestException {
+        Path filePath = getDocumentPath(params);
+        String line = getLine(filePath, getPositionLine(params));
+        String arHierarchyPath = findReferenceAt(line, (int) Json.getLong(params, 0, "position", "character"));
+        if (arHierarchyPath == null) {
+            return null;
+        }
+
+        IndexSnapshot snapshot = liveIndex.getSnapshot();
+        List<Object> locations = new ArrayList<>();
+        for (Definition definition : snapshot.findDefinitions(arHierarchyPath)) {
+            locations.add(toLocation(definition.getFilePath(), definition.getLineNumber()));
+        }
+        return locations;
+    }
+
+    private Object references(Object params) throws IOException, RequestException {
+        Path filePath = getDocumentPath(params);
+        int lineIndex = getPositionLine(params);
+        String line = getLine(filePath, lineIndex);
+
+        // 参照元エレメントの上なら参照先を、そうでなければカーソル位置で定義しているエレメントを対象にする
+        IndexSnapshot snapshot = liveIndex.getSnapshot();
+        String arHierarchyPath = findReferenceAt(line, (int) Json.getLong(params, 0, "position", "character"));
+        if (arHierarchyPath == null) {
+            Definition definition = findDefinitionAt(snapshot, filePath, lineIndex + 1, line);
+            if (definition == null) {
+                return null;
+            }
+            arHierarchyPath = definition.getArHierarchyPath();
+        }
+
+        List<Object> locations = new ArrayList<>();
+        if (Boolean.TRUE.equals(Json.get(params, "context", "includeDeclaration"))) {
+            for (Definition definition : snapshot.findDefinitions(arHierarchyPath)) {
+                locations.add(toLocation(definition.getFilePath(), definition.getLineNumber()));
+            }
+        }
+        for (ReferenceLocation reference : snapshot.findReferences(arHierarchyPath)) {
+            locations.add(toLocation(reference.getFilePath(), reference.getLineNumber()));
+        }
+        return locations;
+    }
+
+    private Object workspaceSymbol(Object params) {
+        String query = Json.getString(params, "query");
+        if (query == null) {
+            query = "";
+        }
+
+        IndexSnapshot snapshot = liveIndex.getSnapshot();
+        List<Definition> definitions = query.startsWith("/")
+                ? snapshot.findDefinitionsByPrefix(query, SYMBOL_LIMIT)
+                : snapshot.findDefinitionsByName(query, SYMBOL_LIMIT);
+
+        List<Object> symbols = new ArrayList<>(definitions.size());
+        for (Definition definition : definitions) {
+            String arHierarchyPath = definition.getArHierarchyPath();
+            Map<String, Object> symbol = new LinkedHashMap<>();
+            symbol.put("name", IndexSnapshot.getShortName(definition));
+            symbol.put("kind", toSymbolKind(definition.getType()));
+            symbol.put("location", toLocation(definition.getFilePath(), definition.getLineNumber()));
+            symbol.put("containerName", arHierarchyPath.substring(0, arHierarchyPath.lastIndexOf('/')));
+            symbols.add(symbol);
+        }
+        return symbols;
+    }
+
+    /**
+     * 行の中で、指定した位置にある参照元エレメントの参照先 AR 階層パスを探す。
+     * (指定した位置に無くても、行に参照元エレメントが 1 つだけであればそれを返す)
+     */
+    static String findReferenceAt(String line, int character) {
+        if (line == null) {
+            return null;
+        }
+
+        Matcher matcher = REFERENCE_PATTERN.matcher(line);
+        String found = null;
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+            if (matcher.start() <= character && character <= matcher.end()) {
+                return matcher.group(1).trim();
+            }
+            found = matcher.group(1).trim();
+        }
+        return count == 1 ? found : null;
+    }
+
+    /**
+     * 指定した行で定義しているエレメントを探す。
+     *
+     * その行から始まるエレメントか、 SHORT-NAME の行であればその SHORT-NAME を持つエレメント
+     * (その行より前で最後に始まったエレメント)を返す。
+     */
+    private static Definition findDefinitionAt(IndexSnapshot snapshot, Path filePath, long lineNumber, String line) {
+        Path registeredPath = snapshot.findFilePath(filePath);
+        if (registeredPath == null) {
+            return null;
+        }
+
+        boolean isShortNameLine = line != null && line.contains(SHORT_NAME_TAG);
+        Definition found = null;
+        for (Definition definition : snapshot.getDefinitions(registeredPath)) {
+            if (definition.getLineNumber() > lineNumber) {
+                break;
+            }
+            if (definition.getLineNumber() == lineNumber || isShortNameLine) {
+                found = definition;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 変更を適用した内容を作る。
+     *
+     * 範囲の指定が無い変更は、内容全体の置き換えとして扱う。
+     */
+    static String applyChanges(String text, Object contentChanges) {
+        if (!(contentChanges instanceof List)) {
+            return null;
+        }
+
+        String current = text;
+        for (Object change : (List<?>) contentChanges) {
+            String changeText = Json.getString(change, "text");
+            if (changeText == null) {
+                continue;
+            }
+            Object range = Json.get(change, "range");
+            if (range == null) {
+                current = changeText;
+            } else if (current != null) {
+                int start = toOffset(current, Json.getLong(range, 0, "start", "line"), Json.getLong(range, 0, "start", "character"));
+                int end = toOffset(current, Json.getLong(range, 0, "end", "line"), Json.getLong(range, 0, "end", "character"));
+                current = current.substring(0, start) + changeText + current.substring(Math.max(start, end));
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 行と文字位置(UTF-16 のコード単位)を、文字列中の位置にする。
+     */
+    private static int toOffset(String text, long line, long character) {
+        int offset = 0;
+        for (long i = 0; i < line; i++) {
+            int newLine = text.indexOf('\n', offset);
+            if (newLine < 0) {
+                return text.length();
+            }
+            offset = newLine + 1;
+        }
+        int lineEnd = text.indexOf('\n', offset);
+        if (lineEnd < 0) {
+            lineEnd = text.length();
+        }
+        return (int) Math.min(offset + character, lineEnd);
+    }
+
+    private void scheduleReindex(Path filePath, String content) {
+        if (pendingUpdates.put(filePath, Optional.ofNullable(content)) == null) {
+            updater.execute(() -> reindex(filePath));
+        }
+    }
+
+    private void reindex(Path filePath) {
+        Optional<String> content = pendingUpdates.remove(filePath);
+        if (content == null) {
+            return;
+        }
+
+        try {
+            if (content.isPresent()) {
+                liveIndex.reindex(filePath, content.get());
+            } else {
+                liveIndex.reindex(filePath);
+            }
+        } catch (SAXException e) {
+            // 編集途中の内容はパースできないことがあるので、前回の抽出結果を残す
+        } catch (ParserConfigurationException
+                | IOException e) {
+            log.println("artags: failed to reindex " + filePath + " : " + e);
+        }
+    }
+
+    private Path getDocumentPath(Object params) throws RequestException {
+        Path filePath = toFilePath(Json.getString(params, "textDocument", "uri"));
+        if (filePath == null) {
+            throw new RequestException(INVALID_PARAMS, "textDocument.uri is invalid.");
+        }
+        return filePath;
+    }
+
+    private static int getPositionLine(Object params) throws RequestException {
+        long line = Json.getLong(params, -1, "position", "line");
+        if (line < 0) {
+            throw new RequestException(INVALID_PARAMS, "position is invalid.");
+        }
+        return (int) line;
+    }
+
+    /**
+     * 指定したファイルの行を取得する。
+     * (エディタで開いている場合は編集中の内容から取得する)
+     *
+     * @return 行の文字列(行が無い場合は null)
+     */
+    private String getLine(Path filePath, int lineIndex) throws IOException {
+        String text = openDocuments.get(filePath);
+        if (text != null) {
+            int start = 0;
+            for (int i = 0; i < lineIndex; i++) {
+                start = text.indexOf('\n', start) + 1;
+                if (start == 0) {
+                    return null;
+                }
+            }
+            int end = text.indexOf('\n', start);
+            return text.substring(start, end < 0 ? text.length() : end);
+        }
+
+        Path registeredPath = liveIndex.getSnapshot().findFilePath(filePath);
+        Path targetPath = registeredPath != null ? registeredPath : filePath;
+        ArxmlHeader header = Artags.getArxmlHeader(new Arxml(targetPath));
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(ArxmlArchives.newInputStream(targetPath), header.getCharset()))) {
+            for (int i = 0; i < lineIndex; i++) {
+                if (reader.readLine() == null) {
+                    return null;
+                }
+            }
+            return reader.readLine();
+        }
+    }
+
+    private Map<String, Object> toLocation(Path filePath, long lineNumber) {
+        Map<String, Object> position = new LinkedHashMap<>();
+        position.put("line", Math.max(0, lineNumber - 1));
+        position.put("character", 0);
+
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", position);
+        range.put("end", position);
+
+        Map<String, Object> location = new LinkedHashMap<>();
+        location.put("uri", uris.computeIfAbsent(filePath, p -> p.toAbsolutePath().normalize().toUri().toString()));
+        location.put("range", range);
+        return location;
+    }
+
+    private static int toSymbolKind(String type) {
+        if (type.equals("AR-PACKAGE")) {
+            return SYMBOL_KIND_PACKAGE;
+        }
+        if (type.endsWith("-INTERFACE")) {
+            return SYMBOL_KIND_INTERFACE;
+        }
+        return SYMBOL_KIND_CLASS;
+    }
+
+    /**
+     * URI をファイルパスにする。
+     *
+     * @return ファイルパス(URI が不正な場合や、ファイルシステムとして開けない場合は null)
+     */
+    private static Path toFilePath(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        try {
+            return Paths.get(URI.create(uri)).toAbsolutePath().normalize();
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 1 メッセージ分の本文を読み込む。
+     *
+     * @return メッセージの本文(入力が終わった場合は null)
+     */
+    private String readMessage() throws IOException {
+        int contentLength = -1;
+        String header = readHeaderLine();
+        while (header != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith(CONTENT_LENGTH_HEADER)) {
+                contentLength = Integer.parseInt(header.substring(CONTENT_LENGTH_HEADER.length()).trim());
+            }
+            header = readHeaderLine();
+        }
+        if (header == null) {
+            return null;
+        }
+        if (contentLength < 0) {
+            throw new IOException("Content-Length header is missing.");
+        }
+
+        byte[] body = in.readNBytes(contentLength);
+        if (body.length < contentLength) {
+            return null;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ヘッダを 1 行読み込む。
+     *
+     * @return 改行を除いたヘッダの行(入力が終わった場合は null)
+     */
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        while (b != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+            b = in.read();
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    private void sendResult(Object id, Object result) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        send(response);
+    }
+
+    private void sendError(Object id, int code, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", error);
+        send(response);
+    }
+
+    private void send(Object message) throws IOException {
+        byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (out) {
+            out.write(header);
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    /**
+     * エラー応答として返す例外。
+     */
+    private static class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        RequestException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    /**
+     * インデックスの構築方法。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Options {
+        private String excludePattern;
+        private List<String> includeGlobs;
+        private List<String> excludeGlobs;
+        private int jobs;
+    }
+}
@@ -0,0 +1,99 @@
+package jp.dip.oyasirazu.artags;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX のイベントから Document を組み立てるハンドラ。
+ *
+ * 各エレメントの開始タグの行番号をパース時に Locator から取得し、
+ * ユーザーデータとしてエレメントに格納する。
+ * (テキストとエレメント以外のノード(コメント等)は Document に含めない)
+ */
+class LineNumberDocumentHandler extends DefaultHandler {
+
+    /**
+     * 行番号を格納するユーザーデータのキー。
+     */
+    static final String LINE_NUMBER_KEY = "jp.dip.oyasirazu.artags.lineNumber";
+
+    private final Document document;
+
+    private final Deque<Node> nodeStack = new ArrayDeque<>();
+
+    private final StringBuilder textBuffer = new StringBuilder();
+
+    private Locator locator;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param document 組み立て先の空の Document
+     */
+    LineNumberDocumentHandler(Document document) {
+        this.document = document;
+        this.nodeStack.push(document);
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        flushText();
+
+        Element element = document.createElement(qName);
+        for (int i = 0; i < attributes.getLength(); i++) {
+            element.setAttribute(attributes.getQName(i), attributes.getValue(i));
+        }
+
+        // Locator は開始タグの終わりの位置を指している
+        if (locator != null) {
+            element.setUserData(LINE_NUMBER_KEY, Long.valueOf(locator.getLineNumber()), null);
+        }
+
+        nodeStack.peek().appendChild(element);
+        nodeStack.push(element);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        flushText();
+        nodeStack.pop();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        textBuffer.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        textBuffer.append(ch, start, length);
+    }
+
+    /**
+     * 溜め込んだテキストをテキストノードとして現在のエレメントに追加する。
+     */
+    private void flushText() {
+        if (textBuffer.length() == 0) {
+            return;
+        }
+
+        // ルートエレメントの外側のテキストは Document に追加できないので捨てる
+        Node current = nodeStack.peek();
+        if (current.getNodeType() == Node.ELEMENT_NODE) {
+            current.appendChild(document.createTextNode(textBuffer.toString()));
+        }
+        textBuffer.setLength(0);
+    }
+}
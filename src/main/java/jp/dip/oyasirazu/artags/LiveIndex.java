@@ -0,0 +1,125 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.xml.sax.SAXException;
+
+/**
+ * 更新されながら問い合わせを受け付けるインデックス。
+ *
+ * ArxmlIndex と、その内容を固めた IndexSnapshot を組にして持つ。
+ * 問い合わせは getSnapshot() で取得したスナップショットを読むだけなのでロックを取らない。
+ * 更新は 1 スレッドずつ行い、インデックスを更新した後に新しいスナップショットに差し替える。
+ * (更新中の問い合わせには、更新前のスナップショットで応答する)
+ */
+public class LiveIndex {
+
+    private final ArxmlIndex index;
+
+    private final AtomicReference<IndexSnapshot> snapshot;
+
+    /**
+     * インデックスの更新とスナップショットの差し替えを直列化するためのロック。
+     */
+    private final Object updateLock = new Object();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param index 問い合わせ対象のインデックス
+     */
+    public LiveIndex(ArxmlIndex index) {
+        this.index = index;
+        this.snapshot = new AtomicReference<>(IndexSnapshot.build(index));
+    }
+
+    /**
+     * 現在のスナップショットを取得する。
+     *
+     * @return 現在のスナップショット
+     */
+    public IndexSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * インデックスの現在の内容でスナップショットを作り直す。
+     *
+     * インデックスを外部(ArxmlWatcher 等)で更新した後に呼び出す。
+     */
+    public void refresh() {
+        synchronized (updateLock) {
+            snapshot.set(IndexSnapshot.build(index));
+        }
+    }
+
+    /**
+     * 指定したファイルを再抽出してインデックスを更新する。
+     *
+     * ファイルが削除されている場合は、インデックスから取り除く。
+     *
+     * @param filePath 再抽出するファイルのパス
+     *
+     * @return インデックスを更新した場合は true (arxml ファイルでない場合等は false)
+     */
+    public boolean reindex(Path filePath)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        synchronized (updateLock) {
+            // インデックスには探索時のパスで登録されているので、同じファイルならそのパスを使う
+            Path registeredPath = snapshot.get().findFilePath(filePath);
+            Path targetPath = registeredPath != null ? registeredPath : filePath;
+
+            Artags.invalidateCaches(targetPath);
+            if (Files.isRegularFile(targetPath) && ArxmlFinder.isArxml(targetPath)) {
+                update(targetPath, Artags.extractEntries(new Arxml(targetPath)));
+            } else if (registeredPath != null) {
+                update(targetPath, null);
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 指定したファイルの内容を content に置き換えたものとして再抽出し、インデックスを更新する。
+     *
+     * エディタで編集中の保存されていない内容をインデックスに反映するためのもの。
+     * content が arxml としてパースできない場合は、インデックスを更新せずに例外を投げる。
+     *
+     * @param filePath 再抽出するファイルのパス
+     * @param content ファイルの内容
+     */
+    public void reindex(Path filePath, String content)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        synchronized (updateLock) {
+            Path registeredPath = snapshot.get().findFilePath(filePath);
+            Path targetPath = registeredPath != null ? registeredPath : filePath;
+            update(targetPath, Artags.extractEntries(new Arxml(targetPath), content));
+        }
+    }
+
+    /**
+     * インデックスを更新し、差分をマージしたスナップショットに差し替える。
+     */
+    private void update(Path filePath, Entries entries) {
+        if (entries == null) {
+            index.remove(filePath);
+        } else {
+            index.add(entries);
+        }
+        snapshot.set(snapshot.get().update(filePath, entries));
+    }
+}
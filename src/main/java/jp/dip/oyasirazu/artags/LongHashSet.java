@@ -0,0 +1,110 @@
+package jp.dip.oyasirazu.artags;
+
+/**
+ * long 値のセット。
+ *
+ * オープンアドレス法で long 配列に直接格納するので、
+ * HashSet&lt;Long&gt; と比べて 1 要素あたりのメモリ使用量が小さい。
+ * スレッドセーフではない。
+ */
+public class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final long EMPTY = 0L;
+
+    private long[] table = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * EMPTY と同じ値(0)を格納済みかどうか。
+     */
+    private boolean containsEmpty;
+
+    /**
+     * 値を追加する。
+     *
+     * @param value 追加する値
+     *
+     * @return 値がまだ含まれていなかった場合は true
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+
+        // 使用率が 1/2 を超えたら拡張する
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+
+        if (!insert(table, value)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 値が含まれているかを判定する。
+     *
+     * @param value 判定する値
+     *
+     * @return 値が含まれている場合は true
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+
+        int mask = table.length - 1;
+        for (int i = index(value, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 格納している値の数を取得する。
+     *
+     * @return 格納している値の数
+     */
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] newTable = new long[capacity];
+        for (long value : table) {
+            if (value != EMPTY) {
+                insert(newTable, value);
+            }
+        }
+        table = newTable;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = index(value, mask);
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        return true;
+    }
+
+    private static int index(long value, int mask) {
+        return (int)(value ^ (value >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,155 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.dip.oyasirazu.artags.SymbolIndex.Symbol;
+
+import lombok.Data;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * バイナリインデックスから定義を引く lookup サブコマンド。
+ *
+ * 見つかった定義を 1 行 1 件、 "AR 階層パス\tファイルパス\t行番号\t型" の形式で出力する。
+ * ファイルパスはインデックスファイルを置いたディレクトリからの相対パス。
+ */
+public class LookupCommand {
+
+    /**
+     * サブコマンド名。
+     */
+    public static final String NAME = "lookup";
+
+    /**
+     * すべての検索語で定義が見つかった場合の終了コード。
+     */
+    public static final int EXIT_FOUND = 0;
+
+    /**
+     * 定義が見つからない検索語があった場合の終了コード。
+     */
+    public static final int EXIT_NOT_FOUND = 1;
+
+    /**
+     * 引数が不正な場合の終了コード。
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private LookupCommand() { }
+
+    /**
+     * lookup サブコマンドを実行する。
+     *
+     * @param args サブコマンド名より後ろのコマンドライン引数
+     * @param in 検索語が指定されなかった場合に、検索語を 1 行 1 つ読み込む入力
+     * @param out 検索結果の出力先
+     *
+     * @return 終了コード
+     */
+    public static int run(String[] args, InputStream in, PrintStream out) throws IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        if (options.isHelp() || (options.isPrefix() && options.isName())) {
+            printUsage(optionParser);
+            return options.isHelp() ? EXIT_FOUND : EXIT_USAGE;
+        }
+
+        boolean isAllFound = true;
+        try (SymbolIndex index = SymbolIndex.open(Paths.get(options.getIndexFilePathStr()))) {
+            StringBuilder sb = new StringBuilder();
+            for (String query : readQueries(options.getQueries(), in)) {
+                List<Symbol> symbols = options.isPrefix()
+                        ? index.findByPrefix(query)
+                        : options.isName() ? index.findByName(query) : index.find(query);
+                isAllFound &= !symbols.isEmpty();
+
+                for (Symbol symbol : symbols) {
+                    sb.setLength(0);
+                    sb.append(symbol.getArHierarchyPath()).append('\t')
+                            .append(symbol.getFilePath()).append('\t')
+                            .append(symbol.getLineNumber()).append('\t')
+                            .append(symbol.getType());
+                    out.println(sb);
+                }
+            }
+        }
+        out.flush();
+        return isAllFound ? EXIT_FOUND : EXIT_NOT_FOUND;
+    }
+
+    /**
+     * 検索語のリストを組み立てる。
+     * (検索語が指定されていない場合は、入力から 1 行 1 つ読み込む)
+     */
+    private static List<String> readQueries(List<String> queries, InputStream in) throws IOException {
+        if (!queries.isEmpty()) {
+            return queries;
+        }
+
+        List<String> readQueries = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line = br.readLine();
+        while (line != null) {
+            if (!line.isEmpty()) {
+                readQueries.add(line);
+            }
+            line = br.readLine();
+        }
+        return readQueries;
+    }
+
+    private static void printUsage(CmdLineParser optionParser) {
+        System.err.println("Useage:\n"
+                + "  Main " + NAME + " [options] AR_PATH...\n"
+                + "  (reads AR_PATHs from stdin, one per line, when no AR_PATH is given)\n"
+                + "\n"
+                + "Options:");
+        optionParser.printUsage(System.err);
+    }
+
+    /**
+     * lookup サブコマンドのコマンドラインオプション。
+     */
+    @Data
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-f", aliases = "--index",
+                usage = "binary index file path.",
+                metaVar = "INDEX_FILE")
+        private String indexFilePathStr = SymbolIndex.FILE_NAME_DEFAULT;
+
+        @Option(name = "--prefix", usage = "find definitions whose AR path starts with AR_PATH.")
+        private boolean isPrefix;
+
+        @Option(name = "--name", usage = "find definitions whose SHORT-NAME is AR_PATH.")
+        private boolean isName;
+
+        @Argument(metaVar = "AR_PATH")
+        private List<String> queries = new ArrayList<>();
+    }
+}
@@ -0,0 +1,123 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * 標準入出力で Language Server Protocol のサーバーとして動く lsp サブコマンド。
+ *
+ * インデックスの対象は、 initialize で受け取ったワークスペースのフォルダ以下の arxml 。
+ * 標準出力はプロトコルのメッセージ専用なので、ログは標準エラー出力に出す。
+ * (対応しているリクエストは LanguageServer を参照)
+ */
+public class LspCommand {
+
+    /**
+     * サブコマンド名。
+     */
+    public static final String NAME = "lsp";
+
+    /**
+     * 引数が不正な場合の終了コード。
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private LspCommand() { }
+
+    /**
+     * lsp サブコマンドを実行する。
+     *
+     * クライアントから exit 通知を受け取るか、入力が終わるまで戻らない。
+     *
+     * @param args サブコマンド名より後ろのコマンドライン引数
+     * @param in クライアントからのメッセージの入力
+     * @param out クライアントへのメッセージの出力先
+     *
+     * @return 終了コード
+     */
+    public static int run(String[] args, InputStream in, OutputStream out) throws IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        if (options.isHelp()) {
+            printUsage(optionParser);
+            return 0;
+        }
+
+        Artags.setFastScanEnabled(options.isFastScan());
+        Long streamThreshold = options.getStreamThreshold();
+        if (streamThreshold != null) {
+            Artags.setStreamThreshold(streamThreshold);
+        }
+
+        Integer jobs = options.getJobs();
+        if (jobs == null) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        LanguageServer server = new LanguageServer(in, out, System.err, new LanguageServer.Options(
+                options.getExcludePattern(),
+                options.getIncludeGlobs(),
+                options.getExcludeGlobs(),
+                jobs));
+        return server.run();
+    }
+
+    private static void printUsage(CmdLineParser optionParser) {
+        System.err.println("Useage:\n"
+                + "  Main " + NAME + " [options]\n"
+                + "\n"
+                + "Options:");
+        optionParser.printUsage(System.err);
+    }
+
+    /**
+     * lsp サブコマンドのコマンドラインオプション。
+     */
+    @Data
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-e", aliases = "--exclude", usage = "exclude path pattern.", metaVar = "ExCLUDE_PATH_PATTERN")
+        private String excludePattern;
+
+        @Option(name = "-i", aliases = "--include", usage = "include file glob. can be specified multiple times.", metaVar = "INCLUDE_GLOB")
+        private List<String> includeGlobs = new ArrayList<>();
+
+        @Option(name = "-x", aliases = "--exclude-glob",
+                usage = "exclude path glob, same as a line of " + ArxmlFinder.IGNORE_FILE_NAME + ". can be specified multiple times.",
+                metaVar = "EXCLUDE_GLOB")
+        private List<String> excludeGlobs = new ArrayList<>();
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "--fast-scan", usage = "extract definitions and references with a memory-mapped byte scanner instead of building DOM.")
+        private boolean isFastScan;
+
+        @Option(name = "--stream-threshold",
+                usage = "extract files of this size or larger by streaming with StAX instead of building DOM. 0 means all files.(default: " + Artags.STREAM_THRESHOLD_DEFAULT + ")",
+                metaVar = "BYTES")
+        private Long streamThreshold;
+    }
+}
@@ -1,25 +1,28 @@
 package jp.dip.oyasirazu.artags;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathExpressionException;
 
 import jp.dip.oyasirazu.artags.Artags.Arxml;
-import jp.dip.oyasirazu.artags.Artags.Record;
 
 import lombok.Data;
 
@@ -36,9 +39,11 @@ import org.xml.sax.SAXException;
  */
 public class Main {
 
-    private static final String CHARSET_DEFAULT = "UTF-8";
-    private static final String OUTPUT_FILE_PATH_DEFAULT = "./tags";
+    static final String CHARSET_DEFAULT = "UTF-8";
+    static final String OUTPUT_FILE_PATH_DEFAULT = "./tags";
+    static final String OUTPUT_FILE_PATH_STDOUT = "-";
 
+    @SuppressWarnings("try")
     public static void main(String[] args)
             throws SAXException,
                     XPathExpressionException,
@@ -46,6 +51,23 @@ public class Main {
                     ParserConfigurationException,
                     IOException {
 
+        // サブコマンド判定
+        if (args.length > 0 && LookupCommand.NAME.equals(args[0])) {
+            System.exit(LookupCommand.run(Arrays.copyOfRange(args, 1, args.length), System.in, System.out));
+        }
+        if (args.length > 0 && ServeCommand.NAME.equals(args[0])) {
+            System.exit(ServeCommand.run(Arrays.copyOfRange(args, 1, args.length), System.out));
+        }
+        if (args.length > 0 && LspCommand.NAME.equals(args[0])) {
+            System.exit(LspCommand.run(Arrays.copyOfRange(args, 1, args.length), System.in, System.out));
+        }
+        if (args.length > 0 && IndexCommand.NAME.equals(args[0])) {
+            System.exit(IndexCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && MergeCommand.NAME.equals(args[0])) {
+            System.exit(MergeCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         // コマンドライン引数パース
         Options options = new Options();
         CmdLineParser optionParser = new CmdLineParser(options);
@@ -75,8 +97,44 @@ public class Main {
             charset = CHARSET_DEFAULT;
         }
 
-        // Exclude 設定
-        String excludePattern = options.getExcludePattern();
+        // 探索対象設定
+        ArxmlFinder finder = new ArxmlFinder(
+                options.getTargetDirectories(),
+                options.getExcludePattern(),
+                options.getIncludeGlobs(),
+                options.getExcludeGlobs());
+
+        // 抽出方法設定
+        Artags.setFastScanEnabled(options.isFastScan());
+        Long streamThreshold = options.getStreamThreshold();
+        if (streamThreshold != null) {
+            Artags.setStreamThreshold(streamThreshold);
+        }
+
+        // Document キャッシュ設定
+        Integer documentCacheSize = options.getDocumentCacheSize();
+        if (documentCacheSize != null) {
+            Artags.setDocumentCacheCapacity(documentCacheSize);
+        }
+
+        // 並列数設定
+        Integer jobs = options.getJobs();
+        if (jobs == null) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        // 先読み設定
+        Integer readAhead = options.getReadAhead();
+        if (readAhead == null) {
+            readAhead = 0;
+        }
+
+        // ソート設定
+        boolean isSorted = !options.isUnsorted();
+        Integer sortBufferSize = options.getSortBufferSize();
+        if (sortBufferSize == null) {
+            sortBufferSize = ExternalSorter.MAX_LINES_IN_MEMORY_DEFAULT;
+        }
 
         // 出力先設定
         String outputFilePathStr = options.getOutputFilePathStr();
@@ -85,16 +143,26 @@ public class Main {
         }
 
         // 出力先ファイルの妥当性確認
-        Path outputFilePath = Paths.get(outputFilePathStr);
-        Path outputDirPath = outputFilePath.toAbsolutePath().getParent();
+        // (標準出力に出力する場合は、カレントディレクトリからの相対パスで出力する)
+        boolean isStdout = OUTPUT_FILE_PATH_STDOUT.equals(outputFilePathStr);
+        Path outputFilePath = isStdout ? null : Paths.get(outputFilePathStr);
+        Path outputDirPath = isStdout
+                ? Paths.get("").toAbsolutePath()
+                : outputFilePath.toAbsolutePath().getParent();
 
         if (outputDirPath == null) {
             throw new IllegalArgumentException("OUTPUT_FILE is invalid : " + outputFilePathStr);
         }
 
         // アペンドモードを判定してオプション配列を生成
+        // (ソートする場合は、既存のレコードとまとめてソートし直すので、切り詰めずに先頭から書き直す)
+        boolean isMerged = options.isAppend() && isSorted && !isStdout;
         StandardOpenOption[] openOptions;
-        if (options.isAppend()) {
+        if (isMerged) {
+            openOptions = new StandardOpenOption[]{
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE};
+        } else if (options.isAppend()) {
             openOptions = new StandardOpenOption[]{
                     StandardOpenOption.CREATE,
                     StandardOpenOption.APPEND,
@@ -106,28 +174,314 @@ public class Main {
                     StandardOpenOption.WRITE};
         }
 
+        // 計測結果の出力先設定
+        Path metricsFilePath = options.getMetricsJsonFilePathStr() == null
+                ? null
+                : Paths.get(options.getMetricsJsonFilePathStr());
+
+        // 未解決参照レポートの出力先設定
+        Path unresolvedReportFilePath = options.getUnresolvedReportFilePathStr() == null
+                ? null
+                : Paths.get(options.getUnresolvedReportFilePathStr());
+
+        // バイナリインデックスの出力先設定
+        Path binaryIndexFilePath = options.getBinaryIndexFilePathStr() == null
+                ? null
+                : Paths.get(options.getBinaryIndexFilePathStr());
+
+        // 参照元タグファイルの出力先設定
+        Path referrerTagsFilePath = options.getReferrerTagsFilePathStr() == null
+                ? null
+                : Paths.get(options.getReferrerTagsFilePathStr());
+
+        // 監視モードの場合は、初回のタグファイルを出力した後、
+        // arxml の変更を監視してタグファイルを更新し続ける
+        if (options.isWatch()) {
+            if (isStdout) {
+                throw new IllegalArgumentException("--watch can not be used with stdout output.");
+            }
+            watch(options, finder, jobs, readAhead,
+                    outputFilePath, Charset.forName(charset), isSorted, sortBufferSize,
+                    metricsFilePath, unresolvedReportFilePath, binaryIndexFilePath, referrerTagsFilePath);
+            return;
+        }
+
+        // ソートせずに追記する場合は、既存のタグファイルをソートされていない旨に書き換えておく
+        if (options.isAppend() && !isSorted && !isStdout) {
+            TagsFileWriter.markUnsorted(outputFilePath, Charset.forName(charset));
+            if (referrerTagsFilePath != null) {
+                TagsFileWriter.markUnsorted(referrerTagsFilePath, Charset.forName(charset));
+            }
+        }
+
         // ファイルを開いて主処理を開始する
         // (主処理に時間がかかるので、先にファイルオープンを試行して
         //  だめならすぐエラーが返るように配慮)
-        try (BufferedWriter bw = Files.newBufferedWriter(
-                    Paths.get(outputFilePathStr),
-                    Charset.forName(charset),
-                    openOptions)) {
+        try (WritableByteChannel channel = isStdout
+                    ? new FileOutputStream(FileDescriptor.out).getChannel()
+                    : FileChannel.open(outputFilePath, openOptions);
+                TagsFileWriter tagsWriter = new TagsFileWriter(
+                    channel, Charset.forName(charset), outputDirPath, isSorted, sortBufferSize, !options.isAppend() || isMerged);
+                FileChannel referrerChannel = openChannel(referrerTagsFilePath, openOptions);
+                TagsFileWriter referrerTagsWriter = openReferrerTags(
+                    referrerChannel, referrerTagsFilePath, Charset.forName(charset), isSorted, sortBufferSize, !options.isAppend() || isMerged)) {
+
+            if (isMerged) {
+                tagsWriter.addExisting(outputFilePath);
+                if (referrerTagsWriter != null) {
+                    referrerTagsWriter.addExisting(referrerTagsFilePath);
+                }
+            }
 
             // 指定されたディレクトリ以下の arxml ファイル一覧を取得する
-            List<Arxml> arxmls = Artags.findArxmls(options.getTargetDirectories(), excludePattern);
+            List<Arxml> arxmls = findArxmls(finder, jobs);
 
             // 主処理
-            // arxml リストを一つずつ読み込み、タグファイルのレコードを作成する。
-            Set<Record> allRecords = new HashSet<Record>();
-            for (Arxml arxml : arxmls) {
-                Set<Record> tags = Artags.createTagsString(arxml, arxmls);
-                allRecords.addAll(tags);
+            // 全 arxml を一度だけパースしてインデックスを構築し、
+            // arxml リストを一つずつ参照解決してタグファイルのレコードを出力する。
+            IndexCache indexCache = null;
+            if (options.isCache() || options.isCacheHash()) {
+                indexCache = new IndexCache(outputDirPath.resolve(IndexCache.CACHE_DIRECTORY_NAME), options.isCacheHash());
+                indexCache.load();
+            }
+
+            try (UnresolvedReferenceReport unresolvedReport = openUnresolvedReport(unresolvedReportFilePath);
+                    ProgressReporter progress = startProgress(options, arxmls)) {
+                IndexingPipeline pipeline = new IndexingPipeline(
+                        jobs, indexCache, unresolvedReport, toRecordWriter(referrerTagsWriter), readAhead);
+                if (binaryIndexFilePath == null) {
+                    pipeline.run(arxmls, tagsWriter::write);
+                } else {
+                    ArxmlIndex index = pipeline.buildIndex(arxmls);
+                    pipeline.writeRecords(arxmls, index, tagsWriter::write);
+                    writeBinaryIndex(index, binaryIndexFilePath);
+                }
+            }
+            finish(tagsWriter);
+            finish(referrerTagsWriter);
+
+            if (indexCache != null) {
+                indexCache.save();
+            }
+        }
+
+        writeMetrics(metricsFilePath);
+        printStats(options);
+    }
+
+    /**
+     * 未解決参照レポートを開く。
+     *
+     * @param unresolvedReportFilePath 出力先(null の場合は出力しない)
+     *
+     * @return 未解決参照レポート(出力しない場合は null)
+     */
+    static UnresolvedReferenceReport openUnresolvedReport(Path unresolvedReportFilePath) throws IOException {
+        return unresolvedReportFilePath == null ? null : new UnresolvedReferenceReport(unresolvedReportFilePath);
+    }
+
+    /**
+     * 進捗表示を開始する。
+     *
+     * @return 進捗表示(表示しない場合は null)
+     */
+    private static ProgressReporter startProgress(Options options, List<Arxml> arxmls) {
+        if (!options.isProgress()) {
+            return null;
+        }
+        return new ProgressReporter(Artags.getMetrics(), arxmls.size(), System.err,
+                System.console() != null, ProgressReporter.INTERVAL_MILLIS_DEFAULT);
+    }
+
+    /**
+     * 統計情報のサマリを標準エラー出力に表示する。
+     */
+    private static void printStats(Options options) {
+        if (options.isStats()) {
+            System.err.print(Artags.getMetrics().toSummary());
+            System.err.flush();
+        }
+    }
+
+    /**
+     * 指定されたディレクトリ以下の arxml ファイル一覧を取得する。
+     */
+    @SuppressWarnings("try")
+    private static List<Arxml> findArxmls(ArxmlFinder finder, int jobs) throws IOException {
+        try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.DISCOVERY)) {
+            List<Arxml> arxmls = finder.find(jobs);
+            Artags.getMetrics().add(Metrics.Counter.FILES_FOUND, arxmls.size());
+            return arxmls;
+        }
+    }
+
+    /**
+     * ソート済みレコードを書き出し、出力をフラッシュする。
+     *
+     * @param tagsWriter 出力先(null の場合は何もしない)
+     */
+    @SuppressWarnings("try")
+    static void finish(TagsFileWriter tagsWriter) throws IOException {
+        if (tagsWriter == null) {
+            return;
+        }
+        try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.FINISH)) {
+            tagsWriter.finish();
+        }
+    }
+
+    /**
+     * ファイルを開く。
+     *
+     * @param filePath 開くファイルのパス(null の場合は開かない)
+     *
+     * @return 開いたチャネル(開かない場合は null)
+     */
+    static FileChannel openChannel(Path filePath, StandardOpenOption... openOptions) throws IOException {
+        return filePath == null ? null : FileChannel.open(filePath, openOptions);
+    }
+
+    /**
+     * 参照元タグファイルの出力先を作る。
+     *
+     * 参照元タグファイルのパスは、参照元タグファイルのあるディレクトリからの相対パスで出力する。
+     *
+     * @param channel 出力先のチャネル(null の場合は出力しない)
+     * @param referrerTagsFilePath 参照元タグファイルのパス
+     *
+     * @return 参照元タグファイルの出力先(出力しない場合は null)
+     */
+    static TagsFileWriter openReferrerTags(
+            FileChannel channel,
+            Path referrerTagsFilePath,
+            Charset charset,
+            boolean isSorted,
+            int sortBufferSize,
+            boolean isHeaderEnabled) throws IOException {
+        if (channel == null) {
+            return null;
+        }
+        return new TagsFileWriter(channel, charset, referrerTagsFilePath.toAbsolutePath().getParent(),
+                isSorted, sortBufferSize, isHeaderEnabled);
+    }
+
+    static IndexingPipeline.RecordWriter toRecordWriter(TagsFileWriter tagsWriter) {
+        return tagsWriter == null ? null : tagsWriter::write;
+    }
+
+    /**
+     * バイナリインデックスを出力する。
+     *
+     * @param binaryIndexFilePath 出力先(null の場合は出力しない)
+     */
+    @SuppressWarnings("try")
+    static void writeBinaryIndex(ArxmlIndex index, Path binaryIndexFilePath) throws IOException {
+        if (binaryIndexFilePath != null) {
+            try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.FINISH)) {
+                SymbolIndex.write(index, binaryIndexFilePath);
             }
+        }
+    }
+
+    /**
+     * 計測結果を JSON で出力する。
+     *
+     * @param metricsFilePath 出力先(null の場合は出力しない)
+     */
+    private static void writeMetrics(Path metricsFilePath) throws IOException {
+        if (metricsFilePath != null) {
+            Artags.getMetrics().writeJson(metricsFilePath);
+        }
+    }
+
+    /**
+     * タグファイルを出力した後、 arxml の変更を監視してタグファイルを更新し続ける。
+     */
+    @SuppressWarnings("try")
+    private static void watch(
+            Options options,
+            ArxmlFinder finder,
+            int jobs,
+            int readAhead,
+            Path outputFilePath,
+            Charset charset,
+            boolean isSorted,
+            int sortBufferSize,
+            Path metricsFilePath,
+            Path unresolvedReportFilePath,
+            Path binaryIndexFilePath,
+            Path referrerTagsFilePath)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+
+        List<Arxml> arxmls = findArxmls(finder, jobs);
+        ArxmlIndex index;
+        try (ProgressReporter progress = startProgress(options, arxmls)) {
+            index = new IndexingPipeline(jobs, null, null, null, readAhead).buildIndex(arxmls);
+        }
+        writeTagsAtomically(jobs, arxmls, index, outputFilePath, charset, isSorted, sortBufferSize,
+                unresolvedReportFilePath, referrerTagsFilePath);
+        writeBinaryIndex(index, binaryIndexFilePath);
+        writeMetrics(metricsFilePath);
+        printStats(options);
+
+        // 計測結果・未解決参照レポート・バイナリインデックス・参照元タグファイルは、タグファイルを更新するたびに出力し直す
+        try (ArxmlWatcher watcher = new ArxmlWatcher(
+                    options.getTargetDirectories(), finder, arxmls, index, ArxmlWatcher.DEBOUNCE_MILLIS_DEFAULT)) {
+            watcher.watch((updatedArxmls, updatedIndex) -> {
+                writeTagsAtomically(jobs, updatedArxmls, updatedIndex,
+                        outputFilePath, charset, isSorted, sortBufferSize, unresolvedReportFilePath, referrerTagsFilePath);
+                writeBinaryIndex(updatedIndex, binaryIndexFilePath);
+                writeMetrics(metricsFilePath);
+                printStats(options);
+            });
+        }
+    }
+
+    /**
+     * タグファイル(と参照元タグファイル)を一時ファイルに書き出してから置き換える。
+     * (タグファイルを読んでいるエディタが、書き込み途中のファイルを読まないようにするため)
+     */
+    private static void writeTagsAtomically(
+            int jobs,
+            List<Arxml> arxmls,
+            ArxmlIndex index,
+            Path outputFilePath,
+            Charset charset,
+            boolean isSorted,
+            int sortBufferSize,
+            Path unresolvedReportFilePath,
+            Path referrerTagsFilePath)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
 
-            // タグレコードを出力
-            for (Record record : allRecords) {
-                bw.write(record.buildRecordString(outputDirPath) + "\n");
+        Path outputDirPath = outputFilePath.toAbsolutePath().getParent();
+        Path tmpFilePath = TempFiles.createTempFile(outputFilePath);
+        Path referrerTmpFilePath = referrerTagsFilePath == null ? null : TempFiles.createTempFile(referrerTagsFilePath);
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFilePath, StandardOpenOption.WRITE);
+                    TagsFileWriter tagsWriter = new TagsFileWriter(channel, charset, outputDirPath, isSorted, sortBufferSize, true);
+                    FileChannel referrerChannel = openChannel(referrerTmpFilePath, StandardOpenOption.WRITE);
+                    TagsFileWriter referrerTagsWriter = openReferrerTags(
+                        referrerChannel, referrerTagsFilePath, charset, isSorted, sortBufferSize, true);
+                    UnresolvedReferenceReport unresolvedReport = openUnresolvedReport(unresolvedReportFilePath)) {
+                new IndexingPipeline(jobs, null, unresolvedReport, toRecordWriter(referrerTagsWriter))
+                        .writeRecords(arxmls, index, tagsWriter::write);
+                finish(tagsWriter);
+                finish(referrerTagsWriter);
+            }
+            Files.move(tmpFilePath, outputFilePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (referrerTmpFilePath != null) {
+                Files.move(referrerTmpFilePath, referrerTagsFilePath,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(tmpFilePath);
+            if (referrerTmpFilePath != null) {
+                Files.deleteIfExists(referrerTmpFilePath);
             }
         }
     }
@@ -136,6 +490,11 @@ public class Main {
         // Useage を表示
         System.out.println("Useage:\n"
                 + "  Main [options] [SEARCH_DIRECTORIIES...]\n"
+                + "  Main " + LookupCommand.NAME + " [--prefix|--name] [-f INDEX_FILE] AR_PATH...\n"
+                + "  Main " + ServeCommand.NAME + " [-p PORT] [-w] [SEARCH_DIRECTORIIES...]\n"
+                + "  Main " + LspCommand.NAME + " [-j JOBS]\n"
+                + "  Main " + IndexCommand.NAME + " --shard I/N [-o PARTIAL_INDEX_FILE] [SEARCH_DIRECTORIIES...]\n"
+                + "  Main " + MergeCommand.NAME + " [-o OUTPUT_FILE] PARTIAL_INDEX_FILE...\n"
                 + "\n"
                 + "Options:");
         optionParser.printUsage(System.out);
@@ -165,7 +524,7 @@ public class Main {
         @Option(name = "-a", aliases = "--append", usage = "append mode.")
         private boolean isAppend;
 
-        @Option(name = "-o", aliases = "--output", usage = "output file path.(default: " + OUTPUT_FILE_PATH_DEFAULT + ")", metaVar = "OUTPUT_FILE")
+        @Option(name = "-o", aliases = "--output", usage = "output file path. \"" + OUTPUT_FILE_PATH_STDOUT + "\" means stdout.(default: " + OUTPUT_FILE_PATH_DEFAULT + ")", metaVar = "OUTPUT_FILE")
         private String outputFilePathStr;
 
         @Option(name = "-c", aliases = "--charset", usage = "output file charset.(default:" + CHARSET_DEFAULT + ")", metaVar = "OUTPUT_FILE_CHARSET")
@@ -174,6 +533,78 @@ public class Main {
         @Option(name = "-e", aliases = "--exclude", usage = "exclude path pattern.", metaVar = "ExCLUDE_PATH_PATTERN")
         private String excludePattern;
 
+        @Option(name = "-i", aliases = "--include", usage = "include file glob. can be specified multiple times.", metaVar = "INCLUDE_GLOB")
+        private List<String> includeGlobs = new ArrayList<>();
+
+        @Option(name = "-x", aliases = "--exclude-glob",
+                usage = "exclude path glob, same as a line of " + ArxmlFinder.IGNORE_FILE_NAME + ". can be specified multiple times.",
+                metaVar = "EXCLUDE_GLOB")
+        private List<String> excludeGlobs = new ArrayList<>();
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "--unsorted", usage = "do not sort records.")
+        private boolean isUnsorted;
+
+        @Option(name = "--sort-buffer",
+                usage = "max number of records kept in memory while sorting.(default: " + ExternalSorter.MAX_LINES_IN_MEMORY_DEFAULT + ")",
+                metaVar = "SORT_BUFFER_SIZE")
+        private Integer sortBufferSize;
+
+        @Option(name = "-w", aliases = "--watch", usage = "keep running and update the output file when arxml files are changed.")
+        private boolean isWatch;
+
+        @Option(name = "--cache", usage = "reuse extracted definitions of unchanged files from " + IndexCache.CACHE_DIRECTORY_NAME + " beside the output file.")
+        private boolean isCache;
+
+        @Option(name = "--cache-hash", usage = "same as --cache, and also compare file content hash when the modified time changed.")
+        private boolean isCacheHash;
+
+        @Option(name = "--document-cache-size",
+                usage = "max number of parsed documents to keep in memory.(default: " + DocumentCache.CAPACITY_DEFAULT + ")",
+                metaVar = "DOCUMENT_CACHE_SIZE")
+        private Integer documentCacheSize;
+
+        @Option(name = "--metrics-json",
+                usage = "write per-phase timings and counters as JSON to the file.",
+                metaVar = "METRICS_FILE")
+        private String metricsJsonFilePathStr;
+
+        @Option(name = "--fast-scan", usage = "extract definitions and references with a memory-mapped byte scanner instead of building DOM.")
+        private boolean isFastScan;
+
+        @Option(name = "--stream-threshold",
+                usage = "extract files of this size or larger by streaming with StAX instead of building DOM. 0 means all files.(default: " + Artags.STREAM_THRESHOLD_DEFAULT + ")",
+                metaVar = "BYTES")
+        private Long streamThreshold;
+
+        @Option(name = "--read-ahead",
+                usage = "read up to this many files ahead of the parser on I/O threads (virtual threads if available). for network file systems.(default: off)",
+                metaVar = "FILES")
+        private Integer readAhead;
+
+        @Option(name = "--progress", usage = "print progress with files/references per second and ETA to stderr.")
+        private boolean isProgress;
+
+        @Option(name = "--stats", usage = "print run statistics to stderr when finished.")
+        private boolean isStats;
+
+        @Option(name = "--unresolved-report",
+                usage = "write references whose definition is not found as JSON lines to the file.",
+                metaVar = "REPORT_FILE")
+        private String unresolvedReportFilePathStr;
+
+        @Option(name = "--binary-index",
+                usage = "also write a memory-mapped binary index of all definitions for \"" + LookupCommand.NAME + "\" to the file.",
+                metaVar = "INDEX_FILE")
+        private String binaryIndexFilePathStr;
+
+        @Option(name = "--referrer-tags",
+                usage = "also write a tags file that maps each referenced element to the *-REF elements referring to it.",
+                metaVar = "REFERRER_TAGS_FILE")
+        private String referrerTagsFilePathStr;
+
         @Option(name = "--license", usage = "print license.")
         private boolean license;
 
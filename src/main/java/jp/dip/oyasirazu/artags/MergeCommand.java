@@ -0,0 +1,205 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import lombok.Data;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.xml.sax.SAXException;
+
+/**
+ * index サブコマンドで出力した全シャードの部分インデックスをまとめ、タグファイルを出力する merge サブコマンド。
+ *
+ * シャードをまたぐ参照もまとめたインデックスで解決するので、
+ * 出力されるタグファイルは、同じ探索対象に対して 1 プロセスで出力したタグファイルと同じ内容になる。
+ * 部分インデックスのファイルパスは相対パスのままなので、 index サブコマンドと同じディレクトリで実行すること。
+ */
+public class MergeCommand {
+
+    /**
+     * サブコマンド名。
+     */
+    public static final String NAME = "merge";
+
+    /**
+     * 引数が不正な場合の終了コード。
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private MergeCommand() { }
+
+    /**
+     * merge サブコマンドを実行する。
+     *
+     * @param args サブコマンド名より後ろのコマンドライン引数
+     *
+     * @return 終了コード
+     */
+    @SuppressWarnings("try")
+    public static int run(String[] args)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        if (options.isHelp()) {
+            printUsage(optionParser);
+            return 0;
+        }
+
+        if (options.getPartialIndexFilePathStrs().isEmpty()) {
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        String charsetName = options.getCharset();
+        Charset charset = Charset.forName(charsetName == null ? Main.CHARSET_DEFAULT : charsetName);
+
+        Integer jobs = options.getJobs();
+        if (jobs == null) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        boolean isSorted = !options.isUnsorted();
+        Integer sortBufferSize = options.getSortBufferSize();
+        if (sortBufferSize == null) {
+            sortBufferSize = ExternalSorter.MAX_LINES_IN_MEMORY_DEFAULT;
+        }
+
+        String outputFilePathStr = options.getOutputFilePathStr();
+        if (outputFilePathStr == null) {
+            outputFilePathStr = Main.OUTPUT_FILE_PATH_DEFAULT;
+        }
+        boolean isStdout = Main.OUTPUT_FILE_PATH_STDOUT.equals(outputFilePathStr);
+        Path outputFilePath = isStdout ? null : Paths.get(outputFilePathStr);
+        Path outputDirPath = isStdout
+                ? Paths.get("").toAbsolutePath()
+                : outputFilePath.toAbsolutePath().getParent();
+
+        Path unresolvedReportFilePath = options.getUnresolvedReportFilePathStr() == null
+                ? null
+                : Paths.get(options.getUnresolvedReportFilePathStr());
+        Path binaryIndexFilePath = options.getBinaryIndexFilePathStr() == null
+                ? null
+                : Paths.get(options.getBinaryIndexFilePathStr());
+        Path referrerTagsFilePath = options.getReferrerTagsFilePathStr() == null
+                ? null
+                : Paths.get(options.getReferrerTagsFilePathStr());
+
+        List<Path> partialIndexFilePaths = new ArrayList<>();
+        for (String partialIndexFilePathStr : options.getPartialIndexFilePathStrs()) {
+            partialIndexFilePaths.add(Paths.get(partialIndexFilePathStr));
+        }
+        ShardIndex.Merged merged;
+        try (Metrics.PhaseScope scope = Artags.getMetrics().startPhase(Metrics.Phase.INDEX)) {
+            merged = ShardIndex.merge(partialIndexFilePaths);
+        }
+
+        StandardOpenOption[] openOptions = {
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE};
+        try (WritableByteChannel channel = isStdout
+                    ? new FileOutputStream(FileDescriptor.out).getChannel()
+                    : FileChannel.open(outputFilePath, openOptions);
+                TagsFileWriter tagsWriter = new TagsFileWriter(
+                    channel, charset, outputDirPath, isSorted, sortBufferSize, true);
+                FileChannel referrerChannel = Main.openChannel(referrerTagsFilePath, openOptions);
+                TagsFileWriter referrerTagsWriter = Main.openReferrerTags(
+                    referrerChannel, referrerTagsFilePath, charset, isSorted, sortBufferSize, true);
+                UnresolvedReferenceReport unresolvedReport = Main.openUnresolvedReport(unresolvedReportFilePath)) {
+            new IndexingPipeline(jobs, null, unresolvedReport, Main.toRecordWriter(referrerTagsWriter))
+                    .writeRecords(merged.getArxmls(), merged.getIndex(), tagsWriter::write);
+            Main.finish(tagsWriter);
+            Main.finish(referrerTagsWriter);
+        }
+        Main.writeBinaryIndex(merged.getIndex(), binaryIndexFilePath);
+
+        if (options.isStats()) {
+            System.err.print(Artags.getMetrics().toSummary());
+            System.err.flush();
+        }
+        return 0;
+    }
+
+    private static void printUsage(CmdLineParser optionParser) {
+        System.err.println("Useage:\n"
+                + "  Main " + NAME + " [options] PARTIAL_INDEX_FILE...\n"
+                + "\n"
+                + "Options:");
+        optionParser.printUsage(System.err);
+    }
+
+    /**
+     * merge サブコマンドのコマンドラインオプション。
+     */
+    @Data
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-o", aliases = "--output", usage = "output file path. \"" + Main.OUTPUT_FILE_PATH_STDOUT + "\" means stdout.(default: " + Main.OUTPUT_FILE_PATH_DEFAULT + ")", metaVar = "OUTPUT_FILE")
+        private String outputFilePathStr;
+
+        @Option(name = "-c", aliases = "--charset", usage = "output file charset.(default:" + Main.CHARSET_DEFAULT + ")", metaVar = "OUTPUT_FILE_CHARSET")
+        private String charset;
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "--unsorted", usage = "do not sort records.")
+        private boolean isUnsorted;
+
+        @Option(name = "--sort-buffer",
+                usage = "max number of records kept in memory while sorting.(default: " + ExternalSorter.MAX_LINES_IN_MEMORY_DEFAULT + ")",
+                metaVar = "SORT_BUFFER_SIZE")
+        private Integer sortBufferSize;
+
+        @Option(name = "--stats", usage = "print run statistics to stderr when finished.")
+        private boolean isStats;
+
+        @Option(name = "--unresolved-report",
+                usage = "write references whose definition is not found as JSON lines to the file.",
+                metaVar = "REPORT_FILE")
+        private String unresolvedReportFilePathStr;
+
+        @Option(name = "--binary-index",
+                usage = "also write a memory-mapped binary index of all definitions for \"" + LookupCommand.NAME + "\" to the file.",
+                metaVar = "INDEX_FILE")
+        private String binaryIndexFilePathStr;
+
+        @Option(name = "--referrer-tags",
+                usage = "also write a tags file that maps each referenced element to the *-REF elements referring to it.",
+                metaVar = "REFERRER_TAGS_FILE")
+        private String referrerTagsFilePathStr;
+
+        @Argument(metaVar = "PARTIAL_INDEX_FILE")
+        private List<String> partialIndexFilePathStrs = new ArrayList<>();
+    }
+}
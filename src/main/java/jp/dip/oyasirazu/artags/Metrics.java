@@ -0,0 +1,518 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 処理フェーズごとの所要時間と、処理したファイル・定義・参照等の件数を集計する。
+ *
+ * 集計値はスレッドセーフに加算でき、 JSON 形式のサマリとして出力できる。
+ * また、各フェーズとファイルごとの処理を JDK Flight Recorder のイベントとして記録するので、
+ * -XX:StartFlightRecording を付けて実行すれば、外部のエージェント無しでプロファイルできる。
+ */
+public class Metrics {
+
+    /**
+     * JSON に出力する、パースに時間がかかったファイルの件数。
+     */
+    public static final int SLOWEST_FILES_MAX = 10;
+
+    private static final String EVENT_CATEGORY = "artags";
+
+    private final long createdNanos = System.nanoTime();
+
+    private final LongAdder[] phaseCounts = newAdders(Phase.values().length);
+
+    private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+
+    private final LongAdder[] counters = newAdders(Counter.values().length);
+
+    /**
+     * パースに時間がかかったファイル。
+     * (所要時間の短い順に並べ、 SLOWEST_FILES_MAX 件を超えたら先頭から捨てる)
+     */
+    private final PriorityQueue<FileMetrics> slowestFiles =
+            new PriorityQueue<>(Comparator.comparingLong(FileMetrics::getNanos));
+
+    /**
+     * 処理フェーズ。
+     *
+     * 1 回の実行につき 1 回だけ計測するフェーズの所要時間は経過時間、
+     * ファイルごとに計測するフェーズの所要時間はワーカースレッドでの処理時間の合計になる。
+     */
+    public enum Phase {
+        /** arxml ファイルの探索 */
+        DISCOVERY,
+        /** 全ファイルのパース・抽出とインデックスの構築 */
+        INDEX,
+        /** ファイルごとの内容の先読み(I/O スレッドでの読み込み) */
+        READ,
+        /** ファイルごとの XML パース */
+        PARSE,
+        /** ファイルごとの定義と参照の抽出 */
+        EXTRACT,
+        /** ファイルごとの参照解決 */
+        RESOLVE,
+        /** 全ファイルの参照解決とレコード出力 */
+        OUTPUT,
+        /** ソート済みレコードの書き出しと出力のフラッシュ */
+        FINISH;
+
+        String jsonName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * 件数のカウンター。
+     */
+    public enum Counter {
+        /** 探索で見つかった arxml ファイル数 */
+        FILES_FOUND,
+        /** パースしたファイル数 */
+        FILES_PARSED,
+        /** パースしたファイルの合計サイズ(バイト数) */
+        BYTES_PARSED,
+        /** DOM を組み立てずに StAX で逐次読み込みして抽出したファイル数 */
+        FILES_STREAMED,
+        /** I/O スレッドで先読みしたファイル数 */
+        FILES_READ_AHEAD,
+        /** I/O スレッドで先読みしたファイルの合計サイズ(バイト数) */
+        BYTES_READ_AHEAD,
+        /** パース済み Document のキャッシュを使ったファイル数 */
+        DOCUMENT_CACHE_HITS,
+        /** パース済み Document のキャッシュに無く、パースしたファイル数 */
+        DOCUMENT_CACHE_MISSES,
+        /** 抽出結果のキャッシュを使ったファイル数 */
+        INDEX_CACHE_HITS,
+        /** インデックスに登録したファイル数(パースしたファイルとキャッシュを使ったファイル) */
+        FILES_INDEXED,
+        /** 抽出した定義の数 */
+        DEFINITIONS,
+        /** 抽出した参照の数 */
+        REFERENCES,
+        /** 定義が見つかった参照の数 */
+        REFERENCES_RESOLVED,
+        /** 定義が見つからなかった参照の数 */
+        REFERENCES_UNRESOLVED,
+        /** 参照解決で生成したレコード数(重複を含む) */
+        RECORDS_RESOLVED,
+        /** 重複を除いて出力したレコード数 */
+        RECORDS_WRITTEN,
+        /** 高速走査で抽出できず、 DOM での抽出にフォールバックしたファイル数 */
+        FAST_SCAN_FALLBACKS;
+
+        String jsonName() {
+            String[] words = name().toLowerCase(Locale.ROOT).split("_");
+            StringBuilder sb = new StringBuilder(words[0]);
+            for (int i = 1; i < words.length; i++) {
+                sb.append(Character.toUpperCase(words[i].charAt(0))).append(words[i].substring(1));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 1 回だけ計測するフェーズの計測を開始する。
+     *
+     * try-with-resources で使い、 close した時点で計測を終了する。
+     * (本体ではリソースを参照しないので、使う側のメソッドに @SuppressWarnings("try") を付ける)
+     *
+     * @param phase 計測するフェーズ
+     *
+     * @return 計測中のフェーズ
+     */
+    public PhaseScope startPhase(Phase phase) {
+        return new PhaseScope(phase);
+    }
+
+    /**
+     * ファイルごとに計測するフェーズの計測を開始する。
+     *
+     * try-with-resources で使い、 close した時点で計測を終了する。
+     *
+     * @param phase 計測するフェーズ
+     * @param filePath 処理するファイルのパス
+     *
+     * @return 計測中のフェーズ
+     */
+    public FileScope startFile(Phase phase, Path filePath) {
+        return new FileScope(phase, filePath);
+    }
+
+    /**
+     * カウンターに加算する。
+     *
+     * @param counter 加算するカウンター
+     * @param value 加算する値
+     */
+    public void add(Counter counter, long value) {
+        counters[counter.ordinal()].add(value);
+    }
+
+    /**
+     * カウンターの値を取得する。
+     *
+     * @param counter 取得するカウンター
+     *
+     * @return カウンターの値
+     */
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * フェーズを計測した回数を取得する。
+     *
+     * @param phase 取得するフェーズ
+     *
+     * @return 計測した回数
+     */
+    public long getCount(Phase phase) {
+        return phaseCounts[phase.ordinal()].sum();
+    }
+
+    /**
+     * フェーズの所要時間の合計を取得する。
+     *
+     * @param phase 取得するフェーズ
+     *
+     * @return 所要時間の合計(ナノ秒)
+     */
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * パースに時間がかかったファイルを、時間がかかった順に取得する。
+     *
+     * @return パースに時間がかかったファイルのリスト(最大 SLOWEST_FILES_MAX 件)
+     */
+    public List<FileMetrics> getSlowestFiles() {
+        List<FileMetrics> files;
+        synchronized (slowestFiles) {
+            files = new ArrayList<>(slowestFiles);
+        }
+        files.sort(Comparator.comparingLong(FileMetrics::getNanos).reversed());
+        return files;
+    }
+
+    /**
+     * 集計結果を JSON 形式の文字列にする。
+     *
+     * @return 集計結果の JSON 文字列
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"elapsedMillis\": ").append(toMillis(System.nanoTime() - createdNanos)).append(",\n");
+
+        sb.append("  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            sb.append("    \"").append(phases[i].jsonName()).append("\": {")
+                    .append("\"count\": ").append(getCount(phases[i]))
+                    .append(", \"totalMillis\": ").append(toMillis(getNanos(phases[i])))
+                    .append('}')
+                    .append(i < phases.length - 1 ? ",\n" : "\n");
+        }
+        sb.append("  },\n");
+
+        sb.append("  \"counters\": {\n");
+        Counter[] values = Counter.values();
+        for (int i = 0; i < values.length; i++) {
+            sb.append("    \"").append(values[i].jsonName()).append("\": ").append(get(values[i]))
+                    .append(i < values.length - 1 ? ",\n" : "\n");
+        }
+        sb.append("  },\n");
+
+        sb.append("  \"slowestFiles\": [");
+        List<FileMetrics> files = getSlowestFiles();
+        for (int i = 0; i < files.size(); i++) {
+            FileMetrics file = files.get(i);
+            sb.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"path\": \"").append(Json.escape(ArxmlArchives.toPathString(file.getFilePath())))
+                    .append("\", \"bytes\": ").append(file.getBytes())
+                    .append(", \"parseMillis\": ").append(toMillis(file.getNanos()))
+                    .append('}');
+        }
+        sb.append(files.isEmpty() ? "]\n" : "\n  ]\n");
+
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * 集計結果を人が読むためのサマリ文字列にする。
+     *
+     * @return 集計結果のサマリ
+     */
+    public String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "elapsed              : %s ms%n", toMillis(System.nanoTime() - createdNanos)));
+        sb.append(String.format(Locale.ROOT, "files scanned        : %d (parsed %d, %d bytes / index cache hits %d)%n",
+                get(Counter.FILES_FOUND), get(Counter.FILES_PARSED), get(Counter.BYTES_PARSED), get(Counter.INDEX_CACHE_HITS)));
+        sb.append(String.format(Locale.ROOT, "document cache       : hits %d / misses %d%n",
+                get(Counter.DOCUMENT_CACHE_HITS), get(Counter.DOCUMENT_CACHE_MISSES)));
+        sb.append(String.format(Locale.ROOT, "definitions found    : %d%n", get(Counter.DEFINITIONS)));
+        sb.append(String.format(Locale.ROOT, "references resolved  : %d%n", get(Counter.REFERENCES_RESOLVED)));
+        sb.append(String.format(Locale.ROOT, "references unresolved: %d%n", get(Counter.REFERENCES_UNRESOLVED)));
+        sb.append(String.format(Locale.ROOT, "records written      : %d (duplicates %d)%n",
+                get(Counter.RECORDS_WRITTEN), get(Counter.RECORDS_RESOLVED) - get(Counter.RECORDS_WRITTEN)));
+
+        sb.append("phases               :");
+        for (Phase phase : Phase.values()) {
+            sb.append(' ').append(phase.jsonName()).append('=').append(toMillis(getNanos(phase))).append("ms");
+        }
+        sb.append(String.format("%n"));
+
+        List<FileMetrics> files = getSlowestFiles();
+        if (!files.isEmpty()) {
+            sb.append(String.format("slowest files        :%n"));
+            for (FileMetrics file : files) {
+                sb.append(String.format(Locale.ROOT, "  %10s ms %10d bytes  %s%n",
+                        toMillis(file.getNanos()), file.getBytes(), file.getFilePath()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 集計結果を JSON 形式でファイルに出力する。
+     *
+     * @param filePath 出力先ファイルのパス
+     */
+    public void writeJson(Path filePath) throws IOException {
+        Files.write(filePath, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void recordParsedFile(Path filePath, long bytes, long nanos) {
+        synchronized (slowestFiles) {
+            if (slowestFiles.size() < SLOWEST_FILES_MAX) {
+                slowestFiles.add(new FileMetrics(filePath, bytes, nanos));
+            } else if (slowestFiles.peek().getNanos() < nanos) {
+                slowestFiles.poll();
+                slowestFiles.add(new FileMetrics(filePath, bytes, nanos));
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * 計測中の、 1 回だけ計測するフェーズ。
+     */
+    public class PhaseScope implements AutoCloseable {
+
+        private final Phase phase;
+
+        private final long startNanos;
+
+        private final PhaseEvent event = new PhaseEvent();
+
+        private PhaseScope(Phase phase) {
+            this.phase = phase;
+            this.event.phase = phase.name();
+            this.event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+            phaseCounts[phase.ordinal()].increment();
+            event.commit();
+        }
+    }
+
+    /**
+     * 計測中の、ファイルごとに計測するフェーズ。
+     *
+     * 処理中に判明した件数を設定しておくと、フェーズ終了時にカウンターにも加算する。
+     */
+    public class FileScope implements AutoCloseable {
+
+        private final Phase phase;
+
+        private final Path filePath;
+
+        private final long startNanos;
+
+        private final FileEvent event = new FileEvent();
+
+        private boolean isCanceled;
+
+        private FileScope(Phase phase, Path filePath) {
+            this.phase = phase;
+            this.filePath = filePath;
+            this.event.phase = phase.name();
+            this.event.filePath = ArxmlArchives.toPathString(filePath);
+            this.event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * 処理したファイルのサイズを設定する。
+         *
+         * @param bytes ファイルサイズ(バイト数)
+         */
+        public void setBytes(long bytes) {
+            event.bytes = bytes;
+        }
+
+        /**
+         * 抽出した定義と参照の数を設定する。
+         *
+         * @param definitions 定義の数
+         * @param references 参照の数
+         */
+        public void setEntries(int definitions, int references) {
+            event.definitions = definitions;
+            event.references = references;
+        }
+
+        /**
+         * 参照解決の結果を設定する。
+         *
+         * @param references 解決しようとした参照の数
+         * @param unresolvedReferences そのうち定義が見つからなかった参照の数
+         * @param records 生成したレコード数
+         */
+        public void setResolved(int references, int unresolvedReferences, int records) {
+            event.references = references;
+            event.unresolvedReferences = unresolvedReferences;
+            event.records = records;
+        }
+
+        /**
+         * 計測を取り消す。
+         * (処理をやり直す場合等に呼び出すと、 close しても何も記録しない)
+         */
+        public void cancel() {
+            isCanceled = true;
+        }
+
+        @Override
+        public void close() {
+            if (isCanceled) {
+                return;
+            }
+
+            long nanos = System.nanoTime() - startNanos;
+            phaseNanos[phase.ordinal()].add(nanos);
+            phaseCounts[phase.ordinal()].increment();
+
+            switch (phase) {
+                case READ:
+                    add(Counter.FILES_READ_AHEAD, 1);
+                    add(Counter.BYTES_READ_AHEAD, event.bytes);
+                    break;
+                case PARSE:
+                    add(Counter.FILES_PARSED, 1);
+                    add(Counter.BYTES_PARSED, event.bytes);
+                    // 高速走査の場合はパースと同時に抽出する
+                    add(Counter.DEFINITIONS, event.definitions);
+                    add(Counter.REFERENCES, event.references);
+                    recordParsedFile(filePath, event.bytes, nanos);
+                    break;
+                case EXTRACT:
+                    add(Counter.DEFINITIONS, event.definitions);
+                    add(Counter.REFERENCES, event.references);
+                    break;
+                case RESOLVE:
+                    add(Counter.REFERENCES_RESOLVED, event.references - event.unresolvedReferences);
+                    add(Counter.REFERENCES_UNRESOLVED, event.unresolvedReferences);
+                    add(Counter.RECORDS_RESOLVED, event.records);
+                    break;
+                default:
+                    break;
+            }
+
+            event.commit();
+        }
+    }
+
+    /**
+     * ファイルごとの計測結果。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class FileMetrics {
+        private Path filePath;
+        private long bytes;
+        private long nanos;
+    }
+
+    /**
+     * 処理フェーズの JFR イベント。
+     */
+    @Name("jp.dip.oyasirazu.artags.Phase")
+    @Label("Artags Phase")
+    @Category(EVENT_CATEGORY)
+    @Description("A processing phase of artags, such as discovery, indexing or output.")
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+    }
+
+    /**
+     * ファイルごとの処理の JFR イベント。
+     */
+    @Name("jp.dip.oyasirazu.artags.File")
+    @Label("Artags File")
+    @Category(EVENT_CATEGORY)
+    @Description("Parsing, extraction or resolution of a single arxml file.")
+    static class FileEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("File Path")
+        String filePath;
+
+        @Label("File Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Definitions")
+        int definitions;
+
+        @Label("References")
+        int references;
+
+        @Label("Unresolved References")
+        int unresolvedReferences;
+
+        @Label("Records")
+        int records;
+    }
+}
@@ -0,0 +1,193 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 処理の進捗を定期的に表示する。
+ *
+ * 進捗は Metrics のカウンターから読み取るので、ワーカースレッドの処理には影響しない。
+ * インデックス構築中はパース済みのファイル数を、
+ * 参照解決中は解決済みのファイル数を表示し、それぞれの処理速度から残り時間を見積もる。
+ *
+ * try-with-resources で表示する範囲を囲んで使う。
+ * (Metrics.PhaseScope と同じく本体では参照しないので、使う側のメソッドに @SuppressWarnings("try") を付ける)
+ */
+public class ProgressReporter implements Closeable {
+
+    /**
+     * 進捗を表示する間隔のデフォルト値(ミリ秒)。
+     */
+    public static final long INTERVAL_MILLIS_DEFAULT = 1000;
+
+    private final Metrics metrics;
+
+    private final int totalFiles;
+
+    private final PrintStream out;
+
+    private final boolean isInteractive;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 開始時点のカウンターの値。
+     * (監視モードでは Metrics が累計になるので、差分で進捗を計算する)
+     */
+    private final long indexedFilesAtStart;
+    private final long resolvedFilesAtStart;
+    private final long extractedReferencesAtStart;
+    private final long resolvedReferencesAtStart;
+
+    private final long startNanos;
+
+    /**
+     * 参照解決を始めたことに気付いた時刻。
+     * (まだ参照解決を始めていない場合は -1)
+     */
+    private long resolveStartNanos = -1;
+
+    private int lastLineLength;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param metrics 進捗を読み取る Metrics
+     * @param totalFiles 処理対象のファイル数
+     * @param out 進捗の出力先
+     * @param isInteractive 出力先が端末の場合は true(同じ行を上書きして表示する)
+     * @param intervalMillis 進捗を表示する間隔(ミリ秒、 0 以下の場合は定期的な表示を行わない)
+     */
+    public ProgressReporter(
+            Metrics metrics,
+            int totalFiles,
+            PrintStream out,
+            boolean isInteractive,
+            long intervalMillis) {
+        this.metrics = metrics;
+        this.totalFiles = totalFiles;
+        this.out = out;
+        this.isInteractive = isInteractive;
+
+        this.indexedFilesAtStart = metrics.get(Metrics.Counter.FILES_INDEXED);
+        this.resolvedFilesAtStart = metrics.getCount(Metrics.Phase.RESOLVE);
+        this.extractedReferencesAtStart = metrics.get(Metrics.Counter.REFERENCES);
+        this.resolvedReferencesAtStart = countResolvedReferences();
+        this.startNanos = System.nanoTime();
+
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "artags-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 現在の進捗を表示する。
+     */
+    public synchronized void report() {
+        print(buildLine(System.nanoTime(), false), false);
+    }
+
+    /**
+     * 定期的な表示を止め、最後の進捗を表示する。
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        print(buildLine(System.nanoTime(), true), true);
+    }
+
+    /**
+     * 進捗を表す文字列を組み立てる。
+     *
+     * @param nowNanos 現在時刻(System#nanoTime の値)
+     * @param isDone 処理が終わった場合は true(開始からの平均速度を表示する)
+     *
+     * @return 進捗を表す文字列
+     */
+    synchronized String buildLine(long nowNanos, boolean isDone) {
+        long indexedFiles = metrics.get(Metrics.Counter.FILES_INDEXED) - indexedFilesAtStart;
+        long resolvedFiles = metrics.getCount(Metrics.Phase.RESOLVE) - resolvedFilesAtStart;
+
+        String stage;
+        long doneFiles;
+        long references;
+        long stageNanos;
+        if (isDone) {
+            stage = "done";
+            doneFiles = Math.max(indexedFiles, resolvedFiles);
+            references = countResolvedReferences() - resolvedReferencesAtStart;
+            stageNanos = nowNanos - startNanos;
+        } else if (resolvedFiles == 0 && indexedFiles < totalFiles) {
+            stage = "indexing";
+            doneFiles = indexedFiles;
+            references = metrics.get(Metrics.Counter.REFERENCES) - extractedReferencesAtStart;
+            stageNanos = nowNanos - startNanos;
+        } else {
+            if (resolveStartNanos < 0) {
+                resolveStartNanos = nowNanos;
+            }
+            stage = "resolving";
+            doneFiles = resolvedFiles;
+            references = countResolvedReferences() - resolvedReferencesAtStart;
+            stageNanos = nowNanos - resolveStartNanos;
+        }
+
+        double seconds = stageNanos / 1_000_000_000.0;
+        double filesPerSecond = seconds > 0 ? doneFiles / seconds : 0;
+        double referencesPerSecond = seconds > 0 ? references / seconds : 0;
+
+        String eta;
+        if (doneFiles >= totalFiles) {
+            eta = "0:00";
+        } else if (filesPerSecond > 0) {
+            eta = formatDuration((long)Math.ceil((totalFiles - doneFiles) / filesPerSecond));
+        } else {
+            eta = "-:--";
+        }
+
+        return String.format(Locale.ROOT, "%s: %d/%d files (%.1f files/s, %.1f refs/s), ETA %s",
+                stage, doneFiles, totalFiles, filesPerSecond, referencesPerSecond, eta);
+    }
+
+    private long countResolvedReferences() {
+        return metrics.get(Metrics.Counter.REFERENCES_RESOLVED)
+                + metrics.get(Metrics.Counter.REFERENCES_UNRESOLVED);
+    }
+
+    private void print(String line, boolean isLast) {
+        if (isInteractive) {
+            // 前回の表示より短い場合は、残りを空白で消す
+            StringBuilder sb = new StringBuilder("\r").append(line);
+            for (int i = line.length(); i < lastLineLength; i++) {
+                sb.append(' ');
+            }
+            lastLineLength = line.length();
+            out.print(isLast ? sb.append(System.lineSeparator()) : sb);
+        } else {
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    static String formatDuration(long seconds) {
+        long hours = seconds / 3600;
+        long minutes = (seconds / 60) % 60;
+        long secs = seconds % 60;
+        return hours > 0
+                ? String.format(Locale.ROOT, "%d:%02d:%02d", hours, minutes, secs)
+                : String.format(Locale.ROOT, "%d:%02d", minutes, secs);
+    }
+}
@@ -0,0 +1,283 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.IndexSnapshot.ReferenceLocation;
+
+/**
+ * インデックスへの問い合わせを受け付ける HTTP サーバー。
+ *
+ * ループバックアドレスだけで待ち受け、以下のリクエストに JSON で応答する。
+ *
+ * - GET  /definitions?path=AR_PATH   : AR 階層パスの定義位置
+ * - GET  /references?path=AR_PATH    : AR 階層パスを参照している位置
+ * - GET  /search?prefix=PREFIX       : AR 階層パスの前方一致検索(limit で最大件数を指定)
+ * - POST /reindex?file=FILE          : ファイルを再抽出してインデックスを更新
+ * - GET  /status                     : 定義・参照・ファイルの数
+ *
+ * 問い合わせは LiveIndex のスナップショットを読むだけなのでロックを取らない。
+ * (更新中の問い合わせには、更新前のスナップショットで応答する)
+ */
+public class QueryServer implements Closeable {
+
+    /**
+     * デフォルトの待ち受けポート。
+     */
+    public static final int PORT_DEFAULT = 7373;
+
+    /**
+     * 前方一致検索のデフォルトの最大件数。
+     */
+    public static final int SEARCH_LIMIT_DEFAULT = 1000;
+
+    private static final int BACKLOG = 256;
+
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    static {
+        // 応答はヘッダと本文を別々に書き込むので、 Nagle アルゴリズムと遅延 ACK が重なって
+        // 接続を使い回すクライアントへの応答が数十ミリ秒遅れないようにする
+        // (HttpServer を初めて生成する前に設定する必要がある)
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+    }
+
+    private final LiveIndex liveIndex;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタ。
+     *
+     * start() を呼ぶまでリクエストは受け付けない。
+     *
+     * @param liveIndex 問い合わせ対象のインデックス
+     * @param port 待ち受けるポート(0 の場合は空いているポート)
+     * @param threads リクエストを処理するスレッド数
+     */
+    public QueryServer(LiveIndex liveIndex, int port, int threads) throws IOException {
+        this.liveIndex = liveIndex;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = Executors.newFixedThreadPool(threads);
+
+        server.createContext("/definitions", exchange -> handle(exchange, "GET", this::definitions));
+        server.createContext("/references", exchange -> handle(exchange, "GET", this::references));
+        server.createContext("/search", exchange -> handle(exchange, "GET", this::search));
+        server.createContext("/reindex", exchange -> handle(exchange, "POST", this::reindex));
+        server.createContext("/status", exchange -> handle(exchange, "GET", this::status));
+        server.setExecutor(executor);
+    }
+
+    /**
+     * リクエストの受け付けを開始する。
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * 待ち受けているポートを取得する。
+     *
+     * @return 待ち受けているポート
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 待ち受けている URL を取得する。
+     *
+     * @return 待ち受けている URL("http://127.0.0.1:PORT/" の形式)
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + getPort() + "/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private Response definitions(Map<String, String> params) {
+        String arHierarchyPath = params.get("path");
+        if (arHierarchyPath == null) {
+            return Response.error(400, "path is required.");
+        }
+        IndexSnapshot current = liveIndex.getSnapshot();
+        return Response.ok(toDefinitionsJson(current, current.findDefinitions(arHierarchyPath)));
+    }
+
+    private Response references(Map<String, String> params) {
+        String arHierarchyPath = params.get("path");
+        if (arHierarchyPath == null) {
+            return Response.error(400, "path is required.");
+        }
+        IndexSnapshot current = liveIndex.getSnapshot();
+        return Response.ok(toReferencesJson(current, current.findReferences(arHierarchyPath)));
+    }
+
+    private Response search(Map<String, String> params) {
+        String prefix = params.get("prefix");
+        if (prefix == null) {
+            return Response.error(400, "prefix is required.");
+        }
+
+        int limit = SEARCH_LIMIT_DEFAULT;
+        String limitStr = params.get("limit");
+        if (limitStr != null) {
+            try {
+                limit = Integer.parseInt(limitStr);
+            } catch (NumberFormatException e) {
+                return Response.error(400, "limit is invalid : " + limitStr);
+            }
+        }
+        IndexSnapshot current = liveIndex.getSnapshot();
+        return Response.ok(toDefinitionsJson(current, current.findDefinitionsByPrefix(prefix, limit)));
+    }
+
+    private Response reindex(Map<String, String> params) throws Exception {
+        String file = params.get("file");
+        if (file == null) {
+            return Response.error(400, "file is required.");
+        }
+
+        // アーカイブ内のエントリは "zipfile:" 形式の文字列で登録済みのものだけ指定できる
+        Path registeredPath = liveIndex.getSnapshot().findFilePath(file);
+        if (!liveIndex.reindex(registeredPath != null ? registeredPath : Paths.get(file))) {
+            return Response.error(404, "not an arxml file : " + file);
+        }
+        return status(params);
+    }
+
+    private Response status(Map<String, String> params) {
+        IndexSnapshot current = liveIndex.getSnapshot();
+        return Response.ok("{\"definitions\": " + current.getDefinitionCount()
+                + ", \"references\": " + current.getReferenceCount()
+                + ", \"files\": " + current.getFileCount() + "}");
+    }
+
+    private static String toDefinitionsJson(IndexSnapshot snapshot, List<Definition> definitions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"count\": ").append(definitions.size()).append(", \"results\": [");
+        for (int i = 0; i < definitions.size(); i++) {
+            Definition definition = definitions.get(i);
+            sb.append(i == 0 ? "" : ", ")
+                    .append("{\"path\": \"").append(Json.escape(definition.getArHierarchyPath()))
+                    .append("\", \"file\": \"").append(Json.escape(snapshot.toFilePathString(definition.getFilePath())))
+                    .append("\", \"line\": ").append(definition.getLineNumber())
+                    .append(", \"type\": \"").append(Json.escape(definition.getType()))
+                    .append("\"}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static String toReferencesJson(IndexSnapshot snapshot, List<ReferenceLocation> references) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"count\": ").append(references.size()).append(", \"results\": [");
+        for (int i = 0; i < references.size(); i++) {
+            ReferenceLocation reference = references.get(i);
+            sb.append(i == 0 ? "" : ", ")
+                    .append("{\"path\": \"").append(Json.escape(reference.getArHierarchyPath()))
+                    .append("\", \"file\": \"").append(Json.escape(snapshot.toFilePathString(reference.getFilePath())))
+                    .append("\", \"line\": ").append(reference.getLineNumber())
+                    .append(", \"dest\": \"").append(Json.escape(reference.getDest()))
+                    .append("\"}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /**
+     * リクエストを処理して応答を返す。
+     */
+    private static void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        Response response;
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                response = Response.error(405, method + " is required.");
+            } else {
+                response = handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+        } catch (Exception e) {
+            response = Response.error(500, String.valueOf(e.getMessage()));
+        }
+
+        byte[] body = (response.body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_JSON);
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * クエリ文字列をパラメータ名と値のマップにする。
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int separator = param.indexOf('=');
+            String name = separator < 0 ? param : param.substring(0, separator);
+            String value = separator < 0 ? "" : param.substring(separator + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * リクエストのパラメータから応答を組み立てる処理。
+     */
+    @FunctionalInterface
+    private interface Handler {
+        Response handle(Map<String, String> params) throws Exception;
+    }
+
+    /**
+     * ステータスコードと JSON の応答本文。
+     */
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, "{\"error\": \"" + Json.escape(message) + "\"}");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * arxml ファイルの内容を、パースより先に I/O 専用のスレッドで読み込むためのユーティリティ。
+ *
+ * ネットワークファイルシステム上のファイルは、 1 ファイルを開いて読むたびに往復の待ち時間がかかる。
+ * パースのスレッド(CPU の数程度)で順番に読むと待ち時間がそのまま積み上がるので、
+ * 読み込みだけを多数のスレッドで同時に行い、読み終わった内容をパースのスレッドに渡す。
+ *
+ * I/O のスレッドには、仮想スレッドが使える JDK(21 以降)では仮想スレッドを、
+ * それより前の JDK では指定した数のプラットフォームスレッドのプールを使う。
+ */
+public final class ReadAhead {
+
+    /**
+     * 仮想スレッドのエグゼキューターを作るメソッド名。
+     * (ソースレベルが仮想スレッドより前の JDK なので、リフレクションで呼び出す)
+     */
+    private static final String NEW_VIRTUAL_THREAD_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private ReadAhead() { }
+
+    /**
+     * 仮想スレッドを使えるかを判定する。
+     *
+     * @return 仮想スレッドを使える場合は true
+     */
+    public static boolean isVirtualThreadSupported() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * ファイルを読み込む I/O 用のエグゼキューターを作る。
+     *
+     * 仮想スレッドを使えない場合は、 threads 個のデーモンスレッドのプールを作る。
+     * (同時に読み込むファイル数は、呼び出し側で制限すること)
+     *
+     * @param threads 仮想スレッドを使えない場合のスレッド数
+     *
+     * @return I/O 用のエグゼキューター
+     */
+    public static ExecutorService newExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive : " + threads);
+        }
+
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor != null) {
+            return executor;
+        }
+
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "artags-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * ファイルの内容をすべて読み込む。
+     *
+     * ファイルを開いてからサイズを取得するので、
+     * ネットワークファイルシステムでもファイルごとの問い合わせは開く 1 回で済む。
+     *
+     * @param filePath 読み込むファイル(アーカイブ内のエントリを含む)のパス
+     * @param maxSize 読み込むファイルサイズの上限(このサイズ以上のファイルは読み込まない)
+     *
+     * @return ファイルの内容(maxSize 以上のファイルの場合は null)
+     */
+    public static byte[] read(Path filePath, long maxSize) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(filePath)) {
+            long size = channel.size();
+            if (size >= maxSize || size > Integer.MAX_VALUE - 8) {
+                return null;
+            }
+
+            byte[] content = new byte[(int)size];
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // 読み込み中にファイルが短くなった場合
+                    return Arrays.copyOf(content, buffer.position());
+                }
+            }
+            return content;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod(NEW_VIRTUAL_THREAD_EXECUTOR);
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // メソッドが無い JDK と、プレビュー機能が無効な JDK(19, 20)では仮想スレッドを使わない
+            return null;
+        }
+    }
+}
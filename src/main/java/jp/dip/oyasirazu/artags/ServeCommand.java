@@ -0,0 +1,180 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import lombok.Data;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.xml.sax.SAXException;
+
+/**
+ * インデックスを構築して常駐し、問い合わせを受け付ける serve サブコマンド。
+ *
+ * 問い合わせのたびに JVM を起動してインデックスを構築し直すのを避けるためのもの。
+ * 待ち受けを始めたら、待ち受けている URL を 1 行出力する。
+ * (問い合わせの内容は QueryServer を参照)
+ */
+public class ServeCommand {
+
+    /**
+     * サブコマンド名。
+     */
+    public static final String NAME = "serve";
+
+    /**
+     * 引数が不正な場合の終了コード。
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private ServeCommand() { }
+
+    /**
+     * serve サブコマンドを実行する。
+     *
+     * 中断されるまで戻らない。
+     *
+     * @param args サブコマンド名より後ろのコマンドライン引数
+     * @param out 待ち受けている URL の出力先
+     *
+     * @return 終了コード
+     */
+    public static int run(String[] args, PrintStream out)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Options options = new Options();
+        CmdLineParser optionParser = new CmdLineParser(options);
+        try {
+            optionParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            printUsage(optionParser);
+            return EXIT_USAGE;
+        }
+
+        if (options.isHelp()) {
+            printUsage(optionParser);
+            return 0;
+        }
+
+        // 探索対象が指定されていない場合は、カレントディレクトリ以下を対象にする
+        List<String> targetDirectories = options.getTargetDirectories();
+        if (targetDirectories.isEmpty()) {
+            targetDirectories.add(".");
+        }
+
+        ArxmlFinder finder = new ArxmlFinder(
+                targetDirectories,
+                options.getExcludePattern(),
+                options.getIncludeGlobs(),
+                options.getExcludeGlobs());
+        Artags.setFastScanEnabled(options.isFastScan());
+        Long streamThreshold = options.getStreamThreshold();
+        if (streamThreshold != null) {
+            Artags.setStreamThreshold(streamThreshold);
+        }
+
+        Integer jobs = options.getJobs();
+        if (jobs == null) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+
+        Integer readAhead = options.getReadAhead();
+        if (readAhead == null) {
+            readAhead = 0;
+        }
+
+        List<Arxml> arxmls = finder.find(jobs);
+        ArxmlIndex index = new IndexingPipeline(jobs, null, null, null, readAhead).buildIndex(arxmls);
+        LiveIndex liveIndex = new LiveIndex(index);
+
+        try (QueryServer server = new QueryServer(liveIndex, options.getPort(), jobs)) {
+            server.start();
+            out.println(server.getUrl());
+            out.flush();
+
+            if (options.isWatch()) {
+                try (ArxmlWatcher watcher = new ArxmlWatcher(
+                            targetDirectories, finder, arxmls, index, ArxmlWatcher.DEBOUNCE_MILLIS_DEFAULT)) {
+                    watcher.watch((updatedArxmls, updatedIndex) -> liveIndex.refresh());
+                }
+            } else {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void printUsage(CmdLineParser optionParser) {
+        System.err.println("Useage:\n"
+                + "  Main " + NAME + " [options] [SEARCH_DIRECTORIIES...]\n"
+                + "\n"
+                + "Options:");
+        optionParser.printUsage(System.err);
+    }
+
+    /**
+     * serve サブコマンドのコマンドラインオプション。
+     */
+    @Data
+    static class Options {
+
+        @Option(name = "-h", aliases = "--help", usage = "print help.")
+        private boolean isHelp;
+
+        @Option(name = "-p", aliases = "--port",
+                usage = "port to listen on 127.0.0.1. 0 means any free port.",
+                metaVar = "PORT")
+        private int port = QueryServer.PORT_DEFAULT;
+
+        @Option(name = "-e", aliases = "--exclude", usage = "exclude path pattern.", metaVar = "ExCLUDE_PATH_PATTERN")
+        private String excludePattern;
+
+        @Option(name = "-i", aliases = "--include", usage = "include file glob. can be specified multiple times.", metaVar = "INCLUDE_GLOB")
+        private List<String> includeGlobs = new ArrayList<>();
+
+        @Option(name = "-x", aliases = "--exclude-glob",
+                usage = "exclude path glob, same as a line of " + ArxmlFinder.IGNORE_FILE_NAME + ". can be specified multiple times.",
+                metaVar = "EXCLUDE_GLOB")
+        private List<String> excludeGlobs = new ArrayList<>();
+
+        @Option(name = "-j", aliases = "--jobs", usage = "number of worker threads.(default: number of processors)", metaVar = "JOBS")
+        private Integer jobs;
+
+        @Option(name = "-w", aliases = "--watch", usage = "update the index when arxml files are changed.")
+        private boolean isWatch;
+
+        @Option(name = "--fast-scan", usage = "extract definitions and references with a memory-mapped byte scanner instead of building DOM.")
+        private boolean isFastScan;
+
+        @Option(name = "--stream-threshold",
+                usage = "extract files of this size or larger by streaming with StAX instead of building DOM. 0 means all files.(default: " + Artags.STREAM_THRESHOLD_DEFAULT + ")",
+                metaVar = "BYTES")
+        private Long streamThreshold;
+
+        @Option(name = "--read-ahead",
+                usage = "read up to this many files ahead of the parser on I/O threads (virtual threads if available). for network file systems.(default: off)",
+                metaVar = "FILES")
+        private Integer readAhead;
+
+        @Argument
+        private List<String> targetDirectories = new ArrayList<>();
+    }
+}
@@ -0,0 +1,337 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * arxml ファイル一覧を分割してインデックスを構築するための、シャード単位の部分インデックス。
+ *
+ * 各シャードは同じ探索結果を partition で同じように分割し、自分の担当ファイルだけをパースして
+ * 定義と参照の抽出結果を部分インデックスファイルに書き出す。
+ * merge で全シャードの部分インデックスを読み込むと、探索結果の順番に並んだ
+ * arxml 一覧と、全ファイルを登録したインデックスが得られる。
+ * (シャードをまたぐ参照は、マージ後のインデックスで解決する)
+ *
+ * 部分インデックスのファイルパスは書き出した時のカレントディレクトリからの相対パス
+ * (探索対象ディレクトリの指定のまま)で保存するので、マージは同じディレクトリ構成で行うこと。
+ */
+public final class ShardIndex {
+
+    private static final long MAGIC = 0x41525441_47535331L; // "ARTAGSS1"
+
+    private static final int VERSION = 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private ShardIndex() { }
+
+    /**
+     * arxml ファイル一覧を、ファイルサイズの合計がなるべく均等になるようにシャードへ割り当てる。
+     *
+     * 大きいファイルから順に、その時点で合計サイズが最も小さいシャードに割り当てる。
+     * (サイズが同じファイルはパス文字列の順、合計サイズが同じシャードは番号の小さい順)
+     * 同じ arxml 一覧に対しては、常に同じ割り当てになる。
+     *
+     * @param arxmls 割り当てる arxml ファイル一覧
+     * @param shardCount シャード数
+     *
+     * @return arxmls と同じ順番の、各ファイルを担当するシャード番号(1 始まり)
+     */
+    public static int[] partition(List<Arxml> arxmls, int shardCount) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shard count must be positive : " + shardCount);
+        }
+
+        int fileCount = arxmls.size();
+        long[] sizes = new long[fileCount];
+        String[] pathStrs = new String[fileCount];
+        List<Integer> order = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            Path filePath = arxmls.get(i).getFilePath();
+            sizes[i] = Files.size(filePath);
+            pathStrs[i] = toShardPathString(filePath);
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(i -> sizes[i]).reversed()
+                .thenComparing(i -> pathStrs[i]));
+
+        // { 合計サイズ, シャード番号 }
+        PriorityQueue<long[]> loads = new PriorityQueue<>(
+                Comparator.<long[]>comparingLong(load -> load[0]).thenComparingLong(load -> load[1]));
+        for (int shard = 1; shard <= shardCount; shard++) {
+            loads.add(new long[]{0, shard});
+        }
+
+        int[] shards = new int[fileCount];
+        for (int i : order) {
+            long[] load = loads.poll();
+            shards[i] = (int) load[1];
+            load[0] += sizes[i];
+            loads.add(load);
+        }
+        return shards;
+    }
+
+    /**
+     * 指定したシャードが担当する arxml ファイルを取得する。
+     *
+     * @param arxmls 探索結果の arxml ファイル一覧
+     * @param shards partition で求めた割り当て
+     * @param shard シャード番号(1 始まり)
+     *
+     * @return 担当する arxml ファイル一覧(arxmls の順番)
+     */
+    public static List<Arxml> select(List<Arxml> arxmls, int[] shards, int shard) {
+        List<Arxml> selected = new ArrayList<>();
+        for (int i = 0; i < arxmls.size(); i++) {
+            if (shards[i] == shard) {
+                selected.add(arxmls.get(i));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 部分インデックスをファイルに書き出す。
+     *
+     * @param filePath 出力先
+     * @param arxmls 探索結果の arxml ファイル一覧(全シャード分)
+     * @param shards partition で求めた割り当て
+     * @param shard このシャードの番号(1 始まり)
+     * @param shardCount シャード数
+     * @param index このシャードが担当するファイルを登録したインデックス
+     */
+    public static void write(
+            Path filePath,
+            List<Arxml> arxmls,
+            int[] shards,
+            int shard,
+            int shardCount,
+            ArxmlIndex index) throws IOException {
+        Path dirPath = filePath.toAbsolutePath().getParent();
+        Files.createDirectories(dirPath);
+
+        // 書き込み途中のファイルをマージしないよう、一時ファイルに書いてから置き換える
+        Path tmpFilePath = TempFiles.createTempFile(filePath);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tmpFilePath)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(shard);
+                out.writeInt(shardCount);
+                out.writeInt(arxmls.size());
+                out.writeLong(hash(arxmls));
+
+                List<Integer> fileNumbers = new ArrayList<>();
+                for (int i = 0; i < arxmls.size(); i++) {
+                    // パースに失敗したファイル等、インデックスに登録されていないファイルは書かない
+                    if (shards[i] == shard && index.contains(arxmls.get(i).getFilePath())) {
+                        fileNumbers.add(i);
+                    }
+                }
+
+                out.writeInt(fileNumbers.size());
+                for (int i : fileNumbers) {
+                    Path arxmlPath = arxmls.get(i).getFilePath();
+                    out.writeInt(i);
+                    writeFilePath(out, arxmlPath);
+                    writeEntries(out, index.getEntries(arxmlPath));
+                }
+            }
+            Files.move(tmpFilePath, filePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFilePath);
+        }
+    }
+
+    /**
+     * 全シャードの部分インデックスを読み込んで、 1 つのインデックスにまとめる。
+     *
+     * @param filePaths 部分インデックスファイルのリスト(順不同)
+     *
+     * @return 探索結果の順番に並んだ arxml 一覧と、全ファイルを登録したインデックス
+     *
+     * @throws IOException 部分インデックスが読めない、シャードが欠けている・重複している、
+     *         異なる探索結果から作られた部分インデックスが混ざっている場合
+     */
+    public static Merged merge(List<Path> filePaths) throws IOException {
+        if (filePaths.isEmpty()) {
+            throw new IOException("no partial index is specified.");
+        }
+
+        Path[] shardFilePaths = null;
+        Entries[] entriesByFile = null;
+        long fileListHash = 0;
+        for (Path filePath : filePaths) {
+            try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(filePath)))) {
+                if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("not a partial index : " + filePath);
+                }
+
+                int shard = in.readInt();
+                int shardCount = in.readInt();
+                int fileCount = in.readInt();
+                long hash = in.readLong();
+                if (shardFilePaths == null) {
+                    shardFilePaths = new Path[shardCount];
+                    entriesByFile = new Entries[fileCount];
+                    fileListHash = hash;
+                } else if (shardFilePaths.length != shardCount
+                        || entriesByFile.length != fileCount
+                        || fileListHash != hash) {
+                    throw new IOException("partial index is created from another file list : " + filePath);
+                }
+                if (shard < 1 || shard > shardCount) {
+                    throw new IOException("invalid shard " + shard + "/" + shardCount + " : " + filePath);
+                }
+                if (shardFilePaths[shard - 1] != null) {
+                    throw new IOException("shard " + shard + "/" + shardCount + " is duplicated : "
+                            + shardFilePaths[shard - 1] + ", " + filePath);
+                }
+                shardFilePaths[shard - 1] = filePath;
+
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    int fileNumber = in.readInt();
+                    if (fileNumber < 0 || fileNumber >= fileCount || entriesByFile[fileNumber] != null) {
+                        throw new IOException("invalid file number " + fileNumber + " : " + filePath);
+                    }
+                    entriesByFile[fileNumber] = readEntries(in, readFilePath(in));
+                }
+            }
+        }
+
+        for (int i = 0; i < shardFilePaths.length; i++) {
+            if (shardFilePaths[i] == null) {
+                throw new IOException("shard " + (i + 1) + "/" + shardFilePaths.length + " is missing.");
+            }
+        }
+
+        List<Arxml> arxmls = new ArrayList<>(entriesByFile.length);
+        ArxmlIndex index = new ArxmlIndex();
+        for (Entries entries : entriesByFile) {
+            if (entries != null) {
+                arxmls.add(new Arxml(entries.getFilePath()));
+                index.add(entries);
+            }
+        }
+        return new Merged(arxmls, index);
+    }
+
+    /**
+     * 探索結果のファイル一覧のハッシュ値。
+     * (異なる探索結果から作られた部分インデックスをマージしないための確認用)
+     */
+    private static long hash(List<Arxml> arxmls) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Arxml arxml : arxmls) {
+            for (byte b : toShardPathString(arxml.getFilePath()).getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+            hash ^= '\n';
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * ハッシュ値の計算に使う、ファイルパスの文字列。
+     *
+     * 作業ディレクトリの違う環境で作った部分インデックスもマージできるよう、
+     * アーカイブ内のエントリは、絶対パスではなく探索したときのアーカイブのパスを使う。
+     */
+    private static String toShardPathString(Path filePath) {
+        Path archivePath = ArxmlArchives.getDiscoveredArchivePath(filePath);
+        return archivePath == null ? filePath.toString() : archivePath + "::" + filePath;
+    }
+
+    /**
+     * ファイルパスを書き込む。
+     * (アーカイブ内のエントリは、探索したときのアーカイブのパスとエントリのパスを書く)
+     */
+    private static void writeFilePath(DataOutputStream out, Path filePath) throws IOException {
+        Path archivePath = ArxmlArchives.getDiscoveredArchivePath(filePath);
+        IndexCache.writeString(out, archivePath == null ? "" : archivePath.toString());
+        IndexCache.writeString(out, filePath.toString());
+    }
+
+    private static Path readFilePath(DataInputStream in) throws IOException {
+        String archivePathStr = IndexCache.readString(in);
+        String filePathStr = IndexCache.readString(in);
+        if (archivePathStr.isEmpty()) {
+            return Paths.get(filePathStr);
+        }
+        return ArxmlArchives.getEntry(Paths.get(archivePathStr), filePathStr);
+    }
+
+    private static void writeEntries(DataOutputStream out, Entries entries) throws IOException {
+        out.writeInt(entries.getDefinitions().size());
+        for (Definition definition : entries.getDefinitions()) {
+            IndexCache.writeString(out, definition.getArHierarchyPath());
+            out.writeLong(definition.getLineNumber());
+            IndexCache.writeString(out, definition.getType());
+        }
+
+        out.writeInt(entries.getReferences().size());
+        for (Reference reference : entries.getReferences()) {
+            IndexCache.writeString(out, reference.getArHierarchyPath());
+            IndexCache.writeString(out, reference.getDest());
+            out.writeLong(reference.getLineNumber());
+        }
+    }
+
+    private static Entries readEntries(DataInputStream in, Path filePath) throws IOException {
+        int definitionCount = in.readInt();
+        List<Definition> definitions = new ArrayList<>(definitionCount);
+        for (int i = 0; i < definitionCount; i++) {
+            definitions.add(new Definition(IndexCache.readString(in), filePath, in.readLong(), IndexCache.readString(in)));
+        }
+
+        int referenceCount = in.readInt();
+        List<Reference> references = new ArrayList<>(referenceCount);
+        for (int i = 0; i < referenceCount; i++) {
+            references.add(new Reference(IndexCache.readString(in), IndexCache.readString(in), in.readLong()));
+        }
+
+        return new Entries(filePath, definitions, references);
+    }
+
+    /**
+     * 部分インデックスをまとめた結果。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Merged {
+        private List<Arxml> arxmls;
+        private ArxmlIndex index;
+    }
+}
@@ -0,0 +1,492 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 定義(AR 階層パスとその定義位置)を二分探索できる形式で保存したバイナリインデックス。
+ *
+ * タグファイルと違い、メモリマップしたまま O(log n) で AR 階層パスと SHORT-NAME を引ける。
+ * ファイルのレイアウトは以下の通り。(数値はすべてビッグエンディアン)
+ *
+ * - ヘッダ: マジック(8 バイト), バージョン, 定義数, ファイル数, 型数,
+ *   定義表・名前表・ファイル表・型表のオフセット(それぞれ int)
+ * - 定義表: AR 階層パスの UTF-8 バイト列の辞書順に並べた固定長(24 バイト)のエントリ
+ *   (パスのオフセット, パスの長さ, SHORT-NAME の長さ, ファイル ID, 型 ID, 行番号)
+ * - 名前表: SHORT-NAME の UTF-8 バイト列の辞書順に並べた定義表のインデックス(int)
+ * - ファイル表・型表: 文字列のオフセットと長さ(int, int)
+ * - 文字列領域: UTF-8 のバイト列
+ *
+ * SHORT-NAME は AR 階層パスの末尾と同じなので、文字列領域にはパスだけを格納する。
+ * ファイルのパスは、インデックスファイルを置いたディレクトリからの相対パスで格納する。
+ */
+public class SymbolIndex implements Closeable {
+
+    /**
+     * インデックスファイル名のデフォルト。
+     */
+    public static final String FILE_NAME_DEFAULT = "artags.idx";
+
+    /**
+     * ファイルフォーマットのバージョン。
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = "ARTAGSIX".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int HEADER_SIZE = MAGIC.length + Integer.BYTES * 8;
+
+    private static final int SYMBOL_ENTRY_SIZE = Integer.BYTES * 6;
+
+    private static final int NAME_ENTRY_SIZE = Integer.BYTES;
+
+    private static final int STRING_ENTRY_SIZE = Integer.BYTES * 2;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private final int symbolCount;
+
+    private final int symbolsOffset;
+
+    private final int namesOffset;
+
+    private final String[] filePaths;
+
+    private final String[] types;
+
+    private SymbolIndex(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new IOException("not an artags binary index.");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not an artags binary index.");
+        }
+        int version = buffer.getInt(MAGIC.length);
+        if (version != VERSION) {
+            throw new IOException("unsupported binary index version : " + version);
+        }
+
+        int position = MAGIC.length + Integer.BYTES;
+        this.symbolCount = buffer.getInt(position);
+        int fileCount = buffer.getInt(position + Integer.BYTES);
+        int typeCount = buffer.getInt(position + Integer.BYTES * 2);
+        this.symbolsOffset = buffer.getInt(position + Integer.BYTES * 3);
+        this.namesOffset = buffer.getInt(position + Integer.BYTES * 4);
+        int filesOffset = buffer.getInt(position + Integer.BYTES * 5);
+        int typesOffset = buffer.getInt(position + Integer.BYTES * 6);
+
+        // ファイルと型は数が少ないので、開いた時点で文字列にしておく
+        this.filePaths = readStrings(filesOffset, fileCount);
+        this.types = readStrings(typesOffset, typeCount);
+    }
+
+    /**
+     * インデックスファイルをメモリマップして開く。
+     *
+     * @param indexFilePath インデックスファイルのパス
+     *
+     * @return 開いたインデックス
+     */
+    public static SymbolIndex open(Path indexFilePath) throws IOException {
+        FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("binary index is too large : " + indexFilePath);
+            }
+            return new SymbolIndex(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * インデックスに登録されているすべての定義を、インデックスファイルに書き出す。
+     *
+     * 一時ファイルに書き出してから置き換えるので、
+     * 書き出し中も古いインデックスファイルを開いて検索できる。
+     *
+     * @param index 書き出す定義を登録したインデックス
+     * @param indexFilePath インデックスファイルのパス
+     */
+    public static void write(ArxmlIndex index, Path indexFilePath) throws IOException {
+        Path indexDirPath = indexFilePath.toAbsolutePath().getParent();
+        List<Symbol> symbols = index.readPackageTree(packageTree -> collectSymbols(packageTree, indexDirPath));
+
+        Path tmpFilePath = TempFiles.createTempFile(indexFilePath);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFilePath), 64 * 1024))) {
+                write(symbols, out);
+            }
+            Files.move(tmpFilePath, indexFilePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFilePath);
+        }
+    }
+
+    /**
+     * 登録されている定義の数を取得する。
+     *
+     * @return 定義の数
+     */
+    public int size() {
+        return symbolCount;
+    }
+
+    /**
+     * 指定した AR 階層パスの定義を探す。
+     *
+     * @param arHierarchyPath 探したい AR 階層パス
+     *
+     * @return 見つかった定義のリスト(見つからなかった場合は空リスト)
+     */
+    public List<Symbol> find(String arHierarchyPath) {
+        return findByPath(arHierarchyPath, false);
+    }
+
+    /**
+     * 指定した文字列で始まる AR 階層パスの定義を探す。
+     *
+     * @param prefix 探したい AR 階層パスの先頭部分
+     *
+     * @return 見つかった定義のリスト(AR 階層パスの辞書順)
+     */
+    public List<Symbol> findByPrefix(String prefix) {
+        return findByPath(prefix, true);
+    }
+
+    /**
+     * 指定した SHORT-NAME の定義を探す。
+     *
+     * @param shortName 探したい SHORT-NAME
+     *
+     * @return 見つかった定義のリスト(AR 階層パスの辞書順)
+     */
+    public List<Symbol> findByName(String shortName) {
+        byte[] key = shortName.getBytes(StandardCharsets.UTF_8);
+
+        // 名前表の中で、 key 以上になる最初の位置を探す
+        int low = 0;
+        int high = symbolCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareName(getNameEntry(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<Symbol> symbols = new ArrayList<>();
+        for (int i = low; i < symbolCount; i++) {
+            int symbol = getNameEntry(i);
+            if (compareName(symbol, key) != 0) {
+                break;
+            }
+            symbols.add(getSymbol(symbol));
+        }
+        return symbols;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Symbol> findByPath(String arHierarchyPath, boolean isPrefix) {
+        byte[] key = arHierarchyPath.getBytes(StandardCharsets.UTF_8);
+
+        // 定義表の中で、 key 以上になる最初の位置を探す
+        int low = 0;
+        int high = symbolCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int entry = symbolsOffset + mid * SYMBOL_ENTRY_SIZE;
+            if (compare(buffer.getInt(entry), buffer.getInt(entry + Integer.BYTES), key, key.length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<Symbol> symbols = new ArrayList<>();
+        for (int i = low; i < symbolCount; i++) {
+            int entry = symbolsOffset + i * SYMBOL_ENTRY_SIZE;
+            int pathOffset = buffer.getInt(entry);
+            int pathLength = buffer.getInt(entry + Integer.BYTES);
+            if (isPrefix) {
+                if (pathLength < key.length || compare(pathOffset, key.length, key, key.length) != 0) {
+                    break;
+                }
+            } else if (compare(pathOffset, pathLength, key, key.length) != 0) {
+                break;
+            }
+            symbols.add(getSymbol(i));
+        }
+        return symbols;
+    }
+
+    private int getNameEntry(int i) {
+        return buffer.getInt(namesOffset + i * NAME_ENTRY_SIZE);
+    }
+
+    /**
+     * 定義の SHORT-NAME と key を比較する。
+     */
+    private int compareName(int symbol, byte[] key) {
+        int entry = symbolsOffset + symbol * SYMBOL_ENTRY_SIZE;
+        int pathOffset = buffer.getInt(entry);
+        int pathLength = buffer.getInt(entry + Integer.BYTES);
+        int nameLength = buffer.getInt(entry + Integer.BYTES * 2);
+        return compare(pathOffset + pathLength - nameLength, nameLength, key, key.length);
+    }
+
+    /**
+     * 文字列領域のバイト列と key を、符号なしのバイト列として比較する。
+     */
+    private int compare(int offset, int length, byte[] key, int keyLength) {
+        int n = Math.min(length, keyLength);
+        for (int i = 0; i < n; i++) {
+            int c = Byte.compareUnsigned(buffer.get(offset + i), key[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - keyLength;
+    }
+
+    private Symbol getSymbol(int symbol) {
+        int entry = symbolsOffset + symbol * SYMBOL_ENTRY_SIZE;
+        int pathOffset = buffer.getInt(entry);
+        int pathLength = buffer.getInt(entry + Integer.BYTES);
+        int nameLength = buffer.getInt(entry + Integer.BYTES * 2);
+        return new Symbol(
+                readString(pathOffset, pathLength),
+                readString(pathOffset + pathLength - nameLength, nameLength),
+                filePaths[buffer.getInt(entry + Integer.BYTES * 3)],
+                buffer.getInt(entry + Integer.BYTES * 5),
+                types[buffer.getInt(entry + Integer.BYTES * 4)]);
+    }
+
+    private String[] readStrings(int offset, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int entry = offset + i * STRING_ENTRY_SIZE;
+            strings[i] = readString(buffer.getInt(entry), buffer.getInt(entry + Integer.BYTES));
+        }
+        return strings;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * パッケージ階層のすべてのエレメントを定義として集める。
+     */
+    private static List<Symbol> collectSymbols(ArPackageTree packageTree, Path indexDirPath) {
+        List<Symbol> symbols = new ArrayList<>(packageTree.size());
+        Map<Path, String> filePathStrs = new HashMap<>();
+
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = ArPackageTree.ROOT;
+        while (depth > 0) {
+            int element = stack[--depth];
+            for (int c = packageTree.getFirstChild(element); c != ArPackageTree.NONE; c = packageTree.getNextSibling(c)) {
+                Path filePath = packageTree.getFilePath(c);
+                String filePathStr = filePathStrs.computeIfAbsent(filePath,
+                        p -> ArxmlArchives.toPathString(p, indexDirPath));
+                symbols.add(new Symbol(
+                        packageTree.getPath(c),
+                        packageTree.getShortName(c),
+                        filePathStr,
+                        packageTree.getLineNumber(c),
+                        packageTree.getElementName(c)));
+
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[depth++] = c;
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * 定義をインデックスファイルの形式で書き出す。
+     */
+    private static void write(List<Symbol> symbols, DataOutputStream out) throws IOException {
+        int symbolCount = symbols.size();
+
+        // 定義を AR 階層パスのバイト列順(同じパスはファイル・行番号順)に並べる
+        byte[][] paths = new byte[symbolCount][];
+        Integer[] order = new Integer[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            paths[i] = symbols.get(i).getArHierarchyPath().getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Arrays.compareUnsigned(paths[a], paths[b]);
+            if (c != 0) {
+                return c;
+            }
+            Symbol symbolA = symbols.get(a);
+            Symbol symbolB = symbols.get(b);
+            c = symbolA.getFilePath().compareTo(symbolB.getFilePath());
+            return c != 0 ? c : Long.compare(symbolA.getLineNumber(), symbolB.getLineNumber());
+        });
+
+        // 名前表は SHORT-NAME のバイト列順(同じ名前は AR 階層パス順)
+        byte[][] names = new byte[symbolCount][];
+        Integer[] nameOrder = new Integer[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            names[i] = symbols.get(order[i]).getShortName().getBytes(StandardCharsets.UTF_8);
+            nameOrder[i] = i;
+        }
+        Arrays.sort(nameOrder, (a, b) -> {
+            int c = Arrays.compareUnsigned(names[a], names[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+
+        // ファイルと型に ID を振る
+        List<String> filePaths = new ArrayList<>();
+        Map<String, Integer> fileIds = new HashMap<>();
+        List<String> types = new ArrayList<>();
+        Map<String, Integer> typeIds = new HashMap<>();
+        for (int i : order) {
+            Symbol symbol = symbols.get(i);
+            fileIds.computeIfAbsent(symbol.getFilePath(), s -> {
+                filePaths.add(s);
+                return filePaths.size() - 1;
+            });
+            typeIds.computeIfAbsent(symbol.getType(), s -> {
+                types.add(s);
+                return types.size() - 1;
+            });
+        }
+        byte[][] fileBytes = toBytes(filePaths);
+        byte[][] typeBytes = toBytes(types);
+
+        // 各領域のオフセットを計算する
+        long symbolsOffset = HEADER_SIZE;
+        long namesOffset = symbolsOffset + (long)symbolCount * SYMBOL_ENTRY_SIZE;
+        long filesOffset = namesOffset + (long)symbolCount * NAME_ENTRY_SIZE;
+        long typesOffset = filesOffset + (long)fileBytes.length * STRING_ENTRY_SIZE;
+        long stringsOffset = typesOffset + (long)typeBytes.length * STRING_ENTRY_SIZE;
+        long size = stringsOffset + totalLength(paths) + totalLength(fileBytes) + totalLength(typeBytes);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("binary index is too large : " + size + " bytes.");
+        }
+
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(symbolCount);
+        out.writeInt(fileBytes.length);
+        out.writeInt(typeBytes.length);
+        out.writeInt((int)symbolsOffset);
+        out.writeInt((int)namesOffset);
+        out.writeInt((int)filesOffset);
+        out.writeInt((int)typesOffset);
+
+        int stringOffset = (int)stringsOffset;
+        for (int i : order) {
+            Symbol symbol = symbols.get(i);
+            out.writeInt(stringOffset);
+            out.writeInt(paths[i].length);
+            out.writeInt(symbol.getShortName().getBytes(StandardCharsets.UTF_8).length);
+            out.writeInt(fileIds.get(symbol.getFilePath()));
+            out.writeInt(typeIds.get(symbol.getType()));
+            out.writeInt((int)symbol.getLineNumber());
+            stringOffset += paths[i].length;
+        }
+
+        for (int i : nameOrder) {
+            out.writeInt(i);
+        }
+
+        stringOffset = writeStringEntries(out, fileBytes, stringOffset);
+        writeStringEntries(out, typeBytes, stringOffset);
+
+        for (int i : order) {
+            out.write(paths[i]);
+        }
+        for (byte[] bytes : fileBytes) {
+            out.write(bytes);
+        }
+        for (byte[] bytes : typeBytes) {
+            out.write(bytes);
+        }
+    }
+
+    private static int writeStringEntries(DataOutputStream out, byte[][] strings, int stringOffset) throws IOException {
+        for (byte[] bytes : strings) {
+            out.writeInt(stringOffset);
+            out.writeInt(bytes.length);
+            stringOffset += bytes.length;
+        }
+        return stringOffset;
+    }
+
+    private static byte[][] toBytes(List<String> strings) {
+        byte[][] bytes = new byte[strings.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    private static long totalLength(byte[][] strings) {
+        long length = 0;
+        for (byte[] bytes : strings) {
+            length += bytes.length;
+        }
+        return length;
+    }
+
+    /**
+     * インデックスに登録された 1 つの定義。
+     */
+    @AllArgsConstructor
+    @Data
+    public static class Symbol {
+        private String arHierarchyPath;
+        private String shortName;
+
+        /**
+         * インデックスファイルを置いたディレクトリからの相対パス。
+         */
+        private String filePath;
+        private long lineNumber;
+        private String type;
+    }
+}
@@ -0,0 +1,282 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.dip.oyasirazu.artags.Artags.Record;
+
+/**
+ * タグファイルのレコードを tags ファイル形式で出力するクラス。
+ *
+ * ソートが有効な場合はレコードを ExternalSorter に溜め込み、
+ * finish でソート済みのレコードを擬似タグ(ヘッダ)と共に出力する。
+ * ソートしない場合は、レコードを受け取った順にそのまま出力する。
+ *
+ * 出力はエンコードしてから大きめのバッファに溜め、まとめてチャネルに書き込む。
+ *
+ * 既存のタグファイルに追記する場合、ソートするなら addExisting で既存のレコードとまとめてソートし直し、
+ * ソートしないなら markUnsorted で既存の擬似タグをソートされていない旨に書き換えておく。
+ * (どちらもしないと、ソート済みと宣言したファイルにソートされていないレコードが混ざり、
+ *  ソート済みとみなして二分探索する Vim 等でタグが見つからなくなる)
+ */
+public class TagsFileWriter implements Closeable {
+
+    private static final String PROGRAM_NAME = "artags";
+
+    private static final String PROGRAM_URL = "https://github.com/mikoto2000/artags";
+
+    private static final String PSEUDO_TAG_PREFIX = "!_TAG_";
+
+    private static final String SORTED_TAG = "!_TAG_FILE_SORTED\t";
+
+    /**
+     * markUnsorted で擬似タグを探す、ファイル先頭からの文字数。
+     */
+    private static final int HEADER_SEARCH_CHARS = 1024;
+
+    /**
+     * 出力バッファのサイズ。
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final WritableByteChannel channel;
+
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final Path baseDirPath;
+
+    /**
+     * ファイルパスごとの、出力用の相対パス文字列。
+     * (レコードは定義のあるファイルの順にはならないので、ファイルごとに覚えておく)
+     */
+    private final Map<Path, String> filePathStrs = new HashMap<>();
+
+    private final boolean isHeaderEnabled;
+
+    private final ExternalSorter sorter;
+
+    /**
+     * addExisting で既存のタグファイルを読み込んだ場合は true 。
+     * (finish で、書き終えた位置以降に残っている既存の内容を切り詰める)
+     */
+    private boolean isMerged;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param channel 出力先
+     * @param charset 出力する文字コード
+     * @param baseDirPath タグレコードとして出力するパスを、この baseDirPath からの相対パスにする
+     * @param isSorted レコードをソートして出力する場合は true
+     * @param maxLinesInMemory ソート時にメモリ上に保持するレコード数の上限
+     * @param isHeaderEnabled 擬似タグ(ヘッダ)を出力する場合は true
+     */
+    public TagsFileWriter(
+            WritableByteChannel channel,
+            Charset charset,
+            Path baseDirPath,
+            boolean isSorted,
+            int maxLinesInMemory,
+            boolean isHeaderEnabled) throws IOException {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.baseDirPath = baseDirPath.toAbsolutePath();
+        this.isHeaderEnabled = isHeaderEnabled;
+        this.sorter = isSorted ? new ExternalSorter(maxLinesInMemory) : null;
+
+        // ソートしない場合は、ヘッダを先に出力してレコードをそのまま書いていく
+        if (sorter == null && isHeaderEnabled) {
+            writeHeaders(false);
+        }
+    }
+
+    /**
+     * レコードを 1 件出力する。
+     *
+     * ソートが有効な場合は、 finish を呼ぶまで出力されない。
+     *
+     * @param record 出力するレコード
+     */
+    public void write(Record record) throws IOException {
+        String filePathStr = filePathStrs.computeIfAbsent(
+                record.getFilePath(), p -> ArxmlArchives.toPathString(p, baseDirPath));
+
+        String line = record.buildRecordString(filePathStr);
+        if (sorter == null) {
+            writeLine(line);
+        } else {
+            sorter.add(line);
+        }
+    }
+
+    /**
+     * 既存のタグファイルのレコードを、これから出力するレコードとまとめてソートするために読み込む。
+     *
+     * 擬似タグは finish で出力し直すので読み飛ばす。
+     * 出力先のチャネルは既存のタグファイルを切り詰めず、追記モードでもなく開いた FileChannel にすること。
+     * (レコードは finish までチャネルに書き込まれないので、同じファイルを先頭から書き直せる)
+     *
+     * @param tagsFilePath 既存のタグファイルのパス(存在しない場合は何もしない)
+     */
+    public void addExisting(Path tagsFilePath) throws IOException {
+        if (sorter == null) {
+            throw new IllegalStateException("existing records can be merged only when sorted.");
+        }
+        if (!(channel instanceof FileChannel)) {
+            throw new IllegalStateException("existing records can be merged only into a file.");
+        }
+
+        isMerged = true;
+        if (!Files.exists(tagsFilePath)) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(tagsFilePath), encoder.charset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(PSEUDO_TAG_PREFIX)) {
+                    sorter.add(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * 既存のタグファイルの擬似タグ !_TAG_FILE_SORTED を、ソートされていない(0)に書き換える。
+     *
+     * ソートせずに追記する前に呼び出す。
+     * 擬似タグが無いか、既にソートされていない旨になっている場合は何もしない。
+     *
+     * @param tagsFilePath 既存のタグファイルのパス(存在しない場合は何もしない)
+     * @param charset タグファイルの文字コード
+     */
+    public static void markUnsorted(Path tagsFilePath, Charset charset) throws IOException {
+        if (!Files.exists(tagsFilePath)) {
+            return;
+        }
+
+        byte[] sorted = encodeWithoutBom(SORTED_TAG + "1", charset);
+        byte[] unsorted = encodeWithoutBom(SORTED_TAG + "0", charset);
+        try (FileChannel channel = FileChannel.open(tagsFilePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate((int)Math.min(channel.size(),
+                    (long)HEADER_SEARCH_CHARS * (long)Math.ceil(charset.newEncoder().maxBytesPerChar())));
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    break;
+                }
+            }
+
+            byte[] bytes = header.array();
+            for (int i = 0; i + sorted.length <= header.position(); i++) {
+                if (Arrays.equals(bytes, i, i + sorted.length, sorted, 0, sorted.length)) {
+                    channel.write(ByteBuffer.wrap(unsorted), i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 文字列をエンコードする。
+     * (UTF-16 等で先頭に付くバイトオーダーマークは除く)
+     */
+    private static byte[] encodeWithoutBom(String str, Charset charset) {
+        byte[] bytes = str.getBytes(charset);
+        int charBytes = "!!".getBytes(charset).length - "!".getBytes(charset).length;
+        int bomBytes = "!".getBytes(charset).length - charBytes;
+        return Arrays.copyOfRange(bytes, bomBytes, bytes.length);
+    }
+
+    /**
+     * 溜め込んだレコードを出力し、出力先をフラッシュする。
+     */
+    public void finish() throws IOException {
+        if (sorter != null) {
+            if (isHeaderEnabled) {
+                writeHeaders(true);
+            }
+            sorter.writeSorted(this::writeLine);
+        }
+
+        encode(CharBuffer.allocate(0), true);
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            flushBuffer();
+        }
+        flushBuffer();
+
+        // 既存のタグファイルを書き直した場合は、書き終えた位置以降の古い内容を切り詰める
+        if (isMerged) {
+            FileChannel fileChannel = (FileChannel)channel;
+            fileChannel.truncate(fileChannel.position());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sorter != null) {
+            sorter.close();
+        }
+    }
+
+    /**
+     * 擬似タグを出力する。
+     * (擬似タグ自体もソート順に並べておく)
+     */
+    private void writeHeaders(boolean isSorted) throws IOException {
+        writeLine("!_TAG_FILE_FORMAT\t2\t/extended format; --format=1 will not append ;\" to lines/");
+        writeLine("!_TAG_FILE_SORTED\t" + (isSorted ? "1" : "0") + "\t/0=unsorted, 1=sorted, 2=foldcase/");
+        writeLine("!_TAG_PROGRAM_NAME\t" + PROGRAM_NAME + "\t//");
+        writeLine("!_TAG_PROGRAM_URL\t" + PROGRAM_URL + "\t/official site/");
+    }
+
+    private void writeLine(String line) throws IOException {
+        encode(CharBuffer.wrap(line + '\n'), false);
+    }
+
+    /**
+     * 文字列をエンコードしてバッファに溜める。
+     * (バッファが一杯になったら、チャネルに書き出してから続きをエンコードする)
+     */
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isUnderflow()) {
+                return;
+            }
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,74 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ファイルを書き込み途中の状態で読まれないよう、一時ファイルに書いてから置き換えるためのユーティリティ。
+ *
+ * Files.createTempFile で作った一時ファイルは所有者しか読めない(0600)ので、
+ * そのまま置き換えると、他のユーザーやツールから出力ファイルが読めなくなってしまう。
+ * そのため一時ファイルは通常のファイルと同じく umask に従ったパーミッションで作り、
+ * 置き換えるファイルが既にある場合は、そのパーミッションを引き継ぐ。
+ */
+public final class TempFiles {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * プライベートコンストラクタ。
+     */
+    private TempFiles() { }
+
+    /**
+     * 置き換え用の一時ファイルを、置き換えるファイルと同じディレクトリに作る。
+     * (同じファイルシステム上でないと、 ATOMIC_MOVE で置き換えられない)
+     *
+     * @param filePath 置き換えるファイルのパス
+     *
+     * @return 作成した空の一時ファイルのパス
+     */
+    public static Path createTempFile(Path filePath) throws IOException {
+        Path dirPath = filePath.toAbsolutePath().getParent();
+        String prefix = filePath.getFileName().toString() + ".";
+
+        Path tmpFilePath;
+        while (true) {
+            tmpFilePath = dirPath.resolve(prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + TEMP_FILE_SUFFIX);
+            try {
+                Files.createFile(tmpFilePath);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // 名前が衝突した場合は作り直す
+            }
+        }
+
+        try {
+            copyPermissions(filePath, tmpFilePath);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpFilePath);
+            throw e;
+        }
+        return tmpFilePath;
+    }
+
+    /**
+     * 置き換えるファイルが既にあれば、そのパーミッションを一時ファイルにコピーする。
+     * (POSIX のパーミッションを持たないファイルシステムでは何もしない)
+     */
+    private static void copyPermissions(Path filePath, Path tmpFilePath) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(filePath, PosixFileAttributeView.class);
+        if (view == null || !Files.exists(filePath)) {
+            return;
+        }
+
+        Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+        Files.getFileAttributeView(tmpFilePath, PosixFileAttributeView.class).setPermissions(permissions);
+    }
+}
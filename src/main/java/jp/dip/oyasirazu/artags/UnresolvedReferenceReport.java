@@ -0,0 +1,61 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+/**
+ * 定義が見つからなかった参照を、 1 行 1 件の JSON(JSON Lines)で出力する。
+ *
+ * 各行は以下の形式。
+ *
+ * {"file": "参照が記述されているファイルのパス", "line": 行番号, "path": "参照先の AR 階層パス", "dest": "DEST 属性の値"}
+ */
+public class UnresolvedReferenceReport implements IndexingPipeline.UnresolvedReferenceWriter, Closeable {
+
+    private final BufferedWriter writer;
+
+    private long count;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param reportFilePath 出力先ファイルのパス(既に存在する場合は上書きする)
+     */
+    public UnresolvedReferenceReport(Path reportFilePath) throws IOException {
+        this.writer = Files.newBufferedWriter(reportFilePath, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(Path filePath, Reference reference) throws IOException {
+        writer.write("{\"file\": \"");
+        writer.write(Json.escape(ArxmlArchives.toPathString(filePath)));
+        writer.write("\", \"line\": ");
+        writer.write(Long.toString(reference.getLineNumber()));
+        writer.write(", \"path\": \"");
+        writer.write(Json.escape(reference.getArHierarchyPath()));
+        writer.write("\", \"dest\": \"");
+        writer.write(Json.escape(reference.getDest()));
+        writer.write("\"}\n");
+        count++;
+    }
+
+    /**
+     * 出力した参照の数を取得する。
+     *
+     * @return 出力した参照の数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,5 +1,7 @@
 module main {
     requires java.xml;
+    requires jdk.jfr;
+    requires jdk.httpserver;
     requires args4j;
     requires lombok;
 }
@@ -0,0 +1,119 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArPackageTree
+ */
+public class TestArPackageTree {
+
+    private static final Arxml SAME_SHORT_NAME = new Arxml(Paths.get("./src/test/resources/same_short_name/test.arxml"));
+
+    @Test
+    public void testFind() {
+        try {
+            ArPackageTree tree = ArPackageTree.build(Arrays.asList(SAME_SHORT_NAME));
+
+            int[] parent = tree.find("/Parent/sint8");
+            assertEquals(parent.length, 1);
+            assertEquals(tree.getPath(parent[0]), "/Parent/sint8");
+            assertEquals(tree.getShortName(parent[0]), "sint8");
+            assertEquals(tree.getElementName(parent[0]), "SW-BASE-TYPE");
+            assertEquals(tree.getLineNumber(parent[0]), 7);
+            assertEquals(tree.getFilePath(parent[0]), SAME_SHORT_NAME.getFilePath());
+
+            int[] child = tree.find("/Parent/Child/sint8");
+            assertEquals(child.length, 1);
+            assertEquals(tree.getLineNumber(child[0]), 19);
+
+            assertEquals(tree.find("/Parent/NotExists").length, 0);
+            assertEquals(tree.findFirst("/NotExists"), ArPackageTree.NONE);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testChildren() {
+        try {
+            ArPackageTree tree = ArPackageTree.build(Arrays.asList(SAME_SHORT_NAME));
+
+            assertEquals(shortNames(tree, tree.getChildren(ArPackageTree.ROOT)),
+                    Arrays.asList("Parent", "ImplDataTypes"));
+
+            int parent = tree.findFirst("/Parent");
+            assertEquals(tree.getParent(parent), ArPackageTree.ROOT);
+            assertEquals(shortNames(tree, tree.getChildren(parent)), Arrays.asList("sint8", "Child"));
+
+            int child = tree.findFirst("/Parent/Child/sint8");
+            assertEquals(tree.getPath(tree.getParent(child)), "/Parent/Child");
+            assertEquals(tree.getParent(tree.getParent(child)), parent);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 同じパッケージを複数ファイルに分けて記述した場合に、パスで両方を引けることを確認。
+     * また、片方のファイルを削除しても、もう片方の階層が壊れないことを確認。
+     */
+    @Test
+    public void testAddAndRemove() {
+        try {
+            Arxml oneFile = new Arxml(Paths.get("./src/test/resources/one_file/test.arxml"));
+            Arxml nested = new Arxml(Paths.get("./src/test/resources/nested_directory/nest_directory/test.arxml"));
+
+            ArPackageTree tree = new ArPackageTree();
+            int[] oneFileElements = tree.addEntries(Artags.extractEntries(oneFile));
+            int[] nestedElements = tree.addEntries(Artags.extractEntries(nested));
+            assertEquals(tree.size(), oneFileElements.length + nestedElements.length);
+            assertEquals(tree.find("/BaseTypes/sint8").length, 2);
+
+            tree.removeElements(oneFileElements);
+            assertEquals(tree.size(), nestedElements.length);
+
+            int[] sint8 = tree.find("/BaseTypes/sint8");
+            assertEquals(sint8.length, 1);
+            assertEquals(tree.getFilePath(sint8[0]), nested.getFilePath());
+            for (int element : tree.getChildren(ArPackageTree.ROOT)) {
+                assertEquals(tree.getFilePath(element), nested.getFilePath());
+            }
+
+            // 削除したエレメント ID を再利用しても壊れない
+            int[] readded = tree.addEntries(Artags.extractEntries(oneFile));
+            assertEquals(tree.size(), oneFileElements.length + nestedElements.length);
+            assertEquals(tree.find("/BaseTypes/sint8").length, 2);
+            assertEquals(tree.getPath(readded[readded.length - 1]),
+                    Artags.extractEntries(oneFile).getDefinitions().get(readded.length - 1).getArHierarchyPath());
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private static List<String> shortNames(ArPackageTree tree, int[] elements) {
+        List<String> shortNames = new ArrayList<>();
+        for (int element : elements) {
+            shortNames.add(tree.getShortName(element));
+        }
+        return shortNames;
+    }
+}
@@ -0,0 +1,127 @@
+package jp.dip.oyasirazu.artags;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestArPathTrie
+ */
+public class TestArPathTrie {
+
+    @Test
+    public void testIntern() {
+        ArPathTrie trie = new ArPathTrie();
+        int sint8 = trie.intern("/AUTOSAR_Platform/BaseTypes/sint8");
+        int uint8 = trie.intern("/AUTOSAR_Platform/BaseTypes/uint8");
+
+        assertEquals(trie.intern("/AUTOSAR_Platform/BaseTypes/sint8"), sint8);
+        assertNotEquals(sint8, uint8);
+
+        // 親ノードを共有する
+        assertEquals(trie.getParent(sint8), trie.getParent(uint8));
+        assertEquals(trie.getPath(trie.getParent(sint8)), "/AUTOSAR_Platform/BaseTypes");
+        assertEquals(trie.getSegment(sint8), "sint8");
+
+        // ルート + "" + AUTOSAR_Platform + BaseTypes + sint8 + uint8
+        assertEquals(trie.size(), 6);
+    }
+
+    /**
+     * 任意の文字列が元の文字列のまま取り出せることを確認。
+     */
+    @Test
+    public void testGetPath() {
+        ArPathTrie trie = new ArPathTrie();
+        List<String> paths = Arrays.asList(
+                "/A/B", "", "/", "A", "A/", "//A", "/A//B/", "/パッケージ/要素");
+        for (String path : paths) {
+            assertEquals(trie.getPath(trie.intern(path)), path);
+        }
+        for (String path : paths) {
+            assertEquals(trie.getPath(trie.find(path)), path);
+        }
+    }
+
+    @Test
+    public void testFind() {
+        ArPathTrie trie = new ArPathTrie();
+        int sint8 = trie.intern("/BaseTypes/sint8");
+
+        assertEquals(trie.find("/BaseTypes/sint8"), sint8);
+        assertEquals(trie.find("/BaseTypes/uint8"), ArPathTrie.NOT_FOUND);
+        assertEquals(trie.find("/BaseTypes/sint8/child"), ArPathTrie.NOT_FOUND);
+        assertEquals(trie.find("/sint8"), ArPathTrie.NOT_FOUND);
+    }
+
+    /**
+     * 拡張を繰り返しても正しく引けることを確認。
+     */
+    @Test
+    public void testIntern_Rehash() {
+        ArPathTrie trie = new ArPathTrie();
+        int[] nodes = new int[10_000];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = trie.intern("/Package" + (i % 100) + "/Element" + i);
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(trie.find("/Package" + (i % 100) + "/Element" + i), nodes[i]);
+            assertEquals(trie.getPath(nodes[i]), "/Package" + (i % 100) + "/Element" + i);
+        }
+    }
+
+    /**
+     * intern した回数だけ release すると、ノードが削除されることを確認。
+     */
+    @Test
+    public void testRelease() {
+        ArPathTrie trie = new ArPathTrie();
+        int sint8 = trie.intern("/AUTOSAR_Platform/BaseTypes/sint8");
+        int baseTypes = trie.intern("/AUTOSAR_Platform/BaseTypes");
+        trie.intern("/AUTOSAR_Platform/BaseTypes/sint8");
+
+        // 子ノードがあるうちは削除されない
+        trie.release(baseTypes);
+        assertEquals(trie.find("/AUTOSAR_Platform/BaseTypes"), baseTypes);
+
+        trie.release(sint8);
+        assertEquals(trie.find("/AUTOSAR_Platform/BaseTypes/sint8"), sint8);
+
+        trie.release(sint8);
+        assertEquals(trie.find("/AUTOSAR_Platform/BaseTypes/sint8"), ArPathTrie.NOT_FOUND);
+        assertEquals(trie.find("/AUTOSAR_Platform"), ArPathTrie.NOT_FOUND);
+        assertEquals(trie.size(), 1);
+
+        // 削除したノード ID は再利用される
+        int uint8 = trie.intern("/AUTOSAR_Platform/BaseTypes/uint8");
+        assertEquals(trie.getPath(uint8), "/AUTOSAR_Platform/BaseTypes/uint8");
+        assertEquals(trie.size(), 5);
+        assertEquals(trie.capacity(), 5);
+    }
+
+    /**
+     * 大量に削除しても、残ったノードが正しく引けることを確認。
+     */
+    @Test
+    public void testRelease_Rehash() {
+        ArPathTrie trie = new ArPathTrie();
+        int[] nodes = new int[10_000];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = trie.intern("/Package" + (i % 100) + "/Element" + i);
+        }
+        for (int i = 0; i < nodes.length; i += 2) {
+            trie.release(nodes[i]);
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            int expected = i % 2 == 0 ? ArPathTrie.NOT_FOUND : nodes[i];
+            assertEquals(trie.find("/Package" + (i % 100) + "/Element" + i), expected);
+        }
+
+        for (int i = 1; i < nodes.length; i += 2) {
+            trie.release(nodes[i]);
+        }
+        assertEquals(trie.size(), 1);
+    }
+}
@@ -0,0 +1,186 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArxmlArchives
+ */
+public class TestArxmlArchives {
+
+    private static final Path COMMON_ARXML = Paths.get("./src/test/resources/nested_directory_files/common/common.arxml");
+
+    private static final Path SYSTEM_ARXML = Paths.get("./src/test/resources/nested_directory_files/system/system.arxml");
+
+    private Path tempDir;
+
+    private final List<Path> archivePaths = new ArrayList<>();
+
+    /**
+     * アーカイブ内のエントリと gzip で圧縮されたファイルを探せることを確認。
+     */
+    @Test
+    public void testFind() {
+        try {
+            Path zipPath = createZip("bundle.zip", "common/common.arxml", "readme.txt");
+            Path jarPath = createZip("sub/bundle.JAR", "system/system.arxml");
+            Path gzipPath = createGzip("system.arxml.gz", SYSTEM_ARXML);
+
+            ArxmlFinder finder = new ArxmlFinder(Arrays.asList(tempDir.toString()),
+                    null, Collections.emptyList(), Collections.emptyList());
+            List<String> found = finder.find(2).stream()
+                    .map(arxml -> ArxmlArchives.toPathString(arxml.getFilePath(), tempDir.toAbsolutePath()))
+                    .collect(Collectors.toList());
+            assertEquals(found, Arrays.asList(
+                    "zipfile:bundle.zip::common/common.arxml",
+                    "zipfile:sub/bundle.JAR::system/system.arxml",
+                    "system.arxml.gz"));
+
+            assertTrue(finder.isTarget(gzipPath));
+            assertTrue(finder.isTargetArchive(jarPath));
+            assertFalse(finder.isTargetArchive(tempDir.resolve("readme.txt")));
+
+            // 対象 glob はアーカイブ内のパスにも効く
+            finder = new ArxmlFinder(Arrays.asList(tempDir.toString()),
+                    null, Arrays.asList("bundle.zip/common/*.arxml"), Collections.emptyList());
+            found = finder.find(1).stream()
+                    .map(arxml -> ArxmlArchives.toPathString(arxml.getFilePath(), tempDir.toAbsolutePath()))
+                    .collect(Collectors.toList());
+            assertEquals(found, Arrays.asList("zipfile:bundle.zip::common/common.arxml"));
+
+            // アーカイブを直接指定した場合
+            finder = new ArxmlFinder(Arrays.asList(zipPath.toString()),
+                    null, Collections.emptyList(), Collections.emptyList());
+            assertEquals(finder.find(1).size(), 1);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 展開したファイルと同じレコードを生成できることを確認。
+     */
+    @Test
+    public void testCreateRecords() {
+        try {
+            createZip("bundle.zip", "common/common.arxml");
+            createGzip("system.arxml.gz", SYSTEM_ARXML);
+
+            List<Arxml> arxmls = Artags.findArxmls(Arrays.asList(tempDir.toString()), null);
+            List<Arxml> expectedArxmls = Arrays.asList(new Arxml(COMMON_ARXML), new Arxml(SYSTEM_ARXML));
+
+            List<String> expected = createRecordStrings(expectedArxmls).stream()
+                    .map(line -> line
+                            .replace(COMMON_ARXML.toString(), "common.arxml")
+                            .replace(SYSTEM_ARXML.toString(), "system.arxml"))
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<String> actual = createRecordStrings(arxmls);
+            assertEquals(actual.stream()
+                    .map(line -> line
+                            .replace("zipfile:" + tempDir.toAbsolutePath().resolve("bundle.zip") + "::common/", "")
+                            .replace(tempDir.resolve("system.arxml.gz").toString(), "system.arxml"))
+                    .sorted()
+                    .collect(Collectors.toList()), expected);
+
+            // 高速走査でも同じ
+            Artags.setFastScanEnabled(true);
+            try {
+                for (Arxml arxml : arxmls) {
+                    Artags.invalidateCaches(arxml.getFilePath());
+                }
+                assertEquals(createRecordStrings(arxmls), actual);
+            } finally {
+                Artags.setFastScanEnabled(false);
+            }
+
+            // 先読みした内容から抽出しても同じ
+            for (Arxml arxml : arxmls) {
+                Artags.invalidateCaches(arxml.getFilePath());
+            }
+            List<String> readAheadRecordStrings = new ArrayList<>();
+            new IndexingPipeline(2, null, null, null, 4)
+                    .run(arxmls, (Record record) -> readAheadRecordStrings.add(record.buildRecordString()));
+            readAheadRecordStrings.sort(null);
+            assertEquals(readAheadRecordStrings, actual);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private static List<String> createRecordStrings(List<Arxml> arxmls)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        List<String> recordStrings = new ArrayList<>();
+        new IndexingPipeline(2).run(arxmls, (Record record) -> recordStrings.add(record.buildRecordString()));
+        recordStrings.sort(null);
+        return recordStrings;
+    }
+
+    private Path createZip(String name, String... entryNames) throws IOException {
+        Path zipPath = tempDir.resolve(name);
+        Files.createDirectories(zipPath.getParent());
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            for (String entryName : entryNames) {
+                out.putNextEntry(new ZipEntry(entryName));
+                if (entryName.endsWith(".arxml")) {
+                    Files.copy(entryName.startsWith("common") ? COMMON_ARXML : SYSTEM_ARXML, out);
+                }
+                out.closeEntry();
+            }
+        }
+        archivePaths.add(zipPath);
+        return zipPath;
+    }
+
+    private Path createGzip(String name, Path source) throws IOException {
+        Path gzipPath = tempDir.resolve(name);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipPath))) {
+            Files.copy(source, out);
+        }
+        return gzipPath;
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path archivePath : archivePaths) {
+            ArxmlArchives.close(archivePath);
+        }
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestArxmlFinder
+ */
+public class TestArxmlFinder {
+
+    private Path workDirectory;
+
+    @Test
+    public void testFind() {
+        try {
+            List<String> found = find(null, Collections.emptyList(), Collections.emptyList());
+            assertEquals(found, Arrays.asList(
+                    "UPPER.ARXML",
+                    "build/generated.arxml",
+                    "ecu/a/a.arxml",
+                    "ecu/a/tmp/tmp.arxml",
+                    "ecu/b/b.arxml",
+                    "ecu/b/b_backup.arxml",
+                    "top.arxml"));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFind_Include() {
+        try {
+            assertEquals(
+                    find(null, Arrays.asList("ecu/**"), Collections.emptyList()),
+                    Arrays.asList("ecu/a/a.arxml", "ecu/a/tmp/tmp.arxml", "ecu/b/b.arxml", "ecu/b/b_backup.arxml"));
+
+            // '/' を含まない glob はファイル名にマッチさせる
+            assertEquals(
+                    find(null, Arrays.asList("?.arxml", "top.*"), Collections.emptyList()),
+                    Arrays.asList("ecu/a/a.arxml", "ecu/b/b.arxml", "top.arxml"));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFind_ExcludeGlob() {
+        try {
+            assertEquals(
+                    find(null, Collections.emptyList(), Arrays.asList("build/", "*_backup.arxml", "/UPPER.ARXML")),
+                    Arrays.asList("ecu/a/a.arxml", "ecu/a/tmp/tmp.arxml", "ecu/b/b.arxml", "top.arxml"));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * .artagsignore は置かれたディレクトリ以下にだけ効くことを確認。
+     */
+    @Test
+    public void testFind_IgnoreFile() {
+        try {
+            Files.write(workDirectory.resolve("ecu/a").resolve(ArxmlFinder.IGNORE_FILE_NAME),
+                    Arrays.asList("# comment", "", "tmp/", "/a.arxml"), StandardCharsets.UTF_8);
+            Files.write(workDirectory.resolve(ArxmlFinder.IGNORE_FILE_NAME),
+                    Arrays.asList("build"), StandardCharsets.UTF_8);
+
+            assertEquals(
+                    find(null, Collections.emptyList(), Collections.emptyList()),
+                    Arrays.asList("UPPER.ARXML", "ecu/b/b.arxml", "ecu/b/b_backup.arxml", "top.arxml"));
+
+            ArxmlFinder finder = new ArxmlFinder(
+                    Arrays.asList(workDirectory.toString()), null, Collections.emptyList(), Collections.emptyList());
+            assertTrue(finder.isExcludedDirectory(workDirectory.resolve("ecu/a/tmp")));
+            assertFalse(finder.isExcludedDirectory(workDirectory.resolve("ecu/b")));
+            assertFalse(finder.isTarget(workDirectory.resolve("ecu/a/a.arxml")));
+            assertTrue(finder.isTarget(workDirectory.resolve("ecu/b/new.arxml")));
+            assertFalse(finder.isTarget(workDirectory.resolve("ecu/b/new.xml")));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFind_ExcludePattern() {
+        try {
+            assertEquals(
+                    find(".*/ecu/.*", Collections.emptyList(), Collections.emptyList()),
+                    Arrays.asList("UPPER.ARXML", "build/generated.arxml", "top.arxml"));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIsArxml() {
+        assertTrue(ArxmlFinder.isArxml(Paths.get("dir/test.arxml")));
+        assertTrue(ArxmlFinder.isArxml(Paths.get("dir/test.ArXmL")));
+        assertFalse(ArxmlFinder.isArxml(Paths.get("dir/test.xml")));
+        assertFalse(ArxmlFinder.isArxml(Paths.get("dir/arxml")));
+        assertFalse(ArxmlFinder.isArxml(Paths.get("/")));
+    }
+
+    /**
+     * 見つけた arxml の、作業ディレクトリからの相対パス('/' 区切り)のリストを返す。
+     */
+    private List<String> find(
+            String excludePattern,
+            List<String> includeGlobs,
+            List<String> excludeGlobs) throws IOException {
+        ArxmlFinder finder = new ArxmlFinder(
+                Arrays.asList(workDirectory.toString()), excludePattern, includeGlobs, excludeGlobs);
+
+        List<String> found = new ArrayList<>();
+        for (Arxml arxml : finder.find(4)) {
+            found.add(workDirectory.relativize(arxml.getFilePath()).toString().replace('\\', '/'));
+        }
+        return found;
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("artags");
+        for (String file : Arrays.asList(
+                    "top.arxml",
+                    "UPPER.ARXML",
+                    "readme.txt",
+                    "ecu/a/a.arxml",
+                    "ecu/a/tmp/tmp.arxml",
+                    "ecu/b/b.arxml",
+                    "ecu/b/b_backup.arxml",
+                    "build/generated.arxml")) {
+            Path filePath = workDirectory.resolve(file);
+            Files.createDirectories(filePath.getParent());
+            Files.createFile(filePath);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestArxmlHeader
+ */
+public class TestArxmlHeader {
+
+    @Test
+    public void testSniff() {
+        try {
+            ArxmlHeader header = ArxmlHeader.sniff(Paths.get("./src/test/resources/one_file/test.arxml"));
+            assertEquals(header.getCharset(), StandardCharsets.UTF_8);
+            assertEquals(header.getBomLength(), 0);
+            assertEquals(header.getPrologLineNumber(), 1);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * ヘッダ直後にコメントがある場合にも問題なくプロローグの行数が取得できるかを確認。
+     */
+    @Test
+    public void testSniff_CommentImmediatelyAfterHeader() {
+        try {
+            ArxmlHeader header = ArxmlHeader.sniff(Paths.get("./src/test/resources/contents_variation/01_comments.arxml"));
+            assertEquals(header.getCharset(), StandardCharsets.UTF_8);
+            assertEquals(header.getPrologLineNumber(), 9);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSniff_DeclaredEncoding() {
+        try {
+            String xml = "<?xml version=\"1.0\" encoding='Shift_JIS'?>\n<!-- コメント --->\n<AUTOSAR>\n</AUTOSAR>\n";
+            ArxmlHeader header = sniff(xml.getBytes("Shift_JIS"));
+            assertEquals(header.getCharset(), Charset.forName("Shift_JIS"));
+            assertEquals(header.getPrologLineNumber(), 2);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSniff_Bom() {
+        try {
+            String xml = "<?xml version=\"1.0\"?>\n<AUTOSAR>\n</AUTOSAR>\n";
+
+            ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+            utf8.write(new byte[] {(byte)0xEF, (byte)0xBB, (byte)0xBF});
+            utf8.write(xml.getBytes(StandardCharsets.UTF_8));
+            ArxmlHeader utf8Header = sniff(utf8.toByteArray());
+            assertEquals(utf8Header.getCharset(), StandardCharsets.UTF_8);
+            assertEquals(utf8Header.getBomLength(), 3);
+            assertEquals(utf8Header.getPrologLineNumber(), 1);
+
+            ByteArrayOutputStream utf16 = new ByteArrayOutputStream();
+            utf16.write(new byte[] {(byte)0xFF, (byte)0xFE});
+            utf16.write(xml.getBytes(StandardCharsets.UTF_16LE));
+            ArxmlHeader utf16Header = sniff(utf16.toByteArray());
+            assertEquals(utf16Header.getCharset(), StandardCharsets.UTF_16LE);
+            assertEquals(utf16Header.getBomLength(), 2);
+            assertEquals(utf16Header.getPrologLineNumber(), 1);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private ArxmlHeader sniff(byte[] bytes) throws IOException {
+        return ArxmlHeader.sniff(new BufferedInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,173 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArxmlIndex
+ */
+public class TestArxmlIndex {
+
+    @Test
+    public void testFindDefinitions() {
+        try {
+            List<Arxml> arxmls = new ArrayList<>();
+            arxmls.add(new Arxml(Paths.get("./src/test/resources/same_short_name/test.arxml")));
+
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+
+            List<Definition> parent = index.findDefinitions("/Parent/sint8");
+            assertEquals(parent.size(), 1);
+            assertEquals(parent.get(0).getLineNumber(), 7);
+            assertEquals(parent.get(0).getType(), "SW-BASE-TYPE");
+
+            List<Definition> child = index.findDefinitions("/Parent/Child/sint8");
+            assertEquals(child.size(), 1);
+            assertEquals(child.get(0).getLineNumber(), 19);
+
+            assertTrue(index.findDefinitions("/Parent/NotExists").isEmpty());
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 参照元と参照先が別ファイルに記述されている場合も解決できることを確認。
+     */
+    @Test
+    public void testResolve_AcrossFiles() {
+        try {
+            Arxml common = new Arxml(Paths.get("./src/test/resources/nested_directory_files/common/common.arxml"));
+            Arxml system = new Arxml(Paths.get("./src/test/resources/nested_directory_files/system/system.arxml"));
+            List<Arxml> arxmls = new ArrayList<>();
+            arxmls.add(common);
+            arxmls.add(system);
+
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+
+            Set<Record> records = index.resolve(index.getEntries(system.getFilePath()));
+            assertFalse(records.isEmpty());
+            for (Record record : records) {
+                assertFalse(index.findDefinitions(record.getArHierarchyPath()).isEmpty());
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 削除と再登録を繰り返しても、他のファイルの定義に影響しないことを確認。
+     */
+    /**
+     * 定義が見つからなかった参照が、行番号付きで取得できることを確認。
+     */
+    @Test
+    public void testResolve_Unresolved() {
+        try {
+            Arxml system = new Arxml(Paths.get("./src/test/resources/nested_directory_files/system/system.arxml"));
+            Arxml common = new Arxml(Paths.get("./src/test/resources/nested_directory_files/common/common.arxml"));
+
+            ArxmlIndex index = new ArxmlIndex();
+            index.add(Artags.extractEntries(system));
+
+            List<Reference> unresolved = new ArrayList<>();
+            Set<Record> records = index.resolve(system.getFilePath(), unresolved);
+            assertEquals(unresolved.size(), 1);
+            assertEquals(unresolved.get(0).getArHierarchyPath(), "/ImplDataTypes/ImplDataType");
+            assertEquals(unresolved.get(0).getDest(), "IMPLEMENTATION-DATA-TYPE");
+            assertEquals(unresolved.get(0).getLineNumber(), 16);
+            assertEquals(records.size(), index.getReferenceCount(system.getFilePath()) - 1);
+
+            index.add(Artags.extractEntries(common));
+            unresolved.clear();
+            index.resolve(system.getFilePath(), unresolved);
+            assertTrue(unresolved.isEmpty());
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        try {
+            Arxml oneFile = new Arxml(Paths.get("./src/test/resources/one_file/test.arxml"));
+            Arxml nested = new Arxml(Paths.get("./src/test/resources/nested_directory/nest_directory/test.arxml"));
+            List<Arxml> arxmls = new ArrayList<>();
+            arxmls.add(oneFile);
+            arxmls.add(nested);
+
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+            assertEquals(index.findDefinitions("/BaseTypes/sint8").size(), 2);
+
+            index.remove(oneFile.getFilePath());
+            assertFalse(index.contains(oneFile.getFilePath()));
+            List<Definition> definitions = index.findDefinitions("/BaseTypes/sint8");
+            assertEquals(definitions.size(), 1);
+            assertEquals(definitions.get(0).getFilePath(), nested.getFilePath());
+
+            index.add(Artags.extractEntries(oneFile));
+            index.add(Artags.extractEntries(oneFile));
+            assertEquals(index.findDefinitions("/BaseTypes/sint8").size(), 2);
+            assertEquals(index.getEntries(oneFile.getFilePath()), Artags.extractEntries(oneFile));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 追加と削除を繰り返しても、パスや名前、ファイルが溜まり続けないことを確認。
+     */
+    @Test
+    public void testRemove_ReleasesPaths() {
+        try {
+            Arxml oneFile = new Arxml(Paths.get("./src/test/resources/one_file/test.arxml"));
+            ArxmlIndex index = new ArxmlIndex();
+            int[] empty = counts(index);
+
+            index.add(Artags.extractEntries(oneFile));
+            int[] added = counts(index);
+            assertTrue(added[0] > empty[0]);
+
+            for (int i = 0; i < 3; i++) {
+                index.add(Artags.extractEntries(oneFile));
+                assertArrayEquals(counts(index), added);
+            }
+
+            index.remove(oneFile.getFilePath());
+            assertArrayEquals(counts(index), empty);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private static int[] counts(ArxmlIndex index) {
+        return index.readPackageTree(tree -> new int[] {
+            tree.getPathCount(), tree.getNameCount(), tree.getFileCount()
+        });
+    }
+}
@@ -0,0 +1,172 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArxmlScanner
+ */
+public class TestArxmlScanner {
+
+    private Path tempDir;
+
+    /**
+     * テストリソースのすべての arxml で、 DOM で抽出した場合と同じ結果になることを確認。
+     */
+    @Test
+    public void testScan_SameAsDom() {
+        try (Stream<Path> paths = Files.walk(Paths.get("./src/test/resources"))) {
+            List<Path> arxmlPaths = paths.filter(ArxmlFinder::isArxml).collect(Collectors.toList());
+            assertFalse(arxmlPaths.isEmpty());
+
+            for (Path arxmlPath : arxmlPaths) {
+                assertSameAsDom(arxmlPath);
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 実体参照・CDATA・コメント・改行コード・複数行の開始タグ等の書き方でも、
+     * DOM で抽出した場合と同じ結果になることを確認。
+     */
+    @Test
+    public void testScan_SameAsDom_Variations() {
+        try {
+            String arxml = "﻿<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                    + "<!-- <AR-PACKAGE><SHORT-NAME>Commented</SHORT-NAME></AR-PACKAGE> -->\r\n"
+                    + "<AUTOSAR xmlns=\"http://autosar.org/schema/r4.0\">\r\n"
+                    + "  <AR-PACKAGES>\r\n"
+                    + "    <AR-PACKAGE\r\n"
+                    + "        UUID='a&gt;b'>\r\n"
+                    + "      <SHORT-NAME>Pkg&amp;1</SHORT-NAME>\r\n"
+                    + "      <ELEMENTS>\r\n"
+                    + "        <SW-BASE-TYPE><SHORT-NAME><![CDATA[Cdata<Type>]]></SHORT-NAME></SW-BASE-TYPE>\r\n"
+                    + "        <SW-BASE-TYPE><SHORT-NAME></SHORT-NAME></SW-BASE-TYPE>\r\n"
+                    + "        <IMPLEMENTATION-DATA-TYPE>\r\n"
+                    + "          <SHORT-NAME>日本語&#x5B57;&#23383;</SHORT-NAME>\r\n"
+                    + "          <SHORT-NAME>Ignored</SHORT-NAME>\r\n"
+                    + "          <BASE-TYPE-REF DEST=\"SW-BASE-TYPE\">/Pkg&amp;1/<!-- c -->Cdata&lt;Type&gt;</BASE-TYPE-REF>\r\n"
+                    + "          <EMPTY-REF DEST = 'SW-BASE-TYPE' />\r\n"
+                    + "          <MULTI-LINE-REF DEST=\"X\">/a\r\n/b</MULTI-LINE-REF>\r\n"
+                    + "        </IMPLEMENTATION-DATA-TYPE>\r\n"
+                    + "      </ELEMENTS>\r\n"
+                    + "    </AR-PACKAGE>\r\n"
+                    + "  </AR-PACKAGES>\r\n"
+                    + "</AUTOSAR>\r\n";
+            Path arxmlPath = tempDir.resolve("variations.arxml");
+            Files.write(arxmlPath, arxml.getBytes(StandardCharsets.UTF_8));
+
+            Entries entries = assertSameAsDom(arxmlPath);
+            assertEquals(entries.getDefinitions().size(), 3);
+            assertEquals(entries.getDefinitions().get(0).getArHierarchyPath(), "/Pkg&1");
+            assertEquals(entries.getDefinitions().get(0).getLineNumber(), 6);
+            assertEquals(entries.getDefinitions().get(1).getArHierarchyPath(), "/Pkg&1/Cdata<Type>");
+            assertEquals(entries.getDefinitions().get(2).getArHierarchyPath(), "/Pkg&1/日本語字字");
+            assertEquals(entries.getReferences().size(), 3);
+            assertEquals(entries.getReferences().get(0).getArHierarchyPath(), "/Pkg&1/Cdata<Type>");
+            assertEquals(entries.getReferences().get(1).getArHierarchyPath(), "");
+            assertEquals(entries.getReferences().get(2).getArHierarchyPath(), "/a\n/b");
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Shift_JIS のファイルでも DOM で抽出した場合と同じ結果になることを確認。
+     */
+    @Test
+    public void testScan_SameAsDom_ShiftJis() {
+        try {
+            String arxml = "<?xml version=\"1.0\" encoding=\"Shift_JIS\"?>\n"
+                    + "<AUTOSAR>\n"
+                    + "  <AR-PACKAGES><AR-PACKAGE><SHORT-NAME>表示</SHORT-NAME>\n"
+                    + "    <X-REF DEST=\"X\">/表示</X-REF>\n"
+                    + "  </AR-PACKAGE></AR-PACKAGES>\n"
+                    + "</AUTOSAR>\n";
+            Path arxmlPath = tempDir.resolve("sjis.arxml");
+            Files.write(arxmlPath, arxml.getBytes(Charset.forName("Shift_JIS")));
+
+            Entries entries = assertSameAsDom(arxmlPath);
+            assertEquals(entries.getDefinitions().get(0).getArHierarchyPath(), "/表示");
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 抽出できない内容の場合は null を返すことを確認。
+     */
+    @Test
+    public void testScan_Unsupported() {
+        ArxmlHeader utf8 = new ArxmlHeader(StandardCharsets.UTF_8, 0, 0);
+        Path filePath = Paths.get("dummy.arxml");
+
+        assertNull(ArxmlScanner.scan(filePath, wrap("<!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>"), utf8));
+        assertNull(ArxmlScanner.scan(filePath, wrap("<a><b DEST=\"X\">&unknown;</b></a>"), utf8));
+        assertNull(ArxmlScanner.scan(filePath, wrap("<a><b></a>"), utf8));
+        assertNull(ArxmlScanner.scan(filePath, wrap("<a><b>"), utf8));
+        assertNull(ArxmlScanner.scan(filePath, wrap("<a>"),
+                new ArxmlHeader(StandardCharsets.UTF_16LE, 0, 0)));
+        assertNotNull(ArxmlScanner.scan(filePath, wrap("<a/>\n"), utf8));
+    }
+
+    private static ByteBuffer wrap(String str) {
+        return ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Entries assertSameAsDom(Path arxmlPath)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Arxml arxml = new Arxml(arxmlPath);
+        Artags.invalidateCaches(arxmlPath);
+        Entries expected = Artags.extractEntries(arxml);
+
+        Entries actual = ArxmlScanner.scan(arxmlPath, Artags.getArxmlHeader(arxml));
+        assertNotNull(actual, arxmlPath.toString());
+        assertEquals(actual.getDefinitions(), expected.getDefinitions(), arxmlPath.toString());
+        assertEquals(actual.getReferences(), expected.getReferences(), arxmlPath.toString());
+        return actual;
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
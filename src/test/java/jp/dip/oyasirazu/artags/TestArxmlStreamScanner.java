@@ -0,0 +1,176 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArxmlStreamScanner
+ */
+public class TestArxmlStreamScanner {
+
+    private Path tempDir;
+
+    /**
+     * テストリソースのすべての arxml で、 DOM で抽出した場合と同じ結果になることを確認。
+     */
+    @Test
+    public void testScan_SameAsDom() {
+        try (Stream<Path> paths = Files.walk(Paths.get("./src/test/resources"))) {
+            List<Path> arxmlPaths = paths.filter(ArxmlFinder::isArxml).collect(Collectors.toList());
+            assertFalse(arxmlPaths.isEmpty());
+
+            for (Path arxmlPath : arxmlPaths) {
+                assertSameAsDom(arxmlPath);
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * ArxmlScanner が扱えない DOCTYPE 宣言・独自の実体参照・UTF-16・gzip のファイルでも、
+     * DOM で抽出した場合と同じ結果になることを確認。
+     */
+    @Test
+    public void testScan_SameAsDom_Variations() {
+        try {
+            String arxml = "<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n"
+                    + "<!DOCTYPE AUTOSAR [<!ENTITY pkg \"Pkg&#38;#38;1\">]>\n"
+                    + "<AUTOSAR xmlns:x=\"http://example.com/x\">\n"
+                    + "  <AR-PACKAGES>\n"
+                    + "    <x:AR-PACKAGE\n"
+                    + "        UUID='a&gt;b'>\n"
+                    + "      <SHORT-NAME>&pkg;</SHORT-NAME>\n"
+                    + "      <ELEMENTS>\n"
+                    + "        <SW-BASE-TYPE><SHORT-NAME><![CDATA[Cdata<Type>]]></SHORT-NAME></SW-BASE-TYPE>\n"
+                    + "        <SW-BASE-TYPE><SHORT-NAME></SHORT-NAME></SW-BASE-TYPE>\n"
+                    + "        <IMPLEMENTATION-DATA-TYPE>\n"
+                    + "          <SHORT-NAME>日本語&#x5B57;</SHORT-NAME>\n"
+                    + "          <SHORT-NAME>Ignored</SHORT-NAME>\n"
+                    + "          <BASE-TYPE-REF DEST=\"SW-BASE-TYPE\">/&pkg;/<!-- c -->Cdata&lt;Type&gt;</BASE-TYPE-REF>\n"
+                    + "          <EMPTY-REF x:DEST='IGNORED' DEST = 'SW-BASE-TYPE' />\n"
+                    + "          <NOT-A-REF x:DEST='IGNORED'>/a</NOT-A-REF>\n"
+                    + "        </IMPLEMENTATION-DATA-TYPE>\n"
+                    + "      </ELEMENTS>\n"
+                    + "    </x:AR-PACKAGE>\n"
+                    + "  </AR-PACKAGES>\n"
+                    + "</AUTOSAR>\n";
+            Path arxmlPath = tempDir.resolve("variations.arxml");
+            Files.write(arxmlPath, arxml.getBytes(StandardCharsets.UTF_16));
+
+            Entries entries = assertSameAsDom(arxmlPath);
+            assertEquals(entries.getDefinitions().size(), 3);
+            assertEquals(entries.getDefinitions().get(0).getArHierarchyPath(), "/Pkg&1");
+            assertEquals(entries.getDefinitions().get(0).getLineNumber(), 6);
+            assertEquals(entries.getDefinitions().get(0).getType(), "x:AR-PACKAGE");
+            assertEquals(entries.getDefinitions().get(2).getArHierarchyPath(), "/Pkg&1/日本語字");
+            assertEquals(entries.getReferences().size(), 2);
+            assertEquals(entries.getReferences().get(0).getArHierarchyPath(), "/Pkg&1/Cdata<Type>");
+            assertEquals(entries.getReferences().get(1).getDest(), "SW-BASE-TYPE");
+
+            Path gzipPath = tempDir.resolve("variations.arxml.gz");
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(gzipPath))) {
+                os.write(arxml.getBytes(StandardCharsets.UTF_16));
+            }
+            assertSameAsDom(gzipPath);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * しきい値以上のサイズのファイルは、 Artags#extractEntries でも ArxmlStreamScanner で抽出することを確認。
+     */
+    @Test
+    public void testExtractEntries_StreamThreshold() {
+        try {
+            Path arxmlPath = Paths.get("./src/test/resources/one_file/test.arxml");
+            Arxml arxml = new Arxml(arxmlPath);
+            Artags.invalidateCaches(arxmlPath);
+            Entries expected = Artags.extractEntries(arxml);
+
+            long streamed = Artags.getMetrics().get(Metrics.Counter.FILES_STREAMED);
+            Artags.setStreamThreshold(Files.size(arxmlPath));
+            try {
+                assertEquals(Artags.extractEntries(arxml), expected);
+            } finally {
+                Artags.setStreamThreshold(Artags.STREAM_THRESHOLD_DEFAULT);
+            }
+            assertEquals(Artags.getMetrics().get(Metrics.Counter.FILES_STREAMED), streamed + 1);
+
+            assertThrows(IllegalArgumentException.class, () -> Artags.setStreamThreshold(-1));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * XML として不正な内容の場合は SAXException になることを確認。
+     */
+    @Test
+    public void testScan_Invalid() {
+        Path filePath = Paths.get("dummy.arxml");
+
+        assertThrows(SAXException.class, () -> ArxmlStreamScanner.scan(filePath, stream("<a><b></a>")));
+        assertThrows(SAXException.class, () -> ArxmlStreamScanner.scan(filePath, stream("<a><b>")));
+        assertThrows(SAXException.class, () -> ArxmlStreamScanner.scan(filePath, stream("<a>&unknown;</a>")));
+    }
+
+    private static ByteArrayInputStream stream(String str) {
+        return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Entries assertSameAsDom(Path arxmlPath)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Arxml arxml = new Arxml(arxmlPath);
+        Artags.invalidateCaches(arxmlPath);
+        Entries expected = Artags.extractEntries(arxml);
+
+        Entries actual = ArxmlStreamScanner.scan(arxmlPath);
+        assertEquals(actual.getDefinitions(), expected.getDefinitions(), arxmlPath.toString());
+        assertEquals(actual.getReferences(), expected.getReferences(), arxmlPath.toString());
+        return actual;
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestArxmlWatcher
+ */
+public class TestArxmlWatcher {
+
+    private static final Path COMMON_ARXML = Paths.get("./src/test/resources/nested_directory_files/common/common.arxml");
+
+    private static final Path SYSTEM_ARXML = Paths.get("./src/test/resources/nested_directory_files/system/system.arxml");
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private static final long UPDATE_TIMEOUT_SECONDS = 30;
+
+    private Path tempDir;
+
+    /**
+     * 監視対象の外へ移動されたディレクトリ以下のファイルが、インデックスから削除されることを確認。
+     */
+    @Test
+    public void testMoveDirectoryOut() {
+        Path treeDir = tempDir.resolve("tree");
+        Path keptArxml = treeDir.resolve("common/common.arxml");
+        Path movedDir = treeDir.resolve("moved");
+        Path movedArxml = movedDir.resolve("system/system.arxml");
+        Path outsideDir = tempDir.resolve("outside");
+
+        try {
+            copy(COMMON_ARXML, keptArxml);
+            copy(SYSTEM_ARXML, movedArxml);
+            Files.createDirectories(outsideDir);
+
+            ArxmlFinder finder = new ArxmlFinder(Arrays.asList(treeDir.toString()),
+                    null, Collections.emptyList(), Collections.emptyList());
+            List<Arxml> arxmls = finder.find(1);
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+            assertEquals(index.getFilePaths().size(), 2);
+
+            BlockingQueue<List<Path>> updates = new LinkedBlockingQueue<>();
+            Thread thread;
+            try (ArxmlWatcher watcher = new ArxmlWatcher(
+                    Arrays.asList(treeDir.toString()), finder, arxmls, index, DEBOUNCE_MILLIS)) {
+                thread = new Thread(() -> {
+                    try {
+                        watcher.watch((updatedArxmls, updatedIndex) -> updates.add(updatedArxmls.stream()
+                                .map(Arxml::getFilePath)
+                                .collect(Collectors.toList())));
+                    } catch (SAXException
+                            | ParserConfigurationException
+                            | IOException e) {
+                        updates.add(Collections.emptyList());
+                    }
+                });
+                thread.start();
+
+                Files.move(movedDir, outsideDir.resolve("moved"));
+                assertEquals(updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS), Arrays.asList(keptArxml));
+                assertEquals(index.getFilePaths(), Arrays.asList(keptArxml));
+
+                // 移動先での変更は検知しない
+                Files.write(outsideDir.resolve("moved/system/system.arxml"),
+                        Files.readAllBytes(SYSTEM_ARXML));
+                copy(SYSTEM_ARXML, treeDir.resolve("added.arxml"));
+                assertEquals(updates.poll(UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                        Arrays.asList(keptArxml, treeDir.resolve("added.arxml")));
+                assertFalse(index.contains(movedArxml));
+
+                thread.interrupt();
+            }
+            // 監視を閉じてから、監視スレッドの終了を待つ
+            thread.join();
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException
+                | InterruptedException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.copy(source, target);
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
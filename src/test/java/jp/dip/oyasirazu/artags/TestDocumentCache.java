@@ -0,0 +1,103 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * TestDocumentCache
+ */
+public class TestDocumentCache {
+
+    @Test
+    public void testGet() {
+        try {
+            DocumentCache cache = new DocumentCache(1);
+            Path oneFile = Paths.get("./src/test/resources/one_file/test.arxml");
+
+            Document first = cache.get(oneFile, TestDocumentCache::parse);
+            Document second = cache.get(oneFile, TestDocumentCache::parse);
+
+            assertSame(first, second);
+            assertEquals(cache.getMissCount(), 1);
+            assertEquals(cache.getHitCount(), 1);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 容量を超えた場合、最も長い間使われていない Document が破棄されることを確認。
+     */
+    @Test
+    public void testGet_Eviction() {
+        try {
+            DocumentCache cache = new DocumentCache(2);
+            Path oneFile = Paths.get("./src/test/resources/one_file/test.arxml");
+            Path sameShortName = Paths.get("./src/test/resources/same_short_name/test.arxml");
+            Path comments = Paths.get("./src/test/resources/contents_variation/01_comments.arxml");
+
+            cache.get(oneFile, TestDocumentCache::parse);
+            cache.get(sameShortName, TestDocumentCache::parse);
+            // oneFile を使ったので、次に追加したときに破棄されるのは sameShortName
+            cache.get(oneFile, TestDocumentCache::parse);
+            cache.get(comments, TestDocumentCache::parse);
+            assertEquals(cache.size(), 2);
+
+            cache.get(oneFile, TestDocumentCache::parse);
+            assertEquals(cache.getHitCount(), 2);
+            cache.get(sameShortName, TestDocumentCache::parse);
+            assertEquals(cache.getMissCount(), 4);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Artags で Document キャッシュを使った場合、ヒット・ミスの回数が計測結果に加算されることを確認。
+     */
+    @Test
+    public void testMetrics() {
+        try {
+            Artags.setDocumentCacheCapacity(1);
+            Arxml arxml = new Arxml(Paths.get("./src/test/resources/one_file/test.arxml"));
+            Metrics metrics = Artags.getMetrics();
+            long hits = metrics.get(Metrics.Counter.DOCUMENT_CACHE_HITS);
+            long misses = metrics.get(Metrics.Counter.DOCUMENT_CACHE_MISSES);
+
+            Artags.extractEntries(arxml);
+            Artags.extractEntries(arxml);
+
+            assertEquals(metrics.get(Metrics.Counter.DOCUMENT_CACHE_HITS) - hits, 1);
+            assertEquals(metrics.get(Metrics.Counter.DOCUMENT_CACHE_MISSES) - misses, 1);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        } finally {
+            Artags.setDocumentCacheCapacity(DocumentCache.CAPACITY_DEFAULT);
+        }
+    }
+
+    private static Document parse(Path path)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(path.toFile());
+    }
+}
@@ -0,0 +1,71 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestExternalSorter
+ */
+public class TestExternalSorter {
+
+    @Test
+    public void testWriteSorted() {
+        try (ExternalSorter sorter = new ExternalSorter(10)) {
+            sorter.add("sint8\tb");
+            sorter.add("Port\ta");
+            sorter.add("sint8\ta");
+
+            List<String> sorted = new ArrayList<>();
+            sorter.writeSorted(sorted::add);
+            assertEquals(sorted, Arrays.asList("Port\ta", "sint8\ta", "sint8\tb"));
+            assertEquals(sorter.getRunCount(), 0);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * メモリ上限を超えてランを書き出した場合も、正しくソートされることを確認。
+     */
+    @Test
+    public void testWriteSorted_Spill() {
+        try (ExternalSorter sorter = new ExternalSorter(7)) {
+            Random random = new Random(0);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                String line = "symbol" + random.nextInt(50) + "\t" + i;
+                expected.add(line);
+                sorter.add(line);
+            }
+            expected.sort(ExternalSorter.CODE_POINT_ORDER);
+
+            List<String> sorted = new ArrayList<>();
+            sorter.writeSorted(sorted::add);
+            assertEquals(sorted, expected);
+            assertTrue(sorter.getRunCount() > 1);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * サロゲートペアを含む文字列が UTF-8 のバイト順で比較されることを確認。
+     */
+    @Test
+    public void testCompareCodePoints() {
+        String supplementary = new String(Character.toChars(0x1F600));
+        String privateUse = "";
+
+        // UTF-16 のコードユニット順では supplementary < privateUse だが、
+        // UTF-8 のバイト順では privateUse < supplementary
+        assertTrue(supplementary.compareTo(privateUse) < 0);
+        assertTrue(ExternalSorter.compareCodePoints(supplementary, privateUse) > 0);
+        assertTrue(ExternalSorter.compareCodePoints("sint8", "sint8\t") < 0);
+    }
+}
@@ -0,0 +1,182 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestIndexCache
+ */
+public class TestIndexCache {
+
+    private Path workDirectory;
+
+    private Arxml arxml;
+
+    @Test
+    public void testGet() {
+        try {
+            IndexCache first = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), false);
+            first.load();
+            IndexCache.FileStamp stamp = first.stamp(arxml);
+            assertNull(first.get(arxml, stamp));
+            Entries entries = Artags.extractEntries(arxml);
+            first.put(arxml, stamp, entries, IndexCache.NO_HASH);
+            first.save();
+
+            IndexCache second = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), false);
+            second.load();
+            Entries cached = second.get(arxml, second.stamp(arxml));
+            assertEquals(cached, entries);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * ファイルが変更された場合はキャッシュが使われないことを確認。
+     */
+    @Test
+    public void testGet_Modified() {
+        try {
+            IndexCache first = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), false);
+            first.put(arxml, first.stamp(arxml), Artags.extractEntries(arxml), IndexCache.NO_HASH);
+            first.save();
+
+            Files.writeString(arxml.getFilePath(), "\n", StandardOpenOption.APPEND);
+
+            IndexCache second = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), false);
+            second.load();
+            assertNull(second.get(arxml, second.stamp(arxml)));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 更新日時だけが変わった場合、ハッシュ値で比較していればキャッシュが使われることを確認。
+     */
+    @Test
+    public void testGet_Touched() {
+        try {
+            byte[] content = Files.readAllBytes(arxml.getFilePath());
+            Entries entries = Artags.extractEntries(arxml, content);
+
+            IndexCache first = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), true);
+            first.put(arxml, first.stamp(arxml), entries, IndexCache.hash(content));
+            first.save();
+
+            FileTime lastModified = Files.getLastModifiedTime(arxml.getFilePath());
+            Files.setLastModifiedTime(arxml.getFilePath(), FileTime.fromMillis(lastModified.toMillis() + 10000));
+
+            IndexCache withoutHash = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), false);
+            withoutHash.load();
+            assertNull(withoutHash.get(arxml, withoutHash.stamp(arxml)));
+
+            IndexCache withHash = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), true);
+            withHash.load();
+            assertEquals(withHash.get(arxml, withHash.stamp(arxml)), entries);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * パース中にファイルが更新された場合、次回の実行でキャッシュが使われないことを確認。
+     */
+    @Test
+    public void testPut_ModifiedWhileParsing() {
+        try {
+            Path filePath = arxml.getFilePath();
+            IndexCache first = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), true);
+            IndexCache.FileStamp stamp = first.stamp(arxml);
+            byte[] content = Files.readAllBytes(filePath);
+            Entries entries = Artags.extractEntries(arxml, content);
+
+            // サイズを変えずに内容を書き換える
+            Files.writeString(filePath, Files.readString(filePath).replaceFirst("<SHORT-NAME>.", "<SHORT-NAME>_"));
+            Files.setLastModifiedTime(filePath, FileTime.fromMillis(stamp.getLastModified() + 10000));
+            first.put(arxml, stamp, entries, IndexCache.hash(content));
+            first.save();
+
+            IndexCache second = new IndexCache(workDirectory.resolve(IndexCache.CACHE_DIRECTORY_NAME), true);
+            second.load();
+            assertNull(second.get(arxml, second.stamp(arxml)));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * パイプラインでパースしたファイルの内容のハッシュ値が、
+     * 逐次読み込みするファイルも含めて、ファイルから計算したものと一致することを確認。
+     */
+    @Test
+    public void testPut_Pipeline() {
+        try {
+            for (long streamThreshold : new long[] {Artags.STREAM_THRESHOLD_DEFAULT, 0}) {
+                Artags.setStreamThreshold(streamThreshold);
+                try {
+                    Path cacheDirectory = workDirectory.resolve("cache-" + streamThreshold);
+                    IndexCache first = new IndexCache(cacheDirectory, true);
+                    new IndexingPipeline(1, first).buildIndex(Arrays.asList(arxml));
+                    first.save();
+
+                    FileTime lastModified = Files.getLastModifiedTime(arxml.getFilePath());
+                    Files.setLastModifiedTime(arxml.getFilePath(), FileTime.fromMillis(lastModified.toMillis() + 10000));
+
+                    IndexCache second = new IndexCache(cacheDirectory, true);
+                    second.load();
+                    assertEquals(second.get(arxml, second.stamp(arxml)), Artags.extractEntries(arxml));
+                } finally {
+                    Artags.setStreamThreshold(Artags.STREAM_THRESHOLD_DEFAULT);
+                }
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("artags");
+        Path arxmlFilePath = workDirectory.resolve("test.arxml");
+        Files.copy(Paths.get("./src/test/resources/one_file/test.arxml"), arxmlFilePath);
+        arxml = new Arxml(arxmlFilePath);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.Artags.Record;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestIndexingPipeline
+ */
+public class TestIndexingPipeline {
+
+    /**
+     * 並列数によらず、 1 ファイルずつ処理した場合と同じレコードが出力されることを確認。
+     */
+    @Test
+    public void testRun() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(
+                    Arrays.asList("./src/test/resources/nested_directory_files/", "./src/test/resources/one_file/"),
+                    null);
+
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+            Set<Record> expected = new HashSet<>();
+            for (Arxml arxml : arxmls) {
+                expected.addAll(Artags.createTagsString(arxml, index));
+            }
+
+            for (int jobs : new int[] {1, 3}) {
+                List<Record> actual = new ArrayList<>();
+                new IndexingPipeline(jobs).run(arxmls, actual::add);
+
+                assertEquals(actual.size(), expected.size());
+                assertEquals(new HashSet<>(actual), expected);
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * ファイルを先読みしても、先読みしない場合と同じレコードが出力されることを確認。
+     */
+    @Test
+    public void testReadAhead() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(
+                    Arrays.asList("./src/test/resources/nested_directory_files/", "./src/test/resources/contents_variation/"),
+                    null);
+
+            List<Record> expected = new ArrayList<>();
+            new IndexingPipeline(2).run(arxmls, expected::add);
+
+            for (int readAhead : new int[] {1, 8}) {
+                long readCount = Artags.getMetrics().get(Metrics.Counter.FILES_READ_AHEAD);
+                for (Arxml arxml : arxmls) {
+                    Artags.invalidateCaches(arxml.getFilePath());
+                }
+
+                List<Record> actual = new ArrayList<>();
+                new IndexingPipeline(2, null, null, null, readAhead).run(arxmls, actual::add);
+                assertEquals(actual, expected);
+                assertEquals(Artags.getMetrics().get(Metrics.Counter.FILES_READ_AHEAD), readCount + arxmls.size());
+            }
+
+            // 高速走査でも同じ
+            Artags.setFastScanEnabled(true);
+            try {
+                for (Arxml arxml : arxmls) {
+                    Artags.invalidateCaches(arxml.getFilePath());
+                }
+                List<Record> actual = new ArrayList<>();
+                new IndexingPipeline(2, null, null, null, 4).run(arxmls, actual::add);
+                assertEquals(actual, expected);
+            } finally {
+                Artags.setFastScanEnabled(false);
+            }
+
+            // 逐次読み込みするファイルは先読みしない
+            Artags.setStreamThreshold(0);
+            try {
+                long readCount = Artags.getMetrics().get(Metrics.Counter.FILES_READ_AHEAD);
+                List<Record> actual = new ArrayList<>();
+                new IndexingPipeline(2, null, null, null, 4).run(arxmls, actual::add);
+                assertEquals(actual, expected);
+                assertEquals(Artags.getMetrics().get(Metrics.Counter.FILES_READ_AHEAD), readCount);
+            } finally {
+                Artags.setStreamThreshold(Artags.STREAM_THRESHOLD_DEFAULT);
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> new IndexingPipeline(2, null, null, null, -1));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 参照元のレコードが、参照ごとに参照先の SHORT-NAME で出力されることを確認。
+     */
+    @Test
+    public void testReferrerRecords() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(
+                    Arrays.asList("./src/test/resources/nested_directory_files/"),
+                    null);
+
+            List<Record> records = new ArrayList<>();
+            List<Record> referrerRecords = new ArrayList<>();
+            new IndexingPipeline(2, null, null, referrerRecords::add).run(arxmls, records::add);
+
+            // 参照先のレコードは、参照元のレコードを出力しない場合と変わらない
+            List<Record> expected = new ArrayList<>();
+            new IndexingPipeline(2).run(arxmls, expected::add);
+            assertEquals(records, expected);
+
+            assertEquals(referrerRecords.size(), 6);
+            Record operation = referrerRecords.stream()
+                    .filter(r -> r.getSymbol().equals("Operation"))
+                    .findFirst()
+                    .get();
+            assertTrue(operation.getFilePath().endsWith("system/system.arxml"));
+            assertEquals(operation.getSearchStr(), "52");
+            assertEquals(operation.getType(), "CLIENT-SERVER-OPERATION");
+            assertEquals(operation.getArHierarchyPath(), "/SystemDescription/Interface/Operation");
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+}
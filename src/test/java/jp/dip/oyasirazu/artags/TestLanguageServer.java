@@ -0,0 +1,355 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestLanguageServer
+ */
+public class TestLanguageServer {
+
+    private static final Path NESTED_DIRECTORY = Paths.get("./src/test/resources/nested_directory_files/");
+
+    private Path tempDir;
+
+    /**
+     * 標準入出力越しに定義・参照・シンボルを引けて、編集中の内容が反映されることを確認。
+     */
+    @Test
+    public void testLanguageServer() throws Exception {
+        Path systemArxml = copyNestedDirectoryFiles();
+        String systemUri = systemArxml.toAbsolutePath().normalize().toUri().toString();
+        String original = new String(Files.readAllBytes(systemArxml), StandardCharsets.UTF_8);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Client client = new Client()) {
+            LanguageServer server = new LanguageServer(client.serverIn, client.serverOut,
+                    new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8),
+                    new LanguageServer.Options(null, Collections.emptyList(), Collections.emptyList(), 2));
+            Future<Integer> exitCode = executor.submit(server::run);
+
+            // initialize より前のリクエストはエラー
+            assertEquals(Json.getLong(client.request("workspace/symbol", Map.of("query", "")), 0, "error", "code"),
+                    LanguageServer.SERVER_NOT_INITIALIZED);
+
+            Object initialized = client.request("initialize",
+                    Map.of("rootUri", tempDir.toAbsolutePath().toUri().toString()));
+            assertEquals(Json.get(initialized, "result", "capabilities", "definitionProvider"), true);
+            assertEquals(Json.getLong(initialized, 0, "result", "capabilities", "textDocumentSync", "change"), 1);
+            client.notify("initialized", Map.of());
+
+            // 参照元エレメントから参照先へ
+            Object definition = client.request("textDocument/definition", position(systemUri, 51, 70));
+            List<?> locations = (List<?>) Json.get(definition, "result");
+            assertEquals(locations.size(), 1);
+            assertEquals(Json.getString(locations.get(0), "uri"), systemUri);
+            assertEquals(Json.getLong(locations.get(0), -1, "range", "start", "line"), 10);
+            assertNull(Json.get(client.request("textDocument/definition", position(systemUri, 11, 30)), "result"));
+
+            // SHORT-NAME の行から、そのエレメントを参照している位置へ
+            Map<String, Object> referencesParams = position(systemUri, 11, 30);
+            referencesParams.put("context", Map.of("includeDeclaration", false));
+            List<?> references = (List<?>) Json.get(client.request("textDocument/references", referencesParams), "result");
+            assertEquals(references.size(), 1);
+            assertEquals(Json.getLong(references.get(0), -1, "range", "start", "line"), 51);
+            referencesParams.put("context", Map.of("includeDeclaration", true));
+            references = (List<?>) Json.get(client.request("textDocument/references", referencesParams), "result");
+            assertEquals(references.size(), 2);
+
+            // SHORT-NAME の前方一致(大文字小文字を区別しない)と、 AR 階層パスの前方一致
+            List<?> symbols = (List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "inter")), "result");
+            assertEquals(symbols.size(), 2);
+            assertEquals(Json.getString(symbols.get(0), "name"), "Interface");
+            assertEquals(Json.getLong(symbols.get(0), 0, "kind"), 11);
+            assertEquals(Json.getString(symbols.get(0), "containerName"), "/SystemDescription");
+            assertEquals(Json.getString(symbols.get(1), "name"), "InternalBehaviorName");
+            symbols = (List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "/SystemDescription/Interface")), "result");
+            assertEquals(symbols.size(), 3);
+
+            // 編集中の内容が反映される
+            Map<String, Object> textDocument = new LinkedHashMap<>();
+            textDocument.put("uri", systemUri);
+            textDocument.put("languageId", "xml");
+            textDocument.put("version", 1);
+            textDocument.put("text", original);
+            client.notify("textDocument/didOpen", Map.of("textDocument", textDocument));
+
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("range", Map.of(
+                    "start", Map.of("line", 11, "character", 40),
+                    "end", Map.of("line", 11, "character", 49)));
+            change.put("text", "Renamed");
+            client.notify("textDocument/didChange", Map.of(
+                    "textDocument", Map.of("uri", systemUri, "version", 2),
+                    "contentChanges", Arrays.asList(change)));
+            awaitUpdates(client, server);
+            assertEquals(((List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "renamed")), "result")).size(), 1);
+            assertEquals(((List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "operation")), "result")).size(), 0);
+
+            // パースできない編集途中の内容では、前回の内容が残る
+            client.notify("textDocument/didChange", Map.of(
+                    "textDocument", Map.of("uri", systemUri, "version", 3),
+                    "contentChanges", Arrays.asList(Map.of("text", "<AUTOSAR><AR-PACKAGES>"))));
+            awaitUpdates(client, server);
+            assertEquals(((List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "renamed")), "result")).size(), 1);
+
+            // 保存せずに閉じるとファイルの内容に戻る
+            client.notify("textDocument/didClose", Map.of("textDocument", Map.of("uri", systemUri)));
+            awaitUpdates(client, server);
+            assertEquals(((List<?>) Json.get(client.request("workspace/symbol", Map.of("query", "operation")), "result")).size(), 1);
+
+            assertEquals(Json.getLong(client.request("textDocument/hover", position(systemUri, 0, 0)), 0, "error", "code"),
+                    LanguageServer.METHOD_NOT_FOUND);
+
+            Object shutdown = client.request("shutdown", null);
+            assertTrue(((Map<?, ?>) shutdown).containsKey("result"));
+            assertNull(Json.get(shutdown, "result"));
+            client.notify("exit", null);
+            assertEquals(exitCode.get(10, TimeUnit.SECONDS), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 範囲を指定した変更と、内容全体の置き換えを適用できることを確認。
+     */
+    @Test
+    public void testApplyChanges() {
+        String text = "<A>\n  <B>x</B>\n</A>\n";
+
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("range", Map.of(
+                "start", Map.of("line", 1, "character", 5),
+                "end", Map.of("line", 1, "character", 6)));
+        change.put("text", "yz");
+        assertEquals(LanguageServer.applyChanges(text, Arrays.asList(change)), "<A>\n  <B>yz</B>\n</A>\n");
+
+        change.put("range", Map.of(
+                "start", Map.of("line", 2, "character", 4),
+                "end", Map.of("line", 2, "character", 4)));
+        change.put("text", "<C/>");
+        assertEquals(LanguageServer.applyChanges(text, Arrays.asList(change)), "<A>\n  <B>x</B>\n</A><C/>\n");
+
+        assertEquals(LanguageServer.applyChanges(text, Arrays.asList(Map.of("text", "<D/>"), change)), "<D/><C/>");
+        assertNull(LanguageServer.applyChanges(text, null));
+    }
+
+    /**
+     * 行の中から、カーソル位置の参照元エレメントを探せることを確認。
+     */
+    @Test
+    public void testFindReferenceAt() {
+        String line = "<A-REF DEST=\"A\">/Pkg/A</A-REF><B-REF DEST=\"B\">/Pkg/B </B-REF>";
+        assertEquals(LanguageServer.findReferenceAt(line, 0), "/Pkg/A");
+        assertEquals(LanguageServer.findReferenceAt(line, 40), "/Pkg/B");
+        assertNull(LanguageServer.findReferenceAt(line, line.length()));
+        assertEquals(LanguageServer.findReferenceAt("    <A-REF DEST='A'>/Pkg/A</A-REF>", 0), "/Pkg/A");
+        assertNull(LanguageServer.findReferenceAt("<SHORT-NAME>A</SHORT-NAME>", 0));
+        assertNull(LanguageServer.findReferenceAt(null, 0));
+    }
+
+    /**
+     * 差分で更新したスナップショットが、作り直したスナップショットと同じ内容になることを確認。
+     */
+    @Test
+    public void testUpdateSnapshot() {
+        try {
+            Path systemArxml = copyNestedDirectoryFiles();
+            ArxmlIndex index = ArxmlIndex.build(Artags.findArxmls(Arrays.asList(tempDir.toString()), null));
+            LiveIndex liveIndex = new LiveIndex(index);
+
+            String original = new String(Files.readAllBytes(systemArxml), StandardCharsets.UTF_8);
+            liveIndex.reindex(systemArxml, original.replace("<SHORT-NAME>Port</SHORT-NAME>", "<SHORT-NAME>ZPort</SHORT-NAME>"));
+
+            IndexSnapshot updated = liveIndex.getSnapshot();
+            IndexSnapshot rebuilt = IndexSnapshot.build(index);
+            assertEquals(updated.getDefinitionCount(), rebuilt.getDefinitionCount());
+            assertEquals(updated.getReferenceCount(), rebuilt.getReferenceCount());
+            assertEquals(updated.getFileCount(), rebuilt.getFileCount());
+            assertEquals(updated.findDefinitionsByPrefix("/", Integer.MAX_VALUE),
+                    rebuilt.findDefinitionsByPrefix("/", Integer.MAX_VALUE));
+            assertEquals(updated.findDefinitionsByName("", Integer.MAX_VALUE),
+                    rebuilt.findDefinitionsByName("", Integer.MAX_VALUE));
+            assertEquals(updated.findReferences("/SystemDescription/ApplicationSwcType/Port"),
+                    rebuilt.findReferences("/SystemDescription/ApplicationSwcType/Port"));
+            assertEquals(updated.findDefinitions("/SystemDescription/ApplicationSwcType/ZPort").size(), 1);
+
+            Path registeredPath = updated.findFilePath(systemArxml);
+            List<Definition> definitions = updated.getDefinitions(registeredPath);
+            assertEquals(definitions, rebuilt.getDefinitions(registeredPath));
+
+            // パースできない内容では例外になり、インデックスは変わらない
+            assertThrows(SAXException.class, () -> liveIndex.reindex(systemArxml, "<AUTOSAR>"));
+            assertSame(liveIndex.getSnapshot(), updated);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * JSON の読み書きを確認。
+     */
+    @Test
+    public void testJson() {
+        Object value = Json.parse(" {\"a\": [1, -2.5, true, false, null], \"b\": {\"c\": \"d\\\"\\u3042\\n\"}} ");
+        assertEquals(Json.get(value, "a"), Arrays.asList(1L, -2.5, true, false, null));
+        assertEquals(Json.getString(value, "b", "c"), "d\"あ\n");
+        assertNull(Json.get(value, "b", "x", "y"));
+        assertEquals(Json.write(value), "{\"a\":[1,-2.5,true,false,null],\"b\":{\"c\":\"d\\\"あ\\n\"}}");
+        assertEquals(Json.parse(Json.write(value)), value);
+
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("{\"a\": }"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("[1, 2"));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("{} {}"));
+    }
+
+    /**
+     * それまでに送った通知を、サーバーが読み込んで再抽出し終えるまで待つ。
+     * (通知には応答が無いので、リクエストを 1 つ往復させてから待つ)
+     */
+    private static void awaitUpdates(Client client, LanguageServer server) throws Exception {
+        client.request("$/sync", null);
+        server.awaitUpdates();
+    }
+
+    private static Map<String, Object> position(String uri, int line, int character) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("textDocument", Map.of("uri", uri));
+        params.put("position", Map.of("line", line, "character", character));
+        return params;
+    }
+
+    private Path copyNestedDirectoryFiles() throws IOException {
+        for (String name : Arrays.asList("common/common.arxml", "system/system.arxml")) {
+            Path target = tempDir.resolve(name);
+            Files.createDirectories(target.getParent());
+            Files.copy(NESTED_DIRECTORY.resolve(name), target);
+        }
+        return tempDir.resolve("system/system.arxml");
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * パイプでサーバーとつなぐ、テスト用のクライアント。
+     */
+    private static class Client implements AutoCloseable {
+
+        private final PipedInputStream serverIn = new PipedInputStream(1 << 16);
+
+        private final PipedOutputStream serverOut = new PipedOutputStream();
+
+        private final OutputStream toServer;
+
+        private final InputStream fromServer;
+
+        private int nextId = 1;
+
+        Client() throws IOException {
+            toServer = new PipedOutputStream(serverIn);
+            fromServer = new PipedInputStream(serverOut, 1 << 16);
+        }
+
+        Object request(String method, Object params) throws IOException {
+            Map<String, Object> message = new LinkedHashMap<>();
+            message.put("jsonrpc", "2.0");
+            message.put("id", nextId++);
+            message.put("method", method);
+            message.put("params", params);
+            send(message);
+            return receive();
+        }
+
+        void notify(String method, Object params) throws IOException {
+            Map<String, Object> message = new LinkedHashMap<>();
+            message.put("jsonrpc", "2.0");
+            message.put("method", method);
+            message.put("params", params);
+            send(message);
+        }
+
+        private void send(Object message) throws IOException {
+            byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+            toServer.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            toServer.write(body);
+            toServer.flush();
+        }
+
+        private Object receive() throws IOException {
+            int contentLength = -1;
+            String header = readLine();
+            while (!header.isEmpty()) {
+                if (header.startsWith("Content-Length:")) {
+                    contentLength = Integer.parseInt(header.substring("Content-Length:".length()).trim());
+                }
+                header = readLine();
+            }
+            return Json.parse(new String(fromServer.readNBytes(contentLength), StandardCharsets.UTF_8));
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b = fromServer.read();
+            while (b != '\n') {
+                if (b < 0) {
+                    throw new IOException("unexpected end of stream.");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+                b = fromServer.read();
+            }
+            return line.toString(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            toServer.close();
+            fromServer.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * TestLineNumberDocumentHandler
+ */
+public class TestLineNumberDocumentHandler {
+
+    /**
+     * 複数行にまたがる開始タグの行番号は、開始タグの終わりの行になることを確認。
+     */
+    @Test
+    public void testLineNumber_MultiLineStartTag() {
+        try {
+            Document document = parse(
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<AUTOSAR>\n"
+                    + "  <AR-PACKAGE\n"
+                    + "      UUID=\"0001\"\n"
+                    + "      T=\"2020-01-01\">\n"
+                    + "    <SHORT-NAME>Pkg</SHORT-NAME>\n"
+                    + "  </AR-PACKAGE>\n"
+                    + "</AUTOSAR>\n");
+
+            assertEquals(lineNumber(document, "AUTOSAR"), Long.valueOf(2));
+            assertEquals(lineNumber(document, "AR-PACKAGE"), Long.valueOf(5));
+            assertEquals(lineNumber(document, "SHORT-NAME"), Long.valueOf(6));
+
+            Element arPackage = (Element)document.getElementsByTagName("AR-PACKAGE").item(0);
+            assertEquals(arPackage.getAttribute("UUID"), "0001");
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * コメントや CDATA セクションの後ろのエレメントも、正しい行番号になることを確認。
+     * (コメントは Document に含めず、 CDATA セクションはテキストとして含める)
+     */
+    @Test
+    public void testLineNumber_AfterCommentAndCdata() {
+        try {
+            Document document = parse(
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<AUTOSAR>\n"
+                    + "  <!--\n"
+                    + "    multi-line comment\n"
+                    + "  -->\n"
+                    + "  <DESC><![CDATA[line 1\n"
+                    + "line 2\n"
+                    + "]]></DESC>\n"
+                    + "  <SHORT-NAME>Pkg</SHORT-NAME>\n"
+                    + "</AUTOSAR>\n");
+
+            assertEquals(lineNumber(document, "DESC"), Long.valueOf(6));
+            assertEquals(lineNumber(document, "SHORT-NAME"), Long.valueOf(9));
+
+            Element desc = (Element)document.getElementsByTagName("DESC").item(0);
+            assertEquals(desc.getTextContent(), "line 1\nline 2\n");
+
+            Node root = document.getDocumentElement();
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                assertNotEquals(child.getNodeType(), Node.COMMENT_NODE);
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private static Object lineNumber(Document document, String tagName) {
+        return document.getElementsByTagName(tagName).item(0)
+                .getUserData(LineNumberDocumentHandler.LINE_NUMBER_KEY);
+    }
+
+    private static Document parse(String xml)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        SAXParserFactory.newInstance().newSAXParser().parse(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                new LineNumberDocumentHandler(document));
+        return document;
+    }
+}
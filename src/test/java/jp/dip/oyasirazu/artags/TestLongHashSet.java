@@ -0,0 +1,45 @@
+package jp.dip.oyasirazu.artags;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestLongHashSet
+ */
+public class TestLongHashSet {
+
+    @Test
+    public void testAdd() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0L));
+        assertFalse(set.add(0L));
+        assertTrue(set.add(-1L));
+        assertTrue(set.contains(0L));
+        assertTrue(set.contains(-1L));
+        assertFalse(set.contains(1L));
+        assertEquals(set.size(), 2);
+    }
+
+    /**
+     * 拡張を繰り返しても、 HashSet と同じ結果になることを確認。
+     */
+    @Test
+    public void testAdd_Rehash() {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            // 重複が出るよう、値の範囲を絞る
+            long value = random.nextInt(50_000) * 0x100000000L;
+            assertEquals(set.add(value), expected.add(value));
+        }
+        assertEquals(set.size(), expected.size());
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestMetrics
+ */
+public class TestMetrics {
+
+    @Test
+    @SuppressWarnings("try")
+    public void testScope() {
+        Metrics metrics = new Metrics();
+
+        try (Metrics.PhaseScope scope = metrics.startPhase(Metrics.Phase.DISCOVERY)) {
+            metrics.add(Metrics.Counter.FILES_FOUND, 3);
+        }
+
+        for (int i = 0; i < Metrics.SLOWEST_FILES_MAX + 2; i++) {
+            try (Metrics.FileScope scope = metrics.startFile(Metrics.Phase.PARSE, Paths.get("file" + i + ".arxml"))) {
+                scope.setBytes(100);
+            }
+        }
+
+        try (Metrics.FileScope scope = metrics.startFile(Metrics.Phase.EXTRACT, Paths.get("file0.arxml"))) {
+            scope.setEntries(5, 2);
+        }
+
+        assertEquals(metrics.getCount(Metrics.Phase.DISCOVERY), 1);
+        assertEquals(metrics.getCount(Metrics.Phase.PARSE), Metrics.SLOWEST_FILES_MAX + 2);
+        assertEquals(metrics.getCount(Metrics.Phase.RESOLVE), 0);
+        assertEquals(metrics.get(Metrics.Counter.FILES_FOUND), 3);
+        assertEquals(metrics.get(Metrics.Counter.FILES_PARSED), Metrics.SLOWEST_FILES_MAX + 2);
+        assertEquals(metrics.get(Metrics.Counter.BYTES_PARSED), 100 * (Metrics.SLOWEST_FILES_MAX + 2));
+        assertEquals(metrics.get(Metrics.Counter.DEFINITIONS), 5);
+        assertEquals(metrics.get(Metrics.Counter.REFERENCES), 2);
+
+        List<Metrics.FileMetrics> slowestFiles = metrics.getSlowestFiles();
+        assertEquals(slowestFiles.size(), Metrics.SLOWEST_FILES_MAX);
+        for (int i = 1; i < slowestFiles.size(); i++) {
+            assertTrue(slowestFiles.get(i - 1).getNanos() >= slowestFiles.get(i).getNanos());
+        }
+    }
+
+    @Test
+    public void testToJson() {
+        Metrics metrics = new Metrics();
+        try (Metrics.FileScope scope = metrics.startFile(Metrics.Phase.PARSE, Paths.get("dir\\\"quoted\".arxml"))) {
+            scope.setBytes(42);
+        }
+
+        String json = metrics.toJson();
+        assertTrue(json.contains("\"parse\": {\"count\": 1, \"totalMillis\": "));
+        assertTrue(json.contains("\"filesParsed\": 1,"));
+        assertTrue(json.contains("\"bytesParsed\": 42,"));
+        assertTrue(json.contains("\"recordsWritten\": 0,"));
+        assertTrue(json.contains("\"fastScanFallbacks\": 0\n"));
+        assertTrue(json.contains("{\"path\": \"dir\\\\\\\"quoted\\\".arxml\", \"bytes\": 42, \"parseMillis\": "));
+        assertTrue(new Metrics().toJson().contains("\"slowestFiles\": []"));
+    }
+
+    /**
+     * パイプラインを実行すると、各フェーズとカウンターが加算されることを確認。
+     */
+    @Test
+    public void testPipeline() {
+        try {
+            Path filePath = Paths.get("./src/test/resources/one_file/test.arxml");
+            Metrics metrics = Artags.getMetrics();
+            long indexCount = metrics.getCount(Metrics.Phase.INDEX);
+            long resolveCount = metrics.getCount(Metrics.Phase.RESOLVE);
+            long references = metrics.get(Metrics.Counter.REFERENCES);
+            long recordsWritten = metrics.get(Metrics.Counter.RECORDS_WRITTEN);
+
+            Artags.invalidateCaches(filePath);
+            new IndexingPipeline(1).run(Arrays.asList(new Arxml(filePath)), record -> { });
+
+            assertEquals(metrics.getCount(Metrics.Phase.INDEX), indexCount + 1);
+            assertEquals(metrics.getCount(Metrics.Phase.RESOLVE), resolveCount + 1);
+            assertTrue(metrics.get(Metrics.Counter.REFERENCES) > references);
+            assertTrue(metrics.get(Metrics.Counter.RECORDS_WRITTEN) > recordsWritten);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+}
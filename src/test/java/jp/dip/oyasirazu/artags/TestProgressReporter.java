@@ -0,0 +1,69 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestProgressReporter
+ */
+public class TestProgressReporter {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testBuildLine() {
+        Metrics metrics = new Metrics();
+        // 開始前のカウンターは進捗に含めない
+        metrics.add(Metrics.Counter.FILES_INDEXED, 100);
+
+        ProgressReporter progress = new ProgressReporter(metrics, 10, nullStream(), false, 0);
+        long start = System.nanoTime();
+
+        metrics.add(Metrics.Counter.FILES_INDEXED, 4);
+        metrics.add(Metrics.Counter.REFERENCES, 40);
+        String indexing = progress.buildLine(start + 2 * SECOND, false);
+        assertTrue(indexing.startsWith("indexing: 4/10 files (2.0 files/s, 20.0 refs/s), ETA 0:0"), indexing);
+
+        metrics.add(Metrics.Counter.FILES_INDEXED, 6);
+        String resolving = progress.buildLine(start + 3 * SECOND, false);
+        assertEquals(resolving, "resolving: 0/10 files (0.0 files/s, 0.0 refs/s), ETA -:--");
+
+        for (int i = 0; i < 5; i++) {
+            try (Metrics.FileScope scope = metrics.startFile(Metrics.Phase.RESOLVE, Paths.get("file" + i))) {
+                scope.setResolved(3, 1, 2);
+            }
+        }
+        resolving = progress.buildLine(start + 8 * SECOND, false);
+        assertEquals(resolving, "resolving: 5/10 files (1.0 files/s, 3.0 refs/s), ETA 0:05");
+    }
+
+    @Test
+    public void testClose() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Metrics metrics = new Metrics();
+        ProgressReporter progress = new ProgressReporter(
+                metrics, 1, new PrintStream(out, true, StandardCharsets.UTF_8), true, 0);
+        metrics.add(Metrics.Counter.FILES_INDEXED, 1);
+        progress.close();
+
+        String printed = out.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.startsWith("\rdone: 1/1 files ("), printed);
+        assertTrue(printed.endsWith("ETA 0:00" + System.lineSeparator()), printed);
+    }
+
+    @Test
+    public void testFormatDuration() {
+        assertEquals(ProgressReporter.formatDuration(0), "0:00");
+        assertEquals(ProgressReporter.formatDuration(75), "1:15");
+        assertEquals(ProgressReporter.formatDuration(3 * 3600 + 5), "3:00:05");
+    }
+
+    private static PrintStream nullStream() {
+        return new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+    }
+}
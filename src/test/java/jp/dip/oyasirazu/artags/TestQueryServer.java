@@ -0,0 +1,237 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.IndexSnapshot.ReferenceLocation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestQueryServer
+ */
+public class TestQueryServer {
+
+    private static final Path NESTED_DIRECTORY = Paths.get("./src/test/resources/nested_directory_files/");
+
+    private Path tempDir;
+
+    /**
+     * スナップショットで定義・参照・前方一致を引けることを確認。
+     */
+    @Test
+    public void testSnapshot() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(Arrays.asList("./src/test/resources/"), null);
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+            IndexSnapshot snapshot = IndexSnapshot.build(index);
+
+            // インデックスで引いた結果と同じ定義が引ける
+            List<Definition> expected = new ArrayList<>(index.findDefinitions("/BaseTypes/sint8"));
+            List<Definition> actual = snapshot.findDefinitions("/BaseTypes/sint8");
+            assertTrue(actual.size() > 1);
+            assertEquals(actual.size(), expected.size());
+            assertTrue(actual.containsAll(expected));
+            assertTrue(snapshot.findDefinitions("/BaseTypes/sint").isEmpty());
+
+            List<String> paths = snapshot.findDefinitionsByPrefix("/SystemDescription/Interface", 100).stream()
+                    .map(Definition::getArHierarchyPath)
+                    .distinct()
+                    .collect(Collectors.toList());
+            assertEquals(paths, Arrays.asList(
+                    "/SystemDescription/Interface",
+                    "/SystemDescription/Interface/Operation",
+                    "/SystemDescription/Interface/Operation/angle"));
+            assertEquals(snapshot.findDefinitionsByPrefix("/", 2).size(), 2);
+
+            // 参照している位置が引ける
+            List<ReferenceLocation> references = snapshot.findReferences("/SystemDescription/Interface/Operation");
+            assertFalse(references.isEmpty());
+            assertTrue(references.stream().allMatch(r -> r.getDest().equals("CLIENT-SERVER-OPERATION")));
+            assertTrue(snapshot.findReferences("/SystemDescription").isEmpty());
+
+            // 相対パス・絶対パスのどちらでも、登録されているファイルパスが引ける
+            Path systemArxml = NESTED_DIRECTORY.resolve("system/system.arxml");
+            assertNotNull(snapshot.findFilePath(systemArxml.toAbsolutePath()));
+            assertEquals(snapshot.findFilePath(systemArxml.toAbsolutePath()),
+                    snapshot.findFilePath(Paths.get(".").resolve(systemArxml)));
+            assertNull(snapshot.findFilePath(tempDir.resolve("notfound.arxml")));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * HTTP で問い合わせと再抽出ができることを確認。
+     */
+    @Test
+    public void testServer() {
+        try {
+            Path systemArxml = copyNestedDirectoryFiles();
+            ArxmlIndex index = ArxmlIndex.build(Artags.findArxmls(Arrays.asList(tempDir.toString()), null));
+
+            LiveIndex liveIndex = new LiveIndex(index);
+            try (QueryServer server = new QueryServer(liveIndex, 0, 2)) {
+                server.start();
+                String url = server.getUrl();
+                String systemArxmlStr = Json.escape(systemArxml.toAbsolutePath().normalize().toString());
+
+                assertEquals(get(url + "definitions?path=" + encode("/SystemDescription/Interface/Operation")),
+                        "{\"count\": 1, \"results\": [{\"path\": \"/SystemDescription/Interface/Operation\", "
+                        + "\"file\": \"" + systemArxmlStr + "\", \"line\": 11, \"type\": \"CLIENT-SERVER-OPERATION\"}]}\n");
+                assertEquals(get(url + "references?path=" + encode("/SystemDescription/Interface/Operation")),
+                        "{\"count\": 1, \"results\": [{\"path\": \"/SystemDescription/Interface/Operation\", "
+                        + "\"file\": \"" + systemArxmlStr + "\", \"line\": 52, \"dest\": \"CLIENT-SERVER-OPERATION\"}]}\n");
+                assertTrue(get(url + "search?limit=1&prefix=" + encode("/SystemDescription/"))
+                        .startsWith("{\"count\": 1, \"results\": [{\"path\": \"/SystemDescription/ApplicationSwcType\""));
+                assertEquals(get(url + "definitions?path=" + encode("/NotFound")), "{\"count\": 0, \"results\": []}\n");
+
+                assertEquals(status(url + "definitions", "GET"), 400);
+                assertEquals(status(url + "search?limit=x&prefix=/", "GET"), 400);
+                assertEquals(status(url + "reindex?file=" + encode(systemArxml.toString()), "GET"), 405);
+
+                // ファイルを書き換えて再抽出する
+                String content = new String(Files.readAllBytes(systemArxml), StandardCharsets.UTF_8);
+                Files.write(systemArxml, content.replace("<SHORT-NAME>Operation</SHORT-NAME>",
+                        "<SHORT-NAME>Renamed</SHORT-NAME>").getBytes(StandardCharsets.UTF_8));
+                assertEquals(status(url + "reindex?file=" + encode(systemArxml.toAbsolutePath().toString()), "POST"), 200);
+                assertEquals(get(url + "definitions?path=" + encode("/SystemDescription/Interface/Operation")),
+                        "{\"count\": 0, \"results\": []}\n");
+                assertTrue(get(url + "definitions?path=" + encode("/SystemDescription/Interface/Renamed"))
+                        .startsWith("{\"count\": 1,"));
+
+                // 削除したファイルはインデックスから取り除かれる
+                int fileCount = liveIndex.getSnapshot().getFileCount();
+                Files.delete(systemArxml);
+                assertEquals(status(url + "reindex?file=" + encode(systemArxml.toString()), "POST"), 200);
+                assertEquals(liveIndex.getSnapshot().getFileCount(), fileCount - 1);
+                assertEquals(status(url + "reindex?file=" + encode(systemArxml.toString()), "POST"), 404);
+                assertEquals(get(url + "status"),
+                        "{\"definitions\": " + liveIndex.getSnapshot().getDefinitionCount()
+                        + ", \"references\": 1, \"files\": " + (fileCount - 1) + "}\n");
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 更新中も、問い合わせには更新前か更新後のどちらかの結果が返ることを確認。
+     */
+    @Test
+    public void testReadWhileUpdating() throws Exception {
+        Path systemArxml = copyNestedDirectoryFiles();
+        ArxmlIndex index = ArxmlIndex.build(Artags.findArxmls(Arrays.asList(tempDir.toString()), null));
+        String original = new String(Files.readAllBytes(systemArxml), StandardCharsets.UTF_8);
+        String renamed = original.replace("<SHORT-NAME>Operation</SHORT-NAME>", "<SHORT-NAME>Renamed</SHORT-NAME>");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        LiveIndex liveIndex = new LiveIndex(index);
+        try {
+            AtomicBoolean isUpdating = new AtomicBoolean(true);
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    int reads = 0;
+                    while (isUpdating.get()) {
+                        IndexSnapshot snapshot = liveIndex.getSnapshot();
+                        int found = snapshot.findDefinitions("/SystemDescription/Interface/Operation").size()
+                                + snapshot.findDefinitions("/SystemDescription/Interface/Renamed").size();
+                        assertEquals(found, 1);
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                Files.write(systemArxml, (i % 2 == 0 ? renamed : original).getBytes(StandardCharsets.UTF_8));
+                assertTrue(liveIndex.reindex(systemArxml));
+            }
+            isUpdating.set(false);
+
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Path copyNestedDirectoryFiles() throws IOException {
+        for (String name : Arrays.asList("common/common.arxml", "system/system.arxml")) {
+            Path target = tempDir.resolve(name);
+            Files.createDirectories(target.getParent());
+            Files.copy(NESTED_DIRECTORY.resolve(name), target);
+        }
+        return tempDir.resolve("system/system.arxml");
+    }
+
+    private static String get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream is = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            is.transferTo(out);
+            return out.toString(StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static int status(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String str) {
+        return URLEncoder.encode(str, StandardCharsets.UTF_8);
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
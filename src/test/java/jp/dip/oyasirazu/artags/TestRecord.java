@@ -1,15 +1,26 @@
 package jp.dip.oyasirazu.artags;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
 
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
 import jp.dip.oyasirazu.artags.Artags.Record;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Entries;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Reference;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import org.xml.sax.SAXException;
+
 /**
  * TestRecord
  */
@@ -50,6 +61,51 @@ public class TestRecord {
         Path filePath = Paths.get("../../file/01/test.arxml");
         assertEquals(recordString01, "symbol01\t" + filePath + "\tsearchStr01;\"\t\tarHierarchyPath01 (type01)\tfile:");
     }
+
+    /**
+     * インデックス内部のコンパクトな表現から組み立てたレコードが、
+     * 抽出結果の文字列から直接組み立てたレコードと同じ文字列になることを確認。
+     */
+    @Test
+    public void testRecord_fromIndex() {
+        try {
+            Arxml arxml = new Arxml(Paths.get("./src/test/resources/one_file/test.arxml"));
+            Entries entries = Artags.extractEntries(arxml);
+
+            ArxmlIndex index = new ArxmlIndex();
+            index.add(entries);
+
+            Set<String> expected = new HashSet<>();
+            for (Reference reference : entries.getReferences()) {
+                for (Definition definition : entries.getDefinitions()) {
+                    if (definition.getArHierarchyPath().equals(reference.getArHierarchyPath())) {
+                        String[] arHierarchyArray = definition.getArHierarchyPath().split("/");
+                        expected.add(new Record(
+                                arHierarchyArray[arHierarchyArray.length - 1],
+                                definition.getFilePath(),
+                                String.valueOf(definition.getLineNumber()),
+                                definition.getType(),
+                                definition.getArHierarchyPath()).buildRecordString());
+                    }
+                }
+            }
+
+            Set<String> actual = new HashSet<>();
+            for (Record record : index.resolve(arxml.getFilePath())) {
+                actual.add(record.buildRecordString());
+            }
+
+            assertFalse(expected.isEmpty());
+            assertEquals(actual, expected);
+            assertTrue(actual.contains(
+                    "sint8\t" + arxml.getFilePath() + "\t7;\"\t\t/BaseTypes/sint8 (SW-BASE-TYPE)\tfile:"));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
     @BeforeEach
     public void setup() {
     }
@@ -0,0 +1,191 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestShardIndex
+ */
+public class TestShardIndex {
+
+    private static final Path BASE_DIR_PATH = Paths.get("").toAbsolutePath();
+
+    private Path workDirectory;
+
+    private List<Arxml> arxmls;
+
+    /**
+     * シャード数によらず、マージしたタグファイルが 1 プロセスで出力したタグファイルと一致することを確認。
+     */
+    @Test
+    public void testMerge() {
+        try {
+            byte[] expected = writeTags(arxmls, new IndexingPipeline(1).buildIndex(arxmls));
+
+            for (int shardCount : new int[] {1, 2, 3}) {
+                List<Path> partialIndexFilePaths = writeShards(shardCount);
+
+                // 部分インデックスの指定順は問わない
+                Collections.reverse(partialIndexFilePaths);
+                ShardIndex.Merged merged = ShardIndex.merge(partialIndexFilePaths);
+
+                assertEquals(merged.getArxmls(), arxmls);
+                assertArrayEquals(writeTags(merged.getArxmls(), merged.getIndex()), expected);
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * アーカイブ内のエントリは、探索したときのアーカイブのパス(相対パス)のまま記録されることを確認。
+     */
+    @Test
+    public void testMerge_Archive() {
+        Path zipPath = BASE_DIR_PATH.relativize(workDirectory.resolve("bundle.zip"));
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+                out.putNextEntry(new ZipEntry("common/common.arxml"));
+                Files.copy(Paths.get("./src/test/resources/nested_directory_files/common/common.arxml"), out);
+                out.closeEntry();
+            }
+            arxmls = new ArxmlFinder(
+                    Arrays.asList(zipPath.toString()), null, Collections.emptyList(), Collections.emptyList()).find(1);
+            assertEquals(arxmls.size(), 1);
+            byte[] expected = writeTags(arxmls, new IndexingPipeline(1).buildIndex(arxmls));
+            List<Path> partialIndexFilePaths = writeShards(1);
+
+            // マージ時には、部分インデックスに記録されたパスでアーカイブを開き直す
+            ArxmlArchives.close(zipPath);
+            ShardIndex.Merged merged = ShardIndex.merge(partialIndexFilePaths);
+
+            Path mergedFilePath = merged.getArxmls().get(0).getFilePath();
+            assertEquals(ArxmlArchives.getDiscoveredArchivePath(mergedFilePath), zipPath);
+            assertArrayEquals(writeTags(merged.getArxmls(), merged.getIndex()), expected);
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * シャードが欠けている・重複している場合はマージできないことを確認。
+     */
+    @Test
+    public void testMerge_InvalidShards() {
+        try {
+            List<Path> partialIndexFilePaths = writeShards(3);
+
+            assertThrows(IOException.class, () -> ShardIndex.merge(partialIndexFilePaths.subList(0, 2)));
+            assertThrows(IOException.class, () -> ShardIndex.merge(Arrays.asList(
+                    partialIndexFilePaths.get(0), partialIndexFilePaths.get(1),
+                    partialIndexFilePaths.get(1), partialIndexFilePaths.get(2))));
+
+            // 異なるシャード数の部分インデックスは混ぜられない
+            List<Path> otherPartialIndexFilePaths = writeShards(2);
+            assertThrows(IOException.class, () -> ShardIndex.merge(Arrays.asList(
+                    partialIndexFilePaths.get(0), otherPartialIndexFilePaths.get(1))));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 全ファイルがいずれか 1 つのシャードに、何度実行しても同じように割り当てられることを確認。
+     */
+    @Test
+    public void testPartition() {
+        try {
+            int[] shards = ShardIndex.partition(arxmls, 3);
+            assertArrayEquals(ShardIndex.partition(arxmls, 3), shards);
+
+            int selectedCount = 0;
+            for (int shard = 1; shard <= 3; shard++) {
+                List<Arxml> selected = ShardIndex.select(arxmls, shards, shard);
+                assertFalse(selected.isEmpty());
+                selectedCount += selected.size();
+            }
+            assertEquals(selectedCount, arxmls.size());
+
+            assertThrows(IllegalArgumentException.class, () -> IndexCommand.parseShard("0/3"));
+            assertThrows(IllegalArgumentException.class, () -> IndexCommand.parseShard("4/3"));
+            assertThrows(IllegalArgumentException.class, () -> IndexCommand.parseShard("1"));
+            assertArrayEquals(IndexCommand.parseShard("2/3"), new int[] {2, 3});
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    private List<Path> writeShards(int shardCount)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        int[] shards = ShardIndex.partition(arxmls, shardCount);
+        List<Path> partialIndexFilePaths = new ArrayList<>();
+        for (int shard = 1; shard <= shardCount; shard++) {
+            ArxmlIndex index = new IndexingPipeline(2).buildIndex(ShardIndex.select(arxmls, shards, shard));
+            Path partialIndexFilePath = workDirectory.resolve("shard-" + shard + "-of-" + shardCount);
+            ShardIndex.write(partialIndexFilePath, arxmls, shards, shard, shardCount, index);
+            partialIndexFilePaths.add(partialIndexFilePath);
+        }
+        return partialIndexFilePaths;
+    }
+
+    private static byte[] writeTags(List<Arxml> arxmls, ArxmlIndex index)
+            throws SAXException,
+                    ParserConfigurationException,
+                    IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagsFileWriter writer = new TagsFileWriter(
+                    Channels.newChannel(out), StandardCharsets.UTF_8, BASE_DIR_PATH, true, 10, true)) {
+            new IndexingPipeline(2).writeRecords(arxmls, index, writer::write);
+            writer.finish();
+        }
+        return out.toByteArray();
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("artags");
+        arxmls = new ArxmlFinder(
+                Arrays.asList("./src/test/resources/nested_directory_files/", "./src/test/resources/one_file/"),
+                null, Collections.emptyList(), Collections.emptyList()).find(1);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        ArxmlArchives.close(workDirectory.resolve("bundle.zip"));
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+        }
+    }
+}
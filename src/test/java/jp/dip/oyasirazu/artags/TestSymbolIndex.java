@@ -0,0 +1,188 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import jp.dip.oyasirazu.artags.Artags.Arxml;
+import jp.dip.oyasirazu.artags.ArxmlIndex.Definition;
+import jp.dip.oyasirazu.artags.SymbolIndex.Symbol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * TestSymbolIndex
+ */
+public class TestSymbolIndex {
+
+    private Path tempDir;
+
+    /**
+     * AR 階層パスで引いた結果が、 ArxmlIndex で引いた結果と一致することを確認。
+     */
+    @Test
+    public void testFind() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(Arrays.asList("./src/test/resources/"), null);
+            ArxmlIndex index = ArxmlIndex.build(arxmls);
+            Path indexFilePath = tempDir.resolve(SymbolIndex.FILE_NAME_DEFAULT);
+            SymbolIndex.write(index, indexFilePath);
+
+            try (SymbolIndex symbolIndex = SymbolIndex.open(indexFilePath)) {
+                int size = index.readPackageTree(ArPackageTree::size);
+                assertEquals(symbolIndex.size(), size);
+
+                // 同じパスの定義が複数ファイルにある
+                List<Definition> expected = index.findDefinitions("/BaseTypes/sint8");
+                assertTrue(expected.size() > 1);
+                for (String arHierarchyPath : Arrays.asList("/BaseTypes/sint8", "/ImplDataTypes/ImplDataType")) {
+                    List<String> expectedStrs = index.findDefinitions(arHierarchyPath).stream()
+                            .map(d -> toString(d, indexFilePath))
+                            .sorted()
+                            .collect(Collectors.toList());
+                    List<String> actualStrs = symbolIndex.find(arHierarchyPath).stream()
+                            .map(TestSymbolIndex::toString)
+                            .collect(Collectors.toList());
+                    assertEquals(actualStrs, expectedStrs);
+                }
+
+                assertTrue(symbolIndex.find("/BaseTypes").stream()
+                        .allMatch(s -> s.getArHierarchyPath().equals("/BaseTypes")));
+                assertTrue(symbolIndex.find("/BaseTypes/sint").isEmpty());
+                assertTrue(symbolIndex.find("/NotFound").isEmpty());
+                assertTrue(symbolIndex.find("").isEmpty());
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 前方一致と SHORT-NAME で引けることを確認。
+     */
+    @Test
+    public void testFindByPrefixAndName() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(
+                    Arrays.asList("./src/test/resources/nested_directory_files/"), null);
+            Path indexFilePath = tempDir.resolve(SymbolIndex.FILE_NAME_DEFAULT);
+            SymbolIndex.write(ArxmlIndex.build(arxmls), indexFilePath);
+
+            try (SymbolIndex symbolIndex = SymbolIndex.open(indexFilePath)) {
+                List<String> paths = symbolIndex.findByPrefix("/SystemDescription/Interface").stream()
+                        .map(Symbol::getArHierarchyPath)
+                        .collect(Collectors.toList());
+                assertEquals(paths, Arrays.asList(
+                        "/SystemDescription/Interface",
+                        "/SystemDescription/Interface/Operation",
+                        "/SystemDescription/Interface/Operation/angle"));
+                assertEquals(symbolIndex.findByPrefix("").size(), symbolIndex.size());
+                assertTrue(symbolIndex.findByPrefix("/Z").isEmpty());
+
+                List<Symbol> symbols = symbolIndex.findByName("Operation");
+                assertEquals(symbols.size(), 1);
+                assertEquals(symbols.get(0).getArHierarchyPath(), "/SystemDescription/Interface/Operation");
+                assertEquals(symbols.get(0).getShortName(), "Operation");
+                assertEquals(symbols.get(0).getType(), "CLIENT-SERVER-OPERATION");
+                assertEquals(symbols.get(0).getLineNumber(), 11);
+                assertTrue(symbolIndex.findByName("Operatio").isEmpty());
+            }
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * lookup サブコマンドの出力と終了コードを確認。
+     */
+    @Test
+    public void testLookupCommand() {
+        try {
+            List<Arxml> arxmls = Artags.findArxmls(
+                    Arrays.asList("./src/test/resources/nested_directory_files/"), null);
+            Path indexFilePath = tempDir.resolve(SymbolIndex.FILE_NAME_DEFAULT);
+            SymbolIndex.write(ArxmlIndex.build(arxmls), indexFilePath);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int exitCode = LookupCommand.run(
+                    new String[] {"-f", indexFilePath.toString(), "/SystemDescription/Interface/Operation"},
+                    new ByteArrayInputStream(new byte[0]),
+                    new PrintStream(out, true, StandardCharsets.UTF_8));
+            assertEquals(exitCode, LookupCommand.EXIT_FOUND);
+            String expectedFilePath = tempDir.toAbsolutePath()
+                    .relativize(Paths.get("./src/test/resources/nested_directory_files/system/system.arxml")
+                            .toAbsolutePath().normalize())
+                    .toString();
+            assertEquals(out.toString(StandardCharsets.UTF_8),
+                    "/SystemDescription/Interface/Operation\t" + expectedFilePath + "\t11\tCLIENT-SERVER-OPERATION"
+                    + System.lineSeparator());
+
+            // 検索語を指定しない場合は入力から読み込む
+            out.reset();
+            exitCode = LookupCommand.run(
+                    new String[] {"-f", indexFilePath.toString()},
+                    new ByteArrayInputStream("/BaseTypes/sint8\n/NotFound\n".getBytes(StandardCharsets.UTF_8)),
+                    new PrintStream(out, true, StandardCharsets.UTF_8));
+            assertEquals(exitCode, LookupCommand.EXIT_NOT_FOUND);
+            assertTrue(out.toString(StandardCharsets.UTF_8).startsWith("/BaseTypes/sint8\t"));
+        } catch (SAXException
+                | ParserConfigurationException
+                | IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * バイナリインデックスでないファイルは開けないことを確認。
+     */
+    @Test
+    public void testOpen_Invalid() throws IOException {
+        Path filePath = tempDir.resolve("invalid.idx");
+        Files.write(filePath, "!_TAG_FILE_FORMAT\t2\t/extended format/\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> SymbolIndex.open(filePath));
+    }
+
+    private static String toString(Definition definition, Path indexFilePath) {
+        return definition.getArHierarchyPath() + "\t"
+                + ArxmlArchives.toPathString(definition.getFilePath(), indexFilePath.toAbsolutePath().getParent())
+                + "\t" + definition.getLineNumber() + "\t" + definition.getType();
+    }
+
+    private static String toString(Symbol symbol) {
+        return symbol.getArHierarchyPath() + "\t" + symbol.getFilePath()
+                + "\t" + symbol.getLineNumber() + "\t" + symbol.getType();
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import jp.dip.oyasirazu.artags.Artags.Record;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TestTagsFileWriter
+ */
+public class TestTagsFileWriter {
+
+    private static final Path BASE_DIR_PATH = Paths.get("./src/test/resources");
+
+    private static final Record RECORD_1 = new Record(
+            "sint8",
+            Paths.get("./src/test/resources/AUTOSAR_Platform.arxml"),
+            "30",
+            "IMPLEMENTATION-DATA-TYPE",
+            "/AUTOSAR_Platform/ImplementationDataTypes/sint8");
+
+    private static final Record RECORD_2 = new Record(
+            "Port",
+            Paths.get("./src/test/resources/sub/Component.arxml"),
+            "12",
+            "P-PORT-PROTOTYPE",
+            "/Components/Swc/Port");
+
+    @Test
+    public void testWrite_Unsorted() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagsFileWriter writer = new TagsFileWriter(
+                    Channels.newChannel(out), StandardCharsets.UTF_8, BASE_DIR_PATH, false, 10, false)) {
+            writer.write(RECORD_1);
+            writer.write(RECORD_2);
+            writer.finish();
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+
+        assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8),
+                RECORD_1.buildRecordString(BASE_DIR_PATH) + "\n"
+                + RECORD_2.buildRecordString(BASE_DIR_PATH) + "\n");
+    }
+
+    @Test
+    public void testWrite_Sorted() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagsFileWriter writer = new TagsFileWriter(
+                    Channels.newChannel(out), StandardCharsets.UTF_8, BASE_DIR_PATH, true, 10, true)) {
+            writer.write(RECORD_1);
+            writer.write(RECORD_2);
+            writer.finish();
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(lines.length, 6);
+        assertEquals(lines[1], "!_TAG_FILE_SORTED\t1\t/0=unsorted, 1=sorted, 2=foldcase/");
+        assertEquals(lines[4], "Port\tsub/Component.arxml\t12;\"\t\t/Components/Swc/Port (P-PORT-PROTOTYPE)\tfile:");
+        assertEquals(lines[5], RECORD_1.buildRecordString(BASE_DIR_PATH));
+    }
+
+    /**
+     * ソートして追記する場合、既存のレコードとまとめてソートし直されることを確認。
+     */
+    @Test
+    public void testAppend_Sorted() {
+        Path tagsFilePath = null;
+        try {
+            tagsFilePath = Files.createTempFile("artags", ".tags");
+            writeTags(tagsFilePath, StandardCharsets.UTF_8, RECORD_1, true);
+
+            // 既存のファイルより短くなる場合も、古い内容が残らない
+            try (FileChannel channel = FileChannel.open(tagsFilePath, StandardOpenOption.WRITE);
+                    TagsFileWriter writer = new TagsFileWriter(
+                        channel, StandardCharsets.UTF_8, BASE_DIR_PATH, true, 1, true)) {
+                writer.addExisting(tagsFilePath);
+                writer.write(RECORD_2);
+                writer.finish();
+            }
+
+            List<String> lines = Files.readAllLines(tagsFilePath, StandardCharsets.UTF_8);
+            assertEquals(lines.size(), 6);
+            assertEquals(lines.get(1), "!_TAG_FILE_SORTED\t1\t/0=unsorted, 1=sorted, 2=foldcase/");
+            assertEquals(lines.get(4), RECORD_2.buildRecordString(BASE_DIR_PATH));
+            assertEquals(lines.get(5), RECORD_1.buildRecordString(BASE_DIR_PATH));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        } finally {
+            deleteIfExists(tagsFilePath);
+        }
+    }
+
+    /**
+     * ソートせずに追記する場合、既存の擬似タグがソートされていない旨に書き換えられることを確認。
+     */
+    @Test
+    public void testAppend_Unsorted() {
+        Path tagsFilePath = null;
+        try {
+            tagsFilePath = Files.createTempFile("artags", ".tags");
+            writeTags(tagsFilePath, StandardCharsets.UTF_8, RECORD_2, true);
+
+            TagsFileWriter.markUnsorted(tagsFilePath, StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(tagsFilePath, StandardOpenOption.APPEND);
+                    TagsFileWriter writer = new TagsFileWriter(
+                        channel, StandardCharsets.UTF_8, BASE_DIR_PATH, false, 1, false)) {
+                writer.write(RECORD_1);
+                writer.finish();
+            }
+
+            List<String> lines = Files.readAllLines(tagsFilePath, StandardCharsets.UTF_8);
+            assertEquals(lines.size(), 6);
+            assertEquals(lines.get(1), "!_TAG_FILE_SORTED\t0\t/0=unsorted, 1=sorted, 2=foldcase/");
+            assertEquals(lines.get(4), RECORD_2.buildRecordString(BASE_DIR_PATH));
+            assertEquals(lines.get(5), RECORD_1.buildRecordString(BASE_DIR_PATH));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        } finally {
+            deleteIfExists(tagsFilePath);
+        }
+    }
+
+    /**
+     * BOM が付く文字コードでも、擬似タグをソートされていない旨に書き換えられることを確認。
+     */
+    @Test
+    public void testMarkUnsorted_Utf16() {
+        Path tagsFilePath = null;
+        try {
+            tagsFilePath = Files.createTempFile("artags", ".tags");
+            writeTags(tagsFilePath, StandardCharsets.UTF_16, RECORD_1, true);
+
+            TagsFileWriter.markUnsorted(tagsFilePath, StandardCharsets.UTF_16);
+
+            String[] lines = new String(Files.readAllBytes(tagsFilePath), StandardCharsets.UTF_16).split("\n");
+            assertEquals(lines.length, 5);
+            assertEquals(lines[1], "!_TAG_FILE_SORTED\t0\t/0=unsorted, 1=sorted, 2=foldcase/");
+            assertEquals(lines[4], RECORD_1.buildRecordString(BASE_DIR_PATH));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        } finally {
+            deleteIfExists(tagsFilePath);
+        }
+    }
+
+    /**
+     * 出力バッファを超える量のマルチバイト文字を出力しても、文字化けしないことを確認。
+     */
+    @Test
+    public void testWrite_LargeOutput() {
+        Charset charset = Charset.forName("Shift_JIS");
+        StringBuilder expected = new StringBuilder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagsFileWriter writer = new TagsFileWriter(
+                    Channels.newChannel(out), charset, BASE_DIR_PATH, false, 10, false)) {
+            for (int i = 0; i < TagsFileWriter.BUFFER_SIZE / 32; i++) {
+                Record record = new Record(
+                        "シンボル" + i,
+                        RECORD_2.getFilePath(),
+                        String.valueOf(i),
+                        "P-PORT-PROTOTYPE",
+                        "/パッケージ/シンボル" + i);
+                writer.write(record);
+                expected.append(record.buildRecordString(BASE_DIR_PATH)).append('\n');
+            }
+            writer.finish();
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+
+        assertTrue(out.size() > TagsFileWriter.BUFFER_SIZE);
+        assertEquals(new String(out.toByteArray(), charset), expected.toString());
+    }
+
+    private static void writeTags(Path tagsFilePath, Charset charset, Record record, boolean isSorted) throws IOException {
+        try (FileChannel channel = FileChannel.open(tagsFilePath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                TagsFileWriter writer = new TagsFileWriter(channel, charset, BASE_DIR_PATH, isSorted, 1, true)) {
+            writer.write(record);
+            writer.finish();
+        }
+    }
+
+    private static void deleteIfExists(Path filePath) {
+        if (filePath != null) {
+            filePath.toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package jp.dip.oyasirazu.artags;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * TestTempFiles
+ */
+public class TestTempFiles {
+
+    private Path workDirectory;
+
+    /**
+     * 置き換えるファイルが無い場合、通常のファイルと同じパーミッションで一時ファイルが作られることを確認。
+     */
+    @Test
+    public void testCreateTempFile_New() {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        try {
+            Path filePath = workDirectory.resolve("tags");
+            Path tmpFilePath = TempFiles.createTempFile(filePath);
+            Path plainFilePath = Files.createFile(workDirectory.resolve("plain"));
+
+            assertEquals(tmpFilePath.getParent(), workDirectory.toAbsolutePath());
+            assertTrue(tmpFilePath.getFileName().toString().startsWith("tags."));
+            assertEquals(Files.getPosixFilePermissions(tmpFilePath), Files.getPosixFilePermissions(plainFilePath));
+            assertFalse(Files.exists(filePath));
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    /**
+     * 置き換えるファイルがある場合、そのパーミッションが一時ファイルに引き継がれることを確認。
+     */
+    @Test
+    public void testCreateTempFile_Existing() {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        try {
+            Path filePath = Files.createFile(workDirectory.resolve("tags"));
+            Files.setPosixFilePermissions(filePath, PosixFilePermissions.fromString("rw-rw-r--"));
+
+            Path tmpFilePath = TempFiles.createTempFile(filePath);
+            assertEquals(Files.getPosixFilePermissions(tmpFilePath), PosixFilePermissions.fromString("rw-rw-r--"));
+            assertNotEquals(TempFiles.createTempFile(filePath), tmpFilePath);
+        } catch (IOException e) {
+            fail("例外が出ちゃいましたねー : " + e.getMessage());
+        }
+    }
+
+    @BeforeEach
+    public void setup() throws IOException {
+        workDirectory = Files.createTempDirectory("artags");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+        }
+    }
+}